@@ -28,6 +28,7 @@ package cientistavuador.newrenderingpipeline;
 
 import cientistavuador.newrenderingpipeline.camera.FreeCamera;
 import cientistavuador.newrenderingpipeline.debug.AabRender;
+import cientistavuador.newrenderingpipeline.debug.AllocationCounter;
 import cientistavuador.newrenderingpipeline.debug.LineRender;
 import cientistavuador.newrenderingpipeline.newrendering.N3DModel;
 import cientistavuador.newrenderingpipeline.newrendering.N3DModelStore;
@@ -43,6 +44,8 @@ import cientistavuador.newrenderingpipeline.newrendering.NLight;
 import cientistavuador.newrenderingpipeline.newrendering.NLightmaps;
 import cientistavuador.newrenderingpipeline.newrendering.NLightmapsStore;
 import cientistavuador.newrenderingpipeline.newrendering.NMap;
+import cientistavuador.newrenderingpipeline.newrendering.NShadowCache;
+import cientistavuador.newrenderingpipeline.newrendering.NSoftwareOcclusion;
 import cientistavuador.newrenderingpipeline.newrendering.NTextures;
 import cientistavuador.newrenderingpipeline.physics.PlayerController;
 import cientistavuador.newrenderingpipeline.popups.BakePopup;
@@ -304,7 +307,8 @@ public class Game {
             this.playerController.getCharacterController().setPosition(0f, 0.1f, 0f);
         }
 
-        this.triceratops.getAnimator().update(Main.TPF);
+        NAnimator.queueUpdate(this.triceratops.getAnimator());
+        NAnimator.updateQueued(Main.TPF);
 
         this.plasticBallRotation.rotateY((float) (Main.TPF * 0.5));
         this.plasticBall.getPosition().set(this.plasticBallRotation).mul(3f).add(15.29, 1.95, -9.52);
@@ -313,6 +317,9 @@ public class Game {
         this.flashlight.getDirection().set(this.camera.getFront());
 
         if (this.nextMap != null) {
+            if (this.map != null) {
+                this.nextMap.setOcclusionMode(this.map.getOcclusionMode());
+            }
             this.map = this.nextMap;
 
             this.triceratops.setMap(this.map);
@@ -369,6 +376,16 @@ public class Game {
         }
 
         Main.WINDOW_TITLE += " (DrawCalls: " + Main.NUMBER_OF_DRAWCALLS + ", Vertices: " + Main.NUMBER_OF_VERTICES + ")";
+        Main.WINDOW_TITLE += " (Shadow Cache: " + String.format("%,.1f", NShadowCache.getFrameHitRate() * 100f) + "%, Deferred: " + NShadowCache.FRAME_DEFERRED + ", Refreshes: " + NShadowCache.FRAME_REFRESHES + ", " + String.format("%,.2f", NShadowCache.FRAME_REFRESH_TIME / 1E6) + "ms)";
+        Main.WINDOW_TITLE += " (Uniforms: " + N3DObjectRenderer.UNIFORM_CALLS_ISSUED + " issued, " + N3DObjectRenderer.UNIFORM_CALLS_SKIPPED + " skipped)";
+        if (this.map != null && this.map.getOcclusionMode() == NMap.OcclusionMode.SOFTWARE) {
+            Main.WINDOW_TITLE += " (Software Occlusion: " + String.format("%,.1f", NSoftwareOcclusion.getFrameCullingRate() * 100f) + "% culled, " + String.format("%,.2f", NSoftwareOcclusion.FRAME_RASTERIZATION_TIME / 1E6) + "ms raster, " + String.format("%,.2f", NSoftwareOcclusion.FRAME_TEST_TIME / 1E6) + "ms test)";
+        } else if (this.map != null) {
+            Main.WINDOW_TITLE += " (Occlusion: " + this.map.getOcclusionMode() + ")";
+        }
+        if (AllocationCounter.isSupported()) {
+            Main.WINDOW_TITLE += " (Render Alloc: " + N3DObjectRenderer.RENDER_ALLOCATED_BYTES + " bytes)";
+        }
         Main.WINDOW_TITLE += " (x:" + String.format("%,.2f", this.camera.getPosition().x()) + ",y:" + String.format("%,.2f", this.camera.getPosition().y()) + ",z:" + String.format("%,.2f", this.camera.getPosition().z()) + ")";
         Main.WINDOW_TITLE += " (dx:" + String.format("%,.2f", this.camera.getFront().x()) + ",dy:" + String.format("%,.2f", this.camera.getFront().y()) + ",dz:" + String.format("%,.2f", this.camera.getFront().z()) + ")";
         Main.WINDOW_TITLE += " (p:" + String.format("%,.2f", this.camera.getRotation().x()) + ",y:" + String.format("%,.2f", this.camera.getRotation().y()) + ",r:" + String.format("%,.2f", this.camera.getRotation().z()) + ")";
@@ -472,36 +489,27 @@ public class Game {
             N3DObjectRenderer.HDR_OUTPUT = true;
             N3DObjectRenderer.REFLECTIONS_DEBUG = false;
 
-            List<NCubemap> cubemapsList = new ArrayList<>();
-            for (int i = 0; i < this.cubemapNames.length; i++) {
-                String name = this.cubemapNames[i];
-                NCubemapBox info = this.cubemapInfos[i];
-
-                for (int j = 0; j < this.map.getNumberOfObjects(); j++) {
-                    N3DObjectRenderer.queueRender(this.map.getObject(j));
-                }
-
-                NCubemap cubemap = NCubemapRenderer.render(
-                        name,
-                        info,
-                        256,
-                        8,
-                        this.lights,
-                        this.cubemaps
-                );
-
-                cubemapsList.add(cubemap);
+            for (int j = 0; j < this.map.getNumberOfObjects(); j++) {
+                N3DObjectRenderer.queueRender(this.map.getObject(j));
             }
 
-            for (NCubemap cubemap : cubemapsList) {
-                try {
-                    try (FileOutputStream out = new FileOutputStream(cubemap.getName() + ".cbm")) {
-                        NCubemapStore.writeCubemap(cubemap, out);
+            List<NCubemap> cubemapsList = NCubemapRenderer.renderBatch(
+                    this.cubemapNames,
+                    this.cubemapInfos,
+                    256,
+                    8,
+                    this.lights,
+                    this.cubemaps,
+                    (index, cubemap) -> {
+                        try {
+                            try (FileOutputStream out = new FileOutputStream(cubemap.getName() + ".cbm")) {
+                                NCubemapStore.writeCubemap(cubemap, out);
+                            }
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
                     }
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
-                }
-            }
+            );
 
             this.cubemaps = new NCubemaps(this.skybox, cubemapsList);
 
@@ -513,6 +521,10 @@ public class Game {
         if (key == GLFW_KEY_F6 && action == GLFW_PRESS) {
             this.ambientCubeDebug = !this.ambientCubeDebug;
         }
+        if (key == GLFW_KEY_F7 && action == GLFW_PRESS && this.map != null) {
+            NMap.OcclusionMode[] modes = NMap.OcclusionMode.values();
+            this.map.setOcclusionMode(modes[(this.map.getOcclusionMode().ordinal() + 1) % modes.length]);
+        }
         if (key == GLFW_KEY_F && action == GLFW_PRESS) {
             if (this.flashlight.getDiffuse().x() == 0f) {
                 this.flashlight.setDiffuseSpecularAmbient(1f);
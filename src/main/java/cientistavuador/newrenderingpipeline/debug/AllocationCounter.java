@@ -0,0 +1,149 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.debug;
+
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ *
+ * @author Cien
+ */
+public class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean BEAN;
+    
+    static {
+        com.sun.management.ThreadMXBean bean = null;
+        try {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (threadBean instanceof com.sun.management.ThreadMXBean e
+                    && e.isThreadAllocatedMemorySupported()) {
+                if (!e.isThreadAllocatedMemoryEnabled()) {
+                    e.setThreadAllocatedMemoryEnabled(true);
+                }
+                bean = e;
+            }
+        } catch (UnsupportedOperationException | SecurityException ex) {
+            bean = null;
+        }
+        BEAN = bean;
+    }
+    
+    public static boolean isSupported() {
+        return BEAN != null;
+    }
+    
+    public static long getCurrentThreadAllocatedBytes() {
+        if (BEAN == null) {
+            return 0;
+        }
+        return BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    //Thread.getId is deprecated since 19 for threadId, which does not exist
+    //in 17, the version this project targets
+    @SuppressWarnings("deprecation")
+    private static long idOf(Thread thread) {
+        return thread.getId();
+    }
+
+    private static long allocatedBytesOf(Thread thread) {
+        return BEAN.getThreadAllocatedBytes(idOf(thread));
+    }
+
+    /**
+     * Counts the bytes allocated by the thread that takes it and by every
+     * thread of the {@link SharedExecutor} since it was taken, unrelated shared
+     * tasks running at the same time are counted as well.
+     * <p>
+     * A shared thread that was not seen when the snapshot was taken, because
+     * it started or replaced another one since, is counted from 0. Taking and
+     * reading a snapshot allocates nothing.
+     */
+    public static class Snapshot {
+
+        private final Thread[] threads = new Thread[SharedExecutor.NUMBER_OF_THREADS];
+        private final long[] threadsBytes = new long[SharedExecutor.NUMBER_OF_THREADS];
+        private long currentBytes = 0;
+
+        public Snapshot() {
+
+        }
+
+        public void take() {
+            if (BEAN == null) {
+                return;
+            }
+            Thread current = Thread.currentThread();
+            for (int i = 0; i < this.threads.length; i++) {
+                Thread thread = SharedExecutor.getThread(i);
+                long bytes = 0;
+                if (thread == current) {
+                    thread = null;
+                } else if (thread != null) {
+                    bytes = Math.max(allocatedBytesOf(thread), 0);
+                }
+                this.threads[i] = thread;
+                this.threadsBytes[i] = bytes;
+            }
+            this.currentBytes = BEAN.getCurrentThreadAllocatedBytes();
+        }
+
+        /**
+         * Must be called on the thread that took the snapshot.
+         *
+         * @return the bytes allocated since the snapshot was taken
+         */
+        public long getAllocatedBytes() {
+            if (BEAN == null) {
+                return 0;
+            }
+            long bytes = BEAN.getCurrentThreadAllocatedBytes() - this.currentBytes;
+            Thread current = Thread.currentThread();
+            for (int i = 0; i < this.threads.length; i++) {
+                Thread thread = SharedExecutor.getThread(i);
+                if (thread == null || thread == current) {
+                    continue;
+                }
+                long threadBytes = allocatedBytesOf(thread);
+                if (threadBytes < 0) {
+                    continue;
+                }
+                long before = (thread == this.threads[i] ? this.threadsBytes[i] : 0);
+                bytes += Math.max(threadBytes - before, 0);
+            }
+            return bytes;
+        }
+    }
+    
+    private AllocationCounter() {
+
+    }
+
+}
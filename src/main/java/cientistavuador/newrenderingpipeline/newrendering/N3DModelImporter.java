@@ -28,6 +28,7 @@ package cientistavuador.newrenderingpipeline.newrendering;
 
 import cientistavuador.newrenderingpipeline.util.MeshUtils;
 import cientistavuador.newrenderingpipeline.util.Pair;
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -40,10 +41,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import org.joml.Matrix4f;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.*;
@@ -83,15 +87,191 @@ public class N3DModelImporter {
         Assimp.aiSetImportPropertyInteger(DEFAULT_PROPERTIES, AI_CONFIG_PP_SBBC_MAX_BONES, NMesh.MAX_AMOUNT_OF_BONES);
     }
 
-    public static N3DModel importFromFile(String file) {
-        Objects.requireNonNull(file, "File is null.");
-        AIScene modelScene = Assimp.aiImportFileExWithProperties(
+    public static class ImportTimings {
+
+        private final AtomicLong parseTime = new AtomicLong();
+        private final AtomicLong animationsTime = new AtomicLong();
+        private final AtomicLong imagesTime = new AtomicLong();
+        private final AtomicLong materialsTime = new AtomicLong();
+        private final AtomicLong meshesTime = new AtomicLong();
+        private final AtomicLong nodesTime = new AtomicLong();
+        private volatile long totalTime = 0;
+
+        private ImportTimings() {
+
+        }
+
+        public long getParseTime() {
+            return this.parseTime.get();
+        }
+
+        public long getAnimationsTime() {
+            return this.animationsTime.get();
+        }
+
+        public long getImagesTime() {
+            return this.imagesTime.get();
+        }
+
+        public long getMaterialsTime() {
+            return this.materialsTime.get();
+        }
+
+        public long getMeshesTime() {
+            return this.meshesTime.get();
+        }
+
+        public long getNodesTime() {
+            return this.nodesTime.get();
+        }
+
+        public long getTotalTime() {
+            return this.totalTime;
+        }
+
+        @Override
+        public String toString() {
+            return "parse: " + String.format("%,.3f", this.parseTime.get() / 1E6) + "ms"
+                    + ", animations: " + String.format("%,.3f", this.animationsTime.get() / 1E6) + "ms"
+                    + ", images: " + String.format("%,.3f", this.imagesTime.get() / 1E6) + "ms"
+                    + ", materials: " + String.format("%,.3f", this.materialsTime.get() / 1E6) + "ms"
+                    + ", meshes: " + String.format("%,.3f", this.meshesTime.get() / 1E6) + "ms"
+                    + ", nodes: " + String.format("%,.3f", this.nodesTime.get() / 1E6) + "ms"
+                    + ", total: " + String.format("%,.3f", this.totalTime / 1E6) + "ms";
+        }
+    }
+
+    public static class BatchResult {
+
+        private final N3DModel[] models;
+        private final ImportTimings timings;
+
+        private BatchResult(N3DModel[] models, ImportTimings timings) {
+            this.models = models;
+            this.timings = timings;
+        }
+
+        public int getNumberOfModels() {
+            return this.models.length;
+        }
+
+        public N3DModel getModel(int index) {
+            return this.models[index];
+        }
+
+        public ImportTimings getTimings() {
+            return this.timings;
+        }
+    }
+
+    //the assimp error string is global, imports run in parallel under the read
+    //lock and a failed import is repeated under the write lock, so the error
+    //read belongs to that import and not to another failed file
+    private static final ReentrantReadWriteLock IMPORT_LOCK = new ReentrantReadWriteLock();
+
+    private static AIScene importScene(Supplier<AIScene> importer, String name) {
+        AIScene modelScene;
+        IMPORT_LOCK.readLock().lock();
+        try {
+            modelScene = importer.get();
+        } finally {
+            IMPORT_LOCK.readLock().unlock();
+        }
+        if (isValid(modelScene)) {
+            return modelScene;
+        }
+        if (modelScene != null) {
+            aiFreeScene(modelScene);
+        }
+        IMPORT_LOCK.writeLock().lock();
+        try {
+            modelScene = importer.get();
+            validate(modelScene, name);
+            return modelScene;
+        } finally {
+            IMPORT_LOCK.writeLock().unlock();
+        }
+    }
+
+    private static AIScene parseFile(String file, ImportTimings timings) {
+        long start = System.nanoTime();
+        AIScene modelScene = importScene(() -> Assimp.aiImportFileExWithProperties(
                 file,
                 DEFAULT_FLAGS,
                 null,
                 DEFAULT_PROPERTIES
-        );
-        return process(modelScene);
+        ), file);
+        timings.parseTime.addAndGet(System.nanoTime() - start);
+        return modelScene;
+    }
+
+    public static N3DModel importFromFile(String file) {
+        Objects.requireNonNull(file, "File is null.");
+        return process(parseFile(file, new ImportTimings()));
+    }
+
+    /**
+     * Imports all files at once, scenes are parsed in parallel and the
+     * images, materials and meshes of every scene are processed together in
+     * the shared executor, the models are returned in the same order as the
+     * files.
+     *
+     * @param files the files to import
+     * @return the imported models and the time spent in each stage
+     */
+    public static BatchResult importFromFiles(List<String> files) {
+        Objects.requireNonNull(files, "Files is null.");
+        for (String file : files) {
+            Objects.requireNonNull(file, "File is null.");
+        }
+
+        ImportTimings timings = new ImportTimings();
+        long start = System.nanoTime();
+
+        List<Future<AIScene>> parsedScenes = new ArrayList<>();
+        for (String file : files) {
+            parsedScenes.add(SharedExecutor.submit(() -> parseFile(file, timings)));
+        }
+
+        List<N3DModelImporter> importers = new ArrayList<>();
+        Throwable thrown = null;
+        try {
+            for (Future<AIScene> futureScene : parsedScenes) {
+                AIScene modelScene;
+                try {
+                    modelScene = SharedExecutor.await(futureScene, parsedScenes);
+                } catch (InterruptedException | ExecutionException ex) {
+                    throw new RuntimeException(ex);
+                }
+                N3DModelImporter importer = new N3DModelImporter(modelScene, timings);
+                importers.add(importer);
+                importer.submit();
+            }
+
+            N3DModel[] models = new N3DModel[importers.size()];
+            for (int i = 0; i < models.length; i++) {
+                models[i] = importers.get(i).finish();
+            }
+
+            timings.totalTime = System.nanoTime() - start;
+
+            return new BatchResult(models, timings);
+        } catch (Throwable t) {
+            thrown = t;
+            throw t;
+        } finally {
+            List<Throwable> failures = new ArrayList<>();
+            for (N3DModelImporter importer : importers) {
+                importer.free(failures);
+            }
+            for (int i = importers.size(); i < parsedScenes.size(); i++) {
+                AIScene scene = awaitForFree(parsedScenes.get(i), parsedScenes, failures);
+                if (scene != null) {
+                    aiFreeScene(scene);
+                }
+            }
+            rethrowFailures(thrown, failures);
+        }
     }
 
     public static N3DModel importFromJarFile(String jarFile) throws IOException {
@@ -110,12 +290,12 @@ public class N3DModelImporter {
         Objects.requireNonNull(memory, "Memory is null.");
         ByteBuffer nativeMemory = MemoryUtil.memAlloc(memory.length).put(memory).flip();
         try {
-            AIScene modelScene = Assimp.aiImportFileFromMemoryWithProperties(
+            AIScene modelScene = importScene(() -> Assimp.aiImportFileFromMemoryWithProperties(
                     nativeMemory,
                     DEFAULT_FLAGS,
                     "glb",
                     DEFAULT_PROPERTIES
-            );
+            ), null);
 
             return process(modelScene);
         } finally {
@@ -123,41 +303,125 @@ public class N3DModelImporter {
         }
     }
 
-    private static N3DModel process(AIScene modelScene) {
+    private static boolean isValid(AIScene modelScene) {
+        return modelScene != null
+                && (modelScene.mFlags() & AI_SCENE_FLAGS_INCOMPLETE) == 0
+                && modelScene.mRootNode() != null;
+    }
+
+    private static void validate(AIScene modelScene, String name) {
+        if (isValid(modelScene)) {
+            return;
+        }
         String error = aiGetErrorString();
-        if (modelScene == null) {
-            throw new RuntimeException("Failed to import: "+error);
+        if (name != null) {
+            error = name + ": " + error;
         }
+        if (modelScene != null) {
+            aiFreeScene(modelScene);
+        }
+        throw new RuntimeException("Failed to import: "+error);
+    }
 
+    private static N3DModel process(AIScene modelScene) {
+        N3DModelImporter importer = new N3DModelImporter(modelScene, new ImportTimings());
+        Throwable thrown = null;
         try {
-            if ((modelScene.mFlags() & AI_SCENE_FLAGS_INCOMPLETE) != 0) {
-                throw new RuntimeException("Failed to import: "+error);
-            }
+            importer.submit();
+            return importer.finish();
+        } catch (Throwable t) {
+            thrown = t;
+            throw t;
+        } finally {
+            List<Throwable> failures = new ArrayList<>();
+            importer.free(failures);
+            rethrowFailures(thrown, failures);
+        }
+    }
 
-            AINode rootNode = modelScene.mRootNode();
-            if (rootNode == null) {
-                throw new RuntimeException("Failed to import: "+error);
+    //waits even when interrupted, the data the task reads is freed right
+    //after, the interrupt is restored once the task is done
+    private static <T> T awaitForFree(Future<T> task, List<? extends Future<?>> batch, List<Throwable> failures) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return SharedExecutor.await(task, batch);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    failures.add(ex.getCause());
+                    return null;
+                }
             }
-            
-            return new N3DModelImporter(modelScene).process();
         } finally {
-            aiFreeScene(modelScene);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    private final ExecutorService service = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private static boolean isCauseOf(Throwable cause, Throwable thrown) {
+        for (Throwable t = thrown; t != null; t = t.getCause()) {
+            if (t == cause) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //failures that are not already the cause of the thrown exception are
+    //added to it as suppressed, or thrown if the import did not fail
+    private static void rethrowFailures(Throwable thrown, List<Throwable> failures) {
+        RuntimeException unreported = null;
+        for (Throwable failure : failures) {
+            if (thrown != null) {
+                if (!isCauseOf(failure, thrown)) {
+                    thrown.addSuppressed(failure);
+                }
+                continue;
+            }
+            if (unreported == null) {
+                unreported = new RuntimeException(failure);
+            } else {
+                unreported.addSuppressed(failure);
+            }
+        }
+        if (unreported != null) {
+            throw unreported;
+        }
+    }
 
     private final AIScene scene;
+    private final ImportTimings timings;
+    private final List<Future<?>> tasks = new ArrayList<>();
 
     private final List<NAnimation> loadedAnimations = new ArrayList<>();
     private final Map<Integer, String> missingMeshBones = new HashMap<>();
 
-    private final Map<String, NTexturesImporter.LoadedImage> loadedImages = new HashMap<>();
+    private final Map<String, Future<NTexturesImporter.LoadedImage>> loadedImages = new HashMap<>();
     private final Map<Integer, NMaterial> loadedMaterials = new HashMap<>();
     private final Map<Integer, List<NGeometry>> loadedGeometries = new HashMap<>();
 
-    private N3DModelImporter(AIScene scene) {
+    private final List<Future<Pair<Integer, NMaterial>>> futureMaterials = new ArrayList<>();
+    private final List<Future<Pair<Integer, List<NGeometry>>>> futureGeometries = new ArrayList<>();
+
+    private N3DModelImporter(AIScene scene, ImportTimings timings) {
         this.scene = scene;
+        this.timings = timings;
+    }
+
+    private <T> Future<T> submitTask(AtomicLong stageTime, Callable<T> task) {
+        Future<T> future = SharedExecutor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                stageTime.addAndGet(System.nanoTime() - start);
+            }
+        });
+        this.tasks.add(future);
+        return future;
     }
 
     private void loadAnimations() {
@@ -327,7 +591,7 @@ public class N3DModelImporter {
             return;
         }
 
-        List<Future<Pair<Pair<String, Integer>, NTexturesImporter.LoadedImage>>> futureImages = new ArrayList<>();
+        List<Pair<Pair<String, Integer>, Future<NTexturesImporter.LoadedImage>>> futureImages = new ArrayList<>();
 
         int amountOfImages = this.scene.mNumTextures();
         for (int i = 0; i < amountOfImages; i++) {
@@ -344,9 +608,10 @@ public class N3DModelImporter {
                 byte[] data = new byte[tex.mWidth()];
                 tex.pcDataCompressed().get(data);
 
-                futureImages.add(this.service.submit(() -> {
-                    return new Pair<>(new Pair<>(fileName, imageIndex), NTexturesImporter.loadImage(data));
-                }));
+                futureImages.add(new Pair<>(
+                        new Pair<>(fileName, imageIndex),
+                        submitTask(this.timings.imagesTime, () -> NTexturesImporter.loadImage(data))
+                ));
             } else {
                 int width = tex.mWidth();
                 int height = tex.mHeight();
@@ -366,25 +631,22 @@ public class N3DModelImporter {
                     }
                 }
 
-                NTexturesImporter.LoadedImage loaded = new NTexturesImporter.LoadedImage(width, height, data);
+                Future<NTexturesImporter.LoadedImage> loaded = CompletableFuture.completedFuture(
+                        new NTexturesImporter.LoadedImage(width, height, data)
+                );
 
                 this.loadedImages.put(fileName, loaded);
                 this.loadedImages.put("*" + i, loaded);
             }
         }
 
-        for (Future<Pair<Pair<String, Integer>, NTexturesImporter.LoadedImage>> futurePair : futureImages) {
-            try {
-                Pair<Pair<String, Integer>, NTexturesImporter.LoadedImage> pair = futurePair.get();
-                this.loadedImages.put(pair.getA().getA(), pair.getB());
-                this.loadedImages.put("*" + pair.getA().getB(), pair.getB());
-            } catch (InterruptedException | ExecutionException ex) {
-                throw new RuntimeException(ex);
-            }
+        for (Pair<Pair<String, Integer>, Future<NTexturesImporter.LoadedImage>> pair : futureImages) {
+            this.loadedImages.put(pair.getA().getA(), pair.getB());
+            this.loadedImages.put("*" + pair.getA().getB(), pair.getB());
         }
     }
 
-    private NTexturesImporter.LoadedImage getMaterialTexture(AIMaterial material, int type) {
+    private Future<NTexturesImporter.LoadedImage> getMaterialTexture(AIMaterial material, int type) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             AIString pathString = AIString.calloc(stack);
 
@@ -414,8 +676,6 @@ public class N3DModelImporter {
             return;
         }
 
-        List<Future<Pair<Integer, NMaterial>>> futureMaterials = new ArrayList<>();
-
         int amountOfMaterials = this.scene.mNumMaterials();
         for (int i = 0; i < amountOfMaterials; i++) {
             final int materialIndex = i;
@@ -441,28 +701,40 @@ public class N3DModelImporter {
             final int fallbackEmissiveIndex = 10;
             final int fallbackOpacityIndex = 11;
 
-            final NTexturesImporter.LoadedImage[] images = new NTexturesImporter.LoadedImage[12];
+            final List<Future<NTexturesImporter.LoadedImage>> futureImages = new ArrayList<>();
+            for (int j = 0; j < 12; j++) {
+                futureImages.add(null);
+            }
 
-            images[diffuseIndex] = getMaterialTexture(aiMaterial, aiTextureType_BASE_COLOR);
+            futureImages.set(diffuseIndex, getMaterialTexture(aiMaterial, aiTextureType_BASE_COLOR));
 
-            images[aoIndex] = getMaterialTexture(aiMaterial, aiTextureType_AMBIENT_OCCLUSION);
-            images[roughnessIndex] = getMaterialTexture(aiMaterial, aiTextureType_DIFFUSE_ROUGHNESS);
-            images[metallicIndex] = getMaterialTexture(aiMaterial, aiTextureType_METALNESS);
+            futureImages.set(aoIndex, getMaterialTexture(aiMaterial, aiTextureType_AMBIENT_OCCLUSION));
+            futureImages.set(roughnessIndex, getMaterialTexture(aiMaterial, aiTextureType_DIFFUSE_ROUGHNESS));
+            futureImages.set(metallicIndex, getMaterialTexture(aiMaterial, aiTextureType_METALNESS));
 
-            images[heightIndex] = getMaterialTexture(aiMaterial, aiTextureType_HEIGHT);
-            images[normalIndex] = getMaterialTexture(aiMaterial, aiTextureType_NORMALS);
-            images[emissiveIndex] = getMaterialTexture(aiMaterial, aiTextureType_EMISSION_COLOR);
+            futureImages.set(heightIndex, getMaterialTexture(aiMaterial, aiTextureType_HEIGHT));
+            futureImages.set(normalIndex, getMaterialTexture(aiMaterial, aiTextureType_NORMALS));
+            futureImages.set(emissiveIndex, getMaterialTexture(aiMaterial, aiTextureType_EMISSION_COLOR));
 
-            images[fallbackDispIndex] = getMaterialTexture(aiMaterial, aiTextureType_DISPLACEMENT);
-            images[fallbackDiffuseIndex] = getMaterialTexture(aiMaterial, aiTextureType_DIFFUSE);
-            images[fallbackSpecularIndex] = getMaterialTexture(aiMaterial, aiTextureType_SPECULAR);
-            images[fallbackEmissiveIndex] = getMaterialTexture(aiMaterial, aiTextureType_EMISSIVE);
-            images[fallbackOpacityIndex] = getMaterialTexture(aiMaterial, aiTextureType_OPACITY);
+            futureImages.set(fallbackDispIndex, getMaterialTexture(aiMaterial, aiTextureType_DISPLACEMENT));
+            futureImages.set(fallbackDiffuseIndex, getMaterialTexture(aiMaterial, aiTextureType_DIFFUSE));
+            futureImages.set(fallbackSpecularIndex, getMaterialTexture(aiMaterial, aiTextureType_SPECULAR));
+            futureImages.set(fallbackEmissiveIndex, getMaterialTexture(aiMaterial, aiTextureType_EMISSIVE));
+            futureImages.set(fallbackOpacityIndex, getMaterialTexture(aiMaterial, aiTextureType_OPACITY));
 
             final NMaterial material = new NMaterial("material_" + materialIndex);
+            this.loadedMaterials.put(materialIndex, material);
 
             //todo: configure material
-            futureMaterials.add(this.service.submit(() -> {
+            this.futureMaterials.add(submitTask(this.timings.materialsTime, () -> {
+                final NTexturesImporter.LoadedImage[] images = new NTexturesImporter.LoadedImage[futureImages.size()];
+                for (int j = 0; j < images.length; j++) {
+                    Future<NTexturesImporter.LoadedImage> futureImage = futureImages.get(j);
+                    if (futureImage != null) {
+                        images[j] = SharedExecutor.await(futureImage, futureImages);
+                    }
+                }
+
                 int textureWidth = -1;
                 int textureHeight = -1;
 
@@ -605,12 +877,14 @@ public class N3DModelImporter {
                 return new Pair<>(materialIndex, material);
             }));
         }
+    }
 
+    private void finishMaterials() {
         Map<String, NTextures> loadedTextures = new HashMap<>();
 
-        for (Future<Pair<Integer, NMaterial>> futurePair : futureMaterials) {
+        for (Future<Pair<Integer, NMaterial>> futurePair : this.futureMaterials) {
             try {
-                Pair<Integer, NMaterial> pair = futurePair.get();
+                Pair<Integer, NMaterial> pair = SharedExecutor.await(futurePair, this.futureMaterials);
 
                 int index = pair.getA();
                 NMaterial material = pair.getB();
@@ -625,8 +899,6 @@ public class N3DModelImporter {
                 } else {
                     loadedTextures.put(uid, textures);
                 }
-
-                this.loadedMaterials.put(index, material);
             } catch (InterruptedException | ExecutionException ex) {
                 throw new RuntimeException(ex);
             }
@@ -902,8 +1174,6 @@ public class N3DModelImporter {
             return;
         }
 
-        List<Future<Pair<Integer, List<NGeometry>>>> futureGeometries = new ArrayList<>();
-
         int amountOfMeshes = this.scene.mNumMeshes();
         for (int i = 0; i < amountOfMeshes; i++) {
             final int meshIndex = i;
@@ -917,26 +1187,29 @@ public class N3DModelImporter {
                 continue;
             }
 
-            futureGeometries.add(this.service.submit(() -> loadMesh(mesh, meshIndex)));
+            this.futureGeometries.add(submitTask(this.timings.meshesTime, () -> loadMesh(mesh, meshIndex)));
         }
+    }
 
+    private void finishMeshes() {
         Map<String, NMesh> loadedMeshes = new HashMap<>();
 
-        for (Future<Pair<Integer, List<NGeometry>>> futurePair : futureGeometries) {
+        for (Future<Pair<Integer, List<NGeometry>>> futurePair : this.futureGeometries) {
             try {
-                Pair<Integer, List<NGeometry>> pair = futurePair.get();
+                Pair<Integer, List<NGeometry>> pair = SharedExecutor.await(futurePair, this.futureGeometries);
 
                 int geometryIndex = pair.getA();
                 List<NGeometry> geometries = pair.getB();
 
-                for (NGeometry geometry : geometries) {
+                for (int i = 0; i < geometries.size(); i++) {
+                    NGeometry geometry = geometries.get(i);
                     NMesh mesh = geometry.getMesh();
 
                     String sha256 = mesh.getSha256();
                     NMesh alreadyLoaded = loadedMeshes.get(sha256);
 
                     if (alreadyLoaded != null) {
-                        geometry = new NGeometry(geometry.getName(), alreadyLoaded, geometry.getMaterial());
+                        geometries.set(i, new NGeometry(geometry.getName(), alreadyLoaded, geometry.getMaterial()));
                     } else {
                         loadedMeshes.put(sha256, mesh);
                     }
@@ -1004,31 +1277,45 @@ public class N3DModelImporter {
         return recursiveNodeGeneration(this.scene.mRootNode());
     }
     
-    private N3DModel process() {
-        try {
-            loadAnimations();
-            findMissingMeshBones();
-
-            loadImages();
-            loadMaterials();
-            clearImages();
-            loadMeshes();
-            clearMaterials();
-
-            N3DModel finalModel = new N3DModel(
-                    this.scene.mName().dataString(),
-                    generateRootNode(),
-                    this.loadedAnimations.toArray(NAnimation[]::new)
-            );
+    private void submit() {
+        long start = System.nanoTime();
+        loadAnimations();
+        findMissingMeshBones();
+        this.timings.animationsTime.addAndGet(System.nanoTime() - start);
+
+        loadImages();
+        loadMaterials();
+        loadMeshes();
+    }
 
-            if (finalModel.getNumberOfAnimations() > 0) {
-                finalModel.generateAnimatedAabb();
-            }
-            
-            return finalModel;
-        } finally {
-            this.service.shutdownNow();
+    private N3DModel finish() {
+        finishMaterials();
+        clearImages();
+        finishMeshes();
+        clearMaterials();
+
+        long start = System.nanoTime();
+
+        N3DModel finalModel = new N3DModel(
+                this.scene.mName().dataString(),
+                generateRootNode(),
+                this.loadedAnimations.toArray(NAnimation[]::new)
+        );
+
+        if (finalModel.getNumberOfAnimations() > 0) {
+            finalModel.generateAnimatedAabb();
+        }
+
+        this.timings.nodesTime.addAndGet(System.nanoTime() - start);
+
+        return finalModel;
+    }
+
+    private void free(List<Throwable> failures) {
+        for (Future<?> task : this.tasks) {
+            awaitForFree(task, this.tasks, failures);
         }
+        aiFreeScene(this.scene);
     }
 
 }
@@ -31,6 +31,7 @@ import cientistavuador.newrenderingpipeline.util.raycast.BVH;
 import cientistavuador.newrenderingpipeline.util.raycast.BVHStore;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -77,6 +78,15 @@ public class N3DModelStore {
     public static final int VERSION = 1;
     private static final Matrix4fc IDENTITY = new Matrix4f();
     private static final String INDENT = "    ";
+    static final MeshStore.Attribute[] MESH_LAYOUT = {
+        new MeshStore.Attribute(NMesh.OFFSET_POSITION_XYZ, 3, MeshStore.TYPE_FLOAT),
+        new MeshStore.Attribute(NMesh.OFFSET_TEXTURE_XY, 2, MeshStore.TYPE_UNORM16),
+        new MeshStore.Attribute(NMesh.OFFSET_LIGHTMAP_TEXTURE_XY, 2, MeshStore.TYPE_UNORM16),
+        new MeshStore.Attribute(NMesh.OFFSET_NORMAL_XYZ, 3, MeshStore.TYPE_OCTAHEDRAL),
+        new MeshStore.Attribute(NMesh.OFFSET_TANGENT_XYZ, 3, MeshStore.TYPE_OCTAHEDRAL),
+        new MeshStore.Attribute(NMesh.OFFSET_BONE_IDS_XYZW, 4, MeshStore.TYPE_INT8),
+        new MeshStore.Attribute(NMesh.OFFSET_BONE_WEIGHTS_XYZW, 4, MeshStore.TYPE_WEIGHTS8)
+    };
 
     //utility functions
     private static String stringToXML(String s, String name) {
@@ -709,7 +719,6 @@ public class N3DModelStore {
             storeMesh.name = mesh.getName();
             storeMesh.file = generateFileName(fileCounter, mesh.getName(), "msh");
             storeMesh.bvhFile = generateFileName(fileCounter, mesh.getName(), "bvh");
-            storeMesh.sha256 = mesh.getSha256();
 
             storeMesh.min = new Vector3f(mesh.getAabbMin());
             storeMesh.max = new Vector3f(mesh.getAabbMax());
@@ -725,12 +734,22 @@ public class N3DModelStore {
 
             store.meshesObjectMap.put(mesh, storeMesh);
 
+            ByteArrayOutputStream meshBytes = new ByteArrayOutputStream();
+            int[] triangleRemap = MeshStore.encodeOptimized(
+                    mesh.getVertices(), NMesh.VERTEX_SIZE, mesh.getIndices(),
+                    MESH_LAYOUT, meshBytes
+            );
+
+            //the stored mesh is reordered and quantized, hash what will be loaded
+            MeshStore.MeshStoreOutput written = MeshStore.decode(new ByteArrayInputStream(meshBytes.toByteArray()));
+            storeMesh.sha256 = NMesh.sha256(written.vertices(), written.indices());
+
             zipOut.putNextEntry(new ZipEntry(storeMesh.file));
-            MeshStore.encode(mesh.getVertices(), NMesh.VERTEX_SIZE, mesh.getIndices(), zipOut);
+            meshBytes.writeTo(zipOut);
             zipOut.closeEntry();
 
             zipOut.putNextEntry(new ZipEntry(storeMesh.bvhFile));
-            BVHStore.writeBVH(zipOut, mesh.getBVH());
+            BVHStore.writeBVH(zipOut, mesh.getBVH(), triangleRemap);
             zipOut.closeEntry();
         }
 
@@ -82,6 +82,8 @@ public class N3DObject {
 
     private final AmbientCube ambientCube = new AmbientCube();
 
+    private final NShadowCache shadowCache = new NShadowCache();
+
     public N3DObject(String name, N3DModel n3DModel) {
         this.name = name;
         this.n3DModel = n3DModel;
@@ -242,6 +244,9 @@ public class N3DObject {
     }
 
     public void setMap(NMap map) {
+        if (this.map != map) {
+            this.shadowCache.clear();
+        }
         this.map = map;
     }
 
@@ -249,6 +254,10 @@ public class N3DObject {
         return ambientCube;
     }
 
+    public NShadowCache getShadowCache() {
+        return shadowCache;
+    }
+
     public void updateAmbientCube(double pX, double pY, double pZ) {
         if (this.map == null || this.lightmaps != NLightmaps.NULL_LIGHTMAPS) {
             this.ambientCube.zero();
@@ -26,16 +26,20 @@
  */
 package cientistavuador.newrenderingpipeline.newrendering;
 
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.AmbientCube;
 import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.camera.Camera;
+import cientistavuador.newrenderingpipeline.debug.AllocationCounter;
 import cientistavuador.newrenderingpipeline.util.BetterUniformSetter;
 import cientistavuador.newrenderingpipeline.util.GPUOcclusion;
+import cientistavuador.newrenderingpipeline.util.SortUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
@@ -63,22 +67,651 @@ public class N3DObjectRenderer {
 
     public static final Matrix4fc IDENTITY = new Matrix4f();
 
+    //bytes allocated by the whole render call, on the calling thread and on
+    //every shared thread
+    public static long RENDER_ALLOCATED_BYTES = 0;
+    private static final AllocationCounter.Snapshot renderAllocations = new AllocationCounter.Snapshot();
+    public static long UNIFORM_CALLS_ISSUED = 0;
+    public static long UNIFORM_CALLS_SKIPPED = 0;
+
     private static final ConcurrentLinkedQueue<N3DObject> renderQueue = new ConcurrentLinkedQueue<>();
 
     public static N3DObject[] copyQueueObjects() {
         return renderQueue.toArray(N3DObject[]::new);
     }
 
+    public static List<N3DObject> takeQueueObjects() {
+        List<N3DObject> objects = new ArrayList<>();
+        collectObjects(objects);
+        return objects;
+    }
+
     public static void queueRender(N3DObject obj) {
         renderQueue.add(obj);
     }
 
-    private static NProgram.NProgramLight convertToShaderLight(
+    private static class ToRender {
+
+        public N3DObject obj = null;
+        public final Matrix4f transformation = new Matrix4f();
+        public final Matrix4f model = new Matrix4f();
+        public float distanceSquared = 0f;
+        public NGeometry geometry = null;
+        public int texturesId = -1;
+        public int meshId = -1;
+        public int materialId = -1;
+        public int lightsId = -1;
+        public int objectId = -1;
+        public int transformationNode = -1;
+        public long transformationKey = -1;
+        public long cubemapsKey = -1;
+        public final NCubemap[] cubemaps = new NCubemap[NProgram.MAX_AMOUNT_OF_CUBEMAPS];
+        public int numberOfLights = 0;
+        public final int[] lightTypes = new int[NProgram.MAX_AMOUNT_OF_LIGHTS];
+        public final float[] lightData = new float[NProgram.MAX_AMOUNT_OF_LIGHTS * NProgram.LIGHT_DATA_SIZE];
+        public int lightsHash = 0;
+
+        public ToRender() {
+
+        }
+
+        public void clear() {
+            this.obj = null;
+            this.geometry = null;
+            this.texturesId = -1;
+            this.meshId = -1;
+            this.materialId = -1;
+            this.lightsId = -1;
+            this.objectId = -1;
+            this.transformationNode = -1;
+            this.transformationKey = -1;
+            this.cubemapsKey = -1;
+            this.distanceSquared = 0f;
+            Arrays.fill(this.cubemaps, null);
+            this.numberOfLights = 0;
+            Arrays.fill(this.lightTypes, NProgram.NULL_LIGHT_TYPE);
+            Arrays.fill(this.lightData, 0f);
+            this.lightsHash = 0;
+        }
+
+        public void updateLightsHash() {
+            int hash = 7;
+            hash = 31 * hash + this.numberOfLights;
+            hash = 31 * hash + Arrays.hashCode(this.lightTypes);
+            hash = 31 * hash + Arrays.hashCode(this.lightData);
+            this.lightsHash = hash;
+        }
+
+        public boolean equalsLights(ToRender other) {
+            if (other == null) {
+                return false;
+            }
+            if (other == this) {
+                return true;
+            }
+            return this.lightsHash == other.lightsHash
+                    && this.numberOfLights == other.numberOfLights
+                    && Arrays.equals(this.lightTypes, other.lightTypes)
+                    && Arrays.equals(this.lightData, other.lightData);
+        }
+    }
+
+    private static class ToRenderList {
+
+        private ToRender[] elements = new ToRender[64];
+        private long[] keys = new long[64];
+        private int size = 0;
+
+        private ToRender[] elementsBuffer = new ToRender[0];
+        private long[] keysBuffer = new long[0];
+        private final int[] counts = new int[256];
+
+        public ToRenderList() {
+
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        public ToRender get(int index) {
+            return this.elements[index];
+        }
+
+        public long getKey(int index) {
+            return this.keys[index];
+        }
+
+        public void add(ToRender e, long key) {
+            if (this.size >= this.elements.length) {
+                this.elements = Arrays.copyOf(this.elements, this.elements.length * 2);
+                this.keys = Arrays.copyOf(this.keys, this.keys.length * 2);
+            }
+            this.elements[this.size] = e;
+            this.keys[this.size] = key;
+            this.size++;
+        }
+
+        public void add(ToRender e) {
+            add(e, 0L);
+        }
+
+        public void clear() {
+            this.size = 0;
+        }
+
+        public void sortByKey() {
+            if (this.elementsBuffer.length < this.size) {
+                this.elementsBuffer = new ToRender[this.elements.length];
+                this.keysBuffer = new long[this.keys.length];
+            }
+            SortUtils.radixSort(
+                    this.keys, this.elements, this.size,
+                    this.keysBuffer, this.elementsBuffer,
+                    this.counts
+            );
+            Arrays.fill(this.elementsBuffer, 0, this.size, null);
+        }
+    }
+
+    private static class IdentityIds {
+
+        private Object[] objects = new Object[256];
+        private int[] ids = new int[256];
+        private int size = 0;
+
+        public IdentityIds() {
+
+        }
+
+        private void grow() {
+            Object[] oldObjects = this.objects;
+            int[] oldIds = this.ids;
+            this.objects = new Object[oldObjects.length * 2];
+            this.ids = new int[oldIds.length * 2];
+            int mask = this.objects.length - 1;
+            for (int i = 0; i < oldObjects.length; i++) {
+                Object o = oldObjects[i];
+                if (o == null) {
+                    continue;
+                }
+                int slot = System.identityHashCode(o) & mask;
+                while (this.objects[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.objects[slot] = o;
+                this.ids[slot] = oldIds[i];
+            }
+        }
+
+        public int idOf(Object o) {
+            int mask = this.objects.length - 1;
+            int slot = System.identityHashCode(o) & mask;
+            while (true) {
+                Object current = this.objects[slot];
+                if (current == o) {
+                    return this.ids[slot];
+                }
+                if (current == null) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = this.size;
+            this.size++;
+            this.objects[slot] = o;
+            this.ids[slot] = id;
+            if (this.size * 2 > this.objects.length) {
+                grow();
+            }
+            return id;
+        }
+
+        public void clear() {
+            if (this.size == 0) {
+                return;
+            }
+            Arrays.fill(this.objects, null);
+            this.size = 0;
+        }
+    }
+
+    private static class LightsIds {
+
+        private ToRender[] lights = new ToRender[256];
+        private int[] ids = new int[256];
+        private int size = 0;
+
+        public LightsIds() {
+
+        }
+
+        private static int slotOf(ToRender e, int mask) {
+            int hash = e.lightsHash;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private void grow() {
+            ToRender[] oldLights = this.lights;
+            int[] oldIds = this.ids;
+            this.lights = new ToRender[oldLights.length * 2];
+            this.ids = new int[oldIds.length * 2];
+            int mask = this.lights.length - 1;
+            for (int i = 0; i < oldLights.length; i++) {
+                ToRender e = oldLights[i];
+                if (e == null) {
+                    continue;
+                }
+                int slot = slotOf(e, mask);
+                while (this.lights[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.lights[slot] = e;
+                this.ids[slot] = oldIds[i];
+            }
+        }
+
+        public int idOf(ToRender e) {
+            int mask = this.lights.length - 1;
+            int slot = slotOf(e, mask);
+            while (true) {
+                ToRender current = this.lights[slot];
+                if (current == null) {
+                    break;
+                }
+                if (current.equalsLights(e)) {
+                    return this.ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = this.size;
+            this.size++;
+            this.lights[slot] = e;
+            this.ids[slot] = id;
+            if (this.size * 2 > this.lights.length) {
+                grow();
+            }
+            return id;
+        }
+
+        public void clear() {
+            if (this.size == 0) {
+                return;
+            }
+            Arrays.fill(this.lights, null);
+            this.size = 0;
+        }
+    }
+
+    private static class ToRenderArena {
+
+        private final ToRenderList pool = new ToRenderList();
+        private int used = 0;
+
+        public ToRenderArena() {
+
+        }
+
+        public ToRender next() {
+            ToRender e;
+            if (this.used < this.pool.size()) {
+                e = this.pool.get(this.used);
+            } else {
+                e = new ToRender();
+                this.pool.add(e);
+            }
+            this.used++;
+            return e;
+        }
+
+        public int size() {
+            return this.used;
+        }
+
+        public ToRender get(int index) {
+            return this.pool.get(index);
+        }
+
+        public void reset() {
+            for (int i = 0; i < this.used; i++) {
+                this.pool.get(i).clear();
+            }
+            this.used = 0;
+        }
+    }
+
+    public static volatile int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int OBJECTS_PER_BATCH = 4;
+    public static final int MINIMUM_OBJECTS_PER_THREAD = 8;
+
+    private static final int STAGE_CULL = 0;
+    private static final int STAGE_BUILD = 1;
+
+    private static final ToRenderList drawList = new ToRenderList();
+    private static final IdentityIds texturesIds = new IdentityIds();
+    private static final IdentityIds materialsIds = new IdentityIds();
+    private static final IdentityIds meshesIds = new IdentityIds();
+    private static final IdentityIds lightmapsIds = new IdentityIds();
+    private static final IdentityIds cubemapsIds = new IdentityIds();
+    private static final LightsIds lightsIds = new LightsIds();
+
+    private static final List<N3DObject> collectedObjects = new ArrayList<>();
+    private static final List<N3DObject> visibleObjects = new ArrayList<>();
+
+    private static final NLightIndex lightIndex = new NLightIndex();
+    private static final NSoftwareOcclusion softwareOcclusion = new NSoftwareOcclusion();
+    private static final Matrix4f projectionView = new Matrix4f();
+
+    private static Camera frameCamera = null;
+    private static NCubemaps frameCubemaps = null;
+    private static List<N3DObject> frameObjects = null;
+    private static int frameStage = STAGE_CULL;
+    private static float[] frameOccluders = null;
+    private static boolean frameRasterize = false;
+    private static final SharedExecutor.Loop stageLoop = new SharedExecutor.Loop();
+    private static final AtomicInteger frameCursor = new AtomicInteger();
+
+    private static boolean[] objectsVisible = new boolean[64];
+    private static float[] objectsBounds = new float[64 * 6];
+    private static int[] objectsWorker = new int[64];
+    private static int[] objectsStart = new int[64];
+    private static int[] objectsEnd = new int[64];
+
+    private static final Matrix4f worldToLocal = new Matrix4f();
+    private static final Vector3f relativePosition = new Vector3f();
+    private static final Matrix4f transformedBone = new Matrix4f();
+    private static final Matrix3f normalMatrix = new Matrix3f();
+
+    private static class Worker implements Runnable {
+
+        private final int index;
+        private final ToRenderArena arena = new ToRenderArena();
+        private final NLightIndex.Search lightSearch = lightIndex.createSearch();
+
+        private final List<NCubemap> foundCubemaps = new ArrayList<>();
+        private double[] cubemapDistances = new double[16];
+        private int[] cubemapIndices = new int[16];
+        private int[] lightCandidates = new int[NProgram.MAX_AMOUNT_OF_LIGHTS];
+
+        private final Matrix4f modelMatrix = new Matrix4f();
+        private final Matrix4f nodeTransformation = new Matrix4f();
+        private final Vector3f transformedMin = new Vector3f();
+        private final Vector3f transformedMax = new Vector3f();
+        private final Vector3d lightDirection = new Vector3d();
+        private final Vector3f shadowColor = new Vector3f();
+
+        public Worker(int index) {
+            this.index = index;
+        }
+
+        private void cullObject(int objIndex) {
+            N3DObject obj = frameObjects.get(objIndex);
+            Camera camera = frameCamera;
+
+            obj.calculateModelMatrix(this.modelMatrix, camera);
+
+            if (obj.getAnimator() != null) {
+                obj.transformAnimatedAabb(this.modelMatrix, this.transformedMin, this.transformedMax);
+            } else {
+                obj.transformAabb(this.modelMatrix, this.transformedMin, this.transformedMax);
+            }
+
+            boolean visible = this.transformedMin.isFinite() && this.transformedMax.isFinite()
+                    && projectionView.testAab(
+                            this.transformedMin.x(), this.transformedMin.y(), this.transformedMin.z(),
+                            this.transformedMax.x(), this.transformedMax.y(), this.transformedMax.z()
+                    );
+
+            objectsVisible[objIndex] = visible;
+            objectsBounds[(objIndex * 6) + 0] = this.transformedMin.x();
+            objectsBounds[(objIndex * 6) + 1] = this.transformedMin.y();
+            objectsBounds[(objIndex * 6) + 2] = this.transformedMin.z();
+            objectsBounds[(objIndex * 6) + 3] = this.transformedMax.x();
+            objectsBounds[(objIndex * 6) + 4] = this.transformedMax.y();
+            objectsBounds[(objIndex * 6) + 5] = this.transformedMax.z();
+        }
+
+        private void buildObject(int objIndex) {
+            N3DObject obj = frameObjects.get(objIndex);
+            Camera camera = frameCamera;
+            NCubemaps cubemaps = frameCubemaps;
+
+            objectsWorker[objIndex] = this.index;
+            objectsStart[objIndex] = this.arena.size();
+
+            N3DModel n3dmodel = obj.getN3DModel();
+            NAnimator animator = obj.getAnimator();
+
+            obj.calculateModelMatrix(this.modelMatrix, camera);
+
+            int geometryIndex = -1;
+            for (int nodeIndex = 0; nodeIndex < n3dmodel.getNumberOfNodes(); nodeIndex++) {
+                N3DModelNode n = n3dmodel.getNode(nodeIndex);
+
+                this.nodeTransformation
+                        .set(this.modelMatrix)
+                        .mul(n.getToRootSpace());
+
+                for (int i = 0; i < n.getNumberOfGeometries(); i++) {
+                    NGeometry geometry = n.getGeometry(i);
+                    geometryIndex++;
+
+                    if (animator != null) {
+                        this.modelMatrix.transformAab(
+                                geometry.getAnimatedAabbMin(), geometry.getAnimatedAabbMax(),
+                                this.transformedMin, this.transformedMax
+                        );
+                    } else {
+                        this.nodeTransformation.transformAab(
+                                geometry.getMesh().getAabbMin(), geometry.getMesh().getAabbMax(),
+                                this.transformedMin, this.transformedMax
+                        );
+                    }
+
+                    if (!this.transformedMin.isFinite() || !this.transformedMax.isFinite()) {
+                        continue;
+                    }
+
+                    if (!projectionView.testAab(
+                            this.transformedMin.x(), this.transformedMin.y(), this.transformedMin.z(),
+                            this.transformedMax.x(), this.transformedMax.y(), this.transformedMax.z()
+                    )) {
+                        continue;
+                    }
+
+                    ToRender render = this.arena.next();
+                    render.obj = obj;
+                    render.geometry = geometry;
+                    render.transformation.set(this.nodeTransformation);
+                    render.model.set(this.modelMatrix);
+                    render.transformationNode = (animator != null ? -1 : nodeIndex);
+
+                    float centerX = (this.transformedMin.x() + this.transformedMax.x()) * 0.5f;
+                    float centerY = (this.transformedMin.y() + this.transformedMax.y()) * 0.5f;
+                    float centerZ = (this.transformedMin.z() + this.transformedMax.z()) * 0.5f;
+
+                    double absCenterX = camera.getPosition().x() + centerX;
+                    double absCenterY = camera.getPosition().y() + centerY;
+                    double absCenterZ = camera.getPosition().z() + centerZ;
+
+                    {
+                        this.foundCubemaps.clear();
+                        cubemaps
+                                .getCubemapsBVH()
+                                .testRelativeAab(camera.getPosition(), this.transformedMin, this.transformedMax, this.foundCubemaps);
+
+                        if (this.cubemapDistances.length < this.foundCubemaps.size()) {
+                            int newLength = Math.max(this.foundCubemaps.size(), this.cubemapDistances.length * 2);
+                            this.cubemapDistances = new double[newLength];
+                            this.cubemapIndices = new int[newLength];
+                        }
+
+                        int numberOfCubemaps = 0;
+                        for (int j = 0; j < this.foundCubemaps.size(); j++) {
+                            NCubemap c = this.foundCubemaps.get(j);
+                            if (c.getIntensity() == 0f) {
+                                continue;
+                            }
+
+                            float cubemapMinX = (float) (c.getCubemapBox().getMin().x() - camera.getPosition().x());
+                            float cubemapMinY = (float) (c.getCubemapBox().getMin().y() - camera.getPosition().y());
+                            float cubemapMinZ = (float) (c.getCubemapBox().getMin().z() - camera.getPosition().z());
+                            float cubemapMaxX = (float) (c.getCubemapBox().getMax().x() - camera.getPosition().x());
+                            float cubemapMaxY = (float) (c.getCubemapBox().getMax().y() - camera.getPosition().y());
+                            float cubemapMaxZ = (float) (c.getCubemapBox().getMax().z() - camera.getPosition().z());
+
+                            if (!projectionView.testAab(
+                                    cubemapMinX, cubemapMinY, cubemapMinZ,
+                                    cubemapMaxX, cubemapMaxY, cubemapMaxZ
+                            )) {
+                                continue;
+                            }
+
+                            this.cubemapDistances[j] = Math.min(
+                                    c.getCubemapBox().getCubemapPosition().distanceSquared(camera.getPosition()),
+                                    c.getCubemapBox().getCubemapPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
+                            );
+                            this.cubemapIndices[numberOfCubemaps] = j;
+                            numberOfCubemaps++;
+                        }
+
+                        SortUtils.sortIndices(this.cubemapIndices, this.cubemapDistances, numberOfCubemaps);
+
+                        int length = Math.min(numberOfCubemaps, render.cubemaps.length);
+                        for (int j = 0; j < length; j++) {
+                            render.cubemaps[j] = this.foundCubemaps.get(this.cubemapIndices[j]);
+                        }
+                    }
+
+                    boolean dynamicOnly = obj.getLightmaps() != NLightmaps.NULL_LIGHTMAPS;
+                    int searchSize = NProgram.MAX_AMOUNT_OF_LIGHTS;
+                    int processedLights = 0;
+                    while (true) {
+                        if (this.lightCandidates.length < searchSize) {
+                            this.lightCandidates = new int[searchSize];
+                        }
+                        int foundLights = this.lightSearch.search(
+                                absCenterX, absCenterY, absCenterZ,
+                                searchSize, dynamicOnly,
+                                this.lightCandidates
+                        );
+                        for (int j = processedLights; j < foundLights; j++) {
+                            if (render.numberOfLights >= NProgram.MAX_AMOUNT_OF_LIGHTS) {
+                                break;
+                            }
+
+                            NLight light = lightIndex.getLight(this.lightCandidates[j]);
+
+                            if (!light.isDynamic() && obj.getLightmaps() != NLightmaps.NULL_LIGHTMAPS) {
+                                continue;
+                            }
+                            float ambientFactor = 1f;
+                            if (!light.isDynamic() && obj.getMap() != null) {
+                                ambientFactor = 0f;
+                            }
+                            float r = 1f;
+                            float g = 1f;
+                            float b = 1f;
+                            if (obj.getMap() != null && obj.getLightmaps() == NLightmaps.NULL_LIGHTMAPS) {
+                                Vector3d lightPosition = null;
+                                double length = Double.POSITIVE_INFINITY;
+
+                                this.lightDirection.set(0f, 1f, 0f);
+                                if (light instanceof NLight.NDirectionalLight d) {
+                                    this.lightDirection.set(d.getDirection()).normalize().negate();
+                                } else if (light instanceof NLight.NPointLight p) {
+                                    lightPosition = p.getPosition();
+                                } else if (light instanceof NLight.NSpotLight p) {
+                                    lightPosition = p.getPosition();
+                                }
+
+                                if (lightPosition != null) {
+                                    this.lightDirection.set(lightPosition).sub(absCenterX, absCenterY, absCenterZ);
+                                    length = this.lightDirection.length();
+                                    this.lightDirection.div(length);
+                                    length -= light.getLightSize();
+
+                                    if (length < 0.0) {
+                                        this.lightDirection.negate();
+                                        length = -length;
+                                    }
+                                }
+
+                                obj.getShadowCache().testShadow(
+                                        obj.getMap(), light, geometryIndex,
+                                        absCenterX, absCenterY, absCenterZ,
+                                        (float) this.lightDirection.x(), (float) this.lightDirection.y(), (float) this.lightDirection.z(),
+                                        length,
+                                        this.shadowColor
+                                );
+
+                                r = this.shadowColor.x();
+                                g = this.shadowColor.y();
+                                b = this.shadowColor.z();
+                            }
+                            if (r != 0f || g != 0f || b != 0f || ambientFactor != 0f) {
+                                convertToShaderLight(camera, light, r, g, b, ambientFactor, render);
+                            }
+                        }
+                        processedLights = foundLights;
+                        if (render.numberOfLights >= NProgram.MAX_AMOUNT_OF_LIGHTS || foundLights < searchSize) {
+                            break;
+                        }
+                        searchSize *= 2;
+                    }
+
+                    render.distanceSquared = (centerX * centerX) + (centerY * centerY) + (centerZ * centerZ);
+                    render.updateLightsHash();
+                }
+            }
+
+            objectsEnd[objIndex] = this.arena.size();
+        }
+
+        @Override
+        public void run() {
+            int count = frameObjects.size();
+            int start;
+            while ((start = frameCursor.getAndAdd(OBJECTS_PER_BATCH)) < count) {
+                int end = Math.min(start + OBJECTS_PER_BATCH, count);
+                for (int i = start; i < end; i++) {
+                    if (frameStage == STAGE_CULL) {
+                        cullObject(i);
+                    } else {
+                        buildObject(i);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final Worker[] workers = new Worker[SharedExecutor.NUMBER_OF_THREADS];
+
+    static {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+        }
+    }
+
+    private static void convertToShaderLight(
             Camera camera, NLight light,
-            float redFactor, float greenFactor, float blueFactor, float ambientFactor
+            float redFactor, float greenFactor, float blueFactor, float ambientFactor,
+            ToRender render
     ) {
+        if (render.numberOfLights >= NProgram.MAX_AMOUNT_OF_LIGHTS) {
+            return;
+        }
+
+        int lightIndex = render.numberOfLights;
+        render.numberOfLights++;
+
         if (light == null) {
-            return NProgram.NULL_LIGHT;
+            render.lightTypes[lightIndex] = NProgram.NULL_LIGHT_TYPE;
+            return;
         }
 
         int lightType = NProgram.NULL_LIGHT_TYPE;
@@ -126,66 +759,120 @@ public class N3DObjectRenderer {
             dZ = direction.z();
         }
 
-        return new NProgram.NProgramLight(
-                lightType,
-                pX, pY, pZ,
-                dX, dY, dZ,
-                innerCone, outerCone,
-                diffuse.x() * redFactor, diffuse.y() * greenFactor, diffuse.z() * blueFactor,
-                specular.x() * redFactor, specular.y() * greenFactor, specular.z() * blueFactor,
-                ambient.x() * redFactor * ambientFactor, ambient.y() * greenFactor * ambientFactor, ambient.z() * blueFactor * ambientFactor
-        );
+        float[] data = render.lightData;
+        int offset = lightIndex * NProgram.LIGHT_DATA_SIZE;
+
+        render.lightTypes[lightIndex] = lightType;
+
+        data[offset + NProgram.LIGHT_DATA_OFFSET_POSITION_XYZ + 0] = pX;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_POSITION_XYZ + 1] = pY;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_POSITION_XYZ + 2] = pZ;
+
+        data[offset + NProgram.LIGHT_DATA_OFFSET_DIRECTION_XYZ + 0] = dX;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_DIRECTION_XYZ + 1] = dY;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_DIRECTION_XYZ + 2] = dZ;
+
+        data[offset + NProgram.LIGHT_DATA_OFFSET_INNER_CONE] = innerCone;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_OUTER_CONE] = outerCone;
+
+        data[offset + NProgram.LIGHT_DATA_OFFSET_DIFFUSE_RGB + 0] = diffuse.x() * redFactor;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_DIFFUSE_RGB + 1] = diffuse.y() * greenFactor;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_DIFFUSE_RGB + 2] = diffuse.z() * blueFactor;
+
+        data[offset + NProgram.LIGHT_DATA_OFFSET_SPECULAR_RGB + 0] = specular.x() * redFactor;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_SPECULAR_RGB + 1] = specular.y() * greenFactor;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_SPECULAR_RGB + 2] = specular.z() * blueFactor;
+
+        data[offset + NProgram.LIGHT_DATA_OFFSET_AMBIENT_RGB + 0] = ambient.x() * redFactor * ambientFactor;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_AMBIENT_RGB + 1] = ambient.y() * greenFactor * ambientFactor;
+        data[offset + NProgram.LIGHT_DATA_OFFSET_AMBIENT_RGB + 2] = ambient.z() * blueFactor * ambientFactor;
     }
 
-    private static List<N3DObject> collectObjects() {
-        List<N3DObject> objects = new ArrayList<>();
+    private static void collectObjects(List<N3DObject> objects) {
         N3DObject obj;
         while ((obj = renderQueue.poll()) != null) {
             objects.add(obj);
         }
-        return objects;
     }
 
-    private static List<N3DObject> filterOccluded(Camera camera, List<N3DObject> objects) {
-        List<N3DObject> notOccludedObjects = new ArrayList<>();
+    private static void ensureObjectsCapacity(int count) {
+        if (objectsVisible.length >= count) {
+            return;
+        }
+        int newLength = Math.max(count, objectsVisible.length * 2);
+        objectsVisible = new boolean[newLength];
+        objectsBounds = new float[newLength * 6];
+        objectsWorker = new int[newLength];
+        objectsStart = new int[newLength];
+        objectsEnd = new int[newLength];
+    }
 
-        Matrix4f projectionView = new Matrix4f(camera.getProjection()).mul(camera.getView());
+    //when rasterizing, item 0 draws the software occluders, so it starts at
+    //once and the workers cull in parallel with it
+    private static final IntConsumer stageItem = (i) -> {
+        if (frameRasterize) {
+            if (i == 0) {
+                softwareOcclusion.rasterize(frameCamera, frameOccluders);
+                return;
+            }
+            i--;
+        }
+        workers[i].run();
+    };
 
-        Vector3f transformedMin = new Vector3f();
-        Vector3f transformedMax = new Vector3f();
+    private static void runStage(int stage, List<N3DObject> objects, boolean rasterize) {
+        frameStage = stage;
+        frameObjects = objects;
+        frameRasterize = rasterize;
+        frameCursor.set(0);
 
-        Matrix4f modelMatrix = new Matrix4f();
+        int threads = Math.min(NUMBER_OF_THREADS, workers.length);
+        threads = Math.min(threads, objects.size() / MINIMUM_OBJECTS_PER_THREAD);
+        threads = Math.max(threads, 1);
 
-        for (N3DObject obj : objects) {
-            obj.calculateModelMatrix(modelMatrix, camera);
+        stageLoop.run(threads + (rasterize ? 1 : 0), stageItem);
+    }
 
-            if (obj.getAnimator() != null) {
-                obj.transformAnimatedAabb(modelMatrix, transformedMin, transformedMax);
-            } else {
-                obj.transformAabb(modelMatrix, transformedMin, transformedMax);
+    private static NMap.OcclusionMode findOcclusionMode(List<N3DObject> objects) {
+        for (int i = 0; i < objects.size(); i++) {
+            NMap map = objects.get(i).getMap();
+            if (map != null) {
+                frameOccluders = map.getOccluders();
+                return map.getOcclusionMode();
             }
+        }
+        frameOccluders = null;
+        return NMap.OcclusionMode.GPU_QUERIES;
+    }
 
-            if (!transformedMin.isFinite() || !transformedMax.isFinite()) {
+    private static void filterOccluded(Camera camera, NMap.OcclusionMode mode, List<N3DObject> objects, List<N3DObject> notOccludedObjects) {
+        for (int objIndex = 0; objIndex < objects.size(); objIndex++) {
+            if (!objectsVisible[objIndex]) {
                 continue;
             }
 
-            if (!projectionView.testAab(
-                    transformedMin.x(), transformedMin.y(), transformedMin.z(),
-                    transformedMax.x(), transformedMax.y(), transformedMax.z()
-            )) {
-                continue;
-            }
+            N3DObject obj = objects.get(objIndex);
+
+            float minX = objectsBounds[(objIndex * 6) + 0];
+            float minY = objectsBounds[(objIndex * 6) + 1];
+            float minZ = objectsBounds[(objIndex * 6) + 2];
+            float maxX = objectsBounds[(objIndex * 6) + 3];
+            float maxY = objectsBounds[(objIndex * 6) + 4];
+            float maxZ = objectsBounds[(objIndex * 6) + 5];
 
             boolean occluded = false;
-            if (obj.getN3DModel().getVerticesCount() >= OCCLUSION_QUERY_MINIMUM_VERTICES) {
+            if (mode == NMap.OcclusionMode.SOFTWARE) {
+                occluded = softwareOcclusion.testAab(minX, minY, minZ, maxX, maxY, maxZ);
+            } else if (mode == NMap.OcclusionMode.GPU_QUERIES
+                    && obj.getN3DModel().getVerticesCount() >= OCCLUSION_QUERY_MINIMUM_VERTICES) {
                 occlusionQuery:
                 {
-                    float x = (transformedMin.x() + transformedMax.x()) * 0.5f;
-                    float y = (transformedMin.y() + transformedMax.y()) * 0.5f;
-                    float z = (transformedMin.z() + transformedMax.z()) * 0.5f;
-                    float width = transformedMax.x() - transformedMin.x();
-                    float height = transformedMax.y() - transformedMin.y();
-                    float depth = transformedMax.z() - transformedMin.z();
+                    float x = (minX + maxX) * 0.5f;
+                    float y = (minY + maxY) * 0.5f;
+                    float z = (minZ + maxZ) * 0.5f;
+                    float width = maxX - minX;
+                    float height = maxY - minY;
+                    float depth = maxZ - minZ;
 
                     if (GPUOcclusion.testCamera(
                             0f, 0f, 0f, camera.getNearPlane() * 1.05f,
@@ -214,305 +901,205 @@ public class N3DObjectRenderer {
             }
 
             if (!occluded) {
-                double absCenterX = camera.getPosition().x() + ((transformedMin.x() + transformedMax.x()) * 0.5f);
-                double absCenterY = camera.getPosition().y() + ((transformedMin.y() + transformedMax.y()) * 0.5f);
-                double absCenterZ = camera.getPosition().z() + ((transformedMin.z() + transformedMax.z()) * 0.5f);
+                double absCenterX = camera.getPosition().x() + ((minX + maxX) * 0.5f);
+                double absCenterY = camera.getPosition().y() + ((minY + maxY) * 0.5f);
+                double absCenterZ = camera.getPosition().z() + ((minZ + maxZ) * 0.5f);
 
                 obj.updateAmbientCube(absCenterX, absCenterY, absCenterZ);
 
                 notOccludedObjects.add(obj);
             }
         }
-
-        return notOccludedObjects;
     }
 
-    private static class ToRender {
-
-        public final N3DObject obj;
-        public final Matrix4f transformation;
-        public final Matrix4f model;
-        public final float distanceSquared;
-        public final NGeometry geometry;
-        public final NCubemap[] cubemaps;
-        public final NProgram.NProgramLight[] lights;
-
-        public ToRender(
-                N3DObject obj,
-                Matrix4f transformation,
-                Matrix4f model,
-                float distanceSquared,
-                NGeometry geometry,
-                NCubemap[] cubemaps,
-                NProgram.NProgramLight[] lights
-        ) {
-            this.obj = obj;
-            this.transformation = transformation;
-            this.model = model;
-            this.distanceSquared = distanceSquared;
-            this.geometry = geometry;
-            this.cubemaps = cubemaps;
-            this.lights = lights;
+    //16 bits per cubemap id, -1 if an id does not fit and the cubemaps must
+    //always be sent
+    private static long cubemapsKeyOf(NCubemap[] cubemaps) {
+        if (cubemaps.length > 4) {
+            return -1L;
         }
-    }
-
-    public static void render(
-            Camera camera,
-            List<NLight> lights,
-            NCubemaps cubemaps
-    ) {
-        if (cubemaps == null) {
-            cubemaps = NCubemaps.NULL_CUBEMAPS;
+        long key = 0L;
+        for (int i = 0; i < cubemaps.length; i++) {
+            NCubemap cubemap = cubemaps[i];
+            if (cubemap == null) {
+                continue;
+            }
+            int id = cubemapsIds.idOf(cubemap) + 1;
+            if (id > 0xFFFF) {
+                return -1L;
+            }
+            key |= ((long) id) << (i * 16);
         }
+        return key;
+    }
 
-        List<N3DObject> objectsToRender = collectObjects();
-        objectsToRender = filterOccluded(
-                camera,
-                objectsToRender
-        );
-
-        Matrix4f projectionView = new Matrix4f(camera.getProjection()).mul(camera.getView());
-
-        Vector3f transformedMin = new Vector3f();
-        Vector3f transformedMax = new Vector3f();
-
-        Vector3d lightDirection = new Vector3d();
-        Vector3f shadowColor = new Vector3f();
-
-        List<ToRender> toRenderList = new ArrayList<>();
-
-        {
-            for (N3DObject obj : objectsToRender) {
-                Matrix4f modelMatrix = new Matrix4f();
-                N3DModel n3dmodel = obj.getN3DModel();
-                NAnimator animator = obj.getAnimator();
-
-                obj.calculateModelMatrix(modelMatrix, camera);
-
-                for (int nodeIndex = 0; nodeIndex < n3dmodel.getNumberOfNodes(); nodeIndex++) {
-                    N3DModelNode n = n3dmodel.getNode(nodeIndex);
-
-                    Matrix4f transformation = new Matrix4f(modelMatrix)
-                            .mul(n.getToRootSpace());
-
-                    for (int i = 0; i < n.getNumberOfGeometries(); i++) {
-                        NGeometry geometry = n.getGeometry(i);
-                        if (animator != null) {
-                            modelMatrix.transformAab(
-                                    geometry.getAnimatedAabbMin(), geometry.getAnimatedAabbMax(),
-                                    transformedMin, transformedMax
-                            );
-                        } else {
-                            transformation.transformAab(
-                                    geometry.getMesh().getAabbMin(), geometry.getMesh().getAabbMax(),
-                                    transformedMin, transformedMax
-                            );
-                        }
-
-                        if (!transformedMin.isFinite() || !transformedMax.isFinite()) {
-                            continue;
-                        }
-
-                        if (!projectionView.testAab(
-                                transformedMin.x(), transformedMin.y(), transformedMin.z(),
-                                transformedMax.x(), transformedMax.y(), transformedMax.z()
-                        )) {
-                            continue;
-                        }
-
-                        List<NCubemap> toRenderCubemaps;
-                        {
-                            toRenderCubemaps = cubemaps
-                                    .getCubemapsBVH()
-                                    .testRelativeAab(camera.getPosition(), transformedMin, transformedMax);
-
-                            List<NCubemap> toRenderCubemapsFiltered = new ArrayList<>();
-                            for (NCubemap c : toRenderCubemaps) {
-                                if (c.getIntensity() == 0f) {
-                                    continue;
-                                }
-
-                                float cubemapMinX = (float) (c.getCubemapBox().getMin().x() - camera.getPosition().x());
-                                float cubemapMinY = (float) (c.getCubemapBox().getMin().y() - camera.getPosition().y());
-                                float cubemapMinZ = (float) (c.getCubemapBox().getMin().z() - camera.getPosition().z());
-                                float cubemapMaxX = (float) (c.getCubemapBox().getMax().x() - camera.getPosition().x());
-                                float cubemapMaxY = (float) (c.getCubemapBox().getMax().y() - camera.getPosition().y());
-                                float cubemapMaxZ = (float) (c.getCubemapBox().getMax().z() - camera.getPosition().z());
-
-                                if (projectionView.testAab(
-                                        cubemapMinX, cubemapMinY, cubemapMinZ,
-                                        cubemapMaxX, cubemapMaxY, cubemapMaxZ
-                                )) {
-                                    toRenderCubemapsFiltered.add(c);
-                                }
-                            }
-
-                            toRenderCubemaps = toRenderCubemapsFiltered;
-                        }
-
-                        float centerX = (transformedMin.x() + transformedMax.x()) * 0.5f;
-                        float centerY = (transformedMin.y() + transformedMax.y()) * 0.5f;
-                        float centerZ = (transformedMin.z() + transformedMax.z()) * 0.5f;
-
-                        double absCenterX = camera.getPosition().x() + centerX;
-                        double absCenterY = camera.getPosition().y() + centerY;
-                        double absCenterZ = camera.getPosition().z() + centerZ;
+    private static void mergeRenderLists(List<N3DObject> objects) {
+        for (int objIndex = 0; objIndex < objects.size(); objIndex++) {
+            Worker worker = workers[objectsWorker[objIndex]];
+            for (int i = objectsStart[objIndex]; i < objectsEnd[objIndex]; i++) {
+                ToRender toRender = worker.arena.get(i);
 
-                        toRenderCubemaps.sort((o1, o2) -> {
-                            double o1Dist = Math.min(
-                                    o1.getCubemapBox().getCubemapPosition().distanceSquared(camera.getPosition()),
-                                    o1.getCubemapBox().getCubemapPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
-                            );
+                NMaterial material = toRender.geometry.getMaterial();
 
-                            double o2Dist = Math.min(
-                                    o2.getCubemapBox().getCubemapPosition().distanceSquared(camera.getPosition()),
-                                    o2.getCubemapBox().getCubemapPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
-                            );
+                if (material.isInvisible()) {
+                    continue;
+                }
 
-                            return Double.compare(
-                                    o1Dist,
-                                    o2Dist
-                            );
-                        });
+                int variant = switch (material.getBlendingMode()) {
+                    case OPAQUE ->
+                        NDrawKey.VARIANT_OPAQUE;
+                    case ALPHA_TESTING ->
+                        NDrawKey.VARIANT_ALPHA_TESTING;
+                    case ALPHA_BLENDING ->
+                        NDrawKey.VARIANT_ALPHA_BLENDING;
+                };
+
+                //full ids, the key only keeps their low bits
+                toRender.texturesId = texturesIds.idOf(material.getTextures());
+                toRender.meshId = meshesIds.idOf(toRender.geometry.getMesh());
+                toRender.materialId = materialsIds.idOf(material);
+
+                //state ids for the draw loop, equal ids mean equal state
+                toRender.objectId = objIndex;
+                toRender.lightsId = lightsIds.idOf(toRender);
+                toRender.transformationKey = (((long) objIndex) << 32) | (toRender.transformationNode & 0xFFFFFFFFL);
+                toRender.cubemapsKey = cubemapsKeyOf(toRender.cubemaps);
+
+                long key = NDrawKey.encode(
+                        variant,
+                        toRender.texturesId,
+                        toRender.materialId,
+                        toRender.meshId,
+                        lightmapsIds.idOf(toRender.obj.getLightmaps()),
+                        toRender.distanceSquared
+                );
 
-                        NCubemap[] finalToRenderCubemaps = Arrays.copyOf(toRenderCubemaps.toArray(NCubemap[]::new), NProgram.MAX_AMOUNT_OF_CUBEMAPS);
+                drawList.add(toRender, key);
+            }
+        }
 
-                        List<NProgram.NProgramLight> toRenderLights = new ArrayList<>();
-                        lights.sort((o1, o2) -> {
-                            double disto1 = 0.0;
-                            double disto2 = 0.0;
+        drawList.sortByKey();
+    }
 
-                            if (o1 instanceof NLight.NSpotLight e) {
-                                disto1 = Math.min(
-                                        e.getPosition().distanceSquared(camera.getPosition()),
-                                        e.getPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
-                                );
-                            } else if (o1 instanceof NLight.NPointLight e) {
-                                disto1 = Math.min(
-                                        e.getPosition().distanceSquared(camera.getPosition()),
-                                        e.getPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
-                                );
-                            }
+    private static void countUniformCalls(BetterUniformSetter variant) {
+        UNIFORM_CALLS_ISSUED += variant.getIssuedCalls();
+        UNIFORM_CALLS_SKIPPED += variant.getSkippedCalls();
+        variant.resetCounters();
+    }
 
-                            if (o2 instanceof NLight.NSpotLight e) {
-                                disto2 = Math.min(
-                                        e.getPosition().distanceSquared(camera.getPosition()),
-                                        e.getPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
-                                );
-                            } else if (o2 instanceof NLight.NPointLight e) {
-                                disto2 = Math.min(
-                                        e.getPosition().distanceSquared(camera.getPosition()),
-                                        e.getPosition().distanceSquared(absCenterX, absCenterY, absCenterZ)
-                                );
-                            }
+    private static int findVariantEnd(int start, int variant) {
+        int end = start;
+        while (end < drawList.size() && NDrawKey.variantOf(drawList.getKey(end)) == variant) {
+            end++;
+        }
+        return end;
+    }
 
-                            return Double.compare(disto1, disto2);
-                        });
-                        for (NLight light : lights) {
-                            if (!light.isDynamic() && obj.getLightmaps() != NLightmaps.NULL_LIGHTMAPS) {
-                                continue;
-                            }
-                            float ambientFactor = 1f;
-                            if (!light.isDynamic() && obj.getMap() != null) {
-                                ambientFactor = 0f;
-                            }
-                            float r = 1f;
-                            float g = 1f;
-                            float b = 1f;
-                            if (obj.getMap() != null && obj.getLightmaps() == NLightmaps.NULL_LIGHTMAPS) {
-                                Vector3d lightPosition = null;
-                                double length = Double.POSITIVE_INFINITY;
+    public static void render(
+            Camera camera,
+            List<NLight> lights,
+            NCubemaps cubemaps
+    ) {
+        renderAllocations.take();
 
-                                lightDirection.set(0f, 1f, 0f);
-                                if (light instanceof NLight.NDirectionalLight d) {
-                                    lightDirection.set(d.getDirection()).normalize().negate();
-                                } else if (light instanceof NLight.NPointLight p) {
-                                    lightPosition = p.getPosition();
-                                } else if (light instanceof NLight.NSpotLight p) {
-                                    lightPosition = p.getPosition();
-                                }
+        NShadowCache.newFrame();
+        NSoftwareOcclusion.newFrame();
 
-                                if (lightPosition != null) {
-                                    lightDirection.set(lightPosition).sub(absCenterX, absCenterY, absCenterZ);
-                                    length = lightDirection.length();
-                                    lightDirection.div(length);
-                                    length -= light.getLightSize();
+        renderObjects(camera, lights, cubemaps, null);
 
-                                    if (length < 0.0) {
-                                        lightDirection.negate();
-                                        length = -length;
-                                    }
-                                }
+        UNIFORM_CALLS_ISSUED = 0;
+        UNIFORM_CALLS_SKIPPED = 0;
+        countUniformCalls(NProgram.VARIANT_OPAQUE);
+        countUniformCalls(NProgram.VARIANT_ALPHA_TESTING);
+        countUniformCalls(NProgram.VARIANT_ALPHA_BLENDING);
 
-                                obj.getMap().testShadow(
-                                        absCenterX, absCenterY, absCenterZ,
-                                        (float) lightDirection.x(), (float) lightDirection.y(), (float) lightDirection.z(),
-                                        length,
-                                        shadowColor
-                                );
+        RENDER_ALLOCATED_BYTES = renderAllocations.getAllocatedBytes();
+    }
 
-                                r = shadowColor.x();
-                                g = shadowColor.y();
-                                b = shadowColor.z();
-                            }
-                            if (r != 0f || g != 0f || b != 0f || ambientFactor != 0f) {
-                                toRenderLights.add(convertToShaderLight(camera, light, r, g, b, ambientFactor));
-                            }
-                        }
-                        NProgram.NProgramLight[] finalLights = toRenderLights.toArray(toRenderLights.toArray(NProgram.NProgramLight[]::new));
-                        finalLights = Arrays.copyOf(finalLights, NProgram.MAX_AMOUNT_OF_LIGHTS);
-
-                        float distanceSquared = (centerX * centerX) + (centerY * centerY) + (centerZ * centerZ);
-
-                        toRenderList.add(new ToRender(
-                                obj,
-                                transformation, modelMatrix,
-                                distanceSquared,
-                                geometry,
-                                finalToRenderCubemaps,
-                                finalLights
-                        ));
-                    }
-                }
-            }
+    /**
+     * Renders the given objects instead of the render queue, the list is not
+     * modified, so the same objects can be rendered again from another camera
+     * without queueing them again.
+     * <p>
+     * This does not start a new frame, the frame counters are not reset and
+     * the shadow refresh budget of the current frame is shared, so rendering
+     * many views (such as the faces of cubemap probes) counts as part of the
+     * frame that renders them.
+     *
+     * @param camera the camera
+     * @param lights the lights
+     * @param cubemaps the cubemaps, null for no cubemaps
+     * @param objects the objects to render
+     */
+    public static void render(
+            Camera camera,
+            List<NLight> lights,
+            NCubemaps cubemaps,
+            List<N3DObject> objects
+    ) {
+        if (objects == null) {
+            throw new NullPointerException("Objects is null.");
         }
+        renderObjects(camera, lights, cubemaps, objects);
+    }
 
-        List<ToRender> opaqueList = new ArrayList<>();
-        List<ToRender> testedList = new ArrayList<>();
-        List<ToRender> blendList = new ArrayList<>();
+    private static void renderObjects(
+            Camera camera,
+            List<NLight> lights,
+            NCubemaps cubemaps,
+            List<N3DObject> objects
+    ) {
+        if (cubemaps == null) {
+            cubemaps = NCubemaps.NULL_CUBEMAPS;
+        }
 
-        for (ToRender toRender : toRenderList) {
-            if (toRender.geometry.getMaterial().isInvisible()) {
-                continue;
-            }
+        collectedObjects.clear();
+        visibleObjects.clear();
+        drawList.clear();
 
-            NBlendingMode mode = toRender.geometry.getMaterial().getBlendingMode();
+        frameCamera = camera;
+        frameCubemaps = cubemaps;
+        projectionView.set(camera.getProjection()).mul(camera.getView());
+        lightIndex.build(lights, camera.getPosition());
 
-            switch (mode) {
-                case OPAQUE ->
-                    opaqueList.add(toRender);
-                case ALPHA_TESTING ->
-                    testedList.add(toRender);
-                case ALPHA_BLENDING ->
-                    blendList.add(toRender);
+        try {
+            if (objects == null) {
+                collectObjects(collectedObjects);
+            } else {
+                for (int i = 0; i < objects.size(); i++) {
+                    collectedObjects.add(objects.get(i));
+                }
             }
+            ensureObjectsCapacity(collectedObjects.size());
+
+            NMap.OcclusionMode occlusionMode = findOcclusionMode(collectedObjects);
+            runStage(STAGE_CULL, collectedObjects, occlusionMode == NMap.OcclusionMode.SOFTWARE);
+            filterOccluded(camera, occlusionMode, collectedObjects, visibleObjects);
+            runStage(STAGE_BUILD, visibleObjects, false);
+        } finally {
+            frameCamera = null;
+            frameCubemaps = null;
+            frameObjects = null;
+            frameOccluders = null;
+            frameRasterize = false;
         }
 
-        Comparator<ToRender> distanceComparator = (o1, o2) -> {
-            return Float.compare(o1.distanceSquared, o2.distanceSquared);
-        };
+        mergeRenderLists(visibleObjects);
 
-        opaqueList.sort(distanceComparator);
-        testedList.sort(distanceComparator);
-        blendList.sort(distanceComparator.reversed());
+        int opaqueStart = 0;
+        int opaqueEnd = findVariantEnd(opaqueStart, NDrawKey.VARIANT_OPAQUE);
+        int testedStart = opaqueEnd;
+        int testedEnd = findVariantEnd(testedStart, NDrawKey.VARIANT_ALPHA_TESTING);
+        int blendStart = testedEnd;
+        int blendEnd = findVariantEnd(blendStart, NDrawKey.VARIANT_ALPHA_BLENDING);
 
-        if (!opaqueList.isEmpty() || !testedList.isEmpty()) {
+        if (opaqueStart != opaqueEnd || testedStart != testedEnd) {
             glDisable(GL_BLEND);
-            if (!opaqueList.isEmpty()) {
-                renderVariant(NProgram.VARIANT_OPAQUE, camera, opaqueList);
+            if (opaqueStart != opaqueEnd) {
+                renderVariant(NProgram.VARIANT_OPAQUE, camera, opaqueStart, opaqueEnd);
             }
-            if (!testedList.isEmpty()) {
-                renderVariant(NProgram.VARIANT_ALPHA_TESTING, camera, testedList);
+            if (testedStart != testedEnd) {
+                renderVariant(NProgram.VARIANT_ALPHA_TESTING, camera, testedStart, testedEnd);
             }
             glEnable(GL_BLEND);
         }
@@ -521,8 +1108,22 @@ public class N3DObjectRenderer {
 
         GPUOcclusion.executeQueries();
 
-        if (!blendList.isEmpty()) {
-            renderVariant(NProgram.VARIANT_ALPHA_BLENDING, camera, blendList);
+        if (blendStart != blendEnd) {
+            renderVariant(NProgram.VARIANT_ALPHA_BLENDING, camera, blendStart, blendEnd);
+        }
+
+        collectedObjects.clear();
+        visibleObjects.clear();
+        drawList.clear();
+        texturesIds.clear();
+        materialsIds.clear();
+        meshesIds.clear();
+        lightmapsIds.clear();
+        cubemapsIds.clear();
+        lightsIds.clear();
+        for (Worker worker : workers) {
+            worker.arena.reset();
+            worker.foundCubemaps.clear();
         }
     }
 
@@ -562,13 +1163,14 @@ public class N3DObjectRenderer {
     private static void renderVariant(
             BetterUniformSetter variant,
             Camera camera,
-            List<ToRender> toRender
+            int start, int end
     ) {
         NLightmaps.NULL_LIGHTMAPS.lightmaps();
         NCubemap.NULL_CUBEMAP.cubemap();
         NTextures.NULL_TEXTURES.textures();
 
-        for (ToRender t : toRender) {
+        for (int i = start; i < end; i++) {
+            ToRender t = drawList.get(i);
             NTextures textures = t.geometry.getMaterial().getTextures();
 
             textures.textures();
@@ -603,7 +1205,7 @@ public class N3DObjectRenderer {
                 .uniform1i(NProgram.UNIFORM_REFLECTION_CUBEMAP_2, 4)
                 .uniform1i(NProgram.UNIFORM_REFLECTION_CUBEMAP_3, 5);
         
-        render(variant, camera, toRender);
+        render(variant, camera, start, end);
 
         glUseProgram(0);
     }
@@ -611,30 +1213,24 @@ public class N3DObjectRenderer {
     private static void render(
             BetterUniformSetter variant,
             Camera camera,
-            List<ToRender> list
+            int start, int end
     ) {
-        Matrix4f worldToLocal = new Matrix4f();
-        Vector3f relativePosition = new Vector3f();
-
-        Matrix4f transformedBone = new Matrix4f();
-
-        NProgram.NProgramLight[] lastLights = null;
+        int lastLightsId = -1;
         AmbientCube lastAmbientCube = null;
         NLightmaps lastLightmaps = null;
-        NMaterial lastMaterial = null;
-        NTextures lastTextures = null;
+        int lastMaterialId = -1;
+        int lastTexturesId = -1;
         NCubemap[] lastCubemaps = null;
-        Matrix4fc lastTransformation = null;
-        NMesh lastMesh = null;
+        long lastCubemapsKey = -1;
+        long lastTransformationKey = -1;
+        int lastMeshId = -1;
         NAnimator lastAnimator = null;
-        N3DObject lastFresnel = null;
+        int lastFresnelId = -1;
 
-        Matrix3f normalMatrix = new Matrix3f();
-
-        for (ToRender render : list) {
+        for (int renderIndex = start; renderIndex < end; renderIndex++) {
+            ToRender render = drawList.get(renderIndex);
             N3DModel n3dmodel = render.obj.getN3DModel();
 
-            NProgram.NProgramLight[] lights = render.lights;
             AmbientCube ambientCube = render.obj.getAmbientCube();
             NLightmaps lightmaps = render.obj.getLightmaps();
             NMaterial material = render.geometry.getMaterial();
@@ -645,14 +1241,18 @@ public class N3DObjectRenderer {
             NAnimator animator = render.obj.getAnimator();
             N3DObject fresnel = render.obj;
 
-            if (!Arrays.deepEquals(lastLights, lights)) {
-                for (int i = 0; i < lights.length; i++) {
-                    NProgram.sendLight(variant, lights[i], i);
+            if (render.lightsId != lastLightsId) {
+                for (int i = 0; i < NProgram.MAX_AMOUNT_OF_LIGHTS; i++) {
+                    NProgram.sendLight(variant,
+                            render.lightTypes[i],
+                            render.lightData, i * NProgram.LIGHT_DATA_SIZE,
+                            i
+                    );
                 }
-                lastLights = lights;
+                lastLightsId = render.lightsId;
             }
 
-            if (!ambientCube.equals(lastAmbientCube)) {
+            if (ambientCube != lastAmbientCube) {
                 NProgram.sendAmbientCube(variant, ambientCube);
                 lastAmbientCube = ambientCube;
             }
@@ -661,7 +1261,7 @@ public class N3DObjectRenderer {
                 transformation = render.model;
             }
 
-            if (!material.equalsPropertiesOnly(lastMaterial)) {
+            if (render.materialId != lastMaterialId) {
                 Vector4fc d = material.getDiffuseColor();
                 Vector3fc s = material.getSpecularColor();
                 Vector3fc e = material.getEmissiveColor();
@@ -677,29 +1277,29 @@ public class N3DObjectRenderer {
                     sb = 0f;
                 }
 
-                NProgram.sendMaterial(variant, new NProgram.NProgramMaterial(
+                NProgram.sendMaterial(variant,
                         d.x(), d.y(), d.z(), d.w(),
                         sr, sg, sb,
                         e.x(), e.y(), e.z(),
                         r.x(), r.y(), r.z(),
                         material.getMinExponent(), material.getMaxExponent(),
                         material.getParallaxHeightCoefficient(), material.getParallaxMinLayers(), material.getParallaxMaxLayers()
-                ));
-                lastMaterial = material;
+                );
+                lastMaterialId = render.materialId;
             }
 
-            if (!textures.equals(lastTextures)) {
+            if (render.texturesId != lastTexturesId) {
                 int texturesId = textures.textures();
 
                 glActiveTexture(GL_TEXTURE0);
                 glBindTexture(GL_TEXTURE_2D_ARRAY, texturesId);
 
                 variant.uniform1i(
-                        NProgram.UNIFORM_PARALLAX_SUPPORTED,
+                        NProgram.SLOT_PARALLAX_SUPPORTED,
                         textures.isHeightMapSupported() ? 1 : 0
                 );
 
-                lastTextures = textures;
+                lastTexturesId = render.texturesId;
             }
 
             if (lastLightmaps != lightmaps) {
@@ -715,7 +1315,7 @@ public class N3DObjectRenderer {
                 lastLightmaps = lightmaps;
             }
 
-            if (!Arrays.equals(lastCubemaps, cubemaps)) {
+            if (render.cubemapsKey != lastCubemapsKey || render.cubemapsKey == -1) {
                 for (int i = 0; i < cubemaps.length; i++) {
                     NCubemap cubemap = cubemaps[i];
 
@@ -759,30 +1359,33 @@ public class N3DObjectRenderer {
                 }
 
                 lastCubemaps = cubemaps;
+                lastCubemapsKey = render.cubemapsKey;
             }
 
-            if (!transformation.equals(lastTransformation)) {
+            if (render.transformationKey != lastTransformationKey) {
                 variant.uniformMatrix4fv(
-                        NProgram.UNIFORM_MODEL,
-                        transformation
+                        NProgram.SLOT_MODEL,
+                        transformation,
+                        false
                 );
                 variant.uniformMatrix3fv(
-                        NProgram.UNIFORM_NORMAL_MODEL,
-                        transformation.normal(normalMatrix)
+                        NProgram.SLOT_NORMAL_MODEL,
+                        transformation.normal(normalMatrix),
+                        false
                 );
-                lastTransformation = transformation;
+                lastTransformationKey = render.transformationKey;
             }
 
-            if (animator != lastAnimator || (animator == null && mesh.getAmountOfBones() != 0) || !mesh.equals(lastMesh)) {
+            boolean meshChanged = render.meshId != lastMeshId;
+
+            if (animator != lastAnimator || (animator == null && mesh.getAmountOfBones() != 0) || meshChanged) {
                 for (int boneIndex = 0; boneIndex < mesh.getAmountOfBones(); boneIndex++) {
                     String bone = mesh.getBone(boneIndex);
 
                     if (animator != null) {
-                        Matrix4fc boneMatrix = animator.getBoneMatrix(bone);
                         N3DModelNode boneNode = n3dmodel.getNode(bone);
 
-                        transformedBone
-                                .set(boneMatrix)
+                        animator.getBoneMatrix(animator.indexOfBone(bone), transformedBone)
                                 .mul(boneNode.getToNodeSpace())
                                 .mul(render.geometry.getParent().getToRootSpace());
 
@@ -795,20 +1398,22 @@ public class N3DObjectRenderer {
                 lastAnimator = animator;
             }
 
-            if (!mesh.equals(lastMesh)) {
+            if (meshChanged) {
                 glBindVertexArray(mesh.getVAO());
-                lastMesh = mesh;
+                lastMeshId = render.meshId;
             }
 
-            if (!fresnel.equalsFresnelOutline(lastFresnel)) {
+            if (render.objectId != lastFresnelId) {
                 NProgram.sendFresnelOutlineInfo(variant,
                         fresnel.isFresnelOutlineEnabled(),
                         fresnel.getFresnelOutlineExponent(),
                         fresnel.getFresnelOutlineColor().x(), fresnel.getFresnelOutlineColor().y(), fresnel.getFresnelOutlineColor().z()
                 );
-                lastFresnel = fresnel;
+                lastFresnelId = render.objectId;
             }
 
+            variant.flush();
+
             glDrawElements(GL_TRIANGLES, mesh.getIndices().length, GL_UNSIGNED_INT, 0);
 
             Main.NUMBER_OF_DRAWCALLS++;
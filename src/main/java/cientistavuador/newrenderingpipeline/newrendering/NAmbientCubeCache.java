@@ -0,0 +1,194 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ *
+ * @author Cien
+ */
+public class NAmbientCubeCache {
+
+    public static volatile boolean ENABLED = true;
+    public static volatile float CELL_SIZE = 1f;
+    public static volatile int MAX_ENTRIES = 4096;
+
+    public static long cellKey(int cellX, int cellY, int cellZ) {
+        return ((cellX & 0x1FFFFFL) << 42) | ((cellY & 0x1FFFFFL) << 21) | (cellZ & 0x1FFFFFL);
+    }
+
+    public static int cell(double position, float cellSize) {
+        return (int) Math.floor(position / cellSize);
+    }
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Map<Long, float[]> entries = new LinkedHashMap<>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+            if (size() > MAX_ENTRIES) {
+                NAmbientCubeCache.this.evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<Long, CompletableFuture<float[]>> pending = new HashMap<>();
+    private Object owner = null;
+    private float cellSize = Float.NaN;
+
+    public NAmbientCubeCache() {
+
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    public float getHitRate() {
+        long currentHits = this.hits.sum();
+        long total = currentHits + this.misses.sum();
+        if (total == 0) {
+            return 1f;
+        }
+        return ((float) currentHits) / total;
+    }
+
+    public void resetStatistics() {
+        this.hits.reset();
+        this.misses.reset();
+        this.evictions.reset();
+    }
+
+    /**
+     * Returns the cached value of a cell, tracing it on a miss.
+     * <p>
+     * Misses are single flight, only the first caller of a missing cell runs
+     * the trace, on its own thread. Concurrent callers of the same cell block
+     * until that trace finishes, without running any other work meanwhile,
+     * and are counted as hits.
+     *
+     * @param owner the owner of the cached values, the cache is cleared when it
+     * changes
+     * @param cellSize the cell size the key was computed with, the cache is
+     * cleared when it changes
+     * @param key the cell key
+     * @param trace traces the value of the cell on a miss
+     * @return the value of the cell
+     */
+    public float[] get(Object owner, float cellSize, long key, Supplier<float[]> trace) {
+        CompletableFuture<float[]> future;
+        boolean tracing = false;
+        synchronized (this.entries) {
+            if (this.owner != owner || Float.compare(this.cellSize, cellSize) != 0) {
+                this.entries.clear();
+                this.pending.clear();
+                this.owner = owner;
+                this.cellSize = cellSize;
+            }
+            float[] value = this.entries.get(key);
+            if (value != null) {
+                this.hits.increment();
+                return value;
+            }
+            future = this.pending.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                this.pending.put(key, future);
+                tracing = true;
+                this.misses.increment();
+            } else {
+                this.hits.increment();
+            }
+        }
+
+        if (!tracing) {
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        float[] value;
+        try {
+            value = trace.get();
+        } catch (RuntimeException | Error ex) {
+            synchronized (this.entries) {
+                this.pending.remove(key, future);
+            }
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+        synchronized (this.entries) {
+            if (this.owner == owner && Float.compare(this.cellSize, cellSize) == 0) {
+                this.entries.put(key, value);
+            }
+            this.pending.remove(key, future);
+        }
+        future.complete(value);
+        return value;
+    }
+
+    public int getNumberOfEntries() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.pending.clear();
+            this.owner = null;
+            this.cellSize = Float.NaN;
+        }
+    }
+
+}
@@ -75,4 +75,29 @@ public class NAnimation {
         return getBoneAnimation(index);
     }
     
+    public boolean isCompressed() {
+        for (NBoneAnimation boneAnimation : this.boneAnimations) {
+            if (!boneAnimation.isCompressed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public NAnimation compress(float positionTolerance, float rotationTolerance, float scalingTolerance) {
+        NBoneAnimation[] compressed = new NBoneAnimation[this.boneAnimations.length];
+        for (int i = 0; i < compressed.length; i++) {
+            compressed[i] = this.boneAnimations[i].compress(positionTolerance, rotationTolerance, scalingTolerance);
+        }
+        return new NAnimation(this.name, this.duration, compressed);
+    }
+    
+    public NAnimation compress() {
+        return compress(
+                NBoneAnimation.DEFAULT_POSITION_TOLERANCE,
+                NBoneAnimation.DEFAULT_ROTATION_TOLERANCE,
+                NBoneAnimation.DEFAULT_SCALING_TOLERANCE
+        );
+    }
+    
 }
@@ -0,0 +1,211 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ *
+ * @author Cien
+ */
+public class NAnimationCompressionBenchmark {
+
+    public static final String MODEL = "cientistavuador/newrenderingpipeline/resources/models/triceratops.n3dm";
+    public static final int SAMPLES = 2000;
+    public static final int DECODE_ITERATIONS = 20;
+    //samples between keys are interpolated in float, allow for its rounding
+    public static final float TOLERANCE_SLACK = 1E-5f;
+
+    private static class Sampler {
+
+        final Vector3f position = new Vector3f();
+        final Quaternionf rotation = new Quaternionf();
+        final Vector3f scaling = new Vector3f();
+
+        final Vector3f nextVector = new Vector3f();
+        final Quaternionf nextRotation = new Quaternionf();
+
+        static int key(float[] times, float time) {
+            int key = 0;
+            int low = 1;
+            int high = times.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            key = Math.max(low - 1, 0);
+            return key;
+        }
+
+        static float lerp(float time, float start, float end) {
+            float lerp = (time - start) / (end - start);
+            return Float.isFinite(lerp) ? lerp : 0f;
+        }
+
+        void sample(NBoneAnimation b, float time) {
+            float[] times = b.getPositionTimes();
+            int k = key(times, time);
+            b.getPosition(k, this.position);
+            if ((k + 1) < times.length) {
+                b.getPosition(k + 1, this.nextVector);
+                this.position.lerp(this.nextVector, lerp(time, times[k], times[k + 1]));
+            }
+
+            times = b.getRotationTimes();
+            k = key(times, time);
+            b.getRotation(k, this.rotation);
+            if ((k + 1) < times.length) {
+                b.getRotation(k + 1, this.nextRotation);
+                this.rotation.slerp(this.nextRotation, lerp(time, times[k], times[k + 1]));
+            }
+
+            times = b.getScalingTimes();
+            k = key(times, time);
+            b.getScaling(k, this.scaling);
+            if ((k + 1) < times.length) {
+                b.getScaling(k + 1, this.nextVector);
+                this.scaling.lerp(this.nextVector, lerp(time, times[k], times[k + 1]));
+            }
+        }
+    }
+
+    private static List<NAnimation> readAnimations() throws IOException {
+        List<NAnimation> animations = new ArrayList<>();
+        try (ZipInputStream zipIn = new ZipInputStream(
+                new BufferedInputStream(ClassLoader.getSystemResourceAsStream(MODEL)), StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                if (entry.getName().endsWith(".anm")) {
+                    byte[] data = zipIn.readAllBytes();
+                    animations.add(NAnimationStore.readAnimation(new ByteArrayInputStream(data)));
+                }
+            }
+        }
+        return animations;
+    }
+
+    private static int storeSize(NAnimation animation) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NAnimationStore.writeAnimation(animation, out);
+        return out.size();
+    }
+
+    private static int keys(NAnimation animation) {
+        int keys = 0;
+        for (int i = 0; i < animation.getNumberOfBoneAnimations(); i++) {
+            NBoneAnimation b = animation.getBoneAnimation(i);
+            keys += b.getNumberOfPositions() + b.getNumberOfRotations() + b.getNumberOfScalings();
+        }
+        return keys;
+    }
+
+    private static long decodeTime(NAnimation animation, Sampler sampler) {
+        long start = System.nanoTime();
+        for (int iteration = 0; iteration < DECODE_ITERATIONS; iteration++) {
+            for (int s = 0; s < SAMPLES; s++) {
+                float time = (s * animation.getDuration()) / (SAMPLES - 1);
+                for (int i = 0; i < animation.getNumberOfBoneAnimations(); i++) {
+                    sampler.sample(animation.getBoneAnimation(i), time);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<NAnimation> animations = readAnimations();
+
+        System.out.println("Animation | Keys (raw/compressed) | Store Bytes (raw/compressed) | Max Position Error | Max Rotation Error (rad) | Max Scaling Error | Decode ms (raw/compressed)");
+
+        for (NAnimation raw : animations) {
+            NAnimation compressed = raw.compress();
+
+            NAnimation reloaded;
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                NAnimationStore.writeAnimation(compressed, out);
+                reloaded = NAnimationStore.readAnimation(new ByteArrayInputStream(out.toByteArray()));
+            }
+
+            Sampler a = new Sampler();
+            Sampler b = new Sampler();
+            float positionError = 0f;
+            float rotationError = 0f;
+            float scalingError = 0f;
+            for (int s = 0; s < SAMPLES; s++) {
+                float time = (s * raw.getDuration()) / (SAMPLES - 1);
+                for (int i = 0; i < raw.getNumberOfBoneAnimations(); i++) {
+                    a.sample(raw.getBoneAnimation(i), time);
+                    b.sample(reloaded.getBoneAnimation(i), time);
+
+                    positionError = Math.max(positionError, a.position.distance(b.position));
+                    scalingError = Math.max(scalingError, a.scaling.distance(b.scaling));
+
+                    rotationError = Math.max(rotationError, NBoneAnimation.rotationAngle(a.rotation, b.rotation));
+                }
+            }
+
+            decodeTime(raw, a);
+            decodeTime(reloaded, b);
+            long rawTime = decodeTime(raw, a);
+            long compressedTime = decodeTime(reloaded, b);
+
+            System.out.printf("%s | %d/%d | %d/%d | %.6f | %.6f | %.6f | %.2f/%.2f%n",
+                    raw.getName(),
+                    keys(raw), keys(reloaded),
+                    storeSize(raw), storeSize(reloaded),
+                    positionError, rotationError, scalingError,
+                    rawTime / 1E6, compressedTime / 1E6
+            );
+
+            if (positionError > NBoneAnimation.DEFAULT_POSITION_TOLERANCE + TOLERANCE_SLACK
+                    || rotationError > NBoneAnimation.DEFAULT_ROTATION_TOLERANCE + TOLERANCE_SLACK
+                    || scalingError > NBoneAnimation.DEFAULT_SCALING_TOLERANCE + TOLERANCE_SLACK) {
+                throw new IllegalStateException(raw.getName() + " exceeds the compression tolerances!");
+            }
+        }
+    }
+
+    private NAnimationCompressionBenchmark() {
+
+    }
+
+}
@@ -44,6 +44,7 @@ import java.util.zip.GZIPOutputStream;
 public class NAnimationStore {
     
     public static final long MAGIC_NUMBER = 1251136182124926237L;
+    public static final long MAGIC_NUMBER_COMPRESSED = 1251136182124926238L;
     
     private static void writeString(String s, ObjectOutputStream out) throws IOException {
         byte[] stringBytes = s.getBytes(StandardCharsets.UTF_8);
@@ -75,11 +76,52 @@ public class NAnimationStore {
         writeInterleaved(boneAnimation.getScalings(), NBoneAnimation.SCALING_COMPONENTS, out);
     }
     
+    private static void writeFloats(float[] array, ObjectOutputStream out) throws IOException {
+        out.writeInt(array.length);
+        for (float f : array) {
+            out.writeFloat(f);
+        }
+    }
+    
+    private static void writeInterleaved(short[] array, int lineSize, ObjectOutputStream out) throws IOException {
+        out.writeInt(array.length);
+        out.writeInt(lineSize);
+        
+        for (int i = 0; i < lineSize; i++) {
+            for (int j = 0; j < array.length; j += lineSize) {
+                out.writeShort(array[j + i]);
+            }
+        }
+    }
+    
+    private static void writeLongs(long[] array, ObjectOutputStream out) throws IOException {
+        out.writeInt(array.length);
+        for (long l : array) {
+            out.writeLong(l);
+        }
+    }
+    
+    private static void writeCompressedBoneAnimation(NBoneAnimation boneAnimation, ObjectOutputStream out) throws IOException {
+        writeString(boneAnimation.getBoneName(), out);
+        
+        writeInterleaved(boneAnimation.getPositionTimes(), 1, out);
+        writeInterleaved(boneAnimation.getRotationTimes(), 1, out);
+        writeInterleaved(boneAnimation.getScalingTimes(), 1, out);
+        
+        writeFloats(boneAnimation.getPositionsRange(), out);
+        writeInterleaved(boneAnimation.getQuantizedPositions(), NBoneAnimation.POSITION_COMPONENTS, out);
+        writeLongs(boneAnimation.getQuantizedRotations(), out);
+        writeFloats(boneAnimation.getScalingsRange(), out);
+        writeInterleaved(boneAnimation.getQuantizedScalings(), NBoneAnimation.SCALING_COMPONENTS, out);
+    }
+    
     public static void writeAnimation(NAnimation animation, OutputStream output) throws IOException {
         GZIPOutputStream compressedOutput = new GZIPOutputStream(output);
         ObjectOutputStream out = new ObjectOutputStream(compressedOutput);
         
-        out.writeLong(MAGIC_NUMBER);
+        boolean compressed = animation.isCompressed();
+        
+        out.writeLong(compressed ? MAGIC_NUMBER_COMPRESSED : MAGIC_NUMBER);
         
         writeString(animation.getName(), out);
         out.writeFloat(animation.getDuration());
@@ -87,7 +129,11 @@ public class NAnimationStore {
         out.writeInt(animation.getNumberOfBoneAnimations());
         for (int i = 0; i < animation.getNumberOfBoneAnimations(); i++) {
             NBoneAnimation boneAnimation = animation.getBoneAnimation(i);
-            writeBoneAnimation(boneAnimation, out);
+            if (compressed) {
+                writeCompressedBoneAnimation(boneAnimation, out);
+            } else {
+                writeBoneAnimation(boneAnimation, out);
+            }
         }
         
         out.flush();
@@ -130,14 +176,66 @@ public class NAnimationStore {
         return new NBoneAnimation(boneName, positionTimes, positions, rotationTimes, rotations, scalingTimes, scalings);
     }
     
+    private static float[] readFloats(ObjectInputStream in) throws IOException {
+        float[] array = new float[in.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = in.readFloat();
+        }
+        return array;
+    }
+    
+    private static short[] readInterleavedShorts(ObjectInputStream in) throws IOException {
+        int arraySize = in.readInt();
+        int lineSize = in.readInt();
+        
+        short[] array = new short[arraySize];
+        
+        for (int i = 0; i < lineSize; i++) {
+            for (int j = 0; j < arraySize; j += lineSize) {
+                array[j + i] = in.readShort();
+            }
+        }
+        
+        return array;
+    }
+    
+    private static long[] readLongs(ObjectInputStream in) throws IOException {
+        long[] array = new long[in.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = in.readLong();
+        }
+        return array;
+    }
+    
+    private static NBoneAnimation readCompressedBoneAnimation(ObjectInputStream in) throws IOException {
+        String boneName = readString(in);
+        
+        float[] positionTimes = readInterleaved(in);
+        float[] rotationTimes = readInterleaved(in);
+        float[] scalingTimes = readInterleaved(in);
+        
+        float[] positionsRange = readFloats(in);
+        short[] positions = readInterleavedShorts(in);
+        long[] rotations = readLongs(in);
+        float[] scalingsRange = readFloats(in);
+        short[] scalings = readInterleavedShorts(in);
+        
+        return new NBoneAnimation(boneName,
+                positionTimes, positionsRange, positions,
+                rotationTimes, rotations,
+                scalingTimes, scalingsRange, scalings
+        );
+    }
+    
     public static NAnimation readAnimation(InputStream input) throws IOException {
         GZIPInputStream compressedInput = new GZIPInputStream(input);
         ObjectInputStream in = new ObjectInputStream(compressedInput);
         
         long magicNumber = in.readLong();
-        if (magicNumber != MAGIC_NUMBER) {
-            throw new IllegalArgumentException("Invalid magic number, expected "+MAGIC_NUMBER+", found: "+magicNumber);
+        if (magicNumber != MAGIC_NUMBER && magicNumber != MAGIC_NUMBER_COMPRESSED) {
+            throw new IllegalArgumentException("Invalid magic number, expected "+MAGIC_NUMBER+" or "+MAGIC_NUMBER_COMPRESSED+", found: "+magicNumber);
         }
+        boolean compressed = (magicNumber == MAGIC_NUMBER_COMPRESSED);
         
         String animationName = readString(in);
         float duration = in.readFloat();
@@ -146,7 +244,11 @@ public class NAnimationStore {
         
         int numberOfBoneAnimations = in.readInt();
         for (int i = 0; i < numberOfBoneAnimations; i++) {
-            boneAnimations.add(readBoneAnimation(in));
+            if (compressed) {
+                boneAnimations.add(readCompressedBoneAnimation(in));
+            } else {
+                boneAnimations.add(readBoneAnimation(in));
+            }
         }
         
         return new NAnimation(animationName, duration, boneAnimations.toArray(NBoneAnimation[]::new));
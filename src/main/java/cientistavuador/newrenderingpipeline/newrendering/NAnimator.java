@@ -26,11 +26,15 @@
  */
 package cientistavuador.newrenderingpipeline.newrendering;
 
+import cientistavuador.newrenderingpipeline.util.ObjectCleaner;
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
 import org.joml.Quaternionf;
@@ -45,19 +49,98 @@ public class NAnimator {
     public static final Matrix4fc IDENTITY = new Matrix4f();
     
     public static final float UPDATE_RATE = 1f / 60f;
+    
+    public static final int MATRIX_SIZE = NBoneMatrixPool.MATRIX_SIZE;
+    
+    public static final int ANIMATORS_PER_BATCH = 8;
+    
+    private static final ConcurrentLinkedQueue<NAnimator> updateQueue = new ConcurrentLinkedQueue<>();
+    private static final List<NAnimator> queuedAnimators = new ArrayList<>();
+    private static final Map<NAnimator, Boolean> queuedSet = new IdentityHashMap<>();
+    
+    public static void queueUpdate(NAnimator animator) {
+        if (animator == null) {
+            return;
+        }
+        updateQueue.add(animator);
+    }
+    
+    public static void updateQueued(double tpf) {
+        NAnimator next;
+        while ((next = updateQueue.poll()) != null) {
+            if (queuedSet.put(next, Boolean.TRUE) == null) {
+                queuedAnimators.add(next);
+            }
+        }
+        try {
+            updateAll(queuedAnimators, tpf);
+        } finally {
+            queuedAnimators.clear();
+            queuedSet.clear();
+        }
+    }
+    
+    public static void updateAll(List<NAnimator> animators, double tpf) {
+        int count = animators.size();
+        if (count == 0) {
+            return;
+        }
+        
+        int batches = (count + ANIMATORS_PER_BATCH - 1) / ANIMATORS_PER_BATCH;
+        SharedExecutor.parallelFor(batches, (batch) -> {
+            int start = batch * ANIMATORS_PER_BATCH;
+            int end = Math.min(start + ANIMATORS_PER_BATCH, count);
+            for (int i = start; i < end; i++) {
+                animators.get(i).update(tpf);
+            }
+        });
+    }
+    
+    private static int findKey(float[] times, int cursor, float time) {
+        int length = times.length;
+        if (cursor + 1 >= length || time <= times[cursor + 1]) {
+            return cursor;
+        }
+        if (cursor + 2 >= length || time <= times[cursor + 2]) {
+            return cursor + 1;
+        }
+        int low = cursor + 3;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+    
+    private static float timeLerpValue(float time, float start, float end) {
+        float lerp = (time - start) / (end - start);
+        if (!Float.isFinite(lerp)) {
+            return 0f;
+        }
+        return lerp;
+    }
 
     private final N3DModel model;
     private final NAnimation animation;
 
     private final NBoneAnimation[] boneAnimations;
     private final Map<String, Integer> boneMap = new HashMap<>();
-
-    private final String[] unusedBones;
-    private final Matrix4f[] unusedBonesMatrices;
-    private final Map<String, Integer> unusedBoneMap = new HashMap<>();
     
     private final Matrix4f[] localBoneMatrices;
-    private final Matrix4f[] boneMatrices;
+    
+    private final N3DModelNode[] nodes;
+    private final int[] nodesParent;
+    private final int[] nodesAnimation;
+    private final Matrix4f[] nodesMatrices;
+    
+    private final int[] bonesNode;
+    private final float[] boneMatrices;
+    private final int boneMatricesOffset;
 
     private final int[] currentPositionKeys;
     private final int[] currentRotationKeys;
@@ -89,39 +172,82 @@ public class NAnimator {
         this.animation = animation;
 
         this.boneAnimations = new NBoneAnimation[this.animation.getNumberOfBoneAnimations()];
+        Map<String, Integer> animationsMap = new HashMap<>();
         for (int i = 0; i < this.boneAnimations.length; i++) {
             this.boneAnimations[i] = this.animation.getBoneAnimation(i);
-            this.boneMap.put(this.boneAnimations[i].getBoneName(), i);
+            animationsMap.put(this.boneAnimations[i].getBoneName(), i);
         }
         
-        List<String> unusedList = new ArrayList<>();
+        List<String> bones = new ArrayList<>();
+        for (NBoneAnimation boneAnimation : this.boneAnimations) {
+            bones.add(boneAnimation.getBoneName());
+        }
         for (int totalBonesIndex = 0; totalBonesIndex < model.getNumberOfBones(); totalBonesIndex++) {
             String boneName = model.getBone(totalBonesIndex);
-            if (!this.boneMap.containsKey(boneName)) {
-                unusedList.add(boneName);
+            if (!animationsMap.containsKey(boneName)) {
+                bones.add(boneName);
             }
         }
         
-        this.unusedBones = unusedList.toArray(String[]::new);
-        this.unusedBonesMatrices = new Matrix4f[this.unusedBones.length];
-        for (int i = 0; i < this.unusedBones.length; i++) {
-            this.unusedBoneMap.put(this.unusedBones[i], i);
-            this.unusedBonesMatrices[i] = new Matrix4f();
-        }
-        
         this.localBoneMatrices = new Matrix4f[this.boneAnimations.length];
-        this.boneMatrices = new Matrix4f[this.boneAnimations.length];
-        for (int i = 0; i < this.boneAnimations.length; i++) {
+        for (int i = 0; i < this.localBoneMatrices.length; i++) {
             this.localBoneMatrices[i] = new Matrix4f();
-            this.boneMatrices[i] = new Matrix4f();
         }
         
+        List<N3DModelNode> nodesList = new ArrayList<>();
+        List<Integer> parentsList = new ArrayList<>();
+        Map<N3DModelNode, Integer> nodesMap = new IdentityHashMap<>();
+        
+        this.bonesNode = new int[bones.size()];
+        for (int i = 0; i < this.bonesNode.length; i++) {
+            String boneName = bones.get(i);
+            this.boneMap.putIfAbsent(boneName, i);
+            this.bonesNode[i] = addNode(this.model.getNode(boneName), nodesList, parentsList, nodesMap);
+        }
+        
+        this.nodes = nodesList.toArray(N3DModelNode[]::new);
+        this.nodesParent = new int[this.nodes.length];
+        this.nodesAnimation = new int[this.nodes.length];
+        this.nodesMatrices = new Matrix4f[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            this.nodesParent[i] = parentsList.get(i);
+            Integer animationIndex = animationsMap.get(this.nodes[i].getName());
+            this.nodesAnimation[i] = (animationIndex == null ? -1 : animationIndex);
+            this.nodesMatrices[i] = new Matrix4f();
+        }
+        
+        final NBoneMatrixPool.Slice slice = NBoneMatrixPool.allocate(this.bonesNode.length);
+        this.boneMatrices = slice.page();
+        this.boneMatricesOffset = slice.offset();
+        ObjectCleaner.get().register(this, () -> {
+            NBoneMatrixPool.free(slice);
+        });
+        
         this.currentPositionKeys = new int[this.boneAnimations.length];
         this.currentRotationKeys = new int[this.boneAnimations.length];
         this.currentScalingKeys = new int[this.boneAnimations.length];
 
         update();
     }
+    
+    private static int addNode(
+            N3DModelNode node,
+            List<N3DModelNode> nodesList, List<Integer> parentsList, Map<N3DModelNode, Integer> nodesMap
+    ) {
+        if (node == null) {
+            return -1;
+        }
+        Integer existing = nodesMap.get(node);
+        if (existing != null) {
+            return existing;
+        }
+        int parent = addNode(node.getParent(), nodesList, parentsList, nodesMap);
+        int index = nodesList.size();
+        nodesList.add(node);
+        parentsList.add(parent);
+        nodesMap.put(node, index);
+        return index;
+    }
 
     private void resetKeys() {
         Arrays.fill(this.currentPositionKeys, 0);
@@ -136,17 +262,41 @@ public class NAnimator {
     public NAnimation getAnimation() {
         return animation;
     }
+    
+    public int getNumberOfBoneMatrices() {
+        return this.bonesNode.length;
+    }
+    
+    public int indexOfBone(String name) {
+        Integer index = this.boneMap.get(name);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+    
+    public float[] getBoneMatrices() {
+        return this.boneMatrices;
+    }
+    
+    public int getBoneMatricesOffset() {
+        return this.boneMatricesOffset;
+    }
+
+    public Matrix4f getBoneMatrix(int index, Matrix4f outMatrix) {
+        return outMatrix.set(this.boneMatrices, this.boneMatricesOffset + (index * MATRIX_SIZE));
+    }
 
     public Matrix4fc getBoneMatrix(String name) {
         Integer index = this.boneMap.get(name);
         if (index == null) {
-            Integer unusedIndex = this.unusedBoneMap.get(name);
-            if (unusedIndex == null) {
-                return null;
-            }
-            return this.unusedBonesMatrices[unusedIndex];
+            return null;
         }
-        return this.boneMatrices[index];
+        int node = this.bonesNode[index];
+        if (node == -1) {
+            return IDENTITY;
+        }
+        return this.nodesMatrices[node];
     }
 
     public float getAnimationSpeed() {
@@ -189,181 +339,110 @@ public class NAnimator {
         }
 
         this.tickCounter += tpf;
-
+        
+        if (this.tickCounter < UPDATE_RATE) {
+            return;
+        }
+        
+        float evaluatedCounter = this.animationCounter;
         while (this.tickCounter >= UPDATE_RATE) {
-            update();
+            evaluatedCounter = this.animationCounter;
             this.animationCounter += (UPDATE_RATE * this.animationSpeed);
             this.tickCounter -= UPDATE_RATE;
         }
+        
+        update(evaluatedCounter);
     }
 
     private void update() {
-        updateLocalMatrices();
-        updateMatrices();
+        update(this.animationCounter);
     }
-
-    private float timeLerpValue(float start, float end) {
-        float lerp = (this.animationCounter - start) / (end - start);
-        if (!Float.isFinite(lerp)) {
-            return 0f;
-        }
-        return lerp;
+    
+    private void update(float time) {
+        updateLocalMatrices(time);
+        updateMatrices();
     }
 
-    private void updateLocalMatrices() {
+    private void updateLocalMatrices(float time) {
         for (int i = 0; i < this.boneAnimations.length; i++) {
             NBoneAnimation boneAnimation = this.boneAnimations[i];
-            Matrix4f localMatrix = this.localBoneMatrices[i].identity();
-
-            int currentPositionKey = this.currentPositionKeys[i];
-            int currentRotationKey = this.currentRotationKeys[i];
-            int currentScalingKey = this.currentScalingKeys[i];
             
-            float currentPositionTime = boneAnimation.getPositionTime(currentPositionKey);
-            float currentRotationTime = boneAnimation.getRotationTime(currentRotationKey);
-            float currentScalingTime = boneAnimation.getScalingTime(currentScalingKey);
+            float[] positionTimes = boneAnimation.getPositionTimes();
+            float[] rotationTimes = boneAnimation.getRotationTimes();
+            float[] scalingTimes = boneAnimation.getScalingTimes();
             
-            boolean hasNextPositionKey = (currentPositionKey + 1) < boneAnimation.getNumberOfPositions();
-            boolean hasNextRotationKey = (currentRotationKey + 1) < boneAnimation.getNumberOfRotations();
-            boolean hasNextScalingKey = (currentScalingKey + 1) < boneAnimation.getNumberOfScalings();
-
-            float nextPositionTime = currentPositionTime;
-            float nextRotationTime = currentRotationTime;
-            float nextScalingTime = currentScalingTime;
-
-            if (hasNextPositionKey) {
-                nextPositionTime = boneAnimation.getPositionTime(currentPositionKey + 1);
-
-                while (this.animationCounter > nextPositionTime) {
-                    currentPositionKey++;
-                    currentPositionTime = boneAnimation.getPositionTime(currentPositionKey);
-                    nextPositionTime = currentPositionTime;
-                    if ((currentPositionKey + 1) >= boneAnimation.getNumberOfPositions()) {
-                        hasNextPositionKey = false;
-                        break;
-                    }
-                    nextPositionTime = boneAnimation.getPositionTime(currentPositionKey + 1);
-                }
-            }
-
-            if (hasNextRotationKey) {
-                nextRotationTime = boneAnimation.getRotationTime(currentRotationKey + 1);
-
-                while (this.animationCounter > nextRotationTime) {
-                    currentRotationKey++;
-                    currentRotationTime = boneAnimation.getRotationTime(currentRotationKey);
-                    nextRotationTime = currentRotationTime;
-                    if ((currentRotationKey + 1) >= boneAnimation.getNumberOfRotations()) {
-                        hasNextRotationKey = false;
-                        break;
-                    }
-                    nextRotationTime = boneAnimation.getRotationTime(currentRotationKey + 1);
-                }
-            }
-
-            if (hasNextScalingKey) {
-                nextScalingTime = boneAnimation.getScalingTime(currentScalingKey + 1);
-
-                while (this.animationCounter > nextScalingTime) {
-                    currentScalingKey++;
-                    currentScalingTime = boneAnimation.getScalingTime(currentScalingKey);
-                    nextScalingTime = currentScalingTime;
-                    if ((currentScalingKey + 1) >= boneAnimation.getNumberOfScalings()) {
-                        hasNextScalingKey = false;
-                        break;
-                    }
-                    nextScalingTime = boneAnimation.getScalingTime(currentScalingKey + 1);
-                }
-            }
-
-            float positionLerp = timeLerpValue(currentPositionTime, nextPositionTime);
-            float rotationLerp = timeLerpValue(currentRotationTime, nextRotationTime);
-            float scalingLerp = timeLerpValue(currentScalingTime, nextScalingTime);
-
-            if (positionLerp > 1f) {
-                currentPositionKey++;
-                positionLerp = 0f;
-                hasNextPositionKey = false;
-            }
-
-            if (rotationLerp > 1f) {
-                currentRotationKey++;
-                rotationLerp = 0f;
-                hasNextRotationKey = false;
-            }
-
-            if (scalingLerp > 1f) {
-                currentScalingKey++;
-                scalingLerp = 0f;
-                hasNextScalingKey = false;
-            }
-
-            boneAnimation.getPosition(currentPositionKey, this.currentPosition);
-            boneAnimation.getRotation(currentRotationKey, this.currentRotation);
-            boneAnimation.getScaling(currentScalingKey, this.currentScaling);
-
-            this.nextPosition.set(this.currentPosition);
-            this.nextRotation.set(this.currentRotation);
-            this.nextScaling.set(this.currentScaling);
-
-            if (hasNextPositionKey) {
-                boneAnimation.getPosition(currentPositionKey + 1, this.nextPosition);
-                this.currentPosition.lerp(this.nextPosition, positionLerp);
+            int positionKey = findKey(positionTimes, this.currentPositionKeys[i], time);
+            int rotationKey = findKey(rotationTimes, this.currentRotationKeys[i], time);
+            int scalingKey = findKey(scalingTimes, this.currentScalingKeys[i], time);
+            
+            this.currentPositionKeys[i] = positionKey;
+            this.currentRotationKeys[i] = rotationKey;
+            this.currentScalingKeys[i] = scalingKey;
+            
+            boneAnimation.getPosition(positionKey, this.currentPosition);
+            if ((positionKey + 1) < positionTimes.length) {
+                boneAnimation.getPosition(positionKey + 1, this.nextPosition);
+                lerp(this.currentPosition, this.nextPosition,
+                        timeLerpValue(time, positionTimes[positionKey], positionTimes[positionKey + 1])
+                );
             }
-
-            if (hasNextRotationKey) {
-                boneAnimation.getRotation(currentRotationKey + 1, this.nextRotation);
-                this.currentRotation.slerp(this.nextRotation, rotationLerp);
+            
+            boneAnimation.getRotation(rotationKey, this.currentRotation);
+            if ((rotationKey + 1) < rotationTimes.length) {
+                boneAnimation.getRotation(rotationKey + 1, this.nextRotation);
+                this.currentRotation.slerp(this.nextRotation,
+                        timeLerpValue(time, rotationTimes[rotationKey], rotationTimes[rotationKey + 1])
+                );
             }
-
-            if (hasNextScalingKey) {
-                boneAnimation.getScaling(currentScalingKey + 1, this.nextScaling);
-                this.currentScaling.lerp(this.nextScaling, scalingLerp);
+            
+            boneAnimation.getScaling(scalingKey, this.currentScaling);
+            if ((scalingKey + 1) < scalingTimes.length) {
+                boneAnimation.getScaling(scalingKey + 1, this.nextScaling);
+                lerp(this.currentScaling, this.nextScaling,
+                        timeLerpValue(time, scalingTimes[scalingKey], scalingTimes[scalingKey + 1])
+                );
             }
-
-            localMatrix
-                    .translate(this.currentPosition)
+            
+            this.localBoneMatrices[i]
+                    .translation(this.currentPosition)
                     .rotate(this.currentRotation)
                     .scale(this.currentScaling);
-            
-            this.currentPositionKeys[i] = currentPositionKey;
-            this.currentRotationKeys[i] = currentRotationKey;
-            this.currentScalingKeys[i] = currentScalingKey;
         }
     }
-
-    private void recursiveTransform(N3DModelNode node, Matrix4f matrix) {
-        if (node == null) {
-            return;
-        }
-        
-        Matrix4fc boneMatrix = null;
-        Integer boneIndex = this.boneMap.get(node.getName());
-        if (boneIndex != null) {
-            boneMatrix = this.localBoneMatrices[boneIndex];
-        }
-        
-        if (boneMatrix != null) {
-            boneMatrix.mul(matrix, matrix);
-        } else {
-            node.getTransformation().mul(matrix, matrix);
-        }
-        
-        recursiveTransform(node.getParent(), matrix);
+    
+    private static void lerp(Vector3f current, Vector3f next, float lerp) {
+        current.set(
+                current.x() + ((next.x() - current.x()) * lerp),
+                current.y() + ((next.y() - current.y()) * lerp),
+                current.z() + ((next.z() - current.z()) * lerp)
+        );
     }
 
     private void updateMatrices() {
-        for (int i = 0; i < this.boneAnimations.length; i++) {
-            String boneName = this.boneAnimations[i].getBoneName();
-            Matrix4f matrix = this.boneMatrices[i].identity();
-
-            recursiveTransform(this.model.getNode(boneName), matrix);
-        }
-        for (int i = 0; i < this.unusedBonesMatrices.length; i++) {
-            String boneName = this.unusedBones[i];
-            Matrix4f matrix = this.unusedBonesMatrices[i].identity();
+        for (int i = 0; i < this.nodes.length; i++) {
+            int animationIndex = this.nodesAnimation[i];
             
-            recursiveTransform(this.model.getNode(boneName), matrix);
+            Matrix4fc local;
+            if (animationIndex != -1) {
+                local = this.localBoneMatrices[animationIndex];
+            } else {
+                local = this.nodes[i].getTransformation();
+            }
+            
+            int parent = this.nodesParent[i];
+            if (parent != -1) {
+                this.nodesMatrices[parent].mul(local, this.nodesMatrices[i]);
+            } else {
+                this.nodesMatrices[i].set(local);
+            }
+        }
+        for (int i = 0; i < this.bonesNode.length; i++) {
+            int node = this.bonesNode[i];
+            if (node == -1) {
+                IDENTITY.get(this.boneMatrices, this.boneMatricesOffset + (i * MATRIX_SIZE));
+            } else {
+                this.nodesMatrices[node].get(this.boneMatrices, this.boneMatricesOffset + (i * MATRIX_SIZE));
+            }
         }
     }
 
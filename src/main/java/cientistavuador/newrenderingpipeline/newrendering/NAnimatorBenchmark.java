@@ -0,0 +1,315 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+/**
+ *
+ * @author Cien
+ */
+public class NAnimatorBenchmark {
+
+    public static final int[] INSTANCES = {1, 100, 1000};
+    public static final int FRAMES = 240;
+    public static final double FRAME_TIME = 1.0 / 60.0;
+
+    public static final int SYNTHETIC_BONES = 64;
+    public static final int SYNTHETIC_KEYS = 120;
+    public static final float SYNTHETIC_DURATION = 4f;
+
+    private static N3DModel syntheticModel() {
+        Random random = new Random(12345);
+
+        int[] parents = new int[SYNTHETIC_BONES];
+        List<List<N3DModelNode>> children = new ArrayList<>();
+        for (int i = 0; i < SYNTHETIC_BONES; i++) {
+            parents[i] = (i == 0 ? -1 : random.nextInt(i));
+            children.add(new ArrayList<>());
+        }
+        N3DModelNode[] nodes = new N3DModelNode[SYNTHETIC_BONES];
+        for (int i = SYNTHETIC_BONES - 1; i >= 0; i--) {
+            nodes[i] = new N3DModelNode("bone" + i,
+                    new Matrix4f().translation(random.nextFloat(), random.nextFloat(), random.nextFloat()),
+                    null,
+                    children.get(i).toArray(N3DModelNode[]::new)
+            );
+            if (parents[i] != -1) {
+                children.get(parents[i]).add(0, nodes[i]);
+            }
+        }
+
+        NBoneAnimation[] boneAnimations = new NBoneAnimation[SYNTHETIC_BONES];
+        for (int i = 0; i < SYNTHETIC_BONES; i++) {
+            float[] times = new float[SYNTHETIC_KEYS];
+            float[] positions = new float[SYNTHETIC_KEYS * NBoneAnimation.POSITION_COMPONENTS];
+            float[] rotations = new float[SYNTHETIC_KEYS * NBoneAnimation.ROTATION_COMPONENTS];
+            float[] scalings = new float[SYNTHETIC_KEYS * NBoneAnimation.SCALING_COMPONENTS];
+            Quaternionf q = new Quaternionf();
+            for (int k = 0; k < SYNTHETIC_KEYS; k++) {
+                times[k] = (k * SYNTHETIC_DURATION) / (SYNTHETIC_KEYS - 1);
+                positions[(k * 3) + 0] = random.nextFloat();
+                positions[(k * 3) + 1] = random.nextFloat();
+                positions[(k * 3) + 2] = random.nextFloat();
+                q.rotationXYZ(random.nextFloat(), random.nextFloat(), random.nextFloat());
+                rotations[(k * 4) + 0] = q.x();
+                rotations[(k * 4) + 1] = q.y();
+                rotations[(k * 4) + 2] = q.z();
+                rotations[(k * 4) + 3] = q.w();
+                scalings[(k * 3) + 0] = 1f;
+                scalings[(k * 3) + 1] = 1f;
+                scalings[(k * 3) + 2] = 1f;
+            }
+            boneAnimations[i] = new NBoneAnimation("bone" + i,
+                    times, positions,
+                    times, rotations,
+                    times, scalings
+            );
+        }
+
+        return new N3DModel("synthetic", nodes[0], new NAnimation[]{
+            new NAnimation("synthetic", SYNTHETIC_DURATION, boneAnimations)
+        });
+    }
+
+    /**
+     * the previous animator, linear key search, one evaluation per update
+     * step and a recursive walk to the root for every bone
+     */
+    private static class ReferenceAnimator {
+
+        final N3DModel model;
+        final NAnimation animation;
+        final String[] bones;
+        final Matrix4f[] local;
+        final Matrix4f[] matrices;
+        final int[] positionKeys;
+        final int[] rotationKeys;
+        final int[] scalingKeys;
+
+        final Vector3f position = new Vector3f();
+        final Quaternionf rotation = new Quaternionf();
+        final Vector3f scaling = new Vector3f();
+        final Vector3f nextPosition = new Vector3f();
+        final Quaternionf nextRotation = new Quaternionf();
+        final Vector3f nextScaling = new Vector3f();
+
+        double tickCounter = 0.0;
+        float animationCounter = 0f;
+
+        ReferenceAnimator(N3DModel model, NAnimation animation) {
+            this.model = model;
+            this.animation = animation;
+            int count = animation.getNumberOfBoneAnimations();
+            this.bones = new String[count];
+            this.local = new Matrix4f[count];
+            this.matrices = new Matrix4f[count];
+            for (int i = 0; i < count; i++) {
+                this.bones[i] = animation.getBoneAnimation(i).getBoneName();
+                this.local[i] = new Matrix4f();
+                this.matrices[i] = new Matrix4f();
+            }
+            this.positionKeys = new int[count];
+            this.rotationKeys = new int[count];
+            this.scalingKeys = new int[count];
+            evaluate();
+        }
+
+        static int advance(float[] times, int key, float time) {
+            while ((key + 1) < times.length && time > times[key + 1]) {
+                key++;
+            }
+            return key;
+        }
+
+        static float lerp(float time, float start, float end) {
+            float lerp = (time - start) / (end - start);
+            return Float.isFinite(lerp) ? lerp : 0f;
+        }
+
+        void update(double tpf) {
+            if (this.animationCounter >= this.animation.getDuration()) {
+                java.util.Arrays.fill(this.positionKeys, 0);
+                java.util.Arrays.fill(this.rotationKeys, 0);
+                java.util.Arrays.fill(this.scalingKeys, 0);
+                this.tickCounter = 0.0;
+                this.animationCounter = 0f;
+            }
+            this.tickCounter += tpf;
+            while (this.tickCounter >= NAnimator.UPDATE_RATE) {
+                evaluate();
+                this.animationCounter += NAnimator.UPDATE_RATE;
+                this.tickCounter -= NAnimator.UPDATE_RATE;
+            }
+        }
+
+        void evaluate() {
+            float t = this.animationCounter;
+            for (int i = 0; i < this.bones.length; i++) {
+                NBoneAnimation b = this.animation.getBoneAnimation(i);
+
+                int p = this.positionKeys[i] = advance(b.getPositionTimes(), this.positionKeys[i], t);
+                int r = this.rotationKeys[i] = advance(b.getRotationTimes(), this.rotationKeys[i], t);
+                int s = this.scalingKeys[i] = advance(b.getScalingTimes(), this.scalingKeys[i], t);
+
+                b.getPosition(p, this.position);
+                b.getRotation(r, this.rotation);
+                b.getScaling(s, this.scaling);
+                if ((p + 1) < b.getNumberOfPositions()) {
+                    b.getPosition(p + 1, this.nextPosition);
+                    this.position.lerp(this.nextPosition, lerp(t, b.getPositionTime(p), b.getPositionTime(p + 1)));
+                }
+                if ((r + 1) < b.getNumberOfRotations()) {
+                    b.getRotation(r + 1, this.nextRotation);
+                    this.rotation.slerp(this.nextRotation, lerp(t, b.getRotationTime(r), b.getRotationTime(r + 1)));
+                }
+                if ((s + 1) < b.getNumberOfScalings()) {
+                    b.getScaling(s + 1, this.nextScaling);
+                    this.scaling.lerp(this.nextScaling, lerp(t, b.getScalingTime(s), b.getScalingTime(s + 1)));
+                }
+                this.local[i].identity().translate(this.position).rotate(this.rotation).scale(this.scaling);
+            }
+            for (int i = 0; i < this.bones.length; i++) {
+                Matrix4f matrix = this.matrices[i].identity();
+                N3DModelNode node = this.model.getNode(this.bones[i]);
+                while (node != null) {
+                    int boneIndex = -1;
+                    for (int j = 0; j < this.bones.length; j++) {
+                        if (this.bones[j].equals(node.getName())) {
+                            boneIndex = j;
+                            break;
+                        }
+                    }
+                    Matrix4fc nodeMatrix = (boneIndex != -1 ? this.local[boneIndex] : node.getTransformation());
+                    nodeMatrix.mul(matrix, matrix);
+                    node = node.getParent();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        N3DModel model;
+        if (args.length > 0 && args[0].equals("--synthetic")) {
+            model = syntheticModel();
+        } else {
+            model = N3DModelStore.readModel("cientistavuador/newrenderingpipeline/resources/models/triceratops.n3dm");
+        }
+        NAnimation animation = model.getAnimation(0);
+
+        System.out.println("Model: " + model.getName() + ", Animation: " + animation.getName()
+                + ", Bones: " + animation.getNumberOfBoneAnimations());
+
+        float maxError = 0f;
+        {
+            ReferenceAnimator reference = new ReferenceAnimator(model, animation);
+            NAnimator animator = new NAnimator(model, animation);
+            Matrix4f matrix = new Matrix4f();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                double tpf = FRAME_TIME * (1 + (frame % 3));
+                reference.update(tpf);
+                animator.update(tpf);
+                for (int i = 0; i < reference.bones.length; i++) {
+                    animator.getBoneMatrix(animator.indexOfBone(reference.bones[i]), matrix);
+                    Matrix4f expected = reference.matrices[i];
+                    for (int c = 0; c < 4; c++) {
+                        for (int r = 0; r < 4; r++) {
+                            maxError = Math.max(maxError, Math.abs(matrix.get(c, r) - expected.get(c, r)));
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Max Error: " + maxError);
+
+        System.out.println("Instances | Reference (ms/frame) | Serial (ms/frame) | Parallel (ms/frame)");
+
+        for (int instances : INSTANCES) {
+            List<ReferenceAnimator> references = new ArrayList<>();
+            List<NAnimator> animators = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                references.add(new ReferenceAnimator(model, animation));
+                NAnimator animator = new NAnimator(model, animation);
+                animator.update(i * 0.01);
+                animators.add(animator);
+            }
+
+            long referenceTime = 0;
+            long serialTime = 0;
+            long parallelTime = 0;
+            for (int frame = 0; frame < FRAMES * 2; frame++) {
+                boolean warmup = frame < FRAMES;
+
+                long start = System.nanoTime();
+                for (ReferenceAnimator r : references) {
+                    r.update(FRAME_TIME);
+                }
+                long end = System.nanoTime();
+                if (!warmup) {
+                    referenceTime += end - start;
+                }
+
+                start = System.nanoTime();
+                for (NAnimator a : animators) {
+                    a.update(FRAME_TIME);
+                }
+                end = System.nanoTime();
+                if (!warmup) {
+                    serialTime += end - start;
+                }
+
+                start = System.nanoTime();
+                NAnimator.updateAll(animators, FRAME_TIME);
+                end = System.nanoTime();
+                if (!warmup) {
+                    parallelTime += end - start;
+                }
+            }
+
+            System.out.printf("%9d | %20.4f | %17.4f | %19.4f%n",
+                    instances,
+                    (referenceTime / 1E6) / FRAMES,
+                    (serialTime / 1E6) / FRAMES,
+                    (parallelTime / 1E6) / FRAMES
+            );
+        }
+
+        System.exit(0);
+    }
+
+    private NAnimatorBenchmark() {
+
+    }
+
+}
@@ -26,7 +26,9 @@
  */
 package cientistavuador.newrenderingpipeline.newrendering;
 
+import java.util.Arrays;
 import org.joml.Quaternionf;
+import org.joml.Quaternionfc;
 import org.joml.Vector3f;
 
 /**
@@ -39,6 +41,16 @@ public class NBoneAnimation {
     public static final int ROTATION_COMPONENTS = 4;
     public static final int SCALING_COMPONENTS = 3;
     
+    public static final float DEFAULT_POSITION_TOLERANCE = 0.0005f;
+    public static final float DEFAULT_ROTATION_TOLERANCE = 0.001f;
+    public static final float DEFAULT_SCALING_TOLERANCE = 0.0005f;
+    
+    public static final int QUANTIZED_POSITION_MAX = 0xFFFF;
+    public static final int QUANTIZED_ROTATION_BITS = 15;
+    public static final int QUANTIZED_ROTATION_MAX = (1 << QUANTIZED_ROTATION_BITS) - 1;
+    
+    private static final float SQRT_2 = (float) Math.sqrt(2.0);
+    
     private final String boneName;
     
     private final float[] positionTimes;
@@ -50,6 +62,16 @@ public class NBoneAnimation {
     private final float[] scalingTimes;
     private final float[] scalings;
     
+    private final boolean compressed;
+    
+    private final float[] positionsRange;
+    private final short[] quantizedPositions;
+    
+    private final long[] quantizedRotations;
+    
+    private final float[] scalingsRange;
+    private final short[] quantizedScalings;
+    
     public NBoneAnimation(
             String boneName,
             float[] positionTimes, float[] positions,
@@ -75,12 +97,63 @@ public class NBoneAnimation {
         }
         this.scalingTimes = scalingTimes.clone();
         this.scalings = scalings.clone();
+        
+        this.compressed = false;
+        this.positionsRange = null;
+        this.quantizedPositions = null;
+        this.quantizedRotations = null;
+        this.scalingsRange = null;
+        this.quantizedScalings = null;
+    }
+    
+    public NBoneAnimation(
+            String boneName,
+            float[] positionTimes, float[] positionsRange, short[] quantizedPositions,
+            float[] rotationTimes, long[] quantizedRotations,
+            float[] scalingTimes, float[] scalingsRange, short[] quantizedScalings
+    ) {
+        this.boneName = boneName;
+        
+        if (positionsRange.length != POSITION_COMPONENTS * 2) {
+            throw new IllegalArgumentException("Invalid positions range");
+        }
+        if (quantizedPositions.length != positionTimes.length * POSITION_COMPONENTS) {
+            throw new IllegalArgumentException("Invalid amount of positions");
+        }
+        this.positionTimes = positionTimes.clone();
+        this.positionsRange = positionsRange.clone();
+        this.quantizedPositions = quantizedPositions.clone();
+        
+        if (quantizedRotations.length != rotationTimes.length) {
+            throw new IllegalArgumentException("Invalid amount of rotations");
+        }
+        this.rotationTimes = rotationTimes.clone();
+        this.quantizedRotations = quantizedRotations.clone();
+        
+        if (scalingsRange.length != SCALING_COMPONENTS * 2) {
+            throw new IllegalArgumentException("Invalid scalings range");
+        }
+        if (quantizedScalings.length != scalingTimes.length * SCALING_COMPONENTS) {
+            throw new IllegalArgumentException("Invalid amount of scalings");
+        }
+        this.scalingTimes = scalingTimes.clone();
+        this.scalingsRange = scalingsRange.clone();
+        this.quantizedScalings = quantizedScalings.clone();
+        
+        this.compressed = true;
+        this.positions = null;
+        this.rotations = null;
+        this.scalings = null;
     }
     
     public String getBoneName() {
         return boneName;
     }
 
+    public boolean isCompressed() {
+        return compressed;
+    }
+
     public int getNumberOfPositions() {
         return this.positionTimes.length;
     }
@@ -93,37 +166,107 @@ public class NBoneAnimation {
         return this.scalingTimes.length;
     }
     
+    private static float dequantize(float[] range, int component, short value) {
+        return range[component] + ((value & 0xFFFF) * range[component + 3]);
+    }
+    
+    private static final float ROTATION_DEQUANTIZE_SCALE = 2f / (QUANTIZED_ROTATION_MAX * SQRT_2);
+    private static final float ROTATION_DEQUANTIZE_OFFSET = 1f / SQRT_2;
+    
+    private static float dequantizeRotation(long value) {
+        return ((value & QUANTIZED_ROTATION_MAX) * ROTATION_DEQUANTIZE_SCALE) - ROTATION_DEQUANTIZE_OFFSET;
+    }
+    
+    private static void decodeRotation(long packed, Quaternionf outRotation) {
+        int largest = (int) (packed >>> (QUANTIZED_ROTATION_BITS * 3));
+        float a = dequantizeRotation(packed >>> (QUANTIZED_ROTATION_BITS * 2));
+        float b = dequantizeRotation(packed >>> QUANTIZED_ROTATION_BITS);
+        float c = dequantizeRotation(packed);
+        float d = (float) Math.sqrt(Math.max(0f, 1f - (a * a) - (b * b) - (c * c)));
+        switch (largest) {
+            case 0 -> outRotation.set(d, a, b, c);
+            case 1 -> outRotation.set(a, d, b, c);
+            case 2 -> outRotation.set(a, b, d, c);
+            default -> outRotation.set(a, b, c, d);
+        }
+    }
+    
+    private static long encodeRotation(float x, float y, float z, float w) {
+        float[] q = {x, y, z, w};
+        float length = (float) Math.sqrt((x * x) + (y * y) + (z * z) + (w * w));
+        int largest = 0;
+        for (int i = 1; i < q.length; i++) {
+            if (Math.abs(q[i]) > Math.abs(q[largest])) {
+                largest = i;
+            }
+        }
+        float sign = (q[largest] < 0f ? -1f : 1f) / (length == 0f ? 1f : length);
+        long packed = largest;
+        for (int i = 0; i < q.length; i++) {
+            if (i == largest) {
+                continue;
+            }
+            float value = ((q[i] * sign * SQRT_2) + 1f) * 0.5f;
+            long quantized = Math.round(Math.min(Math.max(value, 0f), 1f) * QUANTIZED_ROTATION_MAX);
+            packed = (packed << QUANTIZED_ROTATION_BITS) | quantized;
+        }
+        return packed;
+    }
+    
     public void getPosition(int index, Vector3f outPosition) {
-        if (index < 0 || (index * 3) > this.positions.length) {
+        if (index < 0 || index >= this.positionTimes.length) {
             throw new IndexOutOfBoundsException("Position index "+index+" out of bounds for length "+this.positionTimes.length);
         }
+        int offset = index * POSITION_COMPONENTS;
+        if (this.compressed) {
+            outPosition.set(
+                    dequantize(this.positionsRange, 0, this.quantizedPositions[offset + 0]),
+                    dequantize(this.positionsRange, 1, this.quantizedPositions[offset + 1]),
+                    dequantize(this.positionsRange, 2, this.quantizedPositions[offset + 2])
+            );
+            return;
+        }
         outPosition.set(
-                this.positions[(index * POSITION_COMPONENTS) + 0],
-                this.positions[(index * POSITION_COMPONENTS) + 1],
-                this.positions[(index * POSITION_COMPONENTS) + 2]
+                this.positions[offset + 0],
+                this.positions[offset + 1],
+                this.positions[offset + 2]
         );
     }
     
     public void getRotation(int index, Quaternionf outRotation) {
-        if (index < 0 || (index * 4) > this.rotations.length) {
+        if (index < 0 || index >= this.rotationTimes.length) {
             throw new IndexOutOfBoundsException("Rotation index "+index+" out of bounds for length "+this.rotationTimes.length);
         }
+        if (this.compressed) {
+            decodeRotation(this.quantizedRotations[index], outRotation);
+            return;
+        }
+        int offset = index * ROTATION_COMPONENTS;
         outRotation.set(
-                this.rotations[(index * ROTATION_COMPONENTS) + 0],
-                this.rotations[(index * ROTATION_COMPONENTS) + 1],
-                this.rotations[(index * ROTATION_COMPONENTS) + 2],
-                this.rotations[(index * ROTATION_COMPONENTS) + 3]
+                this.rotations[offset + 0],
+                this.rotations[offset + 1],
+                this.rotations[offset + 2],
+                this.rotations[offset + 3]
         );
     }
     
     public void getScaling(int index, Vector3f outScale) {
-        if (index < 0 || (index * 3) > this.scalings.length) {
+        if (index < 0 || index >= this.scalingTimes.length) {
             throw new IndexOutOfBoundsException("Scaling index "+index+" out of bounds for length "+this.scalingTimes.length);
         }
+        int offset = index * SCALING_COMPONENTS;
+        if (this.compressed) {
+            outScale.set(
+                    dequantize(this.scalingsRange, 0, this.quantizedScalings[offset + 0]),
+                    dequantize(this.scalingsRange, 1, this.quantizedScalings[offset + 1]),
+                    dequantize(this.scalingsRange, 2, this.quantizedScalings[offset + 2])
+            );
+            return;
+        }
         outScale.set(
-                this.scalings[(index * SCALING_COMPONENTS) + 0],
-                this.scalings[(index * SCALING_COMPONENTS) + 1],
-                this.scalings[(index * SCALING_COMPONENTS) + 2]
+                this.scalings[offset + 0],
+                this.scalings[offset + 1],
+                this.scalings[offset + 2]
         );
     }
     
@@ -151,16 +294,342 @@ public class NBoneAnimation {
         return scalingTimes;
     }
 
+    /**
+     * Returns the positions, if this animation is compressed a new decoded
+     * array is returned.
+     * 
+     * @return the positions
+     */
     public float[] getPositions() {
+        if (this.compressed) {
+            float[] decoded = new float[this.quantizedPositions.length];
+            for (int i = 0; i < decoded.length; i++) {
+                decoded[i] = dequantize(this.positionsRange, i % POSITION_COMPONENTS, this.quantizedPositions[i]);
+            }
+            return decoded;
+        }
         return positions;
     }
 
+    /**
+     * Returns the rotations, if this animation is compressed a new decoded
+     * array is returned.
+     * 
+     * @return the rotations
+     */
     public float[] getRotations() {
+        if (this.compressed) {
+            float[] decoded = new float[this.quantizedRotations.length * ROTATION_COMPONENTS];
+            Quaternionf rotation = new Quaternionf();
+            for (int i = 0; i < this.quantizedRotations.length; i++) {
+                decodeRotation(this.quantizedRotations[i], rotation);
+                decoded[(i * ROTATION_COMPONENTS) + 0] = rotation.x();
+                decoded[(i * ROTATION_COMPONENTS) + 1] = rotation.y();
+                decoded[(i * ROTATION_COMPONENTS) + 2] = rotation.z();
+                decoded[(i * ROTATION_COMPONENTS) + 3] = rotation.w();
+            }
+            return decoded;
+        }
         return rotations;
     }
 
+    /**
+     * Returns the scalings, if this animation is compressed a new decoded
+     * array is returned.
+     * 
+     * @return the scalings
+     */
     public float[] getScalings() {
+        if (this.compressed) {
+            float[] decoded = new float[this.quantizedScalings.length];
+            for (int i = 0; i < decoded.length; i++) {
+                decoded[i] = dequantize(this.scalingsRange, i % SCALING_COMPONENTS, this.quantizedScalings[i]);
+            }
+            return decoded;
+        }
         return scalings;
     }
+
+    public float[] getPositionsRange() {
+        return positionsRange;
+    }
+
+    public short[] getQuantizedPositions() {
+        return quantizedPositions;
+    }
+
+    public long[] getQuantizedRotations() {
+        return quantizedRotations;
+    }
+
+    public float[] getScalingsRange() {
+        return scalingsRange;
+    }
+
+    public short[] getQuantizedScalings() {
+        return quantizedScalings;
+    }
+    
+    private static float vectorError(float[] values, float[] decoded, int a, int b, int i, float lerp) {
+        float error = 0f;
+        for (int c = 0; c < 3; c++) {
+            float va = decoded[(a * 3) + c];
+            float vb = decoded[(b * 3) + c];
+            float interpolated = va + ((vb - va) * lerp);
+            float difference = interpolated - values[(i * 3) + c];
+            error += difference * difference;
+        }
+        return (float) Math.sqrt(error);
+    }
+    
+    private static float rotationError(float[] values, float[] decoded, int a, int b, int i, float lerp, Quaternionf qa, Quaternionf qb) {
+        qa.set(decoded[(a * 4) + 0], decoded[(a * 4) + 1], decoded[(a * 4) + 2], decoded[(a * 4) + 3]);
+        qb.set(decoded[(b * 4) + 0], decoded[(b * 4) + 1], decoded[(b * 4) + 2], decoded[(b * 4) + 3]);
+        qa.slerp(qb, lerp);
+        qb.set(values[(i * 4) + 0], values[(i * 4) + 1], values[(i * 4) + 2], values[(i * 4) + 3]);
+        return rotationAngle(qa, qb);
+    }
+
+    //angle between two rotations in radians, from the chord between the
+    //quaternions in double, acos of a float dot cannot resolve less than
+    //about 0.0007 radians
+    static float rotationAngle(Quaternionfc a, Quaternionfc b) {
+        double lengthA = Math.sqrt(a.lengthSquared());
+        double lengthB = Math.sqrt(b.lengthSquared());
+        double dot = (a.x() * b.x()) + (a.y() * b.y()) + (a.z() * b.z()) + (a.w() * b.w());
+        double sign = (dot < 0.0 ? -1.0 : 1.0);
+        double x = (a.x() / lengthA) - ((b.x() * sign) / lengthB);
+        double y = (a.y() / lengthA) - ((b.y() * sign) / lengthB);
+        double z = (a.z() / lengthA) - ((b.z() * sign) / lengthB);
+        double w = (a.w() / lengthA) - ((b.w() * sign) / lengthB);
+        double chord = Math.sqrt((x * x) + (y * y) + (z * z) + (w * w));
+        return (float) (4.0 * Math.asin(Math.min(chord * 0.5, 1.0)));
+    }
+
+    private static int[] allKeys(int length) {
+        int[] all = new int[length];
+        for (int i = 0; i < length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+    
+    //the kept keys are interpolated from their dequantized values, the
+    //tolerance given must already have the quantization error of the kept
+    //keys taken out of it, see reductionTolerance
+    private static int[] reduceKeys(float[] times, float[] values, float[] decoded, boolean rotation, float tolerance) {
+        int length = times.length;
+        if (length <= 2) {
+            return allKeys(length);
+        }
+        
+        Quaternionf qa = new Quaternionf();
+        Quaternionf qb = new Quaternionf();
+        
+        int[] kept = new int[length];
+        int keptLength = 0;
+        kept[keptLength++] = 0;
+        
+        int start = 0;
+        int end = 2;
+        while (end < length) {
+            boolean fits = true;
+            for (int i = start + 1; i < end; i++) {
+                float lerp = (times[i] - times[start]) / (times[end] - times[start]);
+                if (!Float.isFinite(lerp)) {
+                    lerp = 0f;
+                }
+                float error;
+                if (rotation) {
+                    error = rotationError(values, decoded, start, end, i, lerp, qa, qb);
+                } else {
+                    error = vectorError(values, decoded, start, end, i, lerp);
+                }
+                if (!(error <= tolerance)) {
+                    fits = false;
+                    break;
+                }
+            }
+            if (fits) {
+                end++;
+            } else {
+                start = end - 1;
+                kept[keptLength++] = start;
+                end = start + 2;
+            }
+        }
+        kept[keptLength++] = length - 1;
+        
+        return Arrays.copyOf(kept, keptLength);
+    }
+    
+    private static float maxVectorError(float[] values, float[] decoded) {
+        float max = 0f;
+        for (int i = 0; i < values.length / 3; i++) {
+            max = Math.max(max, vectorError(values, decoded, i, i, i, 0f));
+        }
+        return max;
+    }
+    
+    private static float maxRotationError(float[] values, float[] decoded) {
+        Quaternionf qa = new Quaternionf();
+        Quaternionf qb = new Quaternionf();
+        float max = 0f;
+        for (int i = 0; i < values.length / 4; i++) {
+            max = Math.max(max, rotationError(values, decoded, i, i, i, 0f, qa, qb));
+        }
+        return max;
+    }
+    
+    //a kept key is off by its quantization error, what is left of the
+    //tolerance is what interpolating over a removed key may add to it
+    private static float reductionTolerance(float tolerance, float quantizationError) {
+        return Math.max(tolerance - quantizationError, 0f);
+    }
+    
+    private static float[] pickTimes(float[] times, int[] kept) {
+        float[] result = new float[kept.length];
+        for (int i = 0; i < kept.length; i++) {
+            result[i] = times[kept[i]];
+        }
+        return result;
+    }
+    
+    private static float[] quantizationRange(float[] values) {
+        float[] range = new float[6];
+        if (values.length < 3) {
+            return range;
+        }
+        for (int c = 0; c < 3; c++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < values.length / 3; k++) {
+                float v = values[(k * 3) + c];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            float step = (max - min) / QUANTIZED_POSITION_MAX;
+            if (!(step > 0f) || !Float.isFinite(step)) {
+                //constant component, every key dequantizes to the minimum
+                step = 0f;
+            }
+            range[c] = min;
+            range[c + 3] = step;
+        }
+        return range;
+    }
+    
+    private static short[] quantize(float[] values, float[] range) {
+        short[] result = new short[values.length];
+        for (int i = 0; i < values.length / 3; i++) {
+            for (int c = 0; c < 3; c++) {
+                float v = values[(i * 3) + c];
+                int q = 0;
+                if (range[c + 3] != 0f) {
+                    q = Math.round((v - range[c]) / range[c + 3]);
+                    q = Math.min(Math.max(q, 0), QUANTIZED_POSITION_MAX);
+                }
+                result[(i * 3) + c] = (short) q;
+            }
+        }
+        return result;
+    }
+    
+    private static float[] dequantize(short[] quantized, float[] range) {
+        float[] result = new float[quantized.length];
+        for (int i = 0; i < quantized.length; i++) {
+            result[i] = dequantize(range, i % 3, quantized[i]);
+        }
+        return result;
+    }
+
+    private static short[] pickVectors(short[] quantized, int[] kept) {
+        short[] result = new short[kept.length * 3];
+        for (int i = 0; i < kept.length; i++) {
+            System.arraycopy(quantized, kept[i] * 3, result, i * 3, 3);
+        }
+        return result;
+    }
+
+    private static long[] pickRotations(long[] packed, int[] kept) {
+        long[] result = new long[kept.length];
+        for (int i = 0; i < kept.length; i++) {
+            result[i] = packed[kept[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Creates a compressed copy of this bone animation, keys that can be
+     * interpolated from their neighbours within the tolerances are removed
+     * (errors are measured against the dequantized keys), positions and
+     * scalings are stored as 16 bit fixed point values over the
+     * range of the track and rotations are stored with the smallest three
+     * method in 48 bits.
+     * <p>
+     * The kept keys carry the quantization error of their track, so only
+     * what is left of a tolerance after that error is spent on removing
+     * keys. A track whose quantization error alone is above the tolerance
+     * (a position track spanning more than about 38 units with the default
+     * tolerance) keeps every key and is off by its quantization error.
+     * 
+     * @param positionTolerance the max position error in model units
+     * @param rotationTolerance the max rotation error in radians
+     * @param scalingTolerance the max scaling error
+     * @return a compressed bone animation
+     */
+    public NBoneAnimation compress(float positionTolerance, float rotationTolerance, float scalingTolerance) {
+        if (this.compressed) {
+            return this;
+        }
+        
+        float[] positionsQuantizationRange = quantizationRange(this.positions);
+        float[] scalingsQuantizationRange = quantizationRange(this.scalings);
+        
+        short[] quantizedPositionKeys = quantize(this.positions, positionsQuantizationRange);
+        short[] quantizedScalingKeys = quantize(this.scalings, scalingsQuantizationRange);
+        
+        long[] packedRotations = new long[this.rotationTimes.length];
+        float[] decodedRotations = new float[this.rotations.length];
+        Quaternionf rotation = new Quaternionf();
+        for (int i = 0; i < packedRotations.length; i++) {
+            int offset = i * ROTATION_COMPONENTS;
+            packedRotations[i] = encodeRotation(
+                    this.rotations[offset + 0],
+                    this.rotations[offset + 1],
+                    this.rotations[offset + 2],
+                    this.rotations[offset + 3]
+            );
+            decodeRotation(packedRotations[i], rotation);
+            decodedRotations[offset + 0] = rotation.x();
+            decodedRotations[offset + 1] = rotation.y();
+            decodedRotations[offset + 2] = rotation.z();
+            decodedRotations[offset + 3] = rotation.w();
+        }
+        
+        float[] decodedPositions = dequantize(quantizedPositionKeys, positionsQuantizationRange);
+        float[] decodedScalings = dequantize(quantizedScalingKeys, scalingsQuantizationRange);
+        
+        int[] positionKeys = reduceKeys(this.positionTimes, this.positions, decodedPositions, false,
+                reductionTolerance(positionTolerance, maxVectorError(this.positions, decodedPositions))
+        );
+        int[] rotationKeys = reduceKeys(this.rotationTimes, this.rotations, decodedRotations, true,
+                reductionTolerance(rotationTolerance, maxRotationError(this.rotations, decodedRotations))
+        );
+        int[] scalingKeys = reduceKeys(this.scalingTimes, this.scalings, decodedScalings, false,
+                reductionTolerance(scalingTolerance, maxVectorError(this.scalings, decodedScalings))
+        );
+
+        return new NBoneAnimation(
+                this.boneName,
+                pickTimes(this.positionTimes, positionKeys), positionsQuantizationRange, pickVectors(quantizedPositionKeys, positionKeys),
+                pickTimes(this.rotationTimes, rotationKeys), pickRotations(packedRotations, rotationKeys),
+                pickTimes(this.scalingTimes, scalingKeys), scalingsQuantizationRange, pickVectors(quantizedScalingKeys, scalingKeys)
+        );
+    }
+    
+    public NBoneAnimation compress() {
+        return compress(DEFAULT_POSITION_TOLERANCE, DEFAULT_ROTATION_TOLERANCE, DEFAULT_SCALING_TOLERANCE);
+    }
     
 }
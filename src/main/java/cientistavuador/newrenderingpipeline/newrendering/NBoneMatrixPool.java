@@ -0,0 +1,112 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author Cien
+ */
+public class NBoneMatrixPool {
+
+    public static final int MATRIX_SIZE = 4 * 4;
+    public static final int PAGE_MATRICES = 4096;
+
+    public static class Slice {
+
+        private final float[] page;
+        private final int offset;
+        private final int matrices;
+
+        private Slice(float[] page, int offset, int matrices) {
+            this.page = page;
+            this.offset = offset;
+            this.matrices = matrices;
+        }
+
+        public float[] page() {
+            return page;
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        public int matrices() {
+            return matrices;
+        }
+
+    }
+
+    private static final Object lock = new Object();
+    private static final Map<Integer, ArrayDeque<Slice>> freeSlices = new HashMap<>();
+    private static float[] currentPage = null;
+    private static int currentPageUsed = 0;
+
+    //pages are never resized or moved, so a slice stays valid while other
+    //animators are being created and updated on other threads
+    public static Slice allocate(int matrices) {
+        if (matrices < 0) {
+            throw new IllegalArgumentException("Negative number of matrices: " + matrices);
+        }
+        if (matrices > PAGE_MATRICES) {
+            return new Slice(new float[matrices * MATRIX_SIZE], 0, matrices);
+        }
+        synchronized (lock) {
+            ArrayDeque<Slice> free = freeSlices.get(matrices);
+            if (free != null && !free.isEmpty()) {
+                return free.poll();
+            }
+            if (currentPage == null || currentPageUsed + matrices > PAGE_MATRICES) {
+                currentPage = new float[PAGE_MATRICES * MATRIX_SIZE];
+                currentPageUsed = 0;
+            }
+            Slice slice = new Slice(currentPage, currentPageUsed * MATRIX_SIZE, matrices);
+            currentPageUsed += matrices;
+            return slice;
+        }
+    }
+
+    public static void free(Slice slice) {
+        if (slice == null || slice.matrices > PAGE_MATRICES) {
+            return;
+        }
+        Arrays.fill(slice.page, slice.offset, slice.offset + (slice.matrices * MATRIX_SIZE), 0f);
+        synchronized (lock) {
+            freeSlices.computeIfAbsent(slice.matrices, (e) -> new ArrayDeque<>()).add(slice);
+        }
+    }
+
+    private NBoneMatrixPool() {
+
+    }
+
+}
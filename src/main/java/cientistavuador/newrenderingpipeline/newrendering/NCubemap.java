@@ -29,13 +29,13 @@ package cientistavuador.newrenderingpipeline.newrendering;
 import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore.DXT5Texture;
+import cientistavuador.newrenderingpipeline.util.DataCache;
 import cientistavuador.newrenderingpipeline.util.E8Image;
 import cientistavuador.newrenderingpipeline.util.ObjectCleaner;
 import cientistavuador.newrenderingpipeline.util.StringUtils;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.Base64;
 import java.util.Objects;
@@ -136,8 +136,7 @@ public class NCubemap {
 
     private float intensity = 1f;
 
-    @SuppressWarnings("unchecked")
-    private final WeakReference<E8Image>[] sideTexturesData = new WeakReference[SIDES];
+    private final DataCache.Key[] sideTexturesDataKeys = new DataCache.Key[SIDES];
 
     private final WrappedCubemap wrappedCubemap;
 
@@ -211,6 +210,10 @@ public class NCubemap {
             this.cubemapColor.set(cubemapColor);
         }
 
+        for (int i = 0; i < this.sideTexturesDataKeys.length; i++) {
+            this.sideTexturesDataKeys[i] = new DataCache.Key("cubemap_" + this.name + "_side_" + i);
+        }
+
         this.wrappedCubemap = new WrappedCubemap();
         
         registerForCleaning();
@@ -218,8 +221,12 @@ public class NCubemap {
 
     private void registerForCleaning() {
         final WrappedCubemap wrapped = this.wrappedCubemap;
+        final DataCache.Key[] keys = this.sideTexturesDataKeys;
 
         ObjectCleaner.get().register(this, () -> {
+            for (DataCache.Key key : keys) {
+                DataCache.get().remove(key);
+            }
             Main.MAIN_TASKS.add(() -> {
                 final int texture = wrapped.texture;
                 if (texture != 0) {
@@ -255,17 +262,12 @@ public class NCubemap {
     }
 
     public E8Image getSideTextureData(int index) {
-        WeakReference<E8Image> reference = this.sideTexturesData[index];
-        if (reference != null) {
-            E8Image cached = reference.get();
-            if (cached != null) {
-                return cached;
-            }
-        }
-
-        E8Image decompressed = new E8Image(this.sideTextures[index].decompress(), this.size, this.size);
-        this.sideTexturesData[index] = new WeakReference<>(decompressed);
-        return decompressed;
+        final DXT5Texture side = this.sideTextures[index];
+        return DataCache.get().get(
+                this.sideTexturesDataKeys[index],
+                () -> new E8Image(side.decompress(), this.size, this.size),
+                DataCache::sizeOf
+        );
     }
 
     public int getSize() {
@@ -205,12 +205,24 @@ public class NCubemapBVH {
         }
     }
     
+    public void testAab(
+            double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ,
+            List<NCubemap> results
+    ) {
+        testAab(this,
+                minX, minY, minZ,
+                maxX, maxY, maxZ,
+                results
+        );
+    }
+    
     public List<NCubemap> testAab(
             double minX, double minY, double minZ,
             double maxX, double maxY, double maxZ
     ) {
         List<NCubemap> cubemaps = new ArrayList<>();
-        testAab(this,
+        testAab(
                 minX, minY, minZ,
                 maxX, maxY, maxZ,
                 cubemaps
@@ -225,6 +237,14 @@ public class NCubemapBVH {
         );
     }
     
+    public void testRelativeAab(Vector3dc cameraPosition, Vector3fc min, Vector3fc max, List<NCubemap> results) {
+        testAab(
+                cameraPosition.x() + min.x(), cameraPosition.y() + min.y(), cameraPosition.z() + min.z(),
+                cameraPosition.x() + max.x(), cameraPosition.y() + max.y(), cameraPosition.z() + max.z(),
+                results
+        );
+    }
+    
     public List<NCubemap> testRelativeAab(Vector3dc cameraPosition, Vector3fc min, Vector3fc max) {
         return testAab(
                 cameraPosition.x() + min.x(), cameraPosition.y() + min.y(), cameraPosition.z() + min.z(),
@@ -29,9 +29,14 @@ package cientistavuador.newrenderingpipeline.newrendering;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore.DXT5Texture;
 import cientistavuador.newrenderingpipeline.util.E8Image;
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.joml.Vector3f;
 
 /**
@@ -40,18 +45,81 @@ import org.joml.Vector3f;
  */
 public class NCubemapImporter {
 
+    public static class CompressedSide {
+
+        private final DXT5Texture texture;
+        private final float averageR;
+        private final float averageG;
+        private final float averageB;
+
+        private CompressedSide(DXT5Texture texture, float averageR, float averageG, float averageB) {
+            this.texture = texture;
+            this.averageR = averageR;
+            this.averageG = averageG;
+            this.averageB = averageB;
+        }
+
+        public DXT5Texture getTexture() {
+            return texture;
+        }
+
+        public float getAverageR() {
+            return averageR;
+        }
+
+        public float getAverageG() {
+            return averageG;
+        }
+
+        public float getAverageB() {
+            return averageB;
+        }
+
+    }
+
+    private static void validateSide(int index, int size, float[] side) {
+        if (side == null) {
+            throw new NullPointerException("Side at index " + index + " is null.");
+        }
+        int expectedSize = size * size * 3;
+        if (side.length != expectedSize) {
+            throw new IllegalArgumentException("Expected size at side " + index + " is " + expectedSize + ", not " + side.length + ".");
+        }
+    }
+
+    public static CompressedSide compressSide(int index, int size, float[] side) {
+        validateSide(index, size, side);
+
+        float averageR = 0f;
+        float averageG = 0f;
+        float averageB = 0f;
+        for (int j = 0; j < side.length; j += 3) {
+            averageR += side[j + 0];
+            averageG += side[j + 1];
+            averageB += side[j + 2];
+        }
+        float inv = 1f / (side.length / 3);
+        averageR *= inv;
+        averageG *= inv;
+        averageB *= inv;
+
+        E8Image e8Image = new E8Image(side, size, size);
+        DXT5Texture texture = DXT5TextureStore.createDXT5Texture(e8Image.getRGBE(), size, size);
+
+        return new CompressedSide(texture, averageR, averageG, averageB);
+    }
+
     public static NCubemap create(
             String name,
             String uid,
             NCubemapBox cubemapBox,
-            int size,
-            float[][] sideTextures
+            CompressedSide[] sides
     ) {
-        if (sideTextures == null) {
-            throw new NullPointerException("Side Textures is null.");
+        if (sides == null) {
+            throw new NullPointerException("Sides is null.");
         }
-        if (sideTextures.length != NCubemap.SIDES) {
-            throw new IllegalArgumentException("Side Textures Length is not " + NCubemap.SIDES + ".");
+        if (sides.length != NCubemap.SIDES) {
+            throw new IllegalArgumentException("Sides Length is not " + NCubemap.SIDES + ".");
         }
 
         DXT5Texture[] sidesDXT5 = new DXT5Texture[NCubemap.SIDES];
@@ -60,35 +128,17 @@ public class NCubemapImporter {
         float totalAverageG = 0f;
         float totalAverageB = 0f;
 
-        for (int i = 0; i < sideTextures.length; i++) {
-            float[] side = sideTextures[i];
+        for (int i = 0; i < sides.length; i++) {
+            CompressedSide side = sides[i];
             if (side == null) {
                 throw new NullPointerException("Side at index " + i + " is null.");
             }
-            int expectedSize = size * size * 3;
-            if (side.length != expectedSize) {
-                throw new IllegalArgumentException("Expected size at side " + i + " is " + expectedSize + ", not " + side.length + ".");
-            }
-
-            float averageR = 0f;
-            float averageG = 0f;
-            float averageB = 0f;
-            for (int j = 0; j < side.length; j += 3) {
-                averageR += side[j + 0];
-                averageG += side[j + 1];
-                averageB += side[j + 2];
-            }
-            float inv = 1f / (side.length / 3);
-            averageR *= inv;
-            averageG *= inv;
-            averageB *= inv;
 
-            totalAverageR += averageR;
-            totalAverageG += averageG;
-            totalAverageB += averageB;
+            totalAverageR += side.getAverageR();
+            totalAverageG += side.getAverageG();
+            totalAverageB += side.getAverageB();
 
-            E8Image e8Image = new E8Image(side, size, size);
-            sidesDXT5[i] = DXT5TextureStore.createDXT5Texture(e8Image.getRGBE(), size, size);
+            sidesDXT5[i] = side.getTexture();
         }
 
         float inv = 1f / NCubemap.SIDES;
@@ -99,6 +149,43 @@ public class NCubemapImporter {
         return new NCubemap(name, uid, cubemapBox, sidesDXT5, new Vector3f(totalAverageR, totalAverageG, totalAverageB));
     }
 
+    public static NCubemap create(
+            String name,
+            String uid,
+            NCubemapBox cubemapBox,
+            int size,
+            float[][] sideTextures
+    ) {
+        if (sideTextures == null) {
+            throw new NullPointerException("Side Textures is null.");
+        }
+        if (sideTextures.length != NCubemap.SIDES) {
+            throw new IllegalArgumentException("Side Textures Length is not " + NCubemap.SIDES + ".");
+        }
+
+        for (int i = 0; i < sideTextures.length; i++) {
+            validateSide(i, size, sideTextures[i]);
+        }
+
+        List<Future<CompressedSide>> tasks = new ArrayList<>();
+        for (int i = 0; i < sideTextures.length; i++) {
+            final int index = i;
+            final float[] side = sideTextures[i];
+            tasks.add(SharedExecutor.submit(() -> compressSide(index, size, side)));
+        }
+
+        CompressedSide[] sides = new CompressedSide[NCubemap.SIDES];
+        try {
+            for (int i = 0; i < sides.length; i++) {
+                sides[i] = SharedExecutor.await(tasks.get(i), tasks);
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        return create(name, uid, cubemapBox, sides);
+    }
+
     private static byte[] getSide(
             boolean flipX, boolean flipY,
             int x, int y, int size,
@@ -28,7 +28,12 @@ package cientistavuador.newrenderingpipeline.newrendering;
 
 import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.camera.PerspectiveCamera;
+import cientistavuador.newrenderingpipeline.newrendering.NCubemapImporter.CompressedSide;
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import static org.lwjgl.opengl.GL33C.*;
 
 /**
@@ -37,13 +42,115 @@ import static org.lwjgl.opengl.GL33C.*;
  */
 public class NCubemapRenderer {
 
-    public static NCubemap render(
-            String name, NCubemapBox info, int size, int ssaaScale,
-            List<NLight> lights, NCubemaps cubemaps
+    public static final int MAX_PENDING_SIDES = Runtime.getRuntime().availableProcessors() + NCubemap.SIDES;
+
+    private static final float[] CAMERA_ROTATIONS = {
+        0f, 0f, 180f,
+        0f, -180f, 180f,
+        90f, -90f, 0f,
+        -90f, -90f, 0f,
+        0f, 90f, -180f,
+        0f, -90f, -180f
+    };
+
+    /**
+     * Receives each cubemap as soon as it is ready, in probe order.
+     * <p>
+     * Always called on the thread that called renderBatch, never on a
+     * {@link SharedExecutor} thread, so it may do file I/O or touch the GL
+     * context; exceptions thrown by it abort the batch and are rethrown to
+     * the caller.
+     */
+    public static interface CubemapListener {
+
+        public void onCubemap(int index, NCubemap cubemap);
+    }
+
+    private static CompressedSide awaitSide(Future<CompressedSide> side, List<Future<CompressedSide>> sides) {
+        try {
+            return SharedExecutor.await(side, sides);
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static boolean isProbeDone(List<Future<CompressedSide>> sides, int first) {
+        for (int i = 0; i < NCubemap.SIDES; i++) {
+            if (!sides.get(first + i).isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void notifyReady(
+            String[] names, NCubemapBox[] infos,
+            List<Future<CompressedSide>> sides, List<NCubemap> result,
+            boolean wait, CubemapListener listener
+    ) {
+        int probes = sides.size() / NCubemap.SIDES;
+        while (result.size() < probes) {
+            int probe = result.size();
+            int first = probe * NCubemap.SIDES;
+            if (!wait && !isProbeDone(sides, first)) {
+                break;
+            }
+            CompressedSide[] compressed = new CompressedSide[NCubemap.SIDES];
+            for (int i = 0; i < compressed.length; i++) {
+                compressed[i] = awaitSide(sides.get(first + i), sides);
+            }
+            NCubemap cubemap = NCubemapImporter.create(names[probe], null, infos[probe], compressed);
+            result.add(cubemap);
+            if (listener != null) {
+                listener.onCubemap(probe, cubemap);
+            }
+        }
+    }
+
+    public static float[] resolve(float[] ssaaSide, int size, int ssaaScale) {
+        int fboSize = size * ssaaScale;
+        float inv = 1f / (ssaaScale * ssaaScale);
+
+        float[] side = new float[size * size * 3];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float r = 0f;
+                float g = 0f;
+                float b = 0f;
+                for (int yOffset = 0; yOffset < ssaaScale; yOffset++) {
+                    int rowOffset = ((y * ssaaScale) + yOffset) * fboSize * 3;
+                    for (int xOffset = 0; xOffset < ssaaScale; xOffset++) {
+                        int index = rowOffset + (((x * ssaaScale) + xOffset) * 3);
+
+                        r += ssaaSide[index + 0];
+                        g += ssaaSide[index + 1];
+                        b += ssaaSide[index + 2];
+                    }
+                }
+                r *= inv;
+                g *= inv;
+                b *= inv;
+
+                side[0 + (x * 3) + (y * size * 3)] = r;
+                side[1 + (x * 3) + (y * size * 3)] = g;
+                side[2 + (x * 3) + (y * size * 3)] = b;
+            }
+        }
+
+        return side;
+    }
+
+    public static List<NCubemap> renderBatch(
+            String[] names, NCubemapBox[] infos, int size, int ssaaScale,
+            List<NLight> lights, NCubemaps cubemaps,
+            CubemapListener listener
     ) {
         if (ssaaScale < 1) {
             throw new IllegalArgumentException("SSAA Scale must be larger or equal to 1; " + ssaaScale);
         }
+        if (names.length != infos.length) {
+            throw new IllegalArgumentException("Names length is not the same as infos length; " + names.length + " != " + infos.length);
+        }
 
         int fboSize = size * ssaaScale;
 
@@ -63,86 +170,90 @@ public class NCubemapRenderer {
         glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, rboColor);
         glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, rboDepthStencil);
 
-        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
-            throw new IllegalArgumentException("Fatal framebuffer error, could not render cubemap, framebuffer is not complete!");
-        }
+        List<Future<CompressedSide>> sides = new ArrayList<>();
+        List<NCubemap> result = new ArrayList<>();
+        try {
+            if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+                throw new IllegalArgumentException("Fatal framebuffer error, could not render cubemap, framebuffer is not complete!");
+            }
 
-        N3DObject[] objects = N3DObjectRenderer.copyQueueObjects();
+            //taken once, every face of every probe renders the same list as
+            //part of the current frame, a face is not a frame of its own
+            List<N3DObject> objects = N3DObjectRenderer.takeQueueObjects();
 
-        float[] cameraRotations = {
-            0f, 0f, 180f,
-            0f, -180f, 180f,
-            90f, -90f, 0f,
-            -90f, -90f, 0f,
-            0f, 90f, -180f,
-            0f, -90f, -180f
-        };
-        PerspectiveCamera camera = new PerspectiveCamera();
-        camera.setPosition(info.getCubemapPosition());
-        camera.setDimensions(1f, 1f);
-        camera.setFov(90f);
+            PerspectiveCamera camera = new PerspectiveCamera();
+            camera.setDimensions(1f, 1f);
+            camera.setFov(90f);
 
-        float[][] sides = new float[NCubemap.SIDES][];
+            int oldestPending = 0;
 
-        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
-        glViewport(0, 0, fboSize, fboSize);
-        for (int i = 0; i < NCubemap.SIDES; i++) {
-            float pitch = cameraRotations[(i * 3) + 0];
-            float yaw = cameraRotations[(i * 3) + 1];
-            float roll = cameraRotations[(i * 3) + 2];
-            camera.setRotation(pitch, yaw, roll);
-
-            if (i != 0) {
-                for (int j = 0; j < objects.length; j++) {
-                    N3DObjectRenderer.queueRender(objects[j]);
-                }
-            }
+            glViewport(0, 0, fboSize, fboSize);
+            for (int probe = 0; probe < names.length; probe++) {
+                camera.setPosition(infos[probe].getCubemapPosition());
+
+                for (int i = 0; i < NCubemap.SIDES; i++) {
+                    float pitch = CAMERA_ROTATIONS[(i * 3) + 0];
+                    float yaw = CAMERA_ROTATIONS[(i * 3) + 1];
+                    float roll = CAMERA_ROTATIONS[(i * 3) + 2];
+                    camera.setRotation(pitch, yaw, roll);
+
+                    float[] ssaaSide = new float[fboSize * fboSize * 3];
+
+                    glClear(GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT | GL_COLOR_BUFFER_BIT);
+                    N3DObjectRenderer.render(camera, lights, cubemaps, objects);
+                    glReadPixels(0, 0, fboSize, fboSize, GL_RGB, GL_FLOAT, ssaaSide);
 
-            float[] ssaaSide = new float[fboSize * fboSize * 3];
-
-            glClear(GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT | GL_COLOR_BUFFER_BIT);
-            N3DObjectRenderer.render(camera, lights, cubemaps);
-            glReadPixels(0, 0, fboSize, fboSize, GL_RGB, GL_FLOAT, ssaaSide);
-
-            float[] side = new float[size * size * 3];
-            for (int y = 0; y < size; y++) {
-                for (int x = 0; x < size; x++) {
-                    float r = 0f;
-                    float g = 0f;
-                    float b = 0f;
-                    for (int yOffset = 0; yOffset < ssaaScale; yOffset++) {
-                        for (int xOffset = 0; xOffset < ssaaScale; xOffset++) {
-                            int trueX = (x * ssaaScale) + xOffset;
-                            int trueY = (y * ssaaScale) + yOffset;
-
-                            r += ssaaSide[0 + (trueX * 3) + (trueY * fboSize * 3)];
-                            g += ssaaSide[1 + (trueX * 3) + (trueY * fboSize * 3)];
-                            b += ssaaSide[2 + (trueX * 3) + (trueY * fboSize * 3)];
-                        }
+                    //every slot is busy, help with the oldest side before queueing another
+                    while ((sides.size() - oldestPending) >= MAX_PENDING_SIDES) {
+                        awaitSide(sides.get(oldestPending), sides);
+                        oldestPending++;
                     }
-                    float inv = 1f / (ssaaScale * ssaaScale);
-                    r *= inv;
-                    g *= inv;
-                    b *= inv;
-                    
-                    side[0 + (x * 3) + (y * size * 3)] = r;
-                    side[1 + (x * 3) + (y * size * 3)] = g;
-                    side[2 + (x * 3) + (y * size * 3)] = b;
+                    while (oldestPending < sides.size() && sides.get(oldestPending).isDone()) {
+                        oldestPending++;
+                    }
+
+                    final int sideIndex = i;
+                    sides.add(SharedExecutor.submit(() -> {
+                        return NCubemapImporter.compressSide(sideIndex, size, resolve(ssaaSide, size, ssaaScale));
+                    }));
                 }
+
+                notifyReady(names, infos, sides, result, false, listener);
             }
-            
-            sides[i] = side;
+        } finally {
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            glViewport(0, 0, Main.WIDTH, Main.HEIGHT);
+
+            glDeleteRenderbuffers(rboColor);
+            glDeleteRenderbuffers(rboDepthStencil);
+            glDeleteFramebuffers(fbo);
         }
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-        glViewport(0, 0, Main.WIDTH, Main.HEIGHT);
 
-        glDeleteRenderbuffers(rboColor);
-        glDeleteRenderbuffers(rboDepthStencil);
-        glDeleteFramebuffers(fbo);
+        notifyReady(names, infos, sides, result, true, listener);
+
+        return result;
+    }
+
+    public static List<NCubemap> renderBatch(
+            String[] names, NCubemapBox[] infos, int size,
+            List<NLight> lights, NCubemaps cubemaps,
+            CubemapListener listener
+    ) {
+        return renderBatch(names, infos, size, 4, lights, cubemaps, listener);
+    }
 
-        return NCubemapImporter.create(name, null, info, size, sides);
+    public static NCubemap render(
+            String name, NCubemapBox info, int size, int ssaaScale,
+            List<NLight> lights, NCubemaps cubemaps
+    ) {
+        return renderBatch(
+                new String[]{name}, new NCubemapBox[]{info},
+                size, ssaaScale,
+                lights, cubemaps,
+                null
+        ).get(0);
     }
-    
+
     public static NCubemap render(
             String name, NCubemapBox info, int size,
             List<NLight> lights, NCubemaps cubemaps
@@ -0,0 +1,98 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+/**
+ *
+ * @author Cien
+ */
+public class NDrawKey {
+
+    public static final int VARIANT_OPAQUE = 0;
+    public static final int VARIANT_ALPHA_TESTING = 1;
+    public static final int VARIANT_ALPHA_BLENDING = 2;
+
+    public static final int VARIANT_SHIFT = 62;
+
+    public static final int OPAQUE_TEXTURES_SHIFT = 48;
+    public static final int OPAQUE_MATERIAL_SHIFT = 34;
+    public static final int OPAQUE_MESH_SHIFT = 20;
+    public static final int OPAQUE_LIGHTMAPS_SHIFT = 12;
+    public static final int OPAQUE_DEPTH_SHIFT = 0;
+
+    public static final int BLEND_DEPTH_SHIFT = 31;
+    public static final int BLEND_TEXTURES_SHIFT = 17;
+    public static final int BLEND_MATERIAL_SHIFT = 3;
+
+    public static final long MASK_14 = 0x3FFFL;
+    public static final long MASK_12 = 0xFFFL;
+    public static final long MASK_8 = 0xFFL;
+    public static final long MASK_31 = 0x7FFFFFFFL;
+
+    private static int depthBits(float distanceSquared) {
+        if (!(distanceSquared > 0f)) {
+            distanceSquared = 0f;
+        }
+        return Float.floatToRawIntBits(distanceSquared);
+    }
+
+    public static long encode(
+            int variant,
+            int textures, int material, int mesh, int lightmaps,
+            float distanceSquared
+    ) {
+        if (variant == VARIANT_ALPHA_BLENDING) {
+            return encodeBlend(textures, material, distanceSquared);
+        }
+        return (((long) variant) << VARIANT_SHIFT)
+                | ((textures & MASK_14) << OPAQUE_TEXTURES_SHIFT)
+                | ((material & MASK_14) << OPAQUE_MATERIAL_SHIFT)
+                | ((mesh & MASK_14) << OPAQUE_MESH_SHIFT)
+                | ((lightmaps & MASK_8) << OPAQUE_LIGHTMAPS_SHIFT)
+                | (((depthBits(distanceSquared) >>> 19) & MASK_12) << OPAQUE_DEPTH_SHIFT);
+    }
+
+    public static long encodeBlend(
+            int textures, int material,
+            float distanceSquared
+    ) {
+        long inverseDepth = (~depthBits(distanceSquared)) & MASK_31;
+        return (((long) VARIANT_ALPHA_BLENDING) << VARIANT_SHIFT)
+                | (inverseDepth << BLEND_DEPTH_SHIFT)
+                | ((textures & MASK_14) << BLEND_TEXTURES_SHIFT)
+                | ((material & MASK_14) << BLEND_MATERIAL_SHIFT);
+    }
+
+    public static int variantOf(long key) {
+        return (int) (key >>> VARIANT_SHIFT);
+    }
+
+    private NDrawKey() {
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import cientistavuador.newrenderingpipeline.util.SortUtils;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ *
+ * @author Cien
+ */
+public class NDrawKeyBenchmark {
+
+    public static final int[] DRAW_COUNTS = {1_000, 10_000, 100_000};
+    public static final int NUMBER_OF_TEXTURES = 64;
+    public static final int NUMBER_OF_MATERIALS = 256;
+    public static final int NUMBER_OF_MESHES = 512;
+    public static final int NUMBER_OF_LIGHTMAPS = 4;
+    public static final int ITERATIONS = 50;
+
+    private static class Draw {
+
+        final int variant;
+        final int textures;
+        final int material;
+        final int mesh;
+        final int lightmaps;
+        final float distanceSquared;
+
+        Draw(int variant, int textures, int material, int mesh, int lightmaps, float distanceSquared) {
+            this.variant = variant;
+            this.textures = textures;
+            this.material = material;
+            this.mesh = mesh;
+            this.lightmaps = lightmaps;
+            this.distanceSquared = distanceSquared;
+        }
+    }
+
+    private static final Comparator<Draw> DISTANCE = (o1, o2) -> Float.compare(o1.distanceSquared, o2.distanceSquared);
+
+    private static int stateChanges(Draw[] draws) {
+        int changes = 0;
+        Draw last = null;
+        for (Draw d : draws) {
+            if (last == null) {
+                changes += 4;
+            } else {
+                if (d.textures != last.textures) {
+                    changes++;
+                }
+                if (d.material != last.material) {
+                    changes++;
+                }
+                if (d.mesh != last.mesh) {
+                    changes++;
+                }
+                if (d.lightmaps != last.lightmaps) {
+                    changes++;
+                }
+            }
+            last = d;
+        }
+        return changes;
+    }
+
+    private static Draw[] comparatorSort(Draw[] draws) {
+        Draw[] opaque = Arrays.stream(draws).filter(d -> d.variant == NDrawKey.VARIANT_OPAQUE).toArray(Draw[]::new);
+        Draw[] tested = Arrays.stream(draws).filter(d -> d.variant == NDrawKey.VARIANT_ALPHA_TESTING).toArray(Draw[]::new);
+        Draw[] blend = Arrays.stream(draws).filter(d -> d.variant == NDrawKey.VARIANT_ALPHA_BLENDING).toArray(Draw[]::new);
+        Arrays.sort(opaque, DISTANCE);
+        Arrays.sort(tested, DISTANCE);
+        Arrays.sort(blend, DISTANCE.reversed());
+        Draw[] result = new Draw[draws.length];
+        System.arraycopy(opaque, 0, result, 0, opaque.length);
+        System.arraycopy(tested, 0, result, opaque.length, tested.length);
+        System.arraycopy(blend, 0, result, opaque.length + tested.length, blend.length);
+        return result;
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(54321);
+
+        System.out.println("Draws | Comparator (ms) | Radix (ms) | State Changes (Comparator) | State Changes (Radix)");
+
+        for (int drawCount : DRAW_COUNTS) {
+            Draw[] draws = new Draw[drawCount];
+            for (int i = 0; i < drawCount; i++) {
+                int material = random.nextInt(NUMBER_OF_MATERIALS);
+                int variant = NDrawKey.VARIANT_OPAQUE;
+                if (material % 8 == 0) {
+                    variant = NDrawKey.VARIANT_ALPHA_BLENDING;
+                } else if (material % 8 == 1) {
+                    variant = NDrawKey.VARIANT_ALPHA_TESTING;
+                }
+                draws[i] = new Draw(
+                        variant,
+                        material % NUMBER_OF_TEXTURES,
+                        material,
+                        random.nextInt(NUMBER_OF_MESHES),
+                        random.nextInt(NUMBER_OF_LIGHTMAPS),
+                        random.nextFloat() * 10000f
+                );
+            }
+
+            long[] keys = new long[drawCount];
+            Draw[] sorted = new Draw[drawCount];
+            long[] keysBuffer = new long[drawCount];
+            Draw[] sortedBuffer = new Draw[drawCount];
+            int[] counts = new int[256];
+
+            Draw[] comparatorResult = null;
+            long comparatorTime = 0;
+            long radixTime = 0;
+
+            for (int iteration = 0; iteration < ITERATIONS * 2; iteration++) {
+                boolean warmup = iteration < ITERATIONS;
+
+                long start = System.nanoTime();
+                comparatorResult = comparatorSort(draws);
+                long end = System.nanoTime();
+                if (!warmup) {
+                    comparatorTime += end - start;
+                }
+
+                start = System.nanoTime();
+                for (int i = 0; i < drawCount; i++) {
+                    Draw d = draws[i];
+                    keys[i] = NDrawKey.encode(d.variant, d.textures, d.material, d.mesh, d.lightmaps, d.distanceSquared);
+                    sorted[i] = d;
+                }
+                SortUtils.radixSort(keys, sorted, drawCount, keysBuffer, sortedBuffer, counts);
+                end = System.nanoTime();
+                if (!warmup) {
+                    radixTime += end - start;
+                }
+            }
+
+            for (int i = 1; i < drawCount; i++) {
+                if (Long.compareUnsigned(keys[i - 1], keys[i]) > 0) {
+                    throw new IllegalStateException("Radix sort output is not sorted at " + i);
+                }
+            }
+            Set<Draw> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < drawCount; i++) {
+                Draw d = sorted[i];
+                if (!seen.add(d)) {
+                    throw new IllegalStateException("Radix sort output repeats a draw at " + i);
+                }
+                long key = NDrawKey.encode(d.variant, d.textures, d.material, d.mesh, d.lightmaps, d.distanceSquared);
+                if (key != keys[i]) {
+                    throw new IllegalStateException("Radix sort moved a draw away from its key at " + i);
+                }
+                if (d.variant != comparatorResult[i].variant) {
+                    throw new IllegalStateException("Radix sort output has the wrong pass order at " + i);
+                }
+                if (d.variant == NDrawKey.VARIANT_ALPHA_BLENDING && d.distanceSquared != comparatorResult[i].distanceSquared) {
+                    throw new IllegalStateException("Radix sort output is not back to front at " + i);
+                }
+            }
+
+            System.out.printf("%6d | %15.3f | %10.3f | %26d | %21d%n",
+                    drawCount,
+                    (comparatorTime / 1E6) / ITERATIONS,
+                    (radixTime / 1E6) / ITERATIONS,
+                    stateChanges(comparatorResult),
+                    stateChanges(sorted)
+            );
+        }
+    }
+
+    private NDrawKeyBenchmark() {
+
+    }
+
+}
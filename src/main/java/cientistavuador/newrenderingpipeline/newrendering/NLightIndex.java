@@ -0,0 +1,493 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import cientistavuador.newrenderingpipeline.util.SortUtils;
+import java.util.Arrays;
+import java.util.List;
+import org.joml.Vector3dc;
+
+/**
+ *
+ * @author Cien
+ */
+public class NLightIndex {
+
+    public static final int LIGHTS_PER_CELL = 2;
+    public static final int MAX_CELLS_PER_LIGHT = 8;
+    public static final int BRUTE_FORCE_FACTOR = 4;
+
+    private static class Grid {
+
+        private int count = 0;
+        private int[] lights = new int[16];
+
+        private int unpositionedCount = 0;
+        private int[] unpositioned = new int[16];
+
+        private int[] cameraOrder = new int[16];
+
+        private double minX = 0.0;
+        private double minY = 0.0;
+        private double minZ = 0.0;
+        private double cellSize = 1.0;
+        private int sizeX = 1;
+        private int sizeY = 1;
+        private int sizeZ = 1;
+
+        private int[] cellStart = new int[2];
+        private int[] cellLights = new int[16];
+
+        public Grid() {
+
+        }
+
+        public void clear() {
+            this.count = 0;
+            this.unpositionedCount = 0;
+        }
+
+        public void add(int light, boolean positioned) {
+            if (positioned) {
+                if (this.count >= this.lights.length) {
+                    this.lights = Arrays.copyOf(this.lights, this.lights.length * 2);
+                }
+                this.lights[this.count] = light;
+                this.count++;
+            } else {
+                if (this.unpositionedCount >= this.unpositioned.length) {
+                    this.unpositioned = Arrays.copyOf(this.unpositioned, this.unpositioned.length * 2);
+                }
+                this.unpositioned[this.unpositionedCount] = light;
+                this.unpositionedCount++;
+            }
+        }
+
+        public int total() {
+            return this.count + this.unpositionedCount;
+        }
+
+        private int cellX(double x) {
+            return Math.max(Math.min((int) Math.floor((x - this.minX) / this.cellSize), this.sizeX - 1), 0);
+        }
+
+        private int cellY(double y) {
+            return Math.max(Math.min((int) Math.floor((y - this.minY) / this.cellSize), this.sizeY - 1), 0);
+        }
+
+        private int cellZ(double z) {
+            return Math.max(Math.min((int) Math.floor((z - this.minZ) / this.cellSize), this.sizeZ - 1), 0);
+        }
+
+        private int cellIndex(int x, int y, int z) {
+            return x + (y * this.sizeX) + (z * this.sizeX * this.sizeY);
+        }
+
+        public void build(double[] positions, double[] cameraDistances) {
+            int total = total();
+            if (this.cameraOrder.length < total) {
+                this.cameraOrder = new int[Math.max(total, this.cameraOrder.length * 2)];
+            }
+            System.arraycopy(this.unpositioned, 0, this.cameraOrder, 0, this.unpositionedCount);
+            System.arraycopy(this.lights, 0, this.cameraOrder, this.unpositionedCount, this.count);
+            SortUtils.sortIndices(this.cameraOrder, cameraDistances, total);
+
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            double maxZ = Double.NEGATIVE_INFINITY;
+            this.minX = Double.POSITIVE_INFINITY;
+            this.minY = Double.POSITIVE_INFINITY;
+            this.minZ = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < this.count; i++) {
+                int light = this.lights[i];
+                double x = positions[(light * 3) + 0];
+                double y = positions[(light * 3) + 1];
+                double z = positions[(light * 3) + 2];
+                this.minX = Math.min(this.minX, x);
+                this.minY = Math.min(this.minY, y);
+                this.minZ = Math.min(this.minZ, z);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+            }
+            if (this.count == 0) {
+                this.minX = 0.0;
+                this.minY = 0.0;
+                this.minZ = 0.0;
+                maxX = 0.0;
+                maxY = 0.0;
+                maxZ = 0.0;
+            }
+
+            double extentX = Math.max(maxX - this.minX, 1e-3);
+            double extentY = Math.max(maxY - this.minY, 1e-3);
+            double extentZ = Math.max(maxZ - this.minZ, 1e-3);
+
+            int targetCells = Math.max(this.count / LIGHTS_PER_CELL, 1);
+            int maxCells = Math.max(this.count * MAX_CELLS_PER_LIGHT, 1);
+
+            this.cellSize = Math.cbrt((extentX * extentY * extentZ) / targetCells);
+            while (true) {
+                this.sizeX = ((int) Math.min(extentX / this.cellSize, Integer.MAX_VALUE / 4)) + 1;
+                this.sizeY = ((int) Math.min(extentY / this.cellSize, Integer.MAX_VALUE / 4)) + 1;
+                this.sizeZ = ((int) Math.min(extentZ / this.cellSize, Integer.MAX_VALUE / 4)) + 1;
+                if (((long) this.sizeX) * this.sizeY * this.sizeZ <= maxCells) {
+                    break;
+                }
+                this.cellSize *= 1.5;
+            }
+
+            int cells = this.sizeX * this.sizeY * this.sizeZ;
+            if (this.cellStart.length < cells + 1) {
+                this.cellStart = new int[Math.max(cells + 1, this.cellStart.length * 2)];
+            }
+            if (this.cellLights.length < this.count) {
+                this.cellLights = new int[Math.max(this.count, this.cellLights.length * 2)];
+            }
+            Arrays.fill(this.cellStart, 0, cells + 1, 0);
+
+            for (int i = 0; i < this.count; i++) {
+                int light = this.lights[i];
+                int cell = cellIndex(
+                        cellX(positions[(light * 3) + 0]),
+                        cellY(positions[(light * 3) + 1]),
+                        cellZ(positions[(light * 3) + 2])
+                );
+                this.cellStart[cell + 1]++;
+            }
+            for (int i = 0; i < cells; i++) {
+                this.cellStart[i + 1] += this.cellStart[i];
+            }
+            for (int i = 0; i < this.count; i++) {
+                int light = this.lights[i];
+                int cell = cellIndex(
+                        cellX(positions[(light * 3) + 0]),
+                        cellY(positions[(light * 3) + 1]),
+                        cellZ(positions[(light * 3) + 2])
+                );
+                this.cellLights[this.cellStart[cell]] = light;
+                this.cellStart[cell]++;
+            }
+            for (int i = cells; i > 0; i--) {
+                this.cellStart[i] = this.cellStart[i - 1];
+            }
+            this.cellStart[0] = 0;
+        }
+    }
+
+    public class Search {
+
+        private int[] stamps = new int[16];
+        private int stamp = 0;
+
+        private double[] keys = new double[16];
+        private int[] candidates = new int[16];
+        private int candidatesCount = 0;
+
+        private double[] heapDistances = new double[16];
+        private int[] heapLights = new int[16];
+        private int heapSize = 0;
+
+        private Search() {
+
+        }
+
+        public NLightIndex getIndex() {
+            return NLightIndex.this;
+        }
+
+        private void ensureCapacity(int lightsLength, int candidatesLength) {
+            if (this.stamps.length < lightsLength) {
+                this.stamps = new int[Math.max(lightsLength, this.stamps.length * 2)];
+                this.keys = new double[this.stamps.length];
+                this.stamp = 0;
+            }
+            if (this.candidates.length < candidatesLength) {
+                this.candidates = new int[Math.max(candidatesLength, this.candidates.length * 2)];
+            }
+            if (this.heapDistances.length < candidatesLength) {
+                this.heapDistances = new double[this.candidates.length];
+                this.heapLights = new int[this.candidates.length];
+            }
+        }
+
+        private boolean greater(int a, int b) {
+            double distanceA = this.heapDistances[a];
+            double distanceB = this.heapDistances[b];
+            return distanceA > distanceB || (distanceA == distanceB && this.heapLights[a] > this.heapLights[b]);
+        }
+
+        private void heapSwap(int a, int b) {
+            double distance = this.heapDistances[a];
+            this.heapDistances[a] = this.heapDistances[b];
+            this.heapDistances[b] = distance;
+            int light = this.heapLights[a];
+            this.heapLights[a] = this.heapLights[b];
+            this.heapLights[b] = light;
+        }
+
+        private void heapOffer(int light, double distance, int k) {
+            if (this.heapSize < k) {
+                int i = this.heapSize;
+                this.heapDistances[i] = distance;
+                this.heapLights[i] = light;
+                this.heapSize++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!greater(i, parent)) {
+                        break;
+                    }
+                    heapSwap(i, parent);
+                    i = parent;
+                }
+                return;
+            }
+            if (distance > this.heapDistances[0]
+                    || (distance == this.heapDistances[0] && light > this.heapLights[0])) {
+                return;
+            }
+            this.heapDistances[0] = distance;
+            this.heapLights[0] = light;
+            int i = 0;
+            while (true) {
+                int left = (i * 2) + 1;
+                int right = left + 1;
+                int largest = i;
+                if (left < this.heapSize && greater(left, largest)) {
+                    largest = left;
+                }
+                if (right < this.heapSize && greater(right, largest)) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    break;
+                }
+                heapSwap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void nearest(Grid grid, double x, double y, double z, int k) {
+            this.heapSize = 0;
+            if (k <= 0 || grid.count == 0) {
+                return;
+            }
+
+            double[] positions = NLightIndex.this.positions;
+
+            int centerX = grid.cellX(x);
+            int centerY = grid.cellY(y);
+            int centerZ = grid.cellZ(z);
+            int maxRing = Math.max(grid.sizeX, Math.max(grid.sizeY, grid.sizeZ));
+
+            for (int ring = 0; ring <= maxRing; ring++) {
+                int startX = Math.max(centerX - ring, 0);
+                int startY = Math.max(centerY - ring, 0);
+                int startZ = Math.max(centerZ - ring, 0);
+                int endX = Math.min(centerX + ring, grid.sizeX - 1);
+                int endY = Math.min(centerY + ring, grid.sizeY - 1);
+                int endZ = Math.min(centerZ + ring, grid.sizeZ - 1);
+
+                for (int cz = startZ; cz <= endZ; cz++) {
+                    int dz = Math.abs(cz - centerZ);
+                    for (int cy = startY; cy <= endY; cy++) {
+                        int dy = Math.abs(cy - centerY);
+                        boolean shell = dz == ring || dy == ring;
+                        for (int cx = startX; cx <= endX; cx++) {
+                            if (!shell && Math.abs(cx - centerX) != ring) {
+                                if (cx < centerX + ring) {
+                                    cx = Math.max(centerX + ring, startX) - 1;
+                                }
+                                continue;
+                            }
+                            int cell = grid.cellIndex(cx, cy, cz);
+                            for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++) {
+                                int light = grid.cellLights[i];
+                                double lx = positions[(light * 3) + 0] - x;
+                                double ly = positions[(light * 3) + 1] - y;
+                                double lz = positions[(light * 3) + 2] - z;
+                                heapOffer(light, (lx * lx) + (ly * ly) + (lz * lz), k);
+                            }
+                        }
+                    }
+                }
+
+                if (this.heapSize >= k) {
+                    double bound = ring * grid.cellSize;
+                    if (this.heapDistances[0] < (bound * bound)) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void addCandidate(int light, double x, double y, double z) {
+            if (this.stamps[light] == this.stamp) {
+                return;
+            }
+            this.stamps[light] = this.stamp;
+
+            double distance = 0.0;
+            if (NLightIndex.this.positioned[light]) {
+                double lx = NLightIndex.this.positions[(light * 3) + 0] - x;
+                double ly = NLightIndex.this.positions[(light * 3) + 1] - y;
+                double lz = NLightIndex.this.positions[(light * 3) + 2] - z;
+                distance = (lx * lx) + (ly * ly) + (lz * lz);
+            }
+            this.keys[light] = Math.min(NLightIndex.this.cameraDistances[light], distance);
+
+            this.candidates[this.candidatesCount] = light;
+            this.candidatesCount++;
+        }
+
+        public int search(double x, double y, double z, int k, boolean dynamicOnly, int[] output) {
+            Grid grid = (dynamicOnly ? NLightIndex.this.dynamicLights : NLightIndex.this.allLights);
+
+            k = Math.min(Math.min(k, grid.total()), output.length);
+            if (k <= 0) {
+                return 0;
+            }
+
+            ensureCapacity(NLightIndex.this.numberOfLights, k * 3);
+
+            this.stamp++;
+            if (this.stamp == 0) {
+                Arrays.fill(this.stamps, 0);
+                this.stamp = 1;
+            }
+
+            if (grid.total() <= k * BRUTE_FORCE_FACTOR) {
+                ensureCapacity(NLightIndex.this.numberOfLights, grid.total());
+                this.candidatesCount = 0;
+                for (int i = 0; i < grid.total(); i++) {
+                    addCandidate(grid.cameraOrder[i], x, y, z);
+                }
+                SortUtils.sortIndices(this.candidates, this.keys, this.candidatesCount);
+                System.arraycopy(this.candidates, 0, output, 0, k);
+                return k;
+            }
+
+            nearest(grid, x, y, z, k);
+            int nearestCount = this.heapSize;
+            System.arraycopy(this.heapLights, 0, output, 0, nearestCount);
+
+            this.candidatesCount = 0;
+            for (int i = 0; i < nearestCount; i++) {
+                addCandidate(output[i], x, y, z);
+            }
+            for (int i = 0; i < Math.min(k, grid.unpositionedCount); i++) {
+                addCandidate(grid.unpositioned[i], x, y, z);
+            }
+            for (int i = 0; i < k; i++) {
+                addCandidate(grid.cameraOrder[i], x, y, z);
+            }
+
+            SortUtils.sortIndices(this.candidates, this.keys, this.candidatesCount);
+
+            System.arraycopy(this.candidates, 0, output, 0, k);
+            return k;
+        }
+    }
+
+    private List<NLight> lights = null;
+    private int numberOfLights = 0;
+    private boolean[] positioned = new boolean[16];
+    private double[] positions = new double[16 * 3];
+    private double[] cameraDistances = new double[16];
+
+    private final Grid allLights = new Grid();
+    private final Grid dynamicLights = new Grid();
+
+    public NLightIndex() {
+
+    }
+
+    public void build(List<NLight> lights, Vector3dc cameraPosition) {
+        this.lights = lights;
+        this.numberOfLights = lights.size();
+
+        if (this.positioned.length < this.numberOfLights) {
+            int newLength = Math.max(this.numberOfLights, this.positioned.length * 2);
+            this.positioned = new boolean[newLength];
+            this.positions = new double[newLength * 3];
+            this.cameraDistances = new double[newLength];
+        }
+
+        this.allLights.clear();
+        this.dynamicLights.clear();
+
+        for (int i = 0; i < this.numberOfLights; i++) {
+            NLight light = lights.get(i);
+
+            Vector3dc position = null;
+            if (light instanceof NLight.NSpotLight e) {
+                position = e.getPosition();
+            } else if (light instanceof NLight.NPointLight e) {
+                position = e.getPosition();
+            }
+
+            double distance = 0.0;
+            if (position != null) {
+                this.positions[(i * 3) + 0] = position.x();
+                this.positions[(i * 3) + 1] = position.y();
+                this.positions[(i * 3) + 2] = position.z();
+
+                double lx = position.x() - cameraPosition.x();
+                double ly = position.y() - cameraPosition.y();
+                double lz = position.z() - cameraPosition.z();
+                distance = (lx * lx) + (ly * ly) + (lz * lz);
+            }
+            this.positioned[i] = position != null;
+            this.cameraDistances[i] = distance;
+
+            this.allLights.add(i, position != null);
+            if (light.isDynamic()) {
+                this.dynamicLights.add(i, position != null);
+            }
+        }
+
+        this.allLights.build(this.positions, this.cameraDistances);
+        this.dynamicLights.build(this.positions, this.cameraDistances);
+    }
+
+    public List<NLight> getLights() {
+        return lights;
+    }
+
+    public int getNumberOfLights() {
+        return numberOfLights;
+    }
+
+    public NLight getLight(int index) {
+        return this.lights.get(index);
+    }
+
+    public Search createSearch() {
+        return new Search();
+    }
+
+}
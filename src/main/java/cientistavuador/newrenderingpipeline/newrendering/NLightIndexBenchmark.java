@@ -0,0 +1,225 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import cientistavuador.newrenderingpipeline.util.SortUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.joml.Vector3d;
+
+/**
+ *
+ * @author Cien
+ */
+public class NLightIndexBenchmark {
+
+    public static final int[] LIGHT_COUNTS = {10, 25, 50, 100, 250, 500, 1000};
+    public static final int NUMBER_OF_GEOMETRIES = 2000;
+    public static final int NUMBER_OF_FRAMES = 20;
+    public static final double MAP_SIZE = 200.0;
+
+    private static List<NLight> createLights(Random random, int count) {
+        List<NLight> lights = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            NLight light;
+            int type = random.nextInt(10);
+            if (type == 0) {
+                light = new NLight.NDirectionalLight("directional_" + i);
+            } else if (type < 4) {
+                NLight.NSpotLight spot = new NLight.NSpotLight("spot_" + i);
+                spot.getPosition().set(
+                        random.nextDouble() * MAP_SIZE,
+                        random.nextDouble() * 10.0,
+                        random.nextDouble() * MAP_SIZE
+                );
+                spot.getDirection().set(0f, -1f, 0f);
+                light = spot;
+            } else {
+                NLight.NPointLight point = new NLight.NPointLight("point_" + i);
+                point.getPosition().set(
+                        random.nextDouble() * MAP_SIZE,
+                        random.nextDouble() * 10.0,
+                        random.nextDouble() * MAP_SIZE
+                );
+                light = point;
+            }
+            light.setDynamic(random.nextInt(3) != 0);
+            lights.add(light);
+        }
+        return lights;
+    }
+
+    private static double distance(NLight light, Vector3d camera, double x, double y, double z) {
+        Vector3d position = null;
+        if (light instanceof NLight.NSpotLight e) {
+            position = e.getPosition();
+        } else if (light instanceof NLight.NPointLight e) {
+            position = e.getPosition();
+        }
+        if (position == null) {
+            return 0.0;
+        }
+        double cx = position.x() - camera.x();
+        double cy = position.y() - camera.y();
+        double cz = position.z() - camera.z();
+        double gx = position.x() - x;
+        double gy = position.y() - y;
+        double gz = position.z() - z;
+        return Math.min(
+                (cx * cx) + (cy * cy) + (cz * cz),
+                (gx * gx) + (gy * gy) + (gz * gz)
+        );
+    }
+
+    private static int bruteForce(
+            List<NLight> lights, Vector3d camera,
+            double x, double y, double z,
+            boolean dynamicOnly,
+            double[] keys, int[] indices, int[] output
+    ) {
+        int count = 0;
+        for (int i = 0; i < lights.size(); i++) {
+            NLight light = lights.get(i);
+            if (dynamicOnly && !light.isDynamic()) {
+                continue;
+            }
+            keys[i] = distance(light, camera, x, y, z);
+            indices[count] = i;
+            count++;
+        }
+        SortUtils.sortIndices(indices, keys, count);
+        int found = Math.min(count, output.length);
+        System.arraycopy(indices, 0, output, 0, found);
+        return found;
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(12345);
+
+        double[] geometries = new double[NUMBER_OF_GEOMETRIES * 3];
+        for (int i = 0; i < NUMBER_OF_GEOMETRIES; i++) {
+            geometries[(i * 3) + 0] = random.nextDouble() * MAP_SIZE;
+            geometries[(i * 3) + 1] = random.nextDouble() * 10.0;
+            geometries[(i * 3) + 2] = random.nextDouble() * MAP_SIZE;
+        }
+
+        Vector3d camera = new Vector3d(MAP_SIZE * 0.5, 2.0, MAP_SIZE * 0.5);
+
+        System.out.println("Lights | Brute Force (ms/frame) | Light Index (ms/frame) | Speedup | Mismatches");
+
+        for (int lightCount : LIGHT_COUNTS) {
+            List<NLight> lights = createLights(random, lightCount);
+
+            double[] keys = new double[lightCount];
+            int[] indices = new int[lightCount];
+            int[] expected = new int[NProgram.MAX_AMOUNT_OF_LIGHTS];
+            int[] found = new int[NProgram.MAX_AMOUNT_OF_LIGHTS];
+
+            NLightIndex index = new NLightIndex();
+            NLightIndex.Search search = index.createSearch();
+
+            long checksum = 0;
+
+            long bruteForceTime = 0;
+            long indexTime = 0;
+            int mismatches = 0;
+
+            for (int frame = 0; frame < NUMBER_OF_FRAMES * 2; frame++) {
+                boolean warmup = frame < NUMBER_OF_FRAMES;
+
+                long start = System.nanoTime();
+                for (int i = 0; i < NUMBER_OF_GEOMETRIES; i++) {
+                    int count = bruteForce(lights, camera,
+                            geometries[(i * 3) + 0], geometries[(i * 3) + 1], geometries[(i * 3) + 2],
+                            (i % 4) == 0,
+                            keys, indices, expected
+                    );
+                    checksum += count;
+                }
+                long end = System.nanoTime();
+                if (!warmup) {
+                    bruteForceTime += end - start;
+                }
+
+                start = System.nanoTime();
+                index.build(lights, camera);
+                for (int i = 0; i < NUMBER_OF_GEOMETRIES; i++) {
+                    int count = search.search(
+                            geometries[(i * 3) + 0], geometries[(i * 3) + 1], geometries[(i * 3) + 2],
+                            NProgram.MAX_AMOUNT_OF_LIGHTS, (i % 4) == 0,
+                            found
+                    );
+                    checksum += count;
+                }
+                end = System.nanoTime();
+                if (!warmup) {
+                    indexTime += end - start;
+                }
+            }
+
+            for (int i = 0; i < NUMBER_OF_GEOMETRIES; i++) {
+                double x = geometries[(i * 3) + 0];
+                double y = geometries[(i * 3) + 1];
+                double z = geometries[(i * 3) + 2];
+                boolean dynamicOnly = (i % 4) == 0;
+                int expectedCount = bruteForce(lights, camera, x, y, z, dynamicOnly, keys, indices, expected);
+                int foundCount = search.search(x, y, z, NProgram.MAX_AMOUNT_OF_LIGHTS, dynamicOnly, found);
+                if (expectedCount != foundCount) {
+                    mismatches++;
+                    continue;
+                }
+                for (int j = 0; j < expectedCount; j++) {
+                    if (expected[j] != found[j]) {
+                        mismatches++;
+                        break;
+                    }
+                }
+            }
+
+            double bruteForceMs = (bruteForceTime / 1E6) / NUMBER_OF_FRAMES;
+            double indexMs = (indexTime / 1E6) / NUMBER_OF_FRAMES;
+
+            System.out.printf("%6d | %22.3f | %22.3f | %6.2fx | %d%n",
+                    lightCount, bruteForceMs, indexMs, bruteForceMs / indexMs, mismatches
+            );
+
+            if (mismatches != 0) {
+                throw new IllegalStateException(mismatches + " light selections differ from the brute force with " + lightCount + " lights!");
+            }
+
+            if (checksum == 0) {
+                System.out.println();
+            }
+        }
+    }
+
+    private NLightIndexBenchmark() {
+
+    }
+
+}
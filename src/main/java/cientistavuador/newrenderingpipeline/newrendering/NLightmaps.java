@@ -29,6 +29,7 @@ package cientistavuador.newrenderingpipeline.newrendering;
 import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore.DXT5Texture;
+import cientistavuador.newrenderingpipeline.util.DataCache;
 import cientistavuador.newrenderingpipeline.util.ObjectCleaner;
 import cientistavuador.newrenderingpipeline.util.E8Image;
 import cientistavuador.newrenderingpipeline.util.MipmapUtils;
@@ -36,6 +37,7 @@ import cientistavuador.newrenderingpipeline.util.RGBA8Image;
 import cientistavuador.newrenderingpipeline.util.StringUtils;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapAmbientCube;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapAmbientCubeBVH;
+import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapIrradianceVolume;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -47,7 +49,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjgl.opengl.EXTTextureCompressionS3TC;
@@ -67,6 +72,8 @@ public class NLightmaps {
 
     private static final AtomicLong textureIds = new AtomicLong();
 
+    private static final ThreadLocal<float[]> sampleScratch = ThreadLocal.withInitial(() -> new float[3]);
+
     public static final NLightmaps NULL_LIGHTMAPS;
     static {
         try {
@@ -90,6 +97,17 @@ public class NLightmaps {
 
         int texture = 0;
     }
+    
+    private static class CombinedLightmapKey {
+
+        final int version;
+        final DataCache.Key key;
+
+        CombinedLightmapKey(int version, DataCache.Key key) {
+            this.version = version;
+            this.key = key;
+        }
+    }
 
     private final String name;
     private final String uid;
@@ -107,9 +125,16 @@ public class NLightmaps {
     private final RGBA8Image cpuColor;
 
     private final LightmapAmbientCubeBVH ambientCubes;
+    private final LightmapIrradianceVolume irradianceVolume;
 
     private final Map<String, Integer> nameMap = new HashMap<>();
     private final float[] intensities;
+    private final AtomicInteger intensitiesVersion = new AtomicInteger();
+
+    private final DataCache.Key[] decodedLightmapsKeys;
+    private final Object combinedLightmapLock = new Object();
+    private final AtomicReference<CombinedLightmapKey> combinedLightmapKey = new AtomicReference<>();
+    private final Supplier<float[]> combinedLightmapLoader = this::combine;
 
     private final WrappedLightmap lightmapTexture = new WrappedLightmap();
 
@@ -121,6 +146,19 @@ public class NLightmaps {
             E8Image[] cpuLightmaps,
             RGBA8Image cpuColor,
             LightmapAmbientCubeBVH ambientCubes
+    ) {
+        this(name, uid, lightmapNames, lightmaps, cpuLightmaps, cpuColor, ambientCubes, null);
+    }
+
+    public NLightmaps(
+            String name,
+            String uid,
+            String[] lightmapNames,
+            DXT5Texture[] lightmaps,
+            E8Image[] cpuLightmaps,
+            RGBA8Image cpuColor,
+            LightmapAmbientCubeBVH ambientCubes,
+            LightmapIrradianceVolume irradianceVolume
     ) {
         Objects.requireNonNull(lightmapNames, "Lightmap Names is null.");
         Objects.requireNonNull(lightmaps, "Lightmaps is null.");
@@ -154,6 +192,10 @@ public class NLightmaps {
             }
         }
 
+        if (irradianceVolume != null && irradianceVolume.getNumberOfLightmaps() != this.numberOfLightmaps) {
+            throw new IllegalArgumentException("Irradiance Volume amount of lightmaps is not " + this.numberOfLightmaps);
+        }
+
         for (int i = 0; i < this.numberOfLightmaps; i++) {
             Objects.requireNonNull(lightmapNames[i], "Lightmap Name at index " + i + " is null.");
             Objects.requireNonNull(lightmaps[i], "Lightmap at index " + i + " is null.");
@@ -194,6 +236,7 @@ public class NLightmaps {
         this.cpuColor = cpuColor;
 
         this.ambientCubes = ambientCubes;
+        this.irradianceVolume = irradianceVolume;
 
         for (int i = 0; i < this.lightmapsNames.length; i++) {
             this.nameMap.put(this.lightmapsNames[i], i);
@@ -202,13 +245,27 @@ public class NLightmaps {
         for (int i = 0; i < this.intensities.length; i++) {
             this.intensities[i] = 1f;
         }
+        
+        this.decodedLightmapsKeys = new DataCache.Key[this.numberOfLightmaps];
+        for (int i = 0; i < this.decodedLightmapsKeys.length; i++) {
+            this.decodedLightmapsKeys[i] = new DataCache.Key("lightmap_" + this.name + "_decoded_" + this.lightmapsNames[i]);
+        }
 
         registerForCleaning();
     }
 
     private void registerForCleaning() {
         final WrappedLightmap wrapped = this.lightmapTexture;
+        final DataCache.Key[] decodedKeys = this.decodedLightmapsKeys;
+        final AtomicReference<CombinedLightmapKey> combinedKey = this.combinedLightmapKey;
         ObjectCleaner.get().register(this, () -> {
+            for (DataCache.Key key : decodedKeys) {
+                DataCache.get().remove(key);
+            }
+            CombinedLightmapKey combined = combinedKey.get();
+            if (combined != null) {
+                DataCache.get().remove(combined.key);
+            }
             Main.MAIN_TASKS.add(() -> {
                 int tex = wrapped.texture;
                 if (tex != 0) {
@@ -267,6 +324,10 @@ public class NLightmaps {
         return ambientCubes;
     }
 
+    public LightmapIrradianceVolume getIrradianceVolume() {
+        return irradianceVolume;
+    }
+
     public int indexOf(String name) {
         Integer i = this.nameMap.get(name);
         if (i == null) {
@@ -280,39 +341,209 @@ public class NLightmaps {
     }
 
     public void setIntensity(int index, float intensity) {
+        if (Float.compare(this.intensities[index], intensity) == 0) {
+            return;
+        }
         this.intensities[index] = intensity;
+        this.intensitiesVersion.incrementAndGet();
+    }
+
+    public void getIntensities(float[] outIntensities) {
+        System.arraycopy(this.intensities, 0, outIntensities, 0, this.intensities.length);
     }
 
     public List<LightmapAmbientCube> searchAmbientCubes(float x, float y, float z) {
-        List<LightmapAmbientCube> cubes = getAmbientCubes().search(
+        int[] output = new int[16];
+        int found = searchAmbientCubes(x, y, z, output);
+        if (found > output.length) {
+            output = new int[found];
+            searchAmbientCubes(x, y, z, output);
+        }
+        List<LightmapAmbientCube> cubes = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            cubes.add(getAmbientCubes().getAmbientCubes().get(output[i]));
+        }
+        return cubes;
+    }
+
+    /**
+     * Searches the ambient cubes near a position without allocating, see
+     * {@link LightmapAmbientCubeBVH#search(float, float, float, float, int[])}.
+     *
+     * @param x the x position
+     * @param y the y position
+     * @param z the z position
+     * @param output the indices of the cubes found
+     * @return the amount of cubes found, may be larger than the output length
+     */
+    public int searchAmbientCubes(float x, float y, float z, int[] output) {
+        return getAmbientCubes().search(
                 x, y, z,
-                getAmbientCubes().getAverageRadius() * 2f
+                getAmbientCubes().getAverageRadius() * 2f,
+                output
+        );
+    }
+
+    public float[] getDecodedLightmap(int index) {
+        final E8Image cpuLightmap = this.cpuLightmaps[index];
+        return DataCache.get().get(
+                this.decodedLightmapsKeys[index],
+                cpuLightmap::toFloatArray,
+                DataCache::sizeOf
         );
-        return cubes;
+    }
+
+    private float[] combine() {
+        float[] data = new float[this.cpuLightmapWidth * this.cpuLightmapHeight * 3];
+        for (int i = 0; i < this.numberOfLightmaps; i++) {
+            float intensity = this.intensities[i];
+            float[] layer = getDecodedLightmap(i);
+            for (int j = 0; j < data.length; j++) {
+                data[j] += layer[j] * intensity;
+            }
+        }
+        return data;
+    }
+
+    //every intensity version has its own key, so an entry is never replaced
+    //while another thread reads it, the key of the old version is removed
+    //from the cache when the new one is made
+    private DataCache.Key getCombinedLightmapKey() {
+        int version = this.intensitiesVersion.get();
+        CombinedLightmapKey combined = this.combinedLightmapKey.get();
+        if (combined != null && combined.version == version) {
+            return combined.key;
+        }
+        synchronized (this.combinedLightmapLock) {
+            version = this.intensitiesVersion.get();
+            combined = this.combinedLightmapKey.get();
+            if (combined == null || combined.version != version) {
+                if (combined != null) {
+                    DataCache.get().remove(combined.key);
+                }
+                combined = new CombinedLightmapKey(
+                        version,
+                        new DataCache.Key("lightmap_" + this.name + "_combined_" + version)
+                );
+                this.combinedLightmapKey.set(combined);
+            }
+            return combined.key;
+        }
+    }
+
+    public float[] getCombinedLightmap() {
+        return DataCache.get().get(
+                getCombinedLightmapKey(),
+                this.combinedLightmapLoader,
+                DataCache::sizeOf
+        );
+    }
+
+    private void sampleNearest(float[] data, float u, float v, float[] out, int offset) {
+        int w = getCPULightmapWidth();
+        int h = getCPULightmapHeight();
+
+        int x = (int) (u * w);
+        int y = (int) (v * h);
+        x = Math.min(Math.max(x, 0), w - 1);
+        y = Math.min(Math.max(y, 0), h - 1);
+
+        int index = (x * 3) + (y * w * 3);
+
+        out[offset + 0] = data[index + 0];
+        out[offset + 1] = data[index + 1];
+        out[offset + 2] = data[index + 2];
     }
 
     public void sampleLightmaps(float u, float v, Vector3f outLightmap) {
+        float[] scratch = sampleScratch.get();
+        sampleNearest(getCombinedLightmap(), u, v, scratch, 0);
+        outLightmap.set(scratch[0], scratch[1], scratch[2]);
+    }
+
+    private void sampleBilinear(float[] data, float u, float v, float[] out, int offset) {
         int w = getCPULightmapWidth();
         int h = getCPULightmapHeight();
 
-        float r = 0f;
-        float g = 0f;
-        float b = 0f;
-        for (int i = 0; i < getNumberOfLightmaps(); i++) {
-            int x = (int) (u * w);
-            int y = (int) (v * h);
-            x = Math.min(Math.max(x, 0), w - 1);
-            y = Math.min(Math.max(y, 0), h - 1);
+        float fx = (u * w) - 0.5f;
+        float fy = (v * h) - 0.5f;
+        if (!Float.isFinite(fx)) {
+            fx = 0f;
+        }
+        if (!Float.isFinite(fy)) {
+            fy = 0f;
+        }
 
-            float intensity = getIntensity(i);
-            getCPULightmap(i).read(x, y, outLightmap);
+        float floorX = (float) Math.floor(fx);
+        float floorY = (float) Math.floor(fy);
+        float wx = fx - floorX;
+        float wy = fy - floorY;
+
+        int x0 = (int) Math.min(Math.max(floorX, 0f), w - 1);
+        int y0 = (int) Math.min(Math.max(floorY, 0f), h - 1);
+        int x1 = (int) Math.min(Math.max(floorX + 1f, 0f), w - 1);
+        int y1 = (int) Math.min(Math.max(floorY + 1f, 0f), h - 1);
+
+        int i00 = (x0 * 3) + (y0 * w * 3);
+        int i10 = (x1 * 3) + (y0 * w * 3);
+        int i01 = (x0 * 3) + (y1 * w * 3);
+        int i11 = (x1 * 3) + (y1 * w * 3);
+
+        float w00 = (1f - wx) * (1f - wy);
+        float w10 = wx * (1f - wy);
+        float w01 = (1f - wx) * wy;
+        float w11 = wx * wy;
+
+        out[offset + 0] = (data[i00 + 0] * w00) + (data[i10 + 0] * w10) + (data[i01 + 0] * w01) + (data[i11 + 0] * w11);
+        out[offset + 1] = (data[i00 + 1] * w00) + (data[i10 + 1] * w10) + (data[i01 + 1] * w01) + (data[i11 + 1] * w11);
+        out[offset + 2] = (data[i00 + 2] * w00) + (data[i10 + 2] * w10) + (data[i01 + 2] * w01) + (data[i11 + 2] * w11);
+    }
+
+    public void sampleLightmapsBilinear(float u, float v, Vector3f outLightmap) {
+        float[] scratch = sampleScratch.get();
+        sampleBilinear(getCombinedLightmap(), u, v, scratch, 0);
+        outLightmap.set(scratch[0], scratch[1], scratch[2]);
+    }
 
-            r += outLightmap.x() * intensity;
-            g += outLightmap.y() * intensity;
-            b += outLightmap.z() * intensity;
+    public void sampleLightmaps(float[] uvs, float[] outLightmaps, int count, boolean bilinear) {
+        if (count < 0 || uvs.length < count * 2 || outLightmaps.length < count * 3) {
+            throw new IllegalArgumentException("Invalid count or arrays too small; count " + count + ", uvs " + uvs.length + ", output " + outLightmaps.length);
         }
 
-        outLightmap.set(r, g, b);
+        float[] data = getCombinedLightmap();
+        for (int i = 0; i < count; i++) {
+            float u = uvs[(i * 2) + 0];
+            float v = uvs[(i * 2) + 1];
+
+            if (bilinear) {
+                sampleBilinear(data, u, v, outLightmaps, i * 3);
+            } else {
+                sampleNearest(data, u, v, outLightmaps, i * 3);
+            }
+        }
+    }
+
+    public void sampleLightmap(int index, float u, float v, Vector3f outLightmap) {
+        sampleLightmap(getDecodedLightmap(index), u, v, outLightmap);
+    }
+
+    /**
+     * Samples a layer previously fetched with {@link #getDecodedLightmap(int)},
+     * loops should fetch the layer once and use this instead of going through
+     * the data cache for every sample.
+     *
+     * @param decodedLightmap the decoded layer
+     * @param u the u coordinate
+     * @param v the v coordinate
+     * @param outLightmap the output color
+     */
+    public void sampleLightmap(float[] decodedLightmap, float u, float v, Vector3f outLightmap) {
+        if (decodedLightmap.length != getCPULightmapWidth() * getCPULightmapHeight() * 3) {
+            throw new IllegalArgumentException("Decoded lightmap has the wrong size: " + decodedLightmap.length);
+        }
+        float[] scratch = sampleScratch.get();
+        sampleNearest(decodedLightmap, u, v, scratch, 0);
+        outLightmap.set(scratch[0], scratch[1], scratch[2]);
     }
 
     public void sampleColor(float u, float v, Vector4f outColor) {
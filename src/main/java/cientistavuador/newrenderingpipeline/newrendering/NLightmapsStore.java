@@ -29,9 +29,12 @@ package cientistavuador.newrenderingpipeline.newrendering;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore.DXT5Texture;
 import cientistavuador.newrenderingpipeline.util.E8Image;
+import cientistavuador.newrenderingpipeline.util.LightmapCodec;
 import cientistavuador.newrenderingpipeline.util.RGBA8Image;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapAmbientCubeBVH;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapAmbientCubeBVHStore;
+import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapIrradianceVolume;
+import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapIrradianceVolumeStore;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -44,6 +47,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -64,6 +68,7 @@ public class NLightmapsStore {
 
     public static final String MAGIC_FILE_IDENTIFIER = "9e6b2847-9f06-4103-9935-e7a376a3f821";
     private static final String INDENT = "    ";
+    private static final String CPU_LIGHTMAP_EXTENSION = "e8." + LightmapCodec.EXTENSION;
     
     private static class StoreLightmap {
         int index;
@@ -89,6 +94,7 @@ public class NLightmapsStore {
         String uid;
         String cpuColorFile;
         String ambientCubesFile;
+        String irradianceVolumeFile;
         
         final List<StoreLightmap> lightmaps = new ArrayList<>();
 
@@ -101,6 +107,9 @@ public class NLightmapsStore {
             b.append(INDENT).append("uid=").append('"').append(URLEncoder.encode(this.uid, StandardCharsets.UTF_8)).append('"').append('\n');
             b.append(INDENT).append("cpuColorFile=").append('"').append(this.cpuColorFile).append('"').append('\n');
             b.append(INDENT).append("ambientCubesFile=").append('"').append(this.ambientCubesFile).append('"').append('\n');
+            if (this.irradianceVolumeFile != null) {
+                b.append(INDENT).append("irradianceVolumeFile=").append('"').append(this.irradianceVolumeFile).append('"').append('\n');
+            }
             b.append(">").append('\n');
             for (StoreLightmap e:lightmaps) {
                 b.append(e.toString(INDENT)).append('\n');
@@ -118,6 +127,21 @@ public class NLightmapsStore {
         return prefix + encodedName + suffix;
     }
     
+    private static void writeStoredEntry(ZipOutputStream out, String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+    
     public static void writeLightmaps(NLightmaps lightmaps, OutputStream output) throws IOException {
         ZipOutputStream out = new ZipOutputStream(output, StandardCharsets.UTF_8);
         
@@ -142,6 +166,14 @@ public class NLightmapsStore {
         LightmapAmbientCubeBVHStore.writeBVH(lightmaps.getAmbientCubes(), out);
         out.closeEntry();
         
+        if (lightmaps.getIrradianceVolume() != null) {
+            storeLightmaps.irradianceVolumeFile = createFileName(fileCounter, "irradianceVolume", "irv");
+            
+            out.putNextEntry(new ZipEntry(storeLightmaps.irradianceVolumeFile));
+            LightmapIrradianceVolumeStore.writeVolume(lightmaps.getIrradianceVolume(), out);
+            out.closeEntry();
+        }
+        
         for (int i = 0; i < lightmaps.getNumberOfLightmaps(); i++) {
             StoreLightmap storeLightmap = new StoreLightmap();
             
@@ -149,16 +181,16 @@ public class NLightmapsStore {
             storeLightmap.name = lightmaps.getLightmapName(i);
             
             storeLightmap.lightmapFile = createFileName(fileCounter, i+"_"+storeLightmap.name, DXT5TextureStore.EXTENSION);
-            storeLightmap.cpuLightmapFile = createFileName(fileCounter, i+"_cpu_"+storeLightmap.name, "png");
+            storeLightmap.cpuLightmapFile = createFileName(fileCounter, i+"_cpu_"+storeLightmap.name, CPU_LIGHTMAP_EXTENSION);
             
             out.putNextEntry(new ZipEntry(storeLightmap.lightmapFile));
             DXT5TextureStore.writeDXT5Texture(lightmaps.getLightmap(i), out);
             out.closeEntry();
             
-            out.putNextEntry(new ZipEntry(storeLightmap.cpuLightmapFile));
             E8Image cpuLightmap = lightmaps.getCPULightmap(i);
-            out.write(RGBA8Image.toPNG(cpuLightmap.getRGBE(), cpuLightmap.getWidth(), cpuLightmap.getHeight()));
-            out.closeEntry();
+            writeStoredEntry(out, storeLightmap.cpuLightmapFile, LightmapCodec.encode(
+                    cpuLightmap.getRGBE(), cpuLightmap.getWidth(), cpuLightmap.getHeight(), 4
+            ));
             
             storeLightmaps.lightmaps.add(storeLightmap);
         }
@@ -206,6 +238,9 @@ public class NLightmapsStore {
         storeLightmaps.uid = URLDecoder.decode(rootNode.getAttribute("uid"), StandardCharsets.UTF_8);
         storeLightmaps.cpuColorFile = rootNode.getAttribute("cpuColorFile");
         storeLightmaps.ambientCubesFile = rootNode.getAttribute("ambientCubesFile");
+        if (rootNode.hasAttribute("irradianceVolumeFile")) {
+            storeLightmaps.irradianceVolumeFile = rootNode.getAttribute("irradianceVolumeFile");
+        }
         
         NodeList list = rootNode.getElementsByTagName("lightmap");
         for (int i = 0; i < list.getLength(); i++) {
@@ -230,17 +265,27 @@ public class NLightmapsStore {
         E8Image[] cpuLightmaps = new E8Image[lightmapNames.length];
         RGBA8Image cpuColor;
         LightmapAmbientCubeBVH ambientCubes;
+        LightmapIrradianceVolume irradianceVolume = null;
         
         for (StoreLightmap lightmap:storeLightmaps.lightmaps) {
             int index = lightmap.index;
             
             lightmapNames[index] = lightmap.name;
             lightmaps[index] = DXT5TextureStore.readDXT5Texture(fs.get(lightmap.lightmapFile));
-            cpuLightmaps[index] = new E8Image(RGBA8Image.fromPNG(fs.get(lightmap.cpuLightmapFile)));
+            byte[] cpuLightmapData = fs.get(lightmap.cpuLightmapFile);
+            if (LightmapCodec.isEncoded(cpuLightmapData)) {
+                LightmapCodec.Header header = LightmapCodec.readHeader(cpuLightmapData);
+                cpuLightmaps[index] = new E8Image(LightmapCodec.decodeBytes(cpuLightmapData), header.width(), header.height());
+            } else {
+                cpuLightmaps[index] = new E8Image(RGBA8Image.fromPNG(cpuLightmapData));
+            }
         }
         
         cpuColor = RGBA8Image.fromPNG(fs.get(storeLightmaps.cpuColorFile));
         ambientCubes = LightmapAmbientCubeBVHStore.readBVH(fs.get(storeLightmaps.ambientCubesFile));
+        if (storeLightmaps.irradianceVolumeFile != null) {
+            irradianceVolume = LightmapIrradianceVolumeStore.readVolume(fs.get(storeLightmaps.irradianceVolumeFile));
+        }
         
         return new NLightmaps(
                 name,
@@ -249,7 +294,8 @@ public class NLightmapsStore {
                 lightmaps,
                 cpuLightmaps,
                 cpuColor,
-                ambientCubes
+                ambientCubes,
+                irradianceVolume
         );
     }
     
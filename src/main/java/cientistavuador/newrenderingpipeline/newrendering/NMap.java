@@ -26,6 +26,7 @@
  */
 package cientistavuador.newrenderingpipeline.newrendering;
 
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.AmbientCube;
 import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.util.ColorUtils;
@@ -35,8 +36,11 @@ import cientistavuador.newrenderingpipeline.util.E8Image;
 import cientistavuador.newrenderingpipeline.util.MeshUtils;
 import cientistavuador.newrenderingpipeline.util.Pair;
 import cientistavuador.newrenderingpipeline.util.RGBA8Image;
+import cientistavuador.newrenderingpipeline.util.SoftwareRenderer;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapAmbientCube;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapUVs;
+import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapAmbientCubeBVH;
+import cientistavuador.newrenderingpipeline.util.bakedlighting.LightmapIrradianceVolume;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.Lightmapper;
 import cientistavuador.newrenderingpipeline.util.bakedlighting.Scene;
 import cientistavuador.newrenderingpipeline.util.raycast.LocalRayResult;
@@ -46,15 +50,17 @@ import com.jme3.util.BufferUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 import org.joml.Vector4f;
-import org.joml.Vector4fc;
 import org.joml.primitives.Rectanglei;
 
 /**
@@ -149,14 +155,32 @@ public class NMap {
         }
     }
 
+    public static enum OcclusionMode {
+        GPU_QUERIES, SOFTWARE, NONE;
+    }
+    
     public static final int DEFAULT_LIGHTMAP_MARGIN = 5;
-
+    public static final float OCCLUDER_MINIMUM_AREA = 0.25f;
+    
+    public static final int DYNAMIC_AMBIENT_CUBE_RAYS = 2048;
+    public static final int DYNAMIC_AMBIENT_CUBE_RAYS_PER_TASK = 256;
+    
+    private static final float[][] DYNAMIC_AMBIENT_CUBE_DIRECTIONS = new float[AmbientCube.SIDES][];
+    
+    static {
+        for (int side = 0; side < AmbientCube.SIDES; side++) {
+            DYNAMIC_AMBIENT_CUBE_DIRECTIONS[side] = AmbientCube
+                    .stratifiedSideDirections180(side, DYNAMIC_AMBIENT_CUBE_RAYS, 0x5EED0000L + side);
+        }
+    }
+    
     public static String mapObjectPrefix(String mapName, int objectIndex, String objectName) {
         return "map_" + mapName + "_" + objectIndex + "_" + objectName;
     }
 
     private final String name;
     private final N3DObject[] objects;
+    private final NAmbientCubeCache dynamicAmbientCubeCache = new NAmbientCubeCache();
     private final MeshCollisionShape meshCollision;
 
     private final int lightmapMargin;
@@ -164,6 +188,9 @@ public class NMap {
     private final int lightmapSize;
     private final Rectanglei[] lightmapRectangles;
 
+    private final float[] occluders;
+    private OcclusionMode occlusionMode = OcclusionMode.GPU_QUERIES;
+    
     private NLightmaps lightmaps = null;
 
     public NMap(String name, Collection<N3DObject> objects, int lightmapMargin, float lightmapPixelToWorldRatio) {
@@ -279,6 +306,52 @@ public class NMap {
         }
         transformedVertices = Arrays.copyOf(transformedVertices, transformedVerticesIndex);
         
+        float[] occluderVertices = new float[SoftwareRenderer.MeshBuilder.VERTEX_SIZE * 3 * 64];
+        int occluderVerticesIndex = 0;
+        for (ObjectGeometries obj : objectsGeometries) {
+            for (GeometryOffset geo : obj.offsets) {
+                NMaterial material = geo.geometry.getMaterial();
+                if (material.isInvisible() || material.getBlendingMode() != NBlendingMode.OPAQUE) {
+                    continue;
+                }
+                for (int v = geo.offset; v < geo.offset + geo.length; v += NMesh.VERTEX_SIZE * 3) {
+                    int v0 = v + NMesh.OFFSET_POSITION_XYZ;
+                    int v1 = v0 + NMesh.VERTEX_SIZE;
+                    int v2 = v1 + NMesh.VERTEX_SIZE;
+                    
+                    float ax = transformedVertices[v1 + 0] - transformedVertices[v0 + 0];
+                    float ay = transformedVertices[v1 + 1] - transformedVertices[v0 + 1];
+                    float az = transformedVertices[v1 + 2] - transformedVertices[v0 + 2];
+                    float bx = transformedVertices[v2 + 0] - transformedVertices[v0 + 0];
+                    float by = transformedVertices[v2 + 1] - transformedVertices[v0 + 1];
+                    float bz = transformedVertices[v2 + 2] - transformedVertices[v0 + 2];
+                    float cx = (ay * bz) - (az * by);
+                    float cy = (az * bx) - (ax * bz);
+                    float cz = (ax * by) - (ay * bx);
+                    float area = (float) Math.sqrt((cx * cx) + (cy * cy) + (cz * cz)) * 0.5f;
+                    if (!(area >= OCCLUDER_MINIMUM_AREA)) {
+                        continue;
+                    }
+                    
+                    if ((occluderVertices.length - occluderVerticesIndex) < SoftwareRenderer.MeshBuilder.VERTEX_SIZE * 3) {
+                        occluderVertices = Arrays.copyOf(occluderVertices, occluderVertices.length * 2);
+                    }
+                    for (int vertex : new int[]{v0, v1, v2}) {
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.POS_X] = transformedVertices[vertex + 0];
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.POS_Y] = transformedVertices[vertex + 1];
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.POS_Z] = transformedVertices[vertex + 2];
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.NRM_Y] = 1f;
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.CLR_R] = 1f;
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.CLR_G] = 1f;
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.CLR_B] = 1f;
+                        occluderVertices[occluderVerticesIndex + SoftwareRenderer.MeshBuilder.CLR_A] = 1f;
+                        occluderVerticesIndex += SoftwareRenderer.MeshBuilder.VERTEX_SIZE;
+                    }
+                }
+            }
+        }
+        this.occluders = Arrays.copyOf(occluderVertices, occluderVerticesIndex);
+        
         LightmapUVs.GeneratorOutput output = MeshUtils.generateLightmapUVs(
                 transformedVertices, NMesh.VERTEX_SIZE, NMesh.OFFSET_POSITION_XYZ,
                 this.lightmapMargin, this.lightmapPixelToWorldRatio, 1f, 1f, 1f
@@ -402,6 +475,28 @@ public class NMap {
         return this.lightmapRectangles[index];
     }
 
+    /**
+     * Returns the opaque triangles of this map that are large enough to be
+     * used as occluders, in world space and in the mesh format of the
+     * software renderer.
+     * 
+     * @return the occluders
+     */
+    public float[] getOccluders() {
+        return occluders;
+    }
+
+    public OcclusionMode getOcclusionMode() {
+        return occlusionMode;
+    }
+
+    public void setOcclusionMode(OcclusionMode occlusionMode) {
+        if (occlusionMode == null) {
+            occlusionMode = OcclusionMode.GPU_QUERIES;
+        }
+        this.occlusionMode = occlusionMode;
+    }
+
     public NLightmaps getLightmaps() {
         return lightmaps;
     }
@@ -428,6 +523,15 @@ public class NMap {
         return results;
     }
 
+    private static class ShadowScratch {
+
+        final Vector3f rayWeights = new Vector3f();
+        final Vector4f color = new Vector4f();
+        final Vector4f blended = new Vector4f();
+    }
+
+    private static final ThreadLocal<ShadowScratch> shadowScratch = ThreadLocal.withInitial(ShadowScratch::new);
+
     public void testShadow(
             double pX, double pY, double pZ,
             float dX, float dY, float dZ,
@@ -442,10 +546,15 @@ public class NMap {
             return;
         }
 
-        Vector3f rayWeights = new Vector3f();
+        ShadowScratch scratch = shadowScratch.get();
+        Vector3f rayWeights = scratch.rayWeights;
+        Vector4f color = scratch.color;
+        Vector4f dest = scratch.blended;
 
-        List<Vector4fc> colors = new ArrayList<>();
-        for (NRayResult globalRay : alphaResults) {
+        //blended hit by hit, same result as ColorUtils.blend over the list
+        int colors = 0;
+        for (int i = 0; i < alphaResults.size(); i++) {
+            NRayResult globalRay = alphaResults.get(i);
             if (Double.isFinite(length) && globalRay.getDistance() > length) {
                 break;
             }
@@ -457,51 +566,71 @@ public class NMap {
             float lu = ray.lerp(rayWeights, NMesh.OFFSET_LIGHTMAP_TEXTURE_XY + 0);
             float lv = ray.lerp(rayWeights, NMesh.OFFSET_LIGHTMAP_TEXTURE_XY + 1);
 
-            Vector4f color = new Vector4f(0f, 0f, 0f, 1f);
+            color.set(0f, 0f, 0f, 1f);
             if (this.lightmaps != null) {
                 this.lightmaps.sampleColor(lu, lv, color);
             }
-            colors.add(color);
+            if (colors == 0) {
+                dest.set(color);
+            } else {
+                ColorUtils.blend(color, dest);
+            }
+            colors++;
         }
 
-        if (colors.isEmpty()) {
+        if (colors == 0) {
             return;
         }
 
-        Vector4f dest = new Vector4f(0f, 0f, 0f, 0f);
-        ColorUtils.blend(colors, dest);
-
         outShadow.set(dest.x(), dest.y(), dest.z())
                 .mul(dest.w())
                 .add(1f - dest.w(), 1f - dest.w(), 1f - dest.w())
                 .mul(1f - dest.w());
     }
 
-    public void sampleStaticAmbientCube(
+    private static class SampleScratch {
+
+        int[] found = new int[64];
+        float[] weights = new float[64];
+        final Vector3f direction = new Vector3f();
+
+        float[] intensities = new float[0];
+        float[] sampled = new float[0];
+        final float[] sides = new float[AmbientCube.SIDES * 3];
+    }
+
+    private static final ThreadLocal<SampleScratch> sampleScratch = ThreadLocal.withInitial(SampleScratch::new);
+
+    private boolean sampleBakedAmbientCubes(
+            LightmapAmbientCubeBVH ambientCubes,
             double pX, double pY, double pZ,
-            AmbientCube ambientCube
+            float[] output, int offset
     ) {
         final float epsilon = 0.001f;
 
-        ambientCube.zero();
+        SampleScratch scratch = sampleScratch.get();
+        float searchRadius = ambientCubes.getAverageRadius() * 2f;
 
-        if (this.lightmaps == null) {
-            return;
+        int count = ambientCubes.search((float) pX, (float) pY, (float) pZ, searchRadius, scratch.found);
+        if (count > scratch.found.length) {
+            scratch.found = new int[count];
+            scratch.weights = new float[count];
+            count = ambientCubes.search((float) pX, (float) pY, (float) pZ, searchRadius, scratch.found);
         }
 
-        List<LightmapAmbientCube> lightmapAmbientCubes = this.lightmaps.searchAmbientCubes(
-                (float) pX, (float) pY, (float) pZ
-        );
-
-        if (lightmapAmbientCubes.isEmpty()) {
-            return;
+        if (count == 0) {
+            return false;
         }
 
+        List<LightmapAmbientCube> cubes = ambientCubes.getAmbientCubes();
+        int[] found = scratch.found;
+
         {
-            Vector3f direction = new Vector3f();
+            Vector3f direction = scratch.direction;
 
-            List<LightmapAmbientCube> filtered = new ArrayList<>();
-            for (LightmapAmbientCube e : lightmapAmbientCubes) {
+            int visible = 0;
+            for (int i = 0; i < count; i++) {
+                LightmapAmbientCube e = cubes.get(found[i]);
                 direction.set(
                         (float) (e.getPosition().x() - pX),
                         (float) (e.getPosition().y() - pY),
@@ -509,7 +638,7 @@ public class NMap {
                 );
                 float distance = direction.length();
                 if (distance < epsilon) {
-                    filtered.add(e);
+                    found[visible++] = found[i];
                     continue;
                 }
                 direction.div(distance);
@@ -522,28 +651,28 @@ public class NMap {
                 if (!results.isEmpty()) {
                     NRayResult closest = results.get(0);
                     if (closest.getDistance() > distance) {
-                        filtered.add(e);
+                        found[visible++] = found[i];
                     }
                 } else {
-                    filtered.add(e);
+                    found[visible++] = found[i];
                 }
             }
 
-            lightmapAmbientCubes = filtered;
+            count = visible;
         }
 
-        if (lightmapAmbientCubes.isEmpty()) {
-            return;
+        if (count == 0) {
+            return false;
         }
 
-        float[] weights = new float[lightmapAmbientCubes.size()];
+        float[] weights = scratch.weights;
 
-        if (weights.length > 1) {
+        if (count > 1) {
             float totalDistance = 0f;
 
-            for (int i = 0; i < weights.length; i++) {
-                weights[i] = lightmapAmbientCubes
-                        .get(i)
+            for (int i = 0; i < count; i++) {
+                weights[i] = cubes
+                        .get(found[i])
                         .getPosition()
                         .distance((float) pX, (float) pY, (float) pZ);
                 totalDistance += weights[i];
@@ -551,78 +680,138 @@ public class NMap {
 
             if (totalDistance != 0f) {
                 float totalWeight = 0f;
-                for (int i = 0; i < weights.length; i++) {
+                for (int i = 0; i < count; i++) {
                     weights[i] = 1f - (weights[i] / totalDistance);
                     totalWeight += weights[i];
                 }
-                for (int i = 0; i < weights.length; i++) {
+                for (int i = 0; i < count; i++) {
                     weights[i] = weights[i] / totalWeight;
                 }
             } else {
-                for (int i = 0; i < weights.length; i++) {
+                for (int i = 0; i < count; i++) {
                     weights[i] = 1f;
                 }
             }
         } else {
-            for (int i = 0; i < weights.length; i++) {
-                weights[i] = 1f;
-            }
+            weights[0] = 1f;
         }
 
-        for (int side = 0; side < AmbientCube.SIDES; side++) {
-            float r = 0f;
-            float g = 0f;
-            float b = 0f;
+        int numberOfLightmaps = cubes.get(found[0]).getNumberOfAmbientCubes();
+        for (int j = 0; j < numberOfLightmaps; j++) {
+            for (int side = 0; side < AmbientCube.SIDES; side++) {
+                float r = 0f;
+                float g = 0f;
+                float b = 0f;
 
-            for (int i = 0; i < lightmapAmbientCubes.size(); i++) {
-                LightmapAmbientCube cube = lightmapAmbientCubes.get(i);
-                float weight = weights[i];
+                for (int i = 0; i < count; i++) {
+                    LightmapAmbientCube cube = cubes.get(found[i]);
+                    float weight = weights[i];
 
-                for (int j = 0; j < cube.getNumberOfAmbientCubes(); j++) {
-                    float intensity = this.lightmaps.getIntensity(j);
                     Vector3fc sideColor = cube.getAmbientCube(j).getSide(side);
 
-                    r += sideColor.x() * weight * intensity;
-                    g += sideColor.y() * weight * intensity;
-                    b += sideColor.z() * weight * intensity;
+                    r += sideColor.x() * weight;
+                    g += sideColor.y() * weight;
+                    b += sideColor.z() * weight;
                 }
-            }
 
-            ambientCube.setSide(side, r, g, b);
+                int index = offset + (((j * AmbientCube.SIDES) + side) * 3);
+                output[index + 0] = r;
+                output[index + 1] = g;
+                output[index + 2] = b;
+            }
         }
 
+        return true;
     }
 
-    public void sampleDynamicAmbientCube(
-            Vector3fc ambientColor,
+    public void sampleStaticAmbientCube(
             double pX, double pY, double pZ,
             AmbientCube ambientCube
     ) {
+        ambientCube.zero();
+
         if (this.lightmaps == null) {
-            for (int i = 0; i < AmbientCube.SIDES; i++) {
-                ambientCube.setSide(i, ambientColor);
-            }
             return;
         }
 
-        Vector3f direction = new Vector3f();
-        Vector3f weights = new Vector3f();
+        int numberOfLightmaps = this.lightmaps.getNumberOfLightmaps();
 
-        Vector3f lightmapColor = new Vector3f();
+        SampleScratch scratch = sampleScratch.get();
+        if (scratch.intensities.length != numberOfLightmaps) {
+            scratch.intensities = new float[numberOfLightmaps];
+            scratch.sampled = new float[numberOfLightmaps * AmbientCube.SIDES * 3];
+        }
+        float[] intensities = scratch.intensities;
+        float[] sampled = scratch.sampled;
+
+        this.lightmaps.getIntensities(intensities);
 
-        final int numberOfRays = 2048;
-        for (int i = 0; i < AmbientCube.SIDES; i++) {
+        LightmapIrradianceVolume irradianceVolume = this.lightmaps.getIrradianceVolume();
+        if (irradianceVolume != null
+                && irradianceVolume.sample((float) pX, (float) pY, (float) pZ, intensities, scratch.sides, ambientCube)) {
+            return;
+        }
+
+        if (!sampleBakedAmbientCubes(this.lightmaps.getAmbientCubes(), pX, pY, pZ, sampled, 0)) {
+            return;
+        }
+
+        for (int side = 0; side < AmbientCube.SIDES; side++) {
             float r = 0f;
             float g = 0f;
             float b = 0f;
-            for (int j = 0; j < numberOfRays; j++) {
-                AmbientCube.randomSideDirection180(i, direction);
 
-                List<NRayResult> rayResults = testRay(
-                        pX, pY, pZ,
-                        direction.x(), direction.y(), direction.z()
-                );
-                if (!rayResults.isEmpty()) {
+            for (int j = 0; j < numberOfLightmaps; j++) {
+                float intensity = intensities[j];
+                int index = ((j * AmbientCube.SIDES) + side) * 3;
+
+                r += sampled[index + 0] * intensity;
+                g += sampled[index + 1] * intensity;
+                b += sampled[index + 2] * intensity;
+            }
+
+            ambientCube.setSide(side, r, g, b);
+        }
+    }
+
+    public NAmbientCubeCache getDynamicAmbientCubeCache() {
+        return dynamicAmbientCubeCache;
+    }
+
+    private float[] traceDynamicAmbientCube(NLightmaps lightmaps, double pX, double pY, double pZ) {
+        final int numberOfLightmaps = lightmaps.getNumberOfLightmaps();
+        final int stride = (numberOfLightmaps * 3) + 1;
+        final int tasksPerSide = (DYNAMIC_AMBIENT_CUBE_RAYS + DYNAMIC_AMBIENT_CUBE_RAYS_PER_TASK - 1) / DYNAMIC_AMBIENT_CUBE_RAYS_PER_TASK;
+
+        List<Future<float[]>> tasks = new ArrayList<>();
+        for (int task = 0; task < AmbientCube.SIDES * tasksPerSide; task++) {
+            final int side = task / tasksPerSide;
+            final int start = (task % tasksPerSide) * DYNAMIC_AMBIENT_CUBE_RAYS_PER_TASK;
+            final int end = Math.min(start + DYNAMIC_AMBIENT_CUBE_RAYS_PER_TASK, DYNAMIC_AMBIENT_CUBE_RAYS);
+            tasks.add(SharedExecutor.submit(() -> {
+                float[] directions = DYNAMIC_AMBIENT_CUBE_DIRECTIONS[side];
+                float[] sums = new float[stride];
+
+                Vector3f weights = new Vector3f();
+                Vector3f lightmapColor = new Vector3f();
+
+                float[][] layers = new float[numberOfLightmaps][];
+                for (int k = 0; k < numberOfLightmaps; k++) {
+                    layers[k] = lightmaps.getDecodedLightmap(k);
+                }
+
+                for (int j = start; j < end; j++) {
+                    List<NRayResult> rayResults = testRay(
+                            pX, pY, pZ,
+                            directions[(j * 3) + 0],
+                            directions[(j * 3) + 1],
+                            directions[(j * 3) + 2]
+                    );
+                    if (rayResults.isEmpty()) {
+                        sums[stride - 1]++;
+                        continue;
+                    }
+
                     NRayResult closest = rayResults.get(0);
 
                     LocalRayResult localRay = closest.getLocalRay();
@@ -631,20 +820,86 @@ public class NMap {
                     float lu = localRay.lerp(weights, NMesh.OFFSET_LIGHTMAP_TEXTURE_XY + 0);
                     float lv = localRay.lerp(weights, NMesh.OFFSET_LIGHTMAP_TEXTURE_XY + 1);
 
-                    this.lightmaps.sampleLightmaps(lu, lv, lightmapColor);
-                } else {
-                    lightmapColor.set(ambientColor);
+                    for (int k = 0; k < numberOfLightmaps; k++) {
+                        lightmaps.sampleLightmap(layers[k], lu, lv, lightmapColor);
+                        sums[(k * 3) + 0] += lightmapColor.x();
+                        sums[(k * 3) + 1] += lightmapColor.y();
+                        sums[(k * 3) + 2] += lightmapColor.z();
+                    }
                 }
 
-                r += lightmapColor.x();
-                g += lightmapColor.y();
-                b += lightmapColor.z();
+                return sums;
+            }));
+        }
+
+        float[] result = new float[AmbientCube.SIDES * stride];
+        try {
+            for (int task = 0; task < tasks.size(); task++) {
+                int offset = (task / tasksPerSide) * stride;
+                float[] sums = SharedExecutor.await(tasks.get(task), tasks);
+                for (int k = 0; k < stride; k++) {
+                    result[offset + k] += sums[k];
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        float invrays = 1f / DYNAMIC_AMBIENT_CUBE_RAYS;
+        for (int i = 0; i < result.length; i++) {
+            result[i] *= invrays;
+        }
+
+        return result;
+    }
+
+    public void sampleDynamicAmbientCube(
+            Vector3fc ambientColor,
+            double pX, double pY, double pZ,
+            AmbientCube ambientCube
+    ) {
+        NLightmaps currentLightmaps = this.lightmaps;
+        if (currentLightmaps == null) {
+            for (int i = 0; i < AmbientCube.SIDES; i++) {
+                ambientCube.setSide(i, ambientColor);
+            }
+            return;
+        }
+
+        float[] sampled;
+        if (NAmbientCubeCache.ENABLED) {
+            float cellSize = NAmbientCubeCache.CELL_SIZE;
+            int cellX = NAmbientCubeCache.cell(pX, cellSize);
+            int cellY = NAmbientCubeCache.cell(pY, cellSize);
+            int cellZ = NAmbientCubeCache.cell(pZ, cellSize);
+            long key = NAmbientCubeCache.cellKey(cellX, cellY, cellZ);
+
+            //traced from the first requester of the cell and not from its
+            //centre, the centre can be inside or behind a wall
+            sampled = this.dynamicAmbientCubeCache.get(
+                    currentLightmaps, cellSize, key,
+                    () -> traceDynamicAmbientCube(currentLightmaps, pX, pY, pZ)
+            );
+        } else {
+            sampled = traceDynamicAmbientCube(currentLightmaps, pX, pY, pZ);
+        }
+
+        int numberOfLightmaps = currentLightmaps.getNumberOfLightmaps();
+        int stride = (numberOfLightmaps * 3) + 1;
+        for (int side = 0; side < AmbientCube.SIDES; side++) {
+            int offset = side * stride;
+            float miss = sampled[offset + stride - 1];
+
+            float r = ambientColor.x() * miss;
+            float g = ambientColor.y() * miss;
+            float b = ambientColor.z() * miss;
+            for (int j = 0; j < numberOfLightmaps; j++) {
+                float intensity = currentLightmaps.getIntensity(j);
+                r += sampled[offset + (j * 3) + 0] * intensity;
+                g += sampled[offset + (j * 3) + 1] * intensity;
+                b += sampled[offset + (j * 3) + 2] * intensity;
             }
-            float invrays = 1f / numberOfRays;
-            r *= invrays;
-            g *= invrays;
-            b *= invrays;
-            ambientCube.setSide(i, r, g, b);
+            ambientCube.setSide(side, r, g, b);
         }
     }
 
@@ -752,68 +1007,110 @@ public class NMap {
         opaqueMesh = Arrays.copyOf(opaqueMesh, opaqueMeshIndex);
         alphaMesh = Arrays.copyOf(alphaMesh, alphaMeshIndex);
 
-        Lightmapper.TextureInput texio = (
-                float[] mesh,
-                float u, float v,
-                int triangle,
-                boolean emissive,
-                Vector4f outputColor) -> {
-            int objectIndex = Float.floatToRawIntBits(mesh[triangle + Lightmapper.OFFSET_USER_XY + 0]);
-            int geometryIndex = Float.floatToRawIntBits(mesh[triangle + Lightmapper.OFFSET_USER_XY + 1]);
-
-            NMaterial material = this.objects[objectIndex].getN3DModel().getGeometry(geometryIndex).getMaterial();
-            NTextures textures = material.getTextures();
-
-            int pixelX = Math.abs(((int) Math.floor(u * textures.getWidth()))) % textures.getWidth();
-            int pixelY = Math.abs(((int) Math.floor(v * textures.getHeight()))) % textures.getHeight();
-
-            if (u < 0f) {
-                pixelX = (textures.getWidth() - 1) - pixelX;
+        //the texture data stays pinned in the data cache for the whole bake,
+        //the lightmapper reads it through the arrays below, so an evicted
+        //entry would only make other readers decompress a second copy
+        Set<NTextures> bakeTextures = new LinkedHashSet<>();
+        for (N3DObject obj : this.objects) {
+            N3DModel model = obj.getN3DModel();
+            for (int i = 0; i < model.getNumberOfGeometries(); i++) {
+                NMaterial material = model.getGeometry(i).getMaterial();
+                if (material.isInvisible()) {
+                    continue;
+                }
+                bakeTextures.add(material.getTextures());
             }
-            if (v < 0f) {
-                pixelY = (textures.getHeight() - 1) - pixelY;
+        }
+        for (NTextures textures : bakeTextures) {
+            textures.pinData();
+        }
+
+        Lightmapper.LightmapperOutput output;
+        try {
+            byte[][][] colorData = new byte[this.objects.length][][];
+            byte[][][] emissiveData = new byte[this.objects.length][][];
+            for (int i = 0; i < this.objects.length; i++) {
+                N3DModel model = this.objects[i].getN3DModel();
+                colorData[i] = new byte[model.getNumberOfGeometries()][];
+                emissiveData[i] = new byte[model.getNumberOfGeometries()][];
+                for (int j = 0; j < model.getNumberOfGeometries(); j++) {
+                    NMaterial material = model.getGeometry(j).getMaterial();
+                    if (material.isInvisible()) {
+                        continue;
+                    }
+                    NTextures textures = material.getTextures();
+                    colorData[i][j] = textures.data_r_g_b_a();
+                    emissiveData[i][j] = textures.data_er_eg_eb_ny();
+                }
             }
+        
+            Lightmapper.TextureInput texio = (
+                    float[] mesh,
+                    float u, float v,
+                    int triangle,
+                    boolean emissive,
+                    Vector4f outputColor) -> {
+                int objectIndex = Float.floatToRawIntBits(mesh[triangle + Lightmapper.OFFSET_USER_XY + 0]);
+                int geometryIndex = Float.floatToRawIntBits(mesh[triangle + Lightmapper.OFFSET_USER_XY + 1]);
+
+                NMaterial material = this.objects[objectIndex].getN3DModel().getGeometry(geometryIndex).getMaterial();
+                NTextures textures = material.getTextures();
+
+                int pixelX = Math.abs(((int) Math.floor(u * textures.getWidth()))) % textures.getWidth();
+                int pixelY = Math.abs(((int) Math.floor(v * textures.getHeight()))) % textures.getHeight();
+
+                if (u < 0f) {
+                    pixelX = (textures.getWidth() - 1) - pixelX;
+                }
+                if (v < 0f) {
+                    pixelY = (textures.getHeight() - 1) - pixelY;
+                }
 
-            int pixelIndex = (pixelX * 4) + (pixelY * textures.getWidth() * 4);
+                int pixelIndex = (pixelX * 4) + (pixelY * textures.getWidth() * 4);
 
-            byte[] textureData;
-            if (emissive) {
-                textureData = textures.data_er_eg_eb_ny();
-            } else {
-                textureData = textures.data_r_g_b_a();
-            }
+                byte[] textureData;
+                if (emissive) {
+                    textureData = emissiveData[objectIndex][geometryIndex];
+                } else {
+                    textureData = colorData[objectIndex][geometryIndex];
+                }
 
-            float r = ((textureData[pixelIndex + 0] & 0xFF) / 255f);
-            float g = ((textureData[pixelIndex + 1] & 0xFF) / 255f);
-            float b = ((textureData[pixelIndex + 2] & 0xFF) / 255f);
-            float a = 1f;
+                float r = ((textureData[pixelIndex + 0] & 0xFF) / 255f);
+                float g = ((textureData[pixelIndex + 1] & 0xFF) / 255f);
+                float b = ((textureData[pixelIndex + 2] & 0xFF) / 255f);
+                float a = 1f;
 
-            r = (float) Math.pow(r, 2.2);
-            g = (float) Math.pow(g, 2.2);
-            b = (float) Math.pow(b, 2.2);
+                r = (float) Math.pow(r, 2.2);
+                g = (float) Math.pow(g, 2.2);
+                b = (float) Math.pow(b, 2.2);
 
-            if (emissive) {
-                Vector3f materialEmissive = material.getEmissiveColor();
+                if (emissive) {
+                    Vector3f materialEmissive = material.getEmissiveColor();
 
-                r *= materialEmissive.x();
-                g *= materialEmissive.y();
-                b *= materialEmissive.z();
-            } else {
-                a = ((textureData[pixelIndex + 3] & 0xFF) / 255f);
-            }
+                    r *= materialEmissive.x();
+                    g *= materialEmissive.y();
+                    b *= materialEmissive.z();
+                } else {
+                    a = ((textureData[pixelIndex + 3] & 0xFF) / 255f);
+                }
 
-            outputColor.set(r, g, b, a);
-        };
+                outputColor.set(r, g, b, a);
+            };
 
-        Lightmapper lightmapper = new Lightmapper(
-                texio,
-                scene,
-                this.lightmapMargin, this.lightmapSize, this.lightmapRectangles,
-                opaqueMesh, alphaMesh
-        );
-        status.setLightmapper(lightmapper);
+            Lightmapper lightmapper = new Lightmapper(
+                    texio,
+                    scene,
+                    this.lightmapMargin, this.lightmapSize, this.lightmapRectangles,
+                    opaqueMesh, alphaMesh
+            );
+            status.setLightmapper(lightmapper);
 
-        Lightmapper.LightmapperOutput output = lightmapper.bake();
+            output = lightmapper.bake();
+        } finally {
+            for (NTextures textures : bakeTextures) {
+                textures.unpinData();
+            }
+        }
         
         E8Image[] lightmapsImages = new E8Image[output.getNames().length];
         for (int i = 0; i < lightmapsImages.length; i++) {
@@ -872,6 +1169,18 @@ public class NMap {
         }
         color = color.mipmap().mipmap();
         
+        final LightmapAmbientCubeBVH ambientCubes = output.getAmbientCubes();
+        LightmapIrradianceVolume irradianceVolume = LightmapIrradianceVolume.create(
+                ambientCubes,
+                ambientCubes.getAverageRadius() * 2f,
+                (x, y, z, probeOutput, probeOffset) -> sampleBakedAmbientCubes(
+                        ambientCubes,
+                        x, y, z,
+                        probeOutput, probeOffset
+                ),
+                LightmapIrradianceVolume.DEFAULT_MAX_MEMORY
+        );
+        
         NLightmaps finalLightmaps = new NLightmaps(
                 "lightmap_"+this.name,
                 null,
@@ -879,7 +1188,8 @@ public class NMap {
                 lightmapsTextures,
                 lightmapsImages,
                 color,
-                output.getAmbientCubes()
+                ambientCubes,
+                irradianceVolume
         );
         
         this.lightmaps = finalLightmaps;
@@ -30,6 +30,7 @@ import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.util.CryptoUtils;
 import cientistavuador.newrenderingpipeline.util.StringUtils;
 import cientistavuador.newrenderingpipeline.util.MeshUtils;
+import cientistavuador.newrenderingpipeline.util.VertexAO;
 import cientistavuador.newrenderingpipeline.util.ObjectCleaner;
 import cientistavuador.newrenderingpipeline.util.raycast.BVH;
 import java.awt.Color;
@@ -100,6 +101,23 @@ public class NMesh {
 
     private BVH bvh = null;
 
+    public static String sha256(float[] vertices, int[] indices) {
+        ByteBuffer data = ByteBuffer.allocate(
+                vertices.length * Float.BYTES
+                + indices.length * Integer.BYTES
+        );
+
+        for (float f:vertices) {
+            data.putFloat(f);
+        }
+
+        for (int i:indices) {
+            data.putInt(i);
+        }
+
+        return CryptoUtils.sha256(data.flip());
+    }
+
     public NMesh(
             String name,
             float[] vertices, int[] indices,
@@ -142,20 +160,7 @@ public class NMesh {
         }
         
         if (sha256 == null) {
-            ByteBuffer data = ByteBuffer.allocate(
-                    this.vertices.length * Float.BYTES
-                    + this.indices.length * Integer.BYTES
-            );
-            
-            for (float f:this.vertices) {
-                data.putFloat(f);
-            }
-            
-            for (int i:this.indices) {
-                data.putInt(i);
-            }
-            
-            this.sha256 = CryptoUtils.sha256(data.flip());
+            this.sha256 = sha256(this.vertices, this.indices);
         } else {
             this.sha256 = sha256;
         }
@@ -271,6 +276,32 @@ public class NMesh {
         this.bvh = bvh;
     }
 
+    /**
+     * Bakes the ambient occlusion of each vertex of this mesh (0 is
+     * unoccluded, 1 is fully occluded) with {@link VertexAO}, generating the
+     * bvh if needed; the sha256 of the mesh is used as the seed.
+     * <p>
+     * This is API only, the importer does not call it and the values are not
+     * stored, the vertex layout of NMesh has no ambient occlusion attribute
+     * (static geometry gets its occlusion from the lightmaps); it is meant for
+     * tools that bake ambient occlusion into their own data.
+     *
+     * @param aoSize the max distance of the ambient occlusion rays
+     * @param aoRays the amount of rays per vertex
+     * @param rayOffset the offset of the ray origin along the normal
+     * @return the ambient occlusion of each vertex
+     */
+    public float[] computeVertexAO(float aoSize, int aoRays, float rayOffset) {
+        generateBVH();
+        return VertexAO.vertexAO(
+                this.bvh,
+                this.vertices, this.indices,
+                NMesh.VERTEX_SIZE, NMesh.OFFSET_POSITION_XYZ,
+                aoSize, aoRays, rayOffset,
+                this.sha256.hashCode()
+        );
+    }
+
     public Vector3fc getMeshColor() {
         return meshColor;
     }
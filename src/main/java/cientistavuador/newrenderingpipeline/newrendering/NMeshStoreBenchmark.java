@@ -0,0 +1,189 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import cientistavuador.newrenderingpipeline.util.BenchmarkUtils;
+import cientistavuador.newrenderingpipeline.util.MeshStore;
+import cientistavuador.newrenderingpipeline.util.MeshUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ *
+ * @author Cien
+ */
+public class NMeshStoreBenchmark {
+
+    public static final String[] MODELS = {
+        "cientistavuador/newrenderingpipeline/resources/models/triceratops.n3dm",
+        "cientistavuador/newrenderingpipeline/resources/models/metal_ball.n3dm"
+    };
+    public static final int RUNS = 10;
+    public static final float UV_TOLERANCE = 1f / 8192f;
+    public static final float NORMAL_TOLERANCE = 1f / 4096f;
+    public static final float WEIGHT_TOLERANCE = 2f / 255f;
+
+    private static long decodeTime(byte[] data) throws IOException {
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            MeshStore.decode(new ByteArrayInputStream(data));
+            time = Math.min(time, System.nanoTime() - start);
+        }
+        return time;
+    }
+
+    private static void check(boolean condition, String name, String message) {
+        BenchmarkUtils.check(condition, name + ": " + message);
+    }
+
+    private static void verifyLossless(String name, float[] vertices, int[] indices, MeshStore.MeshStoreOutput decoded) {
+        check(decoded.vertexSize() == NMesh.VERTEX_SIZE, name, "lossless vertex size is different");
+        check(Arrays.equals(indices, decoded.indices()), name, "lossless indices are different");
+        check(decoded.vertices().length == vertices.length, name, "lossless vertices length is different");
+        for (int i = 0; i < vertices.length; i++) {
+            check(Float.floatToRawIntBits(vertices[i]) == Float.floatToRawIntBits(decoded.vertices()[i]),
+                    name, "lossless vertex component " + i + " is different");
+        }
+    }
+
+    private static void verifyQuantized(
+            String name, float[] vertices, int[] indices, int[] triangleRemap,
+            MeshStore.MeshStoreOutput decoded
+    ) {
+        float[] quantizedVertices = decoded.vertices();
+        int[] quantizedIndices = decoded.indices();
+        check(quantizedIndices.length == indices.length, name, "quantized indices length is different");
+
+        boolean[] used = new boolean[indices.length / 3];
+        for (int triangle = 0; triangle < used.length; triangle++) {
+            int newTriangle = triangleRemap[triangle];
+            check(!used[newTriangle], name, "triangle " + newTriangle + " is used twice");
+            used[newTriangle] = true;
+
+            for (int corner = 0; corner < 3; corner++) {
+                int a = indices[(triangle * 3) + corner] * NMesh.VERTEX_SIZE;
+                int b = quantizedIndices[(newTriangle * 3) + corner] * NMesh.VERTEX_SIZE;
+                for (int c = 0; c < NMesh.VERTEX_SIZE; c++) {
+                    float x = vertices[a + c];
+                    float y = quantizedVertices[b + c];
+                    float tolerance;
+                    if (c < NMesh.OFFSET_TEXTURE_XY || (c >= NMesh.OFFSET_BONE_IDS_XYZW && c < NMesh.OFFSET_BONE_WEIGHTS_XYZW)) {
+                        check(Float.floatToRawIntBits(x) == Float.floatToRawIntBits(y), name, "position or bone id is different");
+                        continue;
+                    } else if (c < NMesh.OFFSET_NORMAL_XYZ) {
+                        tolerance = UV_TOLERANCE;
+                    } else if (c < NMesh.OFFSET_BONE_IDS_XYZW) {
+                        tolerance = NORMAL_TOLERANCE;
+                    } else {
+                        tolerance = WEIGHT_TOLERANCE;
+                    }
+                    check(Math.abs(x - y) <= tolerance, name, "component " + c + " error " + Math.abs(x - y) + " is above " + tolerance);
+                }
+            }
+        }
+    }
+
+    private static void benchmark(String name, byte[] legacy) throws IOException {
+        MeshStore.MeshStoreOutput mesh = MeshStore.decode(new ByteArrayInputStream(legacy));
+        float[] vertices = mesh.vertices();
+        int[] indices = mesh.indices();
+
+        byte[] lossless = null;
+        byte[] quantized = null;
+        long losslessWriteTime = Long.MAX_VALUE;
+        long quantizedWriteTime = Long.MAX_VALUE;
+
+        for (int i = 0; i < RUNS; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            MeshStore.encode(vertices, NMesh.VERTEX_SIZE, indices, out);
+            losslessWriteTime = Math.min(losslessWriteTime, System.nanoTime() - start);
+            lossless = out.toByteArray();
+
+            out = new ByteArrayOutputStream();
+            start = System.nanoTime();
+            MeshStore.encodeOptimized(vertices, NMesh.VERTEX_SIZE, indices, N3DModelStore.MESH_LAYOUT, out);
+            quantizedWriteTime = Math.min(quantizedWriteTime, System.nanoTime() - start);
+            quantized = out.toByteArray();
+        }
+
+        verifyLossless(name, vertices, indices, MeshStore.decode(new ByteArrayInputStream(lossless)));
+
+        int[] triangleRemap = MeshStore.encodeOptimized(
+                vertices, NMesh.VERTEX_SIZE, indices, N3DModelStore.MESH_LAYOUT, new ByteArrayOutputStream()
+        );
+        MeshStore.MeshStoreOutput optimized = MeshStore.decode(new ByteArrayInputStream(quantized));
+        verifyQuantized(name, vertices, indices, triangleRemap, optimized);
+        int[] optimizedIndices = optimized.indices();
+
+        long rawSize = (vertices.length + (long) indices.length) * 4;
+
+        System.out.println(name + ": "
+                + (vertices.length / NMesh.VERTEX_SIZE) + " vertices, "
+                + (indices.length / 3) + " triangles, "
+                + "raw " + String.format("%,d", rawSize) + " bytes");
+        System.out.println("    v1 gzip: "
+                + String.format("%,d", legacy.length) + " bytes "
+                + String.format("%,.3f", decodeTime(legacy) / 1E6) + "ms read");
+        System.out.println("    v2 lossless: "
+                + String.format("%,d", lossless.length) + " bytes "
+                + String.format("%,.3f", losslessWriteTime / 1E6) + "ms write "
+                + String.format("%,.3f", decodeTime(lossless) / 1E6) + "ms read");
+        System.out.println("    v2 quantized: "
+                + String.format("%,d", quantized.length) + " bytes "
+                + String.format("%,.3f", quantizedWriteTime / 1E6) + "ms write "
+                + String.format("%,.3f", decodeTime(quantized) / 1E6) + "ms read, "
+                + "acmr " + String.format("%.3f", MeshUtils.averageCacheMissRatio(indices, MeshStore.VERTEX_CACHE_SIZE))
+                + " -> " + String.format("%.3f", MeshUtils.averageCacheMissRatio(optimizedIndices, MeshStore.VERTEX_CACHE_SIZE)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        BenchmarkUtils.printThreads();
+        System.out.println("Runs: " + RUNS + ", Vertex Cache Size: " + MeshStore.VERTEX_CACHE_SIZE);
+
+        for (String model : MODELS) {
+            try (InputStream stream = ClassLoader.getSystemResourceAsStream(model)) {
+                ZipInputStream zipIn = new ZipInputStream(stream);
+                ZipEntry entry;
+                while ((entry = zipIn.getNextEntry()) != null) {
+                    if (entry.getName().endsWith(".msh")) {
+                        benchmark(model.substring(model.lastIndexOf('/') + 1) + "/" + entry.getName(), zipIn.readAllBytes());
+                    }
+                }
+            }
+        }
+
+        System.exit(0);
+    }
+
+}
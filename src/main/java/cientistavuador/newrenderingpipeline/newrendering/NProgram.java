@@ -207,6 +207,75 @@ public class NProgram {
             0f, 0f, 0f,
             0f, 0f, 0f
     );
+    
+    public static final int LIGHT_DATA_OFFSET_POSITION_XYZ = 0;
+    public static final int LIGHT_DATA_OFFSET_DIRECTION_XYZ = LIGHT_DATA_OFFSET_POSITION_XYZ + 3;
+    public static final int LIGHT_DATA_OFFSET_INNER_CONE = LIGHT_DATA_OFFSET_DIRECTION_XYZ + 3;
+    public static final int LIGHT_DATA_OFFSET_OUTER_CONE = LIGHT_DATA_OFFSET_INNER_CONE + 1;
+    public static final int LIGHT_DATA_OFFSET_DIFFUSE_RGB = LIGHT_DATA_OFFSET_OUTER_CONE + 1;
+    public static final int LIGHT_DATA_OFFSET_SPECULAR_RGB = LIGHT_DATA_OFFSET_DIFFUSE_RGB + 3;
+    public static final int LIGHT_DATA_OFFSET_AMBIENT_RGB = LIGHT_DATA_OFFSET_SPECULAR_RGB + 3;
+    public static final int LIGHT_DATA_SIZE = LIGHT_DATA_OFFSET_AMBIENT_RGB + 3;
+    
+    private static final int SLOT_MATERIAL_DIFFUSE_COLOR = BetterUniformSetter.slotOf("material.diffuseColor");
+    private static final int SLOT_MATERIAL_SPECULAR_COLOR = BetterUniformSetter.slotOf("material.specularColor");
+    private static final int SLOT_MATERIAL_EMISSIVE_COLOR = BetterUniformSetter.slotOf("material.emissiveColor");
+    private static final int SLOT_MATERIAL_REFLECTION_COLOR = BetterUniformSetter.slotOf("material.reflectionColor");
+    private static final int SLOT_MATERIAL_MIN_EXPONENT = BetterUniformSetter.slotOf("material.minExponent");
+    private static final int SLOT_MATERIAL_MAX_EXPONENT = BetterUniformSetter.slotOf("material.maxExponent");
+    private static final int SLOT_MATERIAL_PARALLAX_HEIGHT_COEFFICIENT = BetterUniformSetter.slotOf("material.parallaxHeightCoefficient");
+    private static final int SLOT_MATERIAL_PARALLAX_MIN_LAYERS = BetterUniformSetter.slotOf("material.parallaxMinLayers");
+    private static final int SLOT_MATERIAL_PARALLAX_MAX_LAYERS = BetterUniformSetter.slotOf("material.parallaxMaxLayers");
+    private static final int SLOT_FRESNEL_OUTLINE_ENABLED = BetterUniformSetter.slotOf("fresnelOutline.enabled");
+    private static final int SLOT_FRESNEL_OUTLINE_EXPONENT = BetterUniformSetter.slotOf("fresnelOutline.exponent");
+    private static final int SLOT_FRESNEL_OUTLINE_COLOR = BetterUniformSetter.slotOf("fresnelOutline.color");
+    
+    private static final int[] SLOT_LIGHTS_TYPE = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_POSITION = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_DIRECTION = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_INNER_CONE = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_OUTER_CONE = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_DIFFUSE = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_SPECULAR = new int[MAX_AMOUNT_OF_LIGHTS];
+    private static final int[] SLOT_LIGHTS_AMBIENT = new int[MAX_AMOUNT_OF_LIGHTS];
+    
+    private static final int[] SLOT_LIGHTMAP_INTENSITY = new int[MAX_AMOUNT_OF_LIGHTMAPS];
+    private static final int[] SLOT_BONE_MATRICES = new int[NMesh.MAX_AMOUNT_OF_BONES + 1];
+    
+    private static final int[] SLOT_PARALLAX_CUBEMAPS_ENABLED = new int[MAX_AMOUNT_OF_CUBEMAPS];
+    private static final int[] SLOT_PARALLAX_CUBEMAPS_INTENSITY = new int[MAX_AMOUNT_OF_CUBEMAPS];
+    private static final int[] SLOT_PARALLAX_CUBEMAPS_POSITION = new int[MAX_AMOUNT_OF_CUBEMAPS];
+    private static final int[] SLOT_PARALLAX_CUBEMAPS_WORLD_TO_LOCAL = new int[MAX_AMOUNT_OF_CUBEMAPS];
+    
+    private static final int[] SLOT_AMBIENT_CUBE = new int[AmbientCube.SIDES];
+    
+    static {
+        for (int i = 0; i < MAX_AMOUNT_OF_LIGHTS; i++) {
+            SLOT_LIGHTS_TYPE[i] = BetterUniformSetter.slotOf("lights[" + i + "].type");
+            SLOT_LIGHTS_POSITION[i] = BetterUniformSetter.slotOf("lights[" + i + "].position");
+            SLOT_LIGHTS_DIRECTION[i] = BetterUniformSetter.slotOf("lights[" + i + "].direction");
+            SLOT_LIGHTS_INNER_CONE[i] = BetterUniformSetter.slotOf("lights[" + i + "].innerCone");
+            SLOT_LIGHTS_OUTER_CONE[i] = BetterUniformSetter.slotOf("lights[" + i + "].outerCone");
+            SLOT_LIGHTS_DIFFUSE[i] = BetterUniformSetter.slotOf("lights[" + i + "].diffuse");
+            SLOT_LIGHTS_SPECULAR[i] = BetterUniformSetter.slotOf("lights[" + i + "].specular");
+            SLOT_LIGHTS_AMBIENT[i] = BetterUniformSetter.slotOf("lights[" + i + "].ambient");
+        }
+        for (int i = 0; i < MAX_AMOUNT_OF_LIGHTMAPS; i++) {
+            SLOT_LIGHTMAP_INTENSITY[i] = BetterUniformSetter.slotOf("lightmapIntensity[" + i + "]");
+        }
+        for (int i = 0; i < SLOT_BONE_MATRICES.length; i++) {
+            SLOT_BONE_MATRICES[i] = BetterUniformSetter.slotOf("boneMatrices[" + i + "]");
+        }
+        for (int i = 0; i < MAX_AMOUNT_OF_CUBEMAPS; i++) {
+            SLOT_PARALLAX_CUBEMAPS_ENABLED[i] = BetterUniformSetter.slotOf("parallaxCubemaps[" + i + "].enabled");
+            SLOT_PARALLAX_CUBEMAPS_INTENSITY[i] = BetterUniformSetter.slotOf("parallaxCubemaps[" + i + "].intensity");
+            SLOT_PARALLAX_CUBEMAPS_POSITION[i] = BetterUniformSetter.slotOf("parallaxCubemaps[" + i + "].position");
+            SLOT_PARALLAX_CUBEMAPS_WORLD_TO_LOCAL[i] = BetterUniformSetter.slotOf("parallaxCubemaps[" + i + "].worldToLocal");
+        }
+        for (int i = 0; i < AmbientCube.SIDES; i++) {
+            SLOT_AMBIENT_CUBE[i] = BetterUniformSetter.slotOf("ambientCube[" + i + "]");
+        }
+    }
 
     public static final class NProgramMaterial {
 
@@ -808,9 +877,10 @@ public class NProgram {
                 CONSTANTS
         );
 
-        VARIANT_OPAQUE = new BetterUniformSetter(programs.get("OPAQUE"));
-        VARIANT_ALPHA_TESTING = new BetterUniformSetter(programs.get("ALPHA_TESTING"));
-        VARIANT_ALPHA_BLENDING = new BetterUniformSetter(programs.get("ALPHA_BLENDING"));
+        //N3DObjectRenderer flushes the variants before every draw
+        VARIANT_OPAQUE = new BetterUniformSetter(programs.get("OPAQUE")).setDeferred(true);
+        VARIANT_ALPHA_TESTING = new BetterUniformSetter(programs.get("ALPHA_TESTING")).setDeferred(true);
+        VARIANT_ALPHA_BLENDING = new BetterUniformSetter(programs.get("ALPHA_BLENDING")).setDeferred(true);
     }
 
     public static final String UNIFORM_PROJECTION = "projection";
@@ -829,87 +899,147 @@ public class NProgram {
     public static final String UNIFORM_REFLECTIONS_ENABLED = "reflectionsEnabled";
     public static final String UNIFORM_HDR_OUTPUT = "hdrOutput";
     public static final String UNIFORM_REFLECTIONS_DEBUG = "reflectionsDebug";
+    
+    public static final int SLOT_MODEL = BetterUniformSetter.slotOf(UNIFORM_MODEL);
+    public static final int SLOT_NORMAL_MODEL = BetterUniformSetter.slotOf(UNIFORM_NORMAL_MODEL);
+    public static final int SLOT_PARALLAX_SUPPORTED = BetterUniformSetter.slotOf(UNIFORM_PARALLAX_SUPPORTED);
 
     public static void sendMaterial(BetterUniformSetter uniforms, NProgramMaterial material) {
         if (material == null) {
             material = NULL_MATERIAL;
         }
+        sendMaterial(uniforms,
+                material.diffuseColorR, material.diffuseColorG, material.diffuseColorB, material.diffuseColorA,
+                material.specularColorR, material.specularColorG, material.specularColorB,
+                material.emissiveColorR, material.emissiveColorG, material.emissiveColorB,
+                material.reflectionColorR, material.reflectionColorG, material.reflectionColorB,
+                material.minExponent, material.maxExponent,
+                material.parallaxHeightCoefficient, material.parallaxMinLayers, material.parallaxMaxLayers
+        );
+    }
+
+    public static void sendMaterial(
+            BetterUniformSetter uniforms,
+            float diffuseColorR, float diffuseColorG, float diffuseColorB, float diffuseColorA,
+            float specularColorR, float specularColorG, float specularColorB,
+            float emissiveColorR, float emissiveColorG, float emissiveColorB,
+            float reflectionColorR, float reflectionColorG, float reflectionColorB,
+            float minExponent, float maxExponent,
+            float parallaxHeightCoefficient, float parallaxMinLayers, float parallaxMaxLayers
+    ) {
         uniforms
-                .uniform4f("material.diffuseColor",
-                        material.diffuseColorR,
-                        material.diffuseColorG,
-                        material.diffuseColorB, 
-                        material.diffuseColorA
+                .uniform4f(SLOT_MATERIAL_DIFFUSE_COLOR,
+                        diffuseColorR,
+                        diffuseColorG,
+                        diffuseColorB,
+                        diffuseColorA
                 )
-                .uniform3f("material.specularColor",
-                        material.specularColorR,
-                        material.specularColorG,
-                        material.specularColorB
+                .uniform3f(SLOT_MATERIAL_SPECULAR_COLOR,
+                        specularColorR,
+                        specularColorG,
+                        specularColorB
                 )
-                .uniform3f("material.emissiveColor",
-                        material.emissiveColorR,
-                        material.emissiveColorG,
-                        material.emissiveColorB
+                .uniform3f(SLOT_MATERIAL_EMISSIVE_COLOR,
+                        emissiveColorR,
+                        emissiveColorG,
+                        emissiveColorB
                 )
-                .uniform3f("material.reflectionColor",
-                        material.reflectionColorR,
-                        material.reflectionColorG,
-                        material.reflectionColorB
+                .uniform3f(SLOT_MATERIAL_REFLECTION_COLOR,
+                        reflectionColorR,
+                        reflectionColorG,
+                        reflectionColorB
                 )
-                .uniform1f("material.minExponent", material.minExponent)
-                .uniform1f("material.maxExponent", material.maxExponent)
-                .uniform1f("material.parallaxHeightCoefficient", material.parallaxHeightCoefficient)
-                .uniform1f("material.parallaxMinLayers", material.parallaxMinLayers)
-                .uniform1f("material.parallaxMinLayers", material.parallaxMaxLayers);
+                .uniform1f(SLOT_MATERIAL_MIN_EXPONENT, minExponent)
+                .uniform1f(SLOT_MATERIAL_MAX_EXPONENT, maxExponent)
+                .uniform1f(SLOT_MATERIAL_PARALLAX_HEIGHT_COEFFICIENT, parallaxHeightCoefficient)
+                .uniform1f(SLOT_MATERIAL_PARALLAX_MIN_LAYERS, parallaxMinLayers)
+                .uniform1f(SLOT_MATERIAL_PARALLAX_MAX_LAYERS, parallaxMaxLayers);
     }
 
     public static void sendLight(BetterUniformSetter uniforms, NProgramLight light, int index) {
-        if (index < 0 || index > MAX_AMOUNT_OF_LIGHTS) {
+        if (index < 0 || index >= MAX_AMOUNT_OF_LIGHTS) {
             throw new IllegalArgumentException("Out of bounds index: " + index);
         }
         if (light == null) {
             light = NULL_LIGHT;
         }
-        uniforms.uniform1i("lights[" + index + "].type", light.type);
+        uniforms.uniform1i(SLOT_LIGHTS_TYPE[index], light.type);
         if (light != NULL_LIGHT) {
             uniforms
-                    .uniform3f("lights[" + index + "].position", light.x, light.y, light.z)
-                    .uniform3f("lights[" + index + "].direction", light.dirX, light.dirY, light.dirZ)
-                    .uniform1f("lights[" + index + "].innerCone", light.innerCone)
-                    .uniform1f("lights[" + index + "].outerCone", light.outerCone)
-                    .uniform3f("lights[" + index + "].diffuse", light.diffuseR, light.diffuseG, light.diffuseB)
-                    .uniform3f("lights[" + index + "].specular", light.specularR, light.specularG, light.specularB)
-                    .uniform3f("lights[" + index + "].ambient", light.ambientR, light.ambientG, light.ambientB);
+                    .uniform3f(SLOT_LIGHTS_POSITION[index], light.x, light.y, light.z)
+                    .uniform3f(SLOT_LIGHTS_DIRECTION[index], light.dirX, light.dirY, light.dirZ)
+                    .uniform1f(SLOT_LIGHTS_INNER_CONE[index], light.innerCone)
+                    .uniform1f(SLOT_LIGHTS_OUTER_CONE[index], light.outerCone)
+                    .uniform3f(SLOT_LIGHTS_DIFFUSE[index], light.diffuseR, light.diffuseG, light.diffuseB)
+                    .uniform3f(SLOT_LIGHTS_SPECULAR[index], light.specularR, light.specularG, light.specularB)
+                    .uniform3f(SLOT_LIGHTS_AMBIENT[index], light.ambientR, light.ambientG, light.ambientB);
+        }
+    }
+    
+    public static void sendLight(BetterUniformSetter uniforms, int type, float[] data, int offset, int index) {
+        if (index < 0 || index >= MAX_AMOUNT_OF_LIGHTS) {
+            throw new IllegalArgumentException("Out of bounds index: " + index);
+        }
+        uniforms.uniform1i(SLOT_LIGHTS_TYPE[index], type);
+        if (type != NULL_LIGHT_TYPE) {
+            uniforms
+                    .uniform3f(SLOT_LIGHTS_POSITION[index],
+                            data[offset + LIGHT_DATA_OFFSET_POSITION_XYZ + 0],
+                            data[offset + LIGHT_DATA_OFFSET_POSITION_XYZ + 1],
+                            data[offset + LIGHT_DATA_OFFSET_POSITION_XYZ + 2]
+                    )
+                    .uniform3f(SLOT_LIGHTS_DIRECTION[index],
+                            data[offset + LIGHT_DATA_OFFSET_DIRECTION_XYZ + 0],
+                            data[offset + LIGHT_DATA_OFFSET_DIRECTION_XYZ + 1],
+                            data[offset + LIGHT_DATA_OFFSET_DIRECTION_XYZ + 2]
+                    )
+                    .uniform1f(SLOT_LIGHTS_INNER_CONE[index], data[offset + LIGHT_DATA_OFFSET_INNER_CONE])
+                    .uniform1f(SLOT_LIGHTS_OUTER_CONE[index], data[offset + LIGHT_DATA_OFFSET_OUTER_CONE])
+                    .uniform3f(SLOT_LIGHTS_DIFFUSE[index],
+                            data[offset + LIGHT_DATA_OFFSET_DIFFUSE_RGB + 0],
+                            data[offset + LIGHT_DATA_OFFSET_DIFFUSE_RGB + 1],
+                            data[offset + LIGHT_DATA_OFFSET_DIFFUSE_RGB + 2]
+                    )
+                    .uniform3f(SLOT_LIGHTS_SPECULAR[index],
+                            data[offset + LIGHT_DATA_OFFSET_SPECULAR_RGB + 0],
+                            data[offset + LIGHT_DATA_OFFSET_SPECULAR_RGB + 1],
+                            data[offset + LIGHT_DATA_OFFSET_SPECULAR_RGB + 2]
+                    )
+                    .uniform3f(SLOT_LIGHTS_AMBIENT[index],
+                            data[offset + LIGHT_DATA_OFFSET_AMBIENT_RGB + 0],
+                            data[offset + LIGHT_DATA_OFFSET_AMBIENT_RGB + 1],
+                            data[offset + LIGHT_DATA_OFFSET_AMBIENT_RGB + 2]
+                    );
         }
     }
 
     public static void sendLightmapIntensity(BetterUniformSetter uniforms, float intensity, int index) {
-        if (index < 0 || index > MAX_AMOUNT_OF_LIGHTMAPS) {
+        if (index < 0 || index >= MAX_AMOUNT_OF_LIGHTMAPS) {
             throw new IllegalArgumentException("Out of bounds index: " + index);
         }
-        uniforms.uniform1f("lightmapIntensity[" + index + "]", intensity);
+        uniforms.uniform1f(SLOT_LIGHTMAP_INTENSITY[index], intensity);
     }
 
     public static void sendBoneMatrix(BetterUniformSetter uniforms, Matrix4fc matrix, int boneId) {
-        uniforms.uniformMatrix4fv("boneMatrices[" + (boneId + 1) + "]", matrix);
+        uniforms.uniformMatrix4fv(SLOT_BONE_MATRICES[boneId + 1], matrix, false);
     }
 
     public static void sendParallaxCubemapInfo(BetterUniformSetter uniforms, int index, boolean enabled, float intensity, float x, float y, float z, Matrix4fc worldToLocal) {
-        uniforms.uniform1i("parallaxCubemaps[" + index + "].enabled", (enabled ? 1 : 0));
+        uniforms.uniform1i(SLOT_PARALLAX_CUBEMAPS_ENABLED[index], (enabled ? 1 : 0));
         if (enabled) {
             uniforms
-                    .uniform1f("parallaxCubemaps[" + index + "].intensity", intensity)
-                    .uniform3f("parallaxCubemaps[" + index + "].position", x, y, z)
-                    .uniformMatrix4fv("parallaxCubemaps[" + index + "].worldToLocal", worldToLocal);
+                    .uniform1f(SLOT_PARALLAX_CUBEMAPS_INTENSITY[index], intensity)
+                    .uniform3f(SLOT_PARALLAX_CUBEMAPS_POSITION[index], x, y, z)
+                    .uniformMatrix4fv(SLOT_PARALLAX_CUBEMAPS_WORLD_TO_LOCAL[index], worldToLocal, false);
         }
     }
 
     public static void sendFresnelOutlineInfo(BetterUniformSetter uniforms, boolean enabled, float exponent, float r, float g, float b) {
-        uniforms.uniform1i("fresnelOutline.enabled", (enabled ? 1 : 0));
+        uniforms.uniform1i(SLOT_FRESNEL_OUTLINE_ENABLED, (enabled ? 1 : 0));
         if (enabled) {
             uniforms
-                    .uniform1f("fresnelOutline.exponent", exponent)
-                    .uniform3f("fresnelOutline.color", r, g, b);
+                    .uniform1f(SLOT_FRESNEL_OUTLINE_EXPONENT, exponent)
+                    .uniform3f(SLOT_FRESNEL_OUTLINE_COLOR, r, g, b);
         }
     }
 
@@ -920,7 +1050,7 @@ public class NProgram {
         for (int i = 0; i < AmbientCube.SIDES; i++) {
             Vector3fc color = ambientCube.getSide(i);
             uniforms.uniform3f(
-                    "ambientCube[" + i + "]",
+                    SLOT_AMBIENT_CUBE[i],
                     color.x(), color.y(), color.z()
             );
         }
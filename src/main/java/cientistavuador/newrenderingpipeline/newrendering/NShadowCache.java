@@ -0,0 +1,377 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.joml.Vector3f;
+
+/**
+ *
+ * @author Cien
+ */
+public class NShadowCache {
+
+    public static volatile boolean ENABLED = true;
+    public static volatile double MOVEMENT_THRESHOLD = 0.05;
+    public static volatile float DIRECTION_THRESHOLD = 0.9995f;
+    public static volatile int MAX_REFRESHES_PER_FRAME = 48;
+    public static volatile long INTERPOLATION_TIME = 150;
+
+    private static final int STALENESS_LEVELS = 64;
+
+    private static final AtomicInteger refreshBudget = new AtomicInteger(MAX_REFRESHES_PER_FRAME);
+    private static final AtomicInteger youngRefreshBudget = new AtomicInteger(MAX_REFRESHES_PER_FRAME);
+    private static final AtomicIntegerArray deferredByStaleness = new AtomicIntegerArray(STALENESS_LEVELS);
+
+    private static volatile long frame = 0;
+    private static volatile int minimumReservedStaleness = 0;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder refreshes = new LongAdder();
+    private static final LongAdder deferred = new LongAdder();
+    private static final LongAdder refreshTime = new LongAdder();
+
+    private static long lastHits = 0;
+    private static long lastMisses = 0;
+    private static long lastRefreshes = 0;
+    private static long lastDeferred = 0;
+    private static long lastRefreshTime = 0;
+
+    public static long FRAME_HITS = 0;
+    public static long FRAME_MISSES = 0;
+    public static long FRAME_REFRESHES = 0;
+    public static long FRAME_DEFERRED = 0;
+    public static long FRAME_REFRESH_TIME = 0;
+
+    public static void newFrame() {
+        long currentHits = hits.sum();
+        long currentMisses = misses.sum();
+        long currentRefreshes = refreshes.sum();
+        long currentDeferred = deferred.sum();
+        long currentRefreshTime = refreshTime.sum();
+
+        FRAME_HITS = currentHits - lastHits;
+        FRAME_MISSES = currentMisses - lastMisses;
+        FRAME_REFRESHES = currentRefreshes - lastRefreshes;
+        FRAME_DEFERRED = currentDeferred - lastDeferred;
+        FRAME_REFRESH_TIME = currentRefreshTime - lastRefreshTime;
+
+        lastHits = currentHits;
+        lastMisses = currentMisses;
+        lastRefreshes = currentRefreshes;
+        lastDeferred = currentDeferred;
+        lastRefreshTime = currentRefreshTime;
+
+        //the oldest deferred entries of the last frame get their refreshes
+        //reserved, younger entries share what is left in request order
+        int budget = MAX_REFRESHES_PER_FRAME;
+        int reserved = 0;
+        int minimumStaleness = 1;
+        for (int staleness = STALENESS_LEVELS - 1; staleness >= 0; staleness--) {
+            int count = deferredByStaleness.getAndSet(staleness, 0);
+            if (minimumStaleness == 1 && count > 0) {
+                if ((reserved + count) > budget) {
+                    //one frame older by the time they are requested again
+                    minimumStaleness = staleness + 2;
+                } else {
+                    reserved += count;
+                }
+            }
+        }
+
+        frame++;
+        minimumReservedStaleness = minimumStaleness;
+        refreshBudget.set(budget);
+        youngRefreshBudget.set(budget - reserved);
+    }
+
+    private static long getFrameTotal() {
+        return FRAME_HITS + FRAME_MISSES + FRAME_REFRESHES + FRAME_DEFERRED;
+    }
+
+    public static float getFrameHitRate() {
+        long total = getFrameTotal();
+        if (total == 0) {
+            return 1f;
+        }
+        return ((float) FRAME_HITS) / total;
+    }
+
+    /**
+     * Deferred shadows reuse a stale map because the refresh budget ran out,
+     * they are not hits and are reported on their own.
+     *
+     * @return the fraction of this frame's requests that were deferred
+     */
+    public static float getFrameDeferredRate() {
+        long total = getFrameTotal();
+        if (total == 0) {
+            return 0f;
+        }
+        return ((float) FRAME_DEFERRED) / total;
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    public static long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public static long getDeferred() {
+        return deferred.sum();
+    }
+
+    public static long getRefreshTime() {
+        return refreshTime.sum();
+    }
+
+    private static class Entry {
+
+        private NMap map;
+        private NLightmaps lightmaps;
+        private boolean computed;
+        private long staleSince = -1;
+
+        private double x;
+        private double y;
+        private double z;
+        private float directionX;
+        private float directionY;
+        private float directionZ;
+        private double length;
+
+        private float fromR;
+        private float fromG;
+        private float fromB;
+        private float toR;
+        private float toG;
+        private float toB;
+        private long transitionStart;
+
+        public Entry() {
+
+        }
+
+        public boolean isBakedFor(NMap map) {
+            return this.map == map && this.lightmaps == map.getLightmaps();
+        }
+
+        public void reset(NMap map, float r, float g, float b, long time) {
+            this.map = map;
+            this.lightmaps = map.getLightmaps();
+            this.computed = false;
+            this.staleSince = -1;
+            this.fromR = r;
+            this.fromG = g;
+            this.fromB = b;
+            this.toR = r;
+            this.toG = g;
+            this.toB = b;
+            this.transitionStart = time;
+        }
+
+        public boolean isValid(
+                double pX, double pY, double pZ,
+                float dX, float dY, float dZ,
+                double length
+        ) {
+            if (!this.computed) {
+                return false;
+            }
+
+            double threshold = MOVEMENT_THRESHOLD;
+
+            double offX = pX - this.x;
+            double offY = pY - this.y;
+            double offZ = pZ - this.z;
+            if (((offX * offX) + (offY * offY) + (offZ * offZ)) > (threshold * threshold)) {
+                return false;
+            }
+
+            float dot = (dX * this.directionX) + (dY * this.directionY) + (dZ * this.directionZ);
+            if (dot < DIRECTION_THRESHOLD) {
+                return false;
+            }
+
+            if (Double.isFinite(length) != Double.isFinite(this.length)) {
+                return false;
+            }
+
+            return !Double.isFinite(length) || Math.abs(length - this.length) <= threshold;
+        }
+
+        public void set(
+                double pX, double pY, double pZ,
+                float dX, float dY, float dZ,
+                double length
+        ) {
+            this.computed = true;
+            this.staleSince = -1;
+            this.x = pX;
+            this.y = pY;
+            this.z = pZ;
+            this.directionX = dX;
+            this.directionY = dY;
+            this.directionZ = dZ;
+            this.length = length;
+        }
+
+        public void get(long time, Vector3f outShadow) {
+            long interpolation = INTERPOLATION_TIME;
+            float factor = 1f;
+            if (interpolation > 0) {
+                factor = Math.min(Math.max(((float) (time - this.transitionStart)) / interpolation, 0f), 1f);
+            }
+            outShadow.set(
+                    this.fromR + ((this.toR - this.fromR) * factor),
+                    this.fromG + ((this.toG - this.fromG) * factor),
+                    this.fromB + ((this.toB - this.fromB) * factor)
+            );
+        }
+    }
+
+    private final Map<NLight, Entry[]> entries = new WeakHashMap<>();
+
+    public NShadowCache() {
+
+    }
+
+    private static boolean takeRefresh(int staleness) {
+        if (staleness < minimumReservedStaleness && youngRefreshBudget.getAndDecrement() <= 0) {
+            return false;
+        }
+        return refreshBudget.getAndDecrement() > 0;
+    }
+
+    private static void compute(
+            NMap map,
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double length,
+            Vector3f outShadow
+    ) {
+        long start = System.nanoTime();
+        map.testShadow(pX, pY, pZ, dX, dY, dZ, length, outShadow);
+        refreshTime.add(System.nanoTime() - start);
+    }
+
+    public synchronized void testShadow(
+            NMap map, NLight light, int geometryIndex,
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double length,
+            Vector3f outShadow
+    ) {
+        if (!ENABLED) {
+            misses.increment();
+            compute(map, pX, pY, pZ, dX, dY, dZ, length, outShadow);
+            return;
+        }
+
+        Entry[] lightEntries = this.entries.get(light);
+        if (lightEntries == null || geometryIndex >= lightEntries.length) {
+            int newLength = geometryIndex + 1;
+            if (lightEntries != null) {
+                newLength = Math.max(newLength, lightEntries.length * 2);
+                lightEntries = Arrays.copyOf(lightEntries, newLength);
+            } else {
+                lightEntries = new Entry[newLength];
+            }
+            this.entries.put(light, lightEntries);
+        }
+
+        long time = System.currentTimeMillis();
+
+        Entry entry = lightEntries[geometryIndex];
+        if (entry == null || !entry.isBakedFor(map)) {
+            if (entry == null) {
+                entry = new Entry();
+                lightEntries[geometryIndex] = entry;
+            }
+
+            //always tested, there is nothing to show until it is
+            misses.increment();
+            compute(map, pX, pY, pZ, dX, dY, dZ, length, outShadow);
+
+            entry.reset(map, outShadow.x(), outShadow.y(), outShadow.z(), time);
+            entry.set(pX, pY, pZ, dX, dY, dZ, length);
+            return;
+        }
+
+        if (entry.isValid(pX, pY, pZ, dX, dY, dZ, length)) {
+            hits.increment();
+            entry.get(time, outShadow);
+            return;
+        }
+
+        long currentFrame = frame;
+        if (entry.staleSince < 0) {
+            entry.staleSince = currentFrame;
+        }
+        int staleness = (int) Math.min(currentFrame - entry.staleSince, STALENESS_LEVELS - 1);
+        if (!takeRefresh(staleness)) {
+            deferred.increment();
+            deferredByStaleness.incrementAndGet(staleness);
+            entry.get(time, outShadow);
+            return;
+        }
+
+        refreshes.increment();
+
+        entry.get(time, outShadow);
+        entry.fromR = outShadow.x();
+        entry.fromG = outShadow.y();
+        entry.fromB = outShadow.z();
+
+        compute(map, pX, pY, pZ, dX, dY, dZ, length, outShadow);
+
+        entry.set(pX, pY, pZ, dX, dY, dZ, length);
+        entry.toR = outShadow.x();
+        entry.toG = outShadow.y();
+        entry.toB = outShadow.z();
+        entry.transitionStart = time;
+
+        entry.get(time, outShadow);
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+}
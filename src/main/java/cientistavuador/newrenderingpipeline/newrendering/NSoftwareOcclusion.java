@@ -0,0 +1,337 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.newrendering;
+
+import cientistavuador.newrenderingpipeline.camera.Camera;
+import cientistavuador.newrenderingpipeline.util.SoftwareRenderer;
+import java.util.concurrent.atomic.LongAdder;
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+/**
+ *
+ * @author Cien
+ */
+public class NSoftwareOcclusion {
+
+    public static final int DEFAULT_WIDTH = 256;
+    public static final int DEFAULT_HEIGHT = 144;
+    public static final float NEAR_EPSILON = 0.0001f;
+
+    private static final LongAdder tested = new LongAdder();
+    private static final LongAdder culled = new LongAdder();
+    private static final LongAdder rasterizationTime = new LongAdder();
+    private static final LongAdder testTime = new LongAdder();
+
+    private static long lastTested = 0;
+    private static long lastCulled = 0;
+    private static long lastRasterizationTime = 0;
+    private static long lastTestTime = 0;
+
+    public static long FRAME_TESTED = 0;
+    public static long FRAME_CULLED = 0;
+    public static long FRAME_RASTERIZATION_TIME = 0;
+    public static long FRAME_TEST_TIME = 0;
+
+    public static void newFrame() {
+        long currentTested = tested.sum();
+        long currentCulled = culled.sum();
+        long currentRasterizationTime = rasterizationTime.sum();
+        long currentTestTime = testTime.sum();
+
+        FRAME_TESTED = currentTested - lastTested;
+        FRAME_CULLED = currentCulled - lastCulled;
+        FRAME_RASTERIZATION_TIME = currentRasterizationTime - lastRasterizationTime;
+        FRAME_TEST_TIME = currentTestTime - lastTestTime;
+
+        lastTested = currentTested;
+        lastCulled = currentCulled;
+        lastRasterizationTime = currentRasterizationTime;
+        lastTestTime = currentTestTime;
+    }
+
+    public static float getFrameCullingRate() {
+        if (FRAME_TESTED == 0) {
+            return 0f;
+        }
+        return ((float) FRAME_CULLED) / FRAME_TESTED;
+    }
+
+    public static long getTested() {
+        return tested.sum();
+    }
+
+    public static long getCulled() {
+        return culled.sum();
+    }
+
+    public static long getRasterizationTime() {
+        return rasterizationTime.sum();
+    }
+
+    public static long getTestTime() {
+        return testTime.sum();
+    }
+
+    private final SoftwareRenderer renderer;
+    private final int width;
+    private final int height;
+
+    private final float[][] levels;
+    private final int[] levelsWidth;
+    private final int[] levelsHeight;
+
+    private final Matrix4f projectionView = new Matrix4f();
+    private final Vector4f corner = new Vector4f();
+
+    private boolean ready = false;
+
+    public NSoftwareOcclusion(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+
+        this.renderer = new SoftwareRenderer(width, height);
+        this.renderer.setDepthOnlyEnabled(true);
+        this.renderer.setLightingEnabled(false);
+        this.renderer.setMultithreadEnabled(false);
+        this.renderer.setWatertightEnabled(true);
+
+        int numberOfLevels = 1;
+        int w = width;
+        int h = height;
+        while (w > 1 || h > 1) {
+            w = Math.max((w + 1) / 2, 1);
+            h = Math.max((h + 1) / 2, 1);
+            numberOfLevels++;
+        }
+
+        this.levels = new float[numberOfLevels][];
+        this.levelsWidth = new int[numberOfLevels];
+        this.levelsHeight = new int[numberOfLevels];
+
+        w = width;
+        h = height;
+        for (int i = 0; i < numberOfLevels; i++) {
+            this.levels[i] = new float[w * h];
+            this.levelsWidth[i] = w;
+            this.levelsHeight[i] = h;
+            w = Math.max((w + 1) / 2, 1);
+            h = Math.max((h + 1) / 2, 1);
+        }
+    }
+
+    public NSoftwareOcclusion() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void invalidate() {
+        this.ready = false;
+    }
+
+    /**
+     * Rasterizes the occluders (in world space and in the format of
+     * {@link SoftwareRenderer.MeshBuilder}) from the point of view of the
+     * camera and builds the hierarchical depth buffer used by
+     * {@link #testAab(float, float, float, float, float, float)}.
+     * 
+     * @param camera the camera
+     * @param occluders the occluders
+     */
+    public void rasterize(Camera camera, float[] occluders) {
+        long start = System.nanoTime();
+
+        this.ready = false;
+
+        this.projectionView
+                .set(camera.getProjection())
+                .mul(camera.getView());
+
+        this.renderer.getProjection().set(camera.getProjection());
+        this.renderer.getView().set(camera.getView());
+        this.renderer.getCameraPosition().set(
+                (float) camera.getPosition().x(),
+                (float) camera.getPosition().y(),
+                (float) camera.getPosition().z()
+        );
+        this.renderer.getSurface().clearDepth(1f);
+        if (occluders != null && occluders.length != 0) {
+            this.renderer.setMesh(occluders);
+            this.renderer.render();
+        }
+
+        this.renderer.getSurface().getDepth(0, 0, this.levels[0], 0, this.levels[0].length);
+
+        for (int i = 1; i < this.levels.length; i++) {
+            float[] src = this.levels[i - 1];
+            int srcWidth = this.levelsWidth[i - 1];
+            int srcHeight = this.levelsHeight[i - 1];
+
+            float[] dst = this.levels[i];
+            int dstWidth = this.levelsWidth[i];
+            int dstHeight = this.levelsHeight[i];
+
+            for (int y = 0; y < dstHeight; y++) {
+                int y0 = y * 2;
+                int y1 = Math.min(y0 + 1, srcHeight - 1);
+                for (int x = 0; x < dstWidth; x++) {
+                    int x0 = x * 2;
+                    int x1 = Math.min(x0 + 1, srcWidth - 1);
+
+                    float d = Math.max(
+                            Math.max(src[x0 + (y0 * srcWidth)], src[x1 + (y0 * srcWidth)]),
+                            Math.max(src[x0 + (y1 * srcWidth)], src[x1 + (y1 * srcWidth)])
+                    );
+                    dst[x + (y * dstWidth)] = d;
+                }
+            }
+        }
+
+        this.ready = true;
+
+        rasterizationTime.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Tests a camera relative axis aligned box against the last rasterized
+     * depth buffer, returns true if the box is fully behind the occluders.
+     * 
+     * @param minX min x
+     * @param minY min y
+     * @param minZ min z
+     * @param maxX max x
+     * @param maxY max y
+     * @param maxZ max z
+     * @return true if occluded
+     */
+    public boolean testAab(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ
+    ) {
+        if (!this.ready) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            tested.increment();
+            boolean occluded = testOccluded(minX, minY, minZ, maxX, maxY, maxZ);
+            if (occluded) {
+                culled.increment();
+            }
+            return occluded;
+        } finally {
+            testTime.add(System.nanoTime() - start);
+        }
+    }
+
+    private boolean testOccluded(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ
+    ) {
+        float minScreenX = Float.POSITIVE_INFINITY;
+        float minScreenY = Float.POSITIVE_INFINITY;
+        float minDepth = Float.POSITIVE_INFINITY;
+        float maxScreenX = Float.NEGATIVE_INFINITY;
+        float maxScreenY = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < 8; i++) {
+            this.corner.set(
+                    ((i & 1) == 0 ? minX : maxX),
+                    ((i & 2) == 0 ? minY : maxY),
+                    ((i & 4) == 0 ? minZ : maxZ),
+                    1f
+            );
+            this.projectionView.transform(this.corner);
+
+            float w = this.corner.w();
+            if (w <= NEAR_EPSILON) {
+                return false;
+            }
+            float invw = 1f / w;
+
+            float x = ((this.corner.x() * invw) + 1f) * 0.5f * this.width;
+            float y = ((this.corner.y() * invw) + 1f) * 0.5f * this.height;
+            float depth = ((this.corner.z() * invw) + 1f) * 0.5f;
+
+            minScreenX = Math.min(minScreenX, x);
+            minScreenY = Math.min(minScreenY, y);
+            maxScreenX = Math.max(maxScreenX, x);
+            maxScreenY = Math.max(maxScreenY, y);
+            minDepth = Math.min(minDepth, depth);
+        }
+
+        if (maxScreenX < 0f || maxScreenY < 0f || minScreenX > this.width || minScreenY > this.height) {
+            return false;
+        }
+
+        int x0 = Math.max((int) Math.floor(minScreenX) - 1, 0);
+        int y0 = Math.max((int) Math.floor(minScreenY) - 1, 0);
+        int x1 = Math.min((int) Math.floor(maxScreenX) + 1, this.width - 1);
+        int y1 = Math.min((int) Math.floor(maxScreenY) + 1, this.height - 1);
+
+        int level = 0;
+        while (level < (this.levels.length - 1)
+                && (((x1 >> level) - (x0 >> level)) > 1 || ((y1 >> level) - (y0 >> level)) > 1)) {
+            level++;
+        }
+
+        float[] depths = this.levels[level];
+        int levelWidth = this.levelsWidth[level];
+        int levelHeight = this.levelsHeight[level];
+
+        int lx0 = Math.min(x0 >> level, levelWidth - 1);
+        int ly0 = Math.min(y0 >> level, levelHeight - 1);
+        int lx1 = Math.min(x1 >> level, levelWidth - 1);
+        int ly1 = Math.min(y1 >> level, levelHeight - 1);
+
+        for (int y = ly0; y <= ly1; y++) {
+            for (int x = lx0; x <= lx1; x++) {
+                if (depths[x + (y * levelWidth)] >= minDepth) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+}
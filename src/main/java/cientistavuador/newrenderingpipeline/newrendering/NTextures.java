@@ -29,6 +29,7 @@ package cientistavuador.newrenderingpipeline.newrendering;
 import cientistavuador.newrenderingpipeline.Main;
 import cientistavuador.newrenderingpipeline.debug.DebugCounter;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore;
+import cientistavuador.newrenderingpipeline.util.DataCache;
 import cientistavuador.newrenderingpipeline.util.DXT5TextureStore.DXT5Texture;
 import cientistavuador.newrenderingpipeline.util.M8Image;
 import cientistavuador.newrenderingpipeline.util.MipmapUtils;
@@ -37,7 +38,6 @@ import cientistavuador.newrenderingpipeline.util.StringUtils;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.Base64;
 import java.util.Objects;
@@ -99,9 +99,9 @@ public class NTextures {
     
     private final WrappedTextures wrappedTextures = new WrappedTextures();
 
-    private WeakReference<byte[]> decompressed_r_g_b_a_ref = null;
-    private WeakReference<byte[]> decompressed_ht_rg_mt_nx_ref = null;
-    private WeakReference<byte[]> decompressed_er_eg_eb_ny_ref = null;
+    private final DataCache.Key decompressed_r_g_b_a_key;
+    private final DataCache.Key decompressed_ht_rg_mt_nx_key;
+    private final DataCache.Key decompressed_er_eg_eb_ny_key;
 
     public NTextures(
             String name,
@@ -148,13 +148,25 @@ public class NTextures {
 
         this.heightMapSupported = heightMapSupported;
 
+        this.decompressed_r_g_b_a_key = new DataCache.Key("textures_" + this.name + "_r_g_b_a");
+        this.decompressed_ht_rg_mt_nx_key = new DataCache.Key("textures_" + this.name + "_ht_rg_mt_nx");
+        this.decompressed_er_eg_eb_ny_key = new DataCache.Key("textures_" + this.name + "_er_eg_eb_ny");
+
         registerForCleaning();
     }
 
     private void registerForCleaning() {
         final WrappedTextures final_textures = this.wrappedTextures;
+        final DataCache.Key[] final_keys = {
+            this.decompressed_r_g_b_a_key,
+            this.decompressed_ht_rg_mt_nx_key,
+            this.decompressed_er_eg_eb_ny_key
+        };
 
         ObjectCleaner.get().register(this, () -> {
+            for (DataCache.Key key : final_keys) {
+                DataCache.get().remove(key);
+            }
             Main.MAIN_TASKS.add(() -> {
                 int tex_textures = final_textures.textures;
 
@@ -202,51 +214,34 @@ public class NTextures {
         return texture_er_eg_eb_ny;
     }
 
-    private byte[] getOrNull(WeakReference<byte[]> ref) {
-        if (ref != null) {
-            byte[] result = ref.get();
-            if (result != null) {
-                return result;
-            }
-        }
-        return null;
-    }
-
     public byte[] data_r_g_b_a() {
-        byte[] cached = getOrNull(this.decompressed_r_g_b_a_ref);
-        if (cached != null) {
-            return cached;
-        }
-
-        byte[] decompressed = texture_r_g_b_a().decompress();
-        if (NBlendingMode.OPAQUE.equals(getBlendingMode())) {
-            M8Image.m8ToRGBA(decompressed, this.width, this.height);
-        }
-
-        this.decompressed_r_g_b_a_ref = new WeakReference<>(decompressed);
-        return decompressed;
+        return DataCache.get().get(this.decompressed_r_g_b_a_key, () -> {
+            byte[] decompressed = texture_r_g_b_a().decompress();
+            if (NBlendingMode.OPAQUE.equals(getBlendingMode())) {
+                M8Image.m8ToRGBA(decompressed, this.width, this.height);
+            }
+            return decompressed;
+        });
     }
 
     public byte[] data_ht_rg_mt_nx() {
-        byte[] cached = getOrNull(this.decompressed_ht_rg_mt_nx_ref);
-        if (cached != null) {
-            return cached;
-        }
-
-        byte[] decompressed = texture_ht_rg_mt_nx().decompress();
-        this.decompressed_ht_rg_mt_nx_ref = new WeakReference<>(decompressed);
-        return decompressed;
+        return DataCache.get().get(this.decompressed_ht_rg_mt_nx_key, texture_ht_rg_mt_nx()::decompress);
     }
 
     public byte[] data_er_eg_eb_ny() {
-        byte[] cached = getOrNull(this.decompressed_er_eg_eb_ny_ref);
-        if (cached != null) {
-            return cached;
-        }
-
-        byte[] decompressed = texture_er_eg_eb_ny().decompress();
-        this.decompressed_er_eg_eb_ny_ref = new WeakReference<>(decompressed);
-        return decompressed;
+        return DataCache.get().get(this.decompressed_er_eg_eb_ny_key, texture_er_eg_eb_ny()::decompress);
+    }
+    
+    public void pinData() {
+        DataCache.get().pin(this.decompressed_r_g_b_a_key);
+        DataCache.get().pin(this.decompressed_ht_rg_mt_nx_key);
+        DataCache.get().pin(this.decompressed_er_eg_eb_ny_key);
+    }
+    
+    public void unpinData() {
+        DataCache.get().unpin(this.decompressed_r_g_b_a_key);
+        DataCache.get().unpin(this.decompressed_ht_rg_mt_nx_key);
+        DataCache.get().unpin(this.decompressed_er_eg_eb_ny_key);
     }
     
     private void validateTextures() {
@@ -32,12 +32,14 @@ import cientistavuador.newrenderingpipeline.util.ImageUtils;
 import cientistavuador.newrenderingpipeline.util.M8Image;
 import cientistavuador.newrenderingpipeline.util.PixelUtils;
 import cientistavuador.newrenderingpipeline.util.PixelUtils.PixelStructure;
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import cientistavuador.newrenderingpipeline.util.postprocess.MarginAutomata;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import org.lwjgl.system.MemoryUtil;
 import static org.lwjgl.stb.STBImage.*;
@@ -50,6 +52,18 @@ import org.lwjgl.system.MemoryStack;
 public class NTexturesImporter {
 
     public static final float MINIMUM_AMBIENT_OCCLUSION = 0.5f;
+    public static final int PACK_PIXELS_PER_BATCH = 65536;
+
+    private static final byte[] AMBIENT_OCCLUSION_TABLE = new byte[256 * 256];
+
+    static {
+        for (int ao = 0; ao < 256; ao++) {
+            float ambientOcclusion = ((ao / 255f) * (1f - MINIMUM_AMBIENT_OCCLUSION)) + MINIMUM_AMBIENT_OCCLUSION;
+            for (int color = 0; color < 256; color++) {
+                AMBIENT_OCCLUSION_TABLE[(ao << 8) | color] = (byte) Math.floor(color * ambientOcclusion);
+            }
+        }
+    }
 
     private static byte[] loadFromJarOrNull(String path) throws FileNotFoundException, IOException {
         if (path == null) {
@@ -277,6 +291,160 @@ public class NTexturesImporter {
         }
     }
 
+    private static void packChannel(byte[] output, int outputComponent, byte[] map, int mapComponent, int fallback, int start, int end) {
+        if (map == null) {
+            byte value = (byte) fallback;
+            for (int p = start; p < end; p++) {
+                output[(p * 4) + outputComponent] = value;
+            }
+            return;
+        }
+        for (int p = start; p < end; p++) {
+            output[(p * 4) + outputComponent] = map[(p * 4) + mapComponent];
+        }
+    }
+
+    private static void packOccludedChannel(byte[] output, int component, byte[] diffuseMap, byte[] aoMap, int start, int end) {
+        if (aoMap == null) {
+            packChannel(output, component, diffuseMap, component, 255, start, end);
+            return;
+        }
+        if (diffuseMap == null) {
+            for (int p = start; p < end; p++) {
+                output[(p * 4) + component] = AMBIENT_OCCLUSION_TABLE[((aoMap[p * 4] & 0xFF) << 8) | 0xFF];
+            }
+            return;
+        }
+        for (int p = start; p < end; p++) {
+            int ao = aoMap[p * 4] & 0xFF;
+            int color = diffuseMap[(p * 4) + component] & 0xFF;
+            output[(p * 4) + component] = AMBIENT_OCCLUSION_TABLE[(ao << 8) | color];
+        }
+    }
+
+    private static class TexturePacker {
+
+        private static final int FLAG_EMPTY = 1;
+        private static final int FLAG_NOT_EMPTY = 2;
+        private static final int FLAG_TRANSLUCENT = 4;
+
+        private final int pixels;
+
+        private final byte[] diffuseMap;
+        private final byte[] aoMap;
+        private final byte[] heightMap;
+        private final byte[] roughnessMap;
+        private final byte[] normalMap;
+        private final byte[] metallicMap;
+        private final byte[] emissiveMap;
+
+        private final byte[] rgba;
+        private final byte[] hrmnx;
+        private final byte[] eregebny;
+
+        private final AtomicInteger batchesCursor = new AtomicInteger();
+        private final AtomicInteger alphaFlags = new AtomicInteger();
+        private final int numberOfBatches;
+
+        TexturePacker(
+                int pixels,
+                byte[] diffuseMap,
+                byte[] aoMap,
+                byte[] heightMap,
+                byte[] roughnessMap,
+                byte[] normalMap,
+                byte[] metallicMap,
+                byte[] emissiveMap
+        ) {
+            this.pixels = pixels;
+            this.diffuseMap = diffuseMap;
+            this.aoMap = aoMap;
+            this.heightMap = heightMap;
+            this.roughnessMap = roughnessMap;
+            this.normalMap = normalMap;
+            this.metallicMap = metallicMap;
+            this.emissiveMap = emissiveMap;
+
+            this.rgba = new byte[pixels * 4];
+            this.hrmnx = new byte[pixels * 4];
+            this.eregebny = new byte[pixels * 4];
+
+            this.numberOfBatches = (pixels + (PACK_PIXELS_PER_BATCH - 1)) / PACK_PIXELS_PER_BATCH;
+        }
+
+        private int packAlpha(int start, int end) {
+            if (this.diffuseMap == null) {
+                packChannel(this.rgba, 3, null, 3, 255, start, end);
+                return FLAG_NOT_EMPTY;
+            }
+            int empty = 0;
+            int notEmpty = 0;
+            int translucent = 0;
+            for (int p = start; p < end; p++) {
+                byte alpha = this.diffuseMap[(p * 4) + 3];
+                this.rgba[(p * 4) + 3] = alpha;
+
+                int a = alpha & 0xFF;
+                int isEmpty = (a - 1) >>> 31;
+                empty |= isEmpty;
+                notEmpty |= isEmpty ^ 1;
+                translucent |= (((a - 1) & 0xFF) - 254) >>> 31;
+            }
+            return (empty * FLAG_EMPTY) | (notEmpty * FLAG_NOT_EMPTY) | (translucent * FLAG_TRANSLUCENT);
+        }
+
+        private void packBatch(int batch) {
+            int start = batch * PACK_PIXELS_PER_BATCH;
+            int end = Math.min(start + PACK_PIXELS_PER_BATCH, this.pixels);
+
+            packOccludedChannel(this.rgba, 0, this.diffuseMap, this.aoMap, start, end);
+            packOccludedChannel(this.rgba, 1, this.diffuseMap, this.aoMap, start, end);
+            packOccludedChannel(this.rgba, 2, this.diffuseMap, this.aoMap, start, end);
+            int flags = packAlpha(start, end);
+
+            packChannel(this.hrmnx, 0, this.heightMap, 0, 255, start, end);
+            packChannel(this.hrmnx, 1, this.roughnessMap, 0, 255, start, end);
+            packChannel(this.hrmnx, 2, this.metallicMap, 0, 0, start, end);
+            packChannel(this.hrmnx, 3, this.normalMap, 0, 127, start, end);
+
+            packChannel(this.eregebny, 0, this.emissiveMap, 0, 0, start, end);
+            packChannel(this.eregebny, 1, this.emissiveMap, 1, 0, start, end);
+            packChannel(this.eregebny, 2, this.emissiveMap, 2, 0, start, end);
+            packChannel(this.eregebny, 3, this.normalMap, 1, 127, start, end);
+
+            this.alphaFlags.getAndAccumulate(flags, (x, y) -> x | y);
+        }
+
+        private void packBatches() {
+            int batch;
+            while ((batch = this.batchesCursor.getAndIncrement()) < this.numberOfBatches) {
+                packBatch(batch);
+            }
+        }
+
+        public void pack() {
+            int threads = Math.max(Math.min(SharedExecutor.NUMBER_OF_THREADS, this.numberOfBatches), 1);
+
+            SharedExecutor.parallelFor(threads, (worker) -> packBatches());
+        }
+
+        public NBlendingMode blendingMode() {
+            int flags = this.alphaFlags.get();
+            if ((flags & FLAG_TRANSLUCENT) != 0) {
+                return NBlendingMode.ALPHA_BLENDING;
+            }
+            if ((flags & FLAG_EMPTY) != 0) {
+                return NBlendingMode.ALPHA_TESTING;
+            }
+            return NBlendingMode.OPAQUE;
+        }
+
+        public boolean marginRequired() {
+            int flags = this.alphaFlags.get();
+            return (flags & FLAG_EMPTY) != 0 && (flags & FLAG_NOT_EMPTY) != 0;
+        }
+    }
+
     private static int fetch(byte[] map, int index, int fallback) {
         if (map == null) {
             return fallback;
@@ -331,63 +499,19 @@ public class NTexturesImporter {
         validate("metallic map", metallicMap, pixels);
         validate("emissive map", emissiveMap, pixels);
 
-        NBlendingMode mode = NBlendingMode.OPAQUE;
-
-        if (diffuseMap != null) {
-            for (int p = 0; p < pixels; p++) {
-                int alpha = diffuseMap[(p * 4) + 3] & 0xFF;
-                if (alpha == 0 && NBlendingMode.OPAQUE.equals(mode)) {
-                    mode = NBlendingMode.ALPHA_TESTING;
-                }
-                if (alpha != 0 && alpha != 255) {
-                    mode = NBlendingMode.ALPHA_BLENDING;
-                    break;
-                }
-            }
-        }
-
-        byte[] rgba = new byte[pixels * 4];
-        byte[] hrmnx = new byte[pixels * 4];
-        byte[] eregebny = new byte[pixels * 4];
-
-        for (int p = 0; p < pixels; p++) {
-            int r = fetch(diffuseMap, (p * 4) + 0, 255);
-            int g = fetch(diffuseMap, (p * 4) + 1, 255);
-            int b = fetch(diffuseMap, (p * 4) + 2, 255);
-            int a = fetch(diffuseMap, (p * 4) + 3, 255);
-
-            int ao = fetch(aoMap, (p * 4) + 0, 255);
-            int hei = fetch(heightMap, (p * 4) + 0, 255);
-            int rg = fetch(roughnessMap, (p * 4) + 0, 255);
-
-            int nx = fetch(normalMap, (p * 4) + 0, 127);
-            int ny = fetch(normalMap, (p * 4) + 1, 127);
-
-            int mt = fetch(metallicMap, (p * 4) + 0, 0);
-
-            int er = fetch(emissiveMap, (p * 4) + 0, 0);
-            int eg = fetch(emissiveMap, (p * 4) + 1, 0);
-            int eb = fetch(emissiveMap, (p * 4) + 2, 0);
-
-            float ambientOcclusion = ((ao / 255f) * (1f - MINIMUM_AMBIENT_OCCLUSION)) + MINIMUM_AMBIENT_OCCLUSION;
-
-            rgba[(p * 4) + 0] = (byte) Math.floor(r * ambientOcclusion);
-            rgba[(p * 4) + 1] = (byte) Math.floor(g * ambientOcclusion);
-            rgba[(p * 4) + 2] = (byte) Math.floor(b * ambientOcclusion);
-            rgba[(p * 4) + 3] = (byte) a;
+        TexturePacker packer = new TexturePacker(
+                pixels,
+                diffuseMap, aoMap, heightMap, roughnessMap, normalMap, metallicMap, emissiveMap
+        );
+        packer.pack();
 
-            hrmnx[(p * 4) + 0] = (byte) hei;
-            hrmnx[(p * 4) + 1] = (byte) rg;
-            hrmnx[(p * 4) + 2] = (byte) mt;
-            hrmnx[(p * 4) + 3] = (byte) nx;
+        NBlendingMode mode = packer.blendingMode();
 
-            eregebny[(p * 4) + 0] = (byte) er;
-            eregebny[(p * 4) + 1] = (byte) eg;
-            eregebny[(p * 4) + 2] = (byte) eb;
-            eregebny[(p * 4) + 3] = (byte) ny;
-        }
+        byte[] rgba = packer.rgba;
+        byte[] hrmnx = packer.hrmnx;
+        byte[] eregebny = packer.eregebny;
 
-        if (!NBlendingMode.OPAQUE.equals(mode)) {
+        if (!NBlendingMode.OPAQUE.equals(mode) && packer.marginRequired()) {
             class IO implements MarginAutomata.MarginAutomataIO {
 
                 private final int buffer;
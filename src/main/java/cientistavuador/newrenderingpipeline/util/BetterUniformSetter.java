@@ -28,25 +28,24 @@ package cientistavuador.newrenderingpipeline.util;
 
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import org.joml.Matrix2f;
+import java.util.concurrent.ConcurrentHashMap;
 import org.joml.Matrix2fc;
-import org.joml.Matrix3f;
 import org.joml.Matrix3fc;
-import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
-import org.joml.Vector2f;
-import org.joml.Vector2i;
-import org.joml.Vector3f;
-import org.joml.Vector3i;
-import org.joml.Vector4f;
-import org.joml.Vector4i;
 import static org.lwjgl.opengl.GL33C.*;
 import org.lwjgl.system.MemoryStack;
 
 /**
+ * Caches the uniform values of a program and skips setting a uniform to the
+ * value it already has.
+ * <p>
+ * By default the instance setters issue the glUniform call right away, the
+ * program must be in use. In deferred mode ({@link #setDeferred(boolean)})
+ * the setters only record the value and {@link #flush()} must be called
+ * before every draw call that depends on them.
  *
  * @author Cien
  */
@@ -76,10 +75,75 @@ public class BetterUniformSetter {
         }
     }
     
+    public static final int LOCATION_UNRESOLVED = -2;
+    
+    private static final int FLOATS_PER_SLOT = 4 * 4;
+    private static final int INTS_PER_SLOT = 4;
+    
+    private static final int KIND_1F = 1;
+    private static final int KIND_2F = 2;
+    private static final int KIND_3F = 3;
+    private static final int KIND_4F = 4;
+    private static final int KIND_1I = 5;
+    private static final int KIND_2I = 6;
+    private static final int KIND_3I = 7;
+    private static final int KIND_4I = 8;
+    private static final int KIND_MATRIX_2 = 9;
+    private static final int KIND_MATRIX_3 = 10;
+    private static final int KIND_MATRIX_4 = 11;
+    
+    private static final Map<String, Integer> SLOTS = new ConcurrentHashMap<>();
+    private static volatile String[] SLOT_NAMES = new String[64];
+    private static int NUMBER_OF_SLOTS = 0;
+    
+    public static int slotOf(String uniform) {
+        Integer slot = SLOTS.get(uniform);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (SLOTS) {
+            slot = SLOTS.get(uniform);
+            if (slot != null) {
+                return slot;
+            }
+            int newSlot = NUMBER_OF_SLOTS;
+            String[] names = SLOT_NAMES;
+            if (newSlot >= names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[newSlot] = uniform;
+            SLOT_NAMES = names;
+            NUMBER_OF_SLOTS++;
+            SLOTS.put(uniform, newSlot);
+            return newSlot;
+        }
+    }
+    
+    public static String nameOf(int slot) {
+        String[] names = SLOT_NAMES;
+        if (slot < 0 || slot >= names.length || names[slot] == null) {
+            throw new IllegalArgumentException("Invalid slot: " + slot);
+        }
+        return names[slot];
+    }
+    
     private final int program;
     private final List<String> uniforms = new ArrayList<>();
-    private final Map<String, Integer> locations = new HashMap<>();
-    private final Map<Integer, Object> values = new HashMap<>();
+    
+    private int[] slotLocations = new int[0];
+    private byte[] slotKinds = new byte[0];
+    private boolean[] slotDirty = new boolean[0];
+    private float[] floatValues = new float[0];
+    private int[] intValues = new int[0];
+    
+    private boolean deferred = false;
+    private int[] dirtySlots = new int[64];
+    private int dirtyCount = 0;
+    
+    private final float[] matrixScratch = new float[FLOATS_PER_SLOT];
+    
+    private long issuedCalls = 0;
+    private long skippedCalls = 0;
     
     public BetterUniformSetter(int program) {
         this.program = program;
@@ -89,7 +153,9 @@ public class BetterUniformSetter {
             try (MemoryStack stack = MemoryStack.stackPush()) {
                 String uniform = glGetActiveUniform(program, i, stack.callocInt(1), stack.callocInt(1));
                 this.uniforms.add(uniform);
-                this.locations.put(uniform, glGetUniformLocation(program, uniform));
+                int slot = slotOf(uniform);
+                ensureCapacity(slot);
+                this.slotLocations[slot] = glGetUniformLocation(program, uniform);
             }
         }
     }
@@ -101,206 +167,347 @@ public class BetterUniformSetter {
     public String[] getUniforms() {
         return uniforms.toArray(String[]::new);
     }
+
+    public long getIssuedCalls() {
+        return issuedCalls;
+    }
+
+    public long getSkippedCalls() {
+        return skippedCalls;
+    }
     
-    public int locationOf(String uniform) {
-        Integer e = this.locations.get(uniform);
-        if (e == null) {
-            int lookup = glGetUniformLocation(this.program, uniform);
-            this.uniforms.add(uniform);
-            this.locations.put(uniform, lookup);
-            return lookup;
-        }
-        return e;
+    public void resetCounters() {
+        this.issuedCalls = 0;
+        this.skippedCalls = 0;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Enables or disables the deferred mode, in deferred mode the setters
+     * only record the values and {@link #flush()} issues the glUniform calls
+     * of everything that changed, so a value set many times between two draws
+     * is only uploaded once. Leaving the deferred mode flushes the pending
+     * values.
+     *
+     * @param deferred true to defer the uploads until {@link #flush()}
+     * @return this setter
+     */
+    public BetterUniformSetter setDeferred(boolean deferred) {
+        if (!deferred) {
+            flush();
+        }
+        this.deferred = deferred;
+        return this;
     }
     
-    public BetterUniformSetter uniform1f(String uniform, float f1, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
+    private void ensureCapacity(int slot) {
+        if (slot < this.slotLocations.length) {
+            return;
         }
-        Float current = (Float) this.values.get(location);
-        if (current != null && current == f1 && !force) {
-            return this;
+        int oldLength = this.slotLocations.length;
+        int newLength = Math.max(slot + 1, oldLength * 2);
+        
+        this.slotLocations = Arrays.copyOf(this.slotLocations, newLength);
+        Arrays.fill(this.slotLocations, oldLength, newLength, LOCATION_UNRESOLVED);
+        this.slotKinds = Arrays.copyOf(this.slotKinds, newLength);
+        this.slotDirty = Arrays.copyOf(this.slotDirty, newLength);
+        this.floatValues = Arrays.copyOf(this.floatValues, newLength * FLOATS_PER_SLOT);
+        this.intValues = Arrays.copyOf(this.intValues, newLength * INTS_PER_SLOT);
+    }
+    
+    public int locationOf(int slot) {
+        ensureCapacity(slot);
+        int location = this.slotLocations[slot];
+        if (location == LOCATION_UNRESOLVED) {
+            String uniform = nameOf(slot);
+            location = glGetUniformLocation(this.program, uniform);
+            this.uniforms.add(uniform);
+            this.slotLocations[slot] = location;
         }
-        this.values.put(location, f1);
-        glUniform1f(location, f1);
-        return this;
+        return location;
     }
     
-    public BetterUniformSetter uniform2f(String uniform, float f1, float f2, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
+    public int locationOf(String uniform) {
+        return locationOf(slotOf(uniform));
+    }
+    
+    private void markDirty(int slot, int kind) {
+        this.slotKinds[slot] = (byte) kind;
+        if (!this.deferred) {
+            if (kind >= KIND_MATRIX_2) {
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    upload(slot, stack.mallocFloat(FLOATS_PER_SLOT));
+                }
+            } else {
+                upload(slot, null);
+            }
+            return;
         }
-        Vector2f current = (Vector2f) this.values.get(location);
-        if (current != null && current.equals(f1, f2) && !force) {
-            return this;
+        if (this.slotDirty[slot]) {
+            return;
         }
-        if (current == null) {
-            current = new Vector2f();
-            this.values.put(location, current);
+        this.slotDirty[slot] = true;
+        if (this.dirtyCount >= this.dirtySlots.length) {
+            this.dirtySlots = Arrays.copyOf(this.dirtySlots, this.dirtySlots.length * 2);
         }
-        current.set(f1, f2);
-        glUniform2f(location, f1, f2);
-        return this;
+        this.dirtySlots[this.dirtyCount++] = slot;
     }
     
-    public BetterUniformSetter uniform3f(String uniform, float f1, float f2, float f3, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Vector3f current = (Vector3f) this.values.get(location);
-        if (current != null && current.equals(f1, f2, f3) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Vector3f();
-            this.values.put(location, current);
+    private static boolean same(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+    
+    private boolean setFloats(int slot, int kind, float f1, float f2, float f3, float f4, boolean force) {
+        if (locationOf(slot) == -1) {
+            return false;
+        }
+        int offset = slot * FLOATS_PER_SLOT;
+        float[] v = this.floatValues;
+        if (!force && this.slotKinds[slot] == kind
+                && same(v[offset + 0], f1) && same(v[offset + 1], f2)
+                && same(v[offset + 2], f3) && same(v[offset + 3], f4)) {
+            this.skippedCalls++;
+            return false;
+        }
+        v[offset + 0] = f1;
+        v[offset + 1] = f2;
+        v[offset + 2] = f3;
+        v[offset + 3] = f4;
+        markDirty(slot, kind);
+        return true;
+    }
+    
+    private boolean setInts(int slot, int kind, int i1, int i2, int i3, int i4, boolean force) {
+        if (locationOf(slot) == -1) {
+            return false;
+        }
+        int offset = slot * INTS_PER_SLOT;
+        int[] v = this.intValues;
+        if (!force && this.slotKinds[slot] == kind
+                && v[offset + 0] == i1 && v[offset + 1] == i2
+                && v[offset + 2] == i3 && v[offset + 3] == i4) {
+            this.skippedCalls++;
+            return false;
+        }
+        v[offset + 0] = i1;
+        v[offset + 1] = i2;
+        v[offset + 2] = i3;
+        v[offset + 3] = i4;
+        markDirty(slot, kind);
+        return true;
+    }
+    
+    private boolean setMatrix(int slot, int kind, int length, boolean force) {
+        if (locationOf(slot) == -1) {
+            return false;
+        }
+        int offset = slot * FLOATS_PER_SLOT;
+        float[] v = this.floatValues;
+        float[] m = this.matrixScratch;
+        if (!force && this.slotKinds[slot] == kind) {
+            boolean equals = true;
+            for (int i = 0; i < length; i++) {
+                if (!same(v[offset + i], m[i])) {
+                    equals = false;
+                    break;
+                }
+            }
+            if (equals) {
+                this.skippedCalls++;
+                return false;
+            }
         }
-        current.set(f1, f2, f3);
-        glUniform3f(location, f1, f2, f3);
+        System.arraycopy(m, 0, v, offset, length);
+        markDirty(slot, kind);
+        return true;
+    }
+    
+    public BetterUniformSetter uniform1f(int slot, float f1, boolean force) {
+        setFloats(slot, KIND_1F, f1, 0f, 0f, 0f, force);
         return this;
     }
     
-    public BetterUniformSetter uniform4f(String uniform, float f1, float f2, float f3, float f4, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Vector4f current = (Vector4f) this.values.get(location);
-        if (current != null && current.equals(f1, f2, f3, f4) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Vector4f();
-            this.values.put(location, current);
-        }
-        current.set(f1, f2, f3, f4);
-        glUniform4f(location, f1, f2, f3, f4);
+    public BetterUniformSetter uniform2f(int slot, float f1, float f2, boolean force) {
+        setFloats(slot, KIND_2F, f1, f2, 0f, 0f, force);
         return this;
     }
     
-    public BetterUniformSetter uniform1i(String uniform, int i1, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Integer current = (Integer) this.values.get(location);
-        if (current != null && current == i1 && !force) {
-            return this;
-        }
-        this.values.put(location, i1);
-        glUniform1i(location, i1);
+    public BetterUniformSetter uniform3f(int slot, float f1, float f2, float f3, boolean force) {
+        setFloats(slot, KIND_3F, f1, f2, f3, 0f, force);
         return this;
     }
     
-    public BetterUniformSetter uniform2i(String uniform, int i1, int i2, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Vector2i current = (Vector2i) this.values.get(location);
-        if (current != null && current.equals(i1, i2) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Vector2i();
-            this.values.put(location, current);
-        }
-        current.set(i1, i2);
-        glUniform2i(location, i1, i2);
+    public BetterUniformSetter uniform4f(int slot, float f1, float f2, float f3, float f4, boolean force) {
+        setFloats(slot, KIND_4F, f1, f2, f3, f4, force);
         return this;
     }
     
-    public BetterUniformSetter uniform3i(String uniform, int i1, int i2, int i3, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Vector3i current = (Vector3i) this.values.get(location);
-        if (current != null && current.equals(i1, i2, i3) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Vector3i();
-            this.values.put(location, current);
-        }
-        current.set(i1, i2, i3);
-        glUniform3i(location, i1, i2, i3);
+    public BetterUniformSetter uniform1i(int slot, int i1, boolean force) {
+        setInts(slot, KIND_1I, i1, 0, 0, 0, force);
         return this;
     }
     
-    public BetterUniformSetter uniform4i(String uniform, int i1, int i2, int i3, int i4, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Vector4i current = (Vector4i) this.values.get(location);
-        if (current != null && current.equals(i1, i2, i3, i4) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Vector4i();
-            this.values.put(location, current);
-        }
-        current.set(i1, i2, i3, i4);
-        glUniform4i(location, i1, i2, i3, i4);
+    public BetterUniformSetter uniform2i(int slot, int i1, int i2, boolean force) {
+        setInts(slot, KIND_2I, i1, i2, 0, 0, force);
         return this;
     }
     
-    public BetterUniformSetter uniformMatrix2fv(String uniform, Matrix2fc matrix, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Matrix2f current = (Matrix2f) this.values.get(location);
-        if (current != null && current.equals(matrix) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Matrix2f();
-            this.values.put(location, current);
-        }
-        current.set(matrix);
-        uniformMatrix2fv(location, matrix);
+    public BetterUniformSetter uniform3i(int slot, int i1, int i2, int i3, boolean force) {
+        setInts(slot, KIND_3I, i1, i2, i3, 0, force);
         return this;
     }
     
-    public BetterUniformSetter uniformMatrix3fv(String uniform, Matrix3fc matrix, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
-        }
-        Matrix3f current = (Matrix3f) this.values.get(location);
-        if (current != null && current.equals(matrix) && !force) {
-            return this;
-        }
-        if (current == null) {
-            current = new Matrix3f();
-            this.values.put(location, current);
-        }
-        current.set(matrix);
-        uniformMatrix3fv(location, matrix);
+    public BetterUniformSetter uniform4i(int slot, int i1, int i2, int i3, int i4, boolean force) {
+        setInts(slot, KIND_4I, i1, i2, i3, i4, force);
+        return this;
+    }
+    
+    /*
+     * the slot based matrix setters always take the force argument, the
+     * two argument form is taken by the static location based setters
+     */
+    
+    public BetterUniformSetter uniformMatrix2fv(int slot, Matrix2fc matrix, boolean force) {
+        matrix.get(this.matrixScratch, 0);
+        setMatrix(slot, KIND_MATRIX_2, 2 * 2, force);
+        return this;
+    }
+    
+    public BetterUniformSetter uniformMatrix3fv(int slot, Matrix3fc matrix, boolean force) {
+        matrix.get(this.matrixScratch, 0);
+        setMatrix(slot, KIND_MATRIX_3, 3 * 3, force);
         return this;
     }
     
+    public BetterUniformSetter uniformMatrix4fv(int slot, Matrix4fc matrix, boolean force) {
+        matrix.get(this.matrixScratch, 0);
+        setMatrix(slot, KIND_MATRIX_4, 4 * 4, force);
+        return this;
+    }
+    
+    public BetterUniformSetter uniform1f(int slot, float f1) {
+        return uniform1f(slot, f1, false);
+    }
+    
+    public BetterUniformSetter uniform2f(int slot, float f1, float f2) {
+        return uniform2f(slot, f1, f2, false);
+    }
+    
+    public BetterUniformSetter uniform3f(int slot, float f1, float f2, float f3) {
+        return uniform3f(slot, f1, f2, f3, false);
+    }
+    
+    public BetterUniformSetter uniform4f(int slot, float f1, float f2, float f3, float f4) {
+        return uniform4f(slot, f1, f2, f3, f4, false);
+    }
+    
+    public BetterUniformSetter uniform1i(int slot, int i1) {
+        return uniform1i(slot, i1, false);
+    }
+    
+    public BetterUniformSetter uniform2i(int slot, int i1, int i2) {
+        return uniform2i(slot, i1, i2, false);
+    }
+    
+    public BetterUniformSetter uniform3i(int slot, int i1, int i2, int i3) {
+        return uniform3i(slot, i1, i2, i3, false);
+    }
+    
+    public BetterUniformSetter uniform4i(int slot, int i1, int i2, int i3, int i4) {
+        return uniform4i(slot, i1, i2, i3, i4, false);
+    }
+    
+    public BetterUniformSetter uniform1f(String uniform, float f1, boolean force) {
+        return uniform1f(slotOf(uniform), f1, force);
+    }
+    
+    public BetterUniformSetter uniform2f(String uniform, float f1, float f2, boolean force) {
+        return uniform2f(slotOf(uniform), f1, f2, force);
+    }
+    
+    public BetterUniformSetter uniform3f(String uniform, float f1, float f2, float f3, boolean force) {
+        return uniform3f(slotOf(uniform), f1, f2, f3, force);
+    }
+    
+    public BetterUniformSetter uniform4f(String uniform, float f1, float f2, float f3, float f4, boolean force) {
+        return uniform4f(slotOf(uniform), f1, f2, f3, f4, force);
+    }
+    
+    public BetterUniformSetter uniform1i(String uniform, int i1, boolean force) {
+        return uniform1i(slotOf(uniform), i1, force);
+    }
+    
+    public BetterUniformSetter uniform2i(String uniform, int i1, int i2, boolean force) {
+        return uniform2i(slotOf(uniform), i1, i2, force);
+    }
+    
+    public BetterUniformSetter uniform3i(String uniform, int i1, int i2, int i3, boolean force) {
+        return uniform3i(slotOf(uniform), i1, i2, i3, force);
+    }
+    
+    public BetterUniformSetter uniform4i(String uniform, int i1, int i2, int i3, int i4, boolean force) {
+        return uniform4i(slotOf(uniform), i1, i2, i3, i4, force);
+    }
+    
+    public BetterUniformSetter uniformMatrix2fv(String uniform, Matrix2fc matrix, boolean force) {
+        return uniformMatrix2fv(slotOf(uniform), matrix, force);
+    }
+    
+    public BetterUniformSetter uniformMatrix3fv(String uniform, Matrix3fc matrix, boolean force) {
+        return uniformMatrix3fv(slotOf(uniform), matrix, force);
+    }
+    
     public BetterUniformSetter uniformMatrix4fv(String uniform, Matrix4fc matrix, boolean force) {
-        int location = locationOf(uniform);
-        if (location == -1) {
-            return this;
+        return uniformMatrix4fv(slotOf(uniform), matrix, force);
+    }
+    
+    private void upload(int slot, FloatBuffer matrixBuffer) {
+        int location = this.slotLocations[slot];
+        int fo = slot * FLOATS_PER_SLOT;
+        int io = slot * INTS_PER_SLOT;
+        float[] f = this.floatValues;
+        int[] v = this.intValues;
+        
+        switch (this.slotKinds[slot]) {
+            case KIND_1F -> glUniform1f(location, f[fo]);
+            case KIND_2F -> glUniform2f(location, f[fo], f[fo + 1]);
+            case KIND_3F -> glUniform3f(location, f[fo], f[fo + 1], f[fo + 2]);
+            case KIND_4F -> glUniform4f(location, f[fo], f[fo + 1], f[fo + 2], f[fo + 3]);
+            case KIND_1I -> glUniform1i(location, v[io]);
+            case KIND_2I -> glUniform2i(location, v[io], v[io + 1]);
+            case KIND_3I -> glUniform3i(location, v[io], v[io + 1], v[io + 2]);
+            case KIND_4I -> glUniform4i(location, v[io], v[io + 1], v[io + 2], v[io + 3]);
+            case KIND_MATRIX_2 -> glUniformMatrix2fv(location, false, matrixBuffer.clear().put(f, fo, 2 * 2).flip());
+            case KIND_MATRIX_3 -> glUniformMatrix3fv(location, false, matrixBuffer.clear().put(f, fo, 3 * 3).flip());
+            case KIND_MATRIX_4 -> glUniformMatrix4fv(location, false, matrixBuffer.clear().put(f, fo, 4 * 4).flip());
+            default -> {
+                return;
+            }
         }
-        Matrix4f current = (Matrix4f) this.values.get(location);
-        if (current != null && current.equals(matrix) && !force) {
-            return this;
+        this.issuedCalls++;
+    }
+    
+    /**
+     * Issues the glUniform calls for every value that changed since the last
+     * flush, the program must be in use. Only needed in deferred mode, where
+     * it must be called before any draw call that depends on the values set.
+     */
+    public void flush() {
+        if (this.dirtyCount == 0) {
+            return;
         }
-        if (current == null) {
-            current = new Matrix4f();
-            this.values.put(location, current);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer matrixBuffer = stack.mallocFloat(FLOATS_PER_SLOT);
+            for (int i = 0; i < this.dirtyCount; i++) {
+                int slot = this.dirtySlots[i];
+                this.slotDirty[slot] = false;
+                upload(slot, matrixBuffer);
+            }
         }
-        current.set(matrix);
-        uniformMatrix4fv(location, matrix);
-        return this;
+        this.dirtyCount = 0;
     }
     
     public BetterUniformSetter uniform1f(String uniform, float f1) {
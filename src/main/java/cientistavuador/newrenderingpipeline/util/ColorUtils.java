@@ -73,20 +73,22 @@ public class ColorUtils {
         }
         outColor.set(colors.get(0));
         for (int i = 1; i < colors.size(); i++) {
-            Vector4fc source = colors.get(i);
+            blend(colors.get(i), outColor);
+        }
+    }
 
-            float alpha = source.w() + outColor.w() * (1f - source.w());
-            if (alpha < 0.00001f) {
-                continue;
-            }
-            float invalpha = 1f / alpha;
-            outColor.set(
-                    (source.x() * source.w() + outColor.x() * outColor.w() * (1f - source.w())) * invalpha,
-                    (source.y() * source.w() + outColor.y() * outColor.w() * (1f - source.w())) * invalpha,
-                    (source.z() * source.w() + outColor.z() * outColor.w() * (1f - source.w())) * invalpha,
-                    alpha
-            );
+    public static void blend(Vector4fc source, Vector4f outColor) {
+        float alpha = source.w() + outColor.w() * (1f - source.w());
+        if (alpha < 0.00001f) {
+            return;
         }
+        float invalpha = 1f / alpha;
+        outColor.set(
+                (source.x() * source.w() + outColor.x() * outColor.w() * (1f - source.w())) * invalpha,
+                (source.y() * source.w() + outColor.y() * outColor.w() * (1f - source.w())) * invalpha,
+                (source.z() * source.w() + outColor.z() * outColor.w() * (1f - source.w())) * invalpha,
+                alpha
+        );
     }
     
     private ColorUtils() {
@@ -41,6 +41,8 @@ import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 import static org.lwjgl.glfw.GLFW.*;
 import org.lwjgl.opengl.EXTTextureCompressionS3TC;
@@ -61,6 +63,8 @@ public class DXT5TextureStore {
     public static final String ZST_EXTENSION = "zst";
     public static final String DDS_EXTENSION = "dds";
     public static final String EXTENSION = DDS_EXTENSION + "." + ZST_EXTENSION;
+    
+    public static volatile int NVIDIA_TEXTURE_TOOLS_MINIMUM_PIXELS = 128 * 128;
 
     public static class DXT5Texture {
 
@@ -414,24 +418,43 @@ public class DXT5TextureStore {
                     .putInt(DXT5Texture.HEIGHT_OFFSET, height)
                     .putInt(DXT5Texture.MIPS_OFFSET, mips);
 
-            dxt5Data.position(128);
-
+            int offset = 128;
+            
             int currentWidth = width;
             int currentHeight = height;
             byte[] currentMip = data;
 
             for (int i = 0; i < mips; i++) {
-                byte[] compressed = TextureCompressor.compressDXT5Fallback(currentMip, currentWidth, currentHeight);
-                dxt5Data.put(compressed);
+                //the next level is built while this one is encoded
+                Future<Pair<Pair<Integer, Integer>, byte[]>> nextMip = null;
+                if (i != (mips - 1)) {
+                    byte[] mip = currentMip;
+                    int mipWidth = currentWidth;
+                    int mipHeight = currentHeight;
+                    nextMip = SharedExecutor.submit(() -> MipmapUtils.mipmap(mip, mipWidth, mipHeight));
+                }
 
-                Pair<Pair<Integer, Integer>, byte[]> pair = MipmapUtils.mipmap(currentMip, currentWidth, currentHeight);
+                TextureCompressor.compressDXT5Fallback(
+                        currentMip, currentWidth, currentHeight,
+                        dxt5Data, offset
+                );
+                offset += TextureCompressor.DXT5Size(currentWidth, currentHeight);
 
-                currentWidth = pair.getA().getA();
-                currentHeight = pair.getA().getB();
-                currentMip = pair.getB();
+                if (nextMip != null) {
+                    Pair<Pair<Integer, Integer>, byte[]> pair;
+                    try {
+                        pair = SharedExecutor.await(nextMip);
+                    } catch (InterruptedException | ExecutionException ex) {
+                        throw new RuntimeException(ex);
+                    }
+
+                    currentWidth = pair.getA().getA();
+                    currentHeight = pair.getA().getB();
+                    currentMip = pair.getB();
+                }
             }
 
-            dxt5Data.flip();
+            dxt5Data.position(0);
 
             return new DXT5Texture(dxt5Data);
         } catch (Throwable t) {
@@ -443,7 +466,8 @@ public class DXT5TextureStore {
     public static DXT5Texture createDXT5Texture(byte[] rgba, int width, int height) {
         ImageUtils.validate(rgba, width, height, 4);
 
-        if (!TextureCompressor.isNVIDIATextureToolsSupported()) {
+        if (!TextureCompressor.isNVIDIATextureToolsSupported()
+                || (width * height) < NVIDIA_TEXTURE_TOOLS_MINIMUM_PIXELS) {
             return createDXT5TextureFallback(rgba, width, height);
         }
         
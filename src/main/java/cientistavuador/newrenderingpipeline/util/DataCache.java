@@ -0,0 +1,268 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ *
+ * @author Cien
+ */
+public class DataCache {
+
+    public static final long DEFAULT_BUDGET = 512L * 1024L * 1024L;
+
+    private static final DataCache INSTANCE = new DataCache(DEFAULT_BUDGET);
+
+    public static DataCache get() {
+        return INSTANCE;
+    }
+
+    public static long sizeOf(byte[] data) {
+        return data.length;
+    }
+
+    public static long sizeOf(float[] data) {
+        return data.length * 4L;
+    }
+
+    public static long sizeOf(E8Image image) {
+        return image.getRGBE().length;
+    }
+
+    public static class Key {
+
+        private final String name;
+
+        public Key(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+
+    }
+
+    private static class Entry {
+
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        long size = 0;
+    }
+
+    private final Object lock = new Object();
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Key, Integer> pins = new HashMap<>();
+
+    private long budget;
+    private long size = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public DataCache(long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        synchronized (this.lock) {
+            return this.budget;
+        }
+    }
+
+    public void setBudget(long budget) {
+        synchronized (this.lock) {
+            this.budget = budget;
+            evict();
+        }
+    }
+
+    public long getSize() {
+        synchronized (this.lock) {
+            return this.size;
+        }
+    }
+
+    public int getNumberOfEntries() {
+        synchronized (this.lock) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHits() {
+        synchronized (this.lock) {
+            return this.hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (this.lock) {
+            return this.misses;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (this.lock) {
+            return this.evictions;
+        }
+    }
+
+    public void resetCounters() {
+        synchronized (this.lock) {
+            this.hits = 0;
+            this.misses = 0;
+            this.evictions = 0;
+        }
+    }
+
+    private boolean isPinned(Key key) {
+        return this.pins.containsKey(key);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> it = this.entries.entrySet().iterator();
+        while (this.size > this.budget && it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            Entry entry = e.getValue();
+            if (!entry.future.isDone() || isPinned(e.getKey())) {
+                continue;
+            }
+            it.remove();
+            this.size -= entry.size;
+            this.evictions++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, Supplier<T> loader, ToLongFunction<T> sizeOf) {
+        Objects.requireNonNull(key, "key is null");
+        Objects.requireNonNull(loader, "loader is null");
+        Objects.requireNonNull(sizeOf, "sizeOf is null");
+
+        Entry entry;
+        boolean load = false;
+        synchronized (this.lock) {
+            entry = this.entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                this.entries.put(key, entry);
+                this.misses++;
+                load = true;
+            } else {
+                this.hits++;
+            }
+        }
+
+        if (!load) {
+            return (T) entry.future.join();
+        }
+
+        T value;
+        try {
+            value = loader.get();
+            Objects.requireNonNull(value, "loader returned null");
+        } catch (Throwable t) {
+            synchronized (this.lock) {
+                if (this.entries.get(key) == entry) {
+                    this.entries.remove(key);
+                }
+            }
+            entry.future.completeExceptionally(t);
+            throw t;
+        }
+
+        long valueSize = sizeOf.applyAsLong(value);
+        synchronized (this.lock) {
+            if (this.entries.get(key) == entry) {
+                entry.size = valueSize;
+                this.size += valueSize;
+            }
+            entry.future.complete(value);
+            evict();
+        }
+
+        return value;
+    }
+
+    public byte[] get(Key key, Supplier<byte[]> loader) {
+        return get(key, loader, DataCache::sizeOf);
+    }
+
+    public void pin(Key key) {
+        Objects.requireNonNull(key, "key is null");
+        synchronized (this.lock) {
+            this.pins.merge(key, 1, Integer::sum);
+        }
+    }
+
+    public void unpin(Key key) {
+        Objects.requireNonNull(key, "key is null");
+        synchronized (this.lock) {
+            Integer count = this.pins.get(key);
+            if (count == null) {
+                throw new IllegalArgumentException("Key " + key + " is not pinned!");
+            }
+            if (count <= 1) {
+                this.pins.remove(key);
+            } else {
+                this.pins.put(key, count - 1);
+            }
+            evict();
+        }
+    }
+
+    public void remove(Key key) {
+        synchronized (this.lock) {
+            Entry entry = this.entries.remove(key);
+            if (entry != null) {
+                this.size -= entry.size;
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this.lock) {
+            this.entries.clear();
+            this.size = 0;
+        }
+    }
+
+}
@@ -46,11 +46,66 @@ public class E8Image {
     public static final float MIN_VALUE = (float) (Math.pow(BASE, 0 - BIAS) * (1.0 / 255.0));
     
     private static final float[] LOOKUP_TABLE = new float[MAX_EXPONENT + 1];
+    private static final float[] MANTISSA_TABLE = new float[256];
+    
+    private static final int EXPONENT_BUCKET_SHIFT = 18;
+    private static final float[] EXPONENT_THRESHOLDS = new float[MAX_EXPONENT + 2];
+    private static final byte[] EXPONENT_BUCKETS = new byte[(Float.floatToRawIntBits(MAX_VALUE) >>> EXPONENT_BUCKET_SHIFT) + 1];
+    
+    private static final int PIXELS_PER_BATCH = 65536;
     
     static {
         for (int exp = 0; exp < LOOKUP_TABLE.length; exp++) {
             LOOKUP_TABLE[exp] = (float) Math.pow(BASE, exp - BIAS);
         }
+        float inv255 = 1f / 255f;
+        for (int m = 0; m < MANTISSA_TABLE.length; m++) {
+            MANTISSA_TABLE[m] = m * inv255;
+        }
+        
+        int minBits = Float.floatToRawIntBits(MIN_VALUE);
+        int maxBits = Float.floatToRawIntBits(MAX_VALUE);
+        
+        EXPONENT_THRESHOLDS[0] = 0f;
+        for (int exp = 1; exp < EXPONENT_THRESHOLDS.length; exp++) {
+            int low = minBits;
+            int high = maxBits + 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (logExponent(Float.intBitsToFloat(middle)) >= exp) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            if (low > maxBits) {
+                EXPONENT_THRESHOLDS[exp] = Float.POSITIVE_INFINITY;
+            } else {
+                EXPONENT_THRESHOLDS[exp] = Float.intBitsToFloat(low);
+            }
+        }
+        
+        for (int bucket = 0; bucket < EXPONENT_BUCKETS.length; bucket++) {
+            float start = Math.max(Float.intBitsToFloat(bucket << EXPONENT_BUCKET_SHIFT), MIN_VALUE);
+            int exp = 0;
+            while (exp < MAX_EXPONENT && start >= EXPONENT_THRESHOLDS[exp + 1]) {
+                exp++;
+            }
+            EXPONENT_BUCKETS[bucket] = (byte) exp;
+        }
+    }
+    
+    private static int logExponent(float intensity) {
+        int exp = (int) Math.ceil((Math.log(intensity) * INVERSE_LOG_BASE) + BIAS);
+        return Math.min(Math.max(exp, 0), MAX_EXPONENT);
+    }
+    
+    private static int exponent(float intensity) {
+        int exp = EXPONENT_BUCKETS[Float.floatToRawIntBits(intensity) >>> EXPONENT_BUCKET_SHIFT] & 0xFF;
+        while (intensity >= EXPONENT_THRESHOLDS[exp + 1]) {
+            exp++;
+        }
+        return exp;
     }
     
     private static void encodeTo(float r, float g, float b, int index, byte[] data) {
@@ -77,8 +132,7 @@ public class E8Image {
                 break encode;
             }
 
-            exp = (int) Math.ceil((Math.log(intensity) * INVERSE_LOG_BASE) + BIAS);
-            exp = Math.min(Math.max(exp, 0), MAX_EXPONENT);
+            exp = exponent(intensity);
             
             intensity = LOOKUP_TABLE[exp];
             
@@ -133,18 +187,65 @@ public class E8Image {
         }
 
         this.rgbe = new byte[width * height * 4];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                float r = rgb[0 + (x * 3) + (y * width * 3)];
-                float g = rgb[1 + (x * 3) + (y * width * 3)];
-                float b = rgb[2 + (x * 3) + (y * width * 3)];
-
-                encodeTo(r, g, b, (x * 4) + (y * width * 4), this.rgbe);
-            }
-        }
-
         this.width = width;
         this.height = height;
+        
+        encode(rgb);
+    }
+    
+    private void forEachRowBatch(RowBatch batch) {
+        int rowsPerBatch = Math.max(PIXELS_PER_BATCH / Math.max(this.width, 1), 1);
+        if (rowsPerBatch >= this.height) {
+            batch.process(0, this.height);
+            return;
+        }
+        
+        int numberOfBatches = (this.height + rowsPerBatch - 1) / rowsPerBatch;
+        SharedExecutor.parallelFor(numberOfBatches, (i) -> {
+            int start = i * rowsPerBatch;
+            batch.process(start, Math.min(start + rowsPerBatch, this.height));
+        });
+    }
+    
+    private static interface RowBatch {
+        
+        public void process(int startRow, int endRow);
+    }
+    
+    public void encode(float[] rgb) {
+        Objects.requireNonNull(rgb, "data is null");
+        
+        int pixels = this.width * this.height;
+        if (rgb.length / 3 != pixels) {
+            throw new IllegalArgumentException("Invalid amount of pixels! required " + pixels + ", found " + (rgb.length / 3));
+        }
+        
+        forEachRowBatch((startRow, endRow) -> {
+            int end = endRow * this.width;
+            for (int i = startRow * this.width; i < end; i++) {
+                encodeTo(rgb[(i * 3) + 0], rgb[(i * 3) + 1], rgb[(i * 3) + 2], i * 4, this.rgbe);
+            }
+        });
+    }
+    
+    public void decode(float[] outRgb) {
+        Objects.requireNonNull(outRgb, "data is null");
+        
+        int pixels = this.width * this.height;
+        if (outRgb.length / 3 != pixels) {
+            throw new IllegalArgumentException("Invalid amount of pixels! required " + pixels + ", found " + (outRgb.length / 3));
+        }
+        
+        forEachRowBatch((startRow, endRow) -> {
+            byte[] data = this.rgbe;
+            int end = endRow * this.width;
+            for (int i = startRow * this.width; i < end; i++) {
+                float exp = LOOKUP_TABLE[data[(i * 4) + 3] & 0xFF];
+                outRgb[(i * 3) + 0] = MANTISSA_TABLE[data[(i * 4) + 0] & 0xFF] * exp;
+                outRgb[(i * 3) + 1] = MANTISSA_TABLE[data[(i * 4) + 1] & 0xFF] * exp;
+                outRgb[(i * 3) + 2] = MANTISSA_TABLE[data[(i * 4) + 2] & 0xFF] * exp;
+            }
+        });
     }
     
     public byte[] getRGBE() {
@@ -162,15 +263,13 @@ public class E8Image {
     public void read(int x, int y, Vector3f outColor) {
         int index = (x * 4) + (y * this.width * 4);
 
-        int mR = this.rgbe[0 + index] & 0xFF;
-        int mG = this.rgbe[1 + index] & 0xFF;
-        int mB = this.rgbe[2 + index] & 0xFF;
-        int exp = this.rgbe[3 + index] & 0xFF;
+        float exp = LOOKUP_TABLE[this.rgbe[3 + index] & 0xFF];
         
-        outColor.set(mR, mG, mB)
-                .div(255f)
-                .mul(LOOKUP_TABLE[exp])
-                ;
+        outColor.set(
+                MANTISSA_TABLE[this.rgbe[0 + index] & 0xFF] * exp,
+                MANTISSA_TABLE[this.rgbe[1 + index] & 0xFF] * exp,
+                MANTISSA_TABLE[this.rgbe[2 + index] & 0xFF] * exp
+        );
     }
     
     public void write(int x, int y, Vector3fc inColor) {
@@ -181,20 +280,8 @@ public class E8Image {
     }
     
     public float[] toFloatArray() {
-        Vector3f color = new Vector3f();
-
         float[] array = new float[this.width * this.height * 3];
-
-        for (int y = 0; y < this.height; y++) {
-            for (int x = 0; x < this.width; x++) {
-                read(x, y, color);
-
-                array[0 + (x * 3) + (y * this.width * 3)] = color.x();
-                array[1 + (x * 3) + (y * this.width * 3)] = color.y();
-                array[2 + (x * 3) + (y * this.width * 3)] = color.z();
-            }
-        }
-
+        decode(array);
         return array;
     }
     
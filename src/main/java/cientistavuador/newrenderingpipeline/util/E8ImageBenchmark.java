@@ -0,0 +1,255 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * @author Cien
+ */
+public class E8ImageBenchmark {
+
+    public static final int[] IMAGE_SIZES = {256, 1024, 2048};
+    public static final int RUNS = 5;
+    public static final int EXHAUSTIVE_BATCH_SIZE = 1024;
+
+    private static float[] randomImage(int size, long seed) {
+        Random random = new Random(seed);
+        float[] specials = {
+            Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+            -1f, 0f, -0f, Float.MIN_VALUE,
+            E8Image.MIN_VALUE, E8Image.MAX_VALUE, Float.MAX_VALUE
+        };
+        float[] rgb = new float[size * size * 3];
+        for (int i = 0; i < rgb.length; i++) {
+            if (random.nextInt(64) == 0) {
+                rgb[i] = specials[random.nextInt(specials.length)];
+            } else {
+                rgb[i] = (float) Math.exp(random.nextGaussian() * 6.0);
+            }
+        }
+        return rgb;
+    }
+
+    private static byte[] referenceEncode(float[] rgb) {
+        byte[] data = new byte[(rgb.length / 3) * 4];
+        for (int i = 0; i < rgb.length / 3; i++) {
+            float r = rgb[(i * 3) + 0];
+            float g = rgb[(i * 3) + 1];
+            float b = rgb[(i * 3) + 2];
+
+            int mR = 255;
+            int mG = 255;
+            int mB = 255;
+            int exp = 255;
+
+            encode:
+            {
+                if (!Float.isFinite(r) || !Float.isFinite(g) || !Float.isFinite(b)) {
+                    break encode;
+                }
+                r = Math.min(Math.max(r, 0f), E8Image.MAX_VALUE);
+                g = Math.min(Math.max(g, 0f), E8Image.MAX_VALUE);
+                b = Math.min(Math.max(b, 0f), E8Image.MAX_VALUE);
+
+                float intensity = Math.max(r, Math.max(g, b));
+                if (intensity < E8Image.MIN_VALUE) {
+                    mR = 0;
+                    mG = 0;
+                    mB = 0;
+                    exp = 0;
+                    break encode;
+                }
+
+                exp = (int) Math.ceil((Math.log(intensity) * E8Image.INVERSE_LOG_BASE) + E8Image.BIAS);
+                exp = Math.min(Math.max(exp, 0), E8Image.MAX_EXPONENT);
+
+                intensity = (float) Math.pow(E8Image.BASE, exp - E8Image.BIAS);
+
+                r /= intensity;
+                g /= intensity;
+                b /= intensity;
+
+                mR = Math.min(Math.max(Math.round(r * 255f), 0), 255);
+                mG = Math.min(Math.max(Math.round(g * 255f), 0), 255);
+                mB = Math.min(Math.max(Math.round(b * 255f), 0), 255);
+            }
+
+            data[(i * 4) + 0] = (byte) mR;
+            data[(i * 4) + 1] = (byte) mG;
+            data[(i * 4) + 2] = (byte) mB;
+            data[(i * 4) + 3] = (byte) exp;
+        }
+        return data;
+    }
+
+    private static float[] referenceDecode(byte[] data) {
+        float[] rgb = new float[(data.length / 4) * 3];
+        for (int i = 0; i < data.length / 4; i++) {
+            float exp = (float) Math.pow(E8Image.BASE, (data[(i * 4) + 3] & 0xFF) - E8Image.BIAS);
+            float inv = 1f / 255f;
+            rgb[(i * 3) + 0] = ((data[(i * 4) + 0] & 0xFF) * inv) * exp;
+            rgb[(i * 3) + 1] = ((data[(i * 4) + 1] & 0xFF) * inv) * exp;
+            rgb[(i * 3) + 2] = ((data[(i * 4) + 2] & 0xFF) * inv) * exp;
+        }
+        return rgb;
+    }
+
+    private static boolean equalBits(float[] a, float[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Float.floatToRawIntBits(a[i]) != Float.floatToRawIntBits(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long exhaustiveEncode() {
+        int first = Float.floatToRawIntBits(E8Image.MIN_VALUE);
+        int last = Float.floatToRawIntBits(E8Image.MAX_VALUE);
+        int size = EXHAUSTIVE_BATCH_SIZE;
+
+        E8Image image = new E8Image(size, size);
+        float[] rgb = new float[size * size * 3];
+
+        long mismatches = 0;
+        for (long start = first; start <= last; start += (size * size)) {
+            Arrays.fill(rgb, 0f);
+            for (int i = 0; i < size * size && (start + i) <= last; i++) {
+                float value = Float.intBitsToFloat((int) (start + i));
+                rgb[(i * 3) + 0] = value;
+                rgb[(i * 3) + 1] = value * 0.5f;
+                rgb[(i * 3) + 2] = value * 0.25f;
+            }
+            image.encode(rgb);
+            byte[] reference = referenceEncode(rgb);
+            byte[] encoded = image.getRGBE();
+            for (int i = 0; i < reference.length; i++) {
+                if (reference[i] != encoded[i]) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static long exhaustiveDecode() {
+        byte[] rgbe = new byte[256 * 256 * 4];
+        for (int exponent = 0; exponent < 256; exponent++) {
+            for (int mantissa = 0; mantissa < 256; mantissa++) {
+                int i = (exponent * 256) + mantissa;
+                rgbe[(i * 4) + 0] = (byte) mantissa;
+                rgbe[(i * 4) + 1] = (byte) (255 - mantissa);
+                rgbe[(i * 4) + 2] = (byte) (mantissa ^ exponent);
+                rgbe[(i * 4) + 3] = (byte) exponent;
+            }
+        }
+        E8Image image = new E8Image(rgbe, 256, 256);
+        float[] decoded = new float[256 * 256 * 3];
+        image.decode(decoded);
+        float[] reference = referenceDecode(rgbe);
+
+        long mismatches = 0;
+        for (int i = 0; i < decoded.length; i++) {
+            if (Float.floatToRawIntBits(decoded[i]) != Float.floatToRawIntBits(reference[i])) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    private static String throughput(int pixels, long time) {
+        return String.format("%,.3f", time / 1E6) + "ms ("
+                + String.format("%,.1f", (pixels / (time / 1E9)) / 1E6) + " Mpixels/s)";
+    }
+
+    public static void main(String[] args) {
+        BenchmarkUtils.printThreads();
+
+        for (int size : IMAGE_SIZES) {
+            float[] rgb = randomImage(size, size * 31L);
+            int pixels = size * size;
+
+            E8Image image = new E8Image(size, size);
+            float[] decoded = new float[rgb.length];
+
+            long encodeTime = Long.MAX_VALUE;
+            long decodeTime = Long.MAX_VALUE;
+            long referenceEncodeTime = Long.MAX_VALUE;
+            long referenceDecodeTime = Long.MAX_VALUE;
+
+            byte[] reference = null;
+            float[] referenceDecoded = null;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                image.encode(rgb);
+                encodeTime = Math.min(encodeTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                image.decode(decoded);
+                decodeTime = Math.min(decodeTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                reference = referenceEncode(rgb);
+                referenceEncodeTime = Math.min(referenceEncodeTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                referenceDecoded = referenceDecode(reference);
+                referenceDecodeTime = Math.min(referenceDecodeTime, System.nanoTime() - start);
+            }
+
+            boolean encodeEqual = Arrays.equals(reference, image.getRGBE());
+            boolean decodeEqual = equalBits(decoded, referenceDecoded);
+
+            System.out.println(size + "x" + size + ": "
+                    + "encode " + throughput(pixels, encodeTime)
+                    + " vs reference " + throughput(pixels, referenceEncodeTime)
+                    + " (" + (encodeEqual ? "identical" : "DIFFERENT") + "), "
+                    + "decode " + throughput(pixels, decodeTime)
+                    + " vs reference " + throughput(pixels, referenceDecodeTime)
+                    + " (" + (decodeEqual ? "identical" : "DIFFERENT") + ")"
+            );
+
+            BenchmarkUtils.check(encodeEqual && decodeEqual, size + "x" + size + " output differs from the reference!");
+        }
+
+        if (Arrays.asList(args).contains("--exhaustive")) {
+            long encodeMismatches = exhaustiveEncode();
+            long decodeMismatches = exhaustiveDecode();
+            System.out.println("Exhaustive: "
+                    + encodeMismatches + " mismatched encoded bytes, "
+                    + decodeMismatches + " mismatched decoded values"
+            );
+            BenchmarkUtils.check(encodeMismatches == 0 && decodeMismatches == 0, "Exhaustive check differs from the reference!");
+        }
+
+        System.exit(0);
+    }
+
+}
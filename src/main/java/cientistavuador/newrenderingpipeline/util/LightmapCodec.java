@@ -0,0 +1,391 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.util.zstd.Zstd.*;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapCodec {
+
+    public static final String EXTENSION = "lmc";
+    public static final int MAGIC_NUMBER = 0x4C_4D_43_50;
+    public static final int VERSION = 1;
+
+    public static final int FLOAT_SAMPLE_SIZE = 4;
+    public static final int BYTE_SAMPLE_SIZE = 1;
+
+    public static final int HEADER_SIZE = 4 * 8;
+    public static final int PIXELS_PER_TILE = 65536;
+    public static final int COMPRESSION_LEVEL = 3;
+
+    public static class Header {
+
+        private final int width;
+        private final int height;
+        private final int channels;
+        private final int sampleSize;
+        private final int tileRows;
+        private final int tiles;
+
+        private Header(int width, int height, int channels, int sampleSize, int tileRows, int tiles) {
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.sampleSize = sampleSize;
+            this.tileRows = tileRows;
+            this.tiles = tiles;
+        }
+
+        public int width() {
+            return width;
+        }
+
+        public int height() {
+            return height;
+        }
+
+        public int channels() {
+            return channels;
+        }
+
+        public int sampleSize() {
+            return sampleSize;
+        }
+
+        public int tileRows() {
+            return tileRows;
+        }
+
+        public int tiles() {
+            return tiles;
+        }
+
+    }
+
+    public static boolean isEncoded(byte[] encoded) {
+        if (encoded == null || encoded.length < HEADER_SIZE) {
+            return false;
+        }
+        return ByteBuffer.wrap(encoded).order(ByteOrder.BIG_ENDIAN).getInt(0) == MAGIC_NUMBER;
+    }
+
+    public static Header readHeader(byte[] encoded) throws IOException {
+        if (!isEncoded(encoded)) {
+            throw new IOException("Not a lightmap codec file!");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.BIG_ENDIAN);
+        buffer.getInt();
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported lightmap codec version: " + version);
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int channels = buffer.getInt();
+        int sampleSize = buffer.getInt();
+        int tileRows = buffer.getInt();
+        int tiles = buffer.getInt();
+        if (width < 0 || height < 0 || channels <= 0 || tileRows <= 0
+                || (sampleSize != FLOAT_SAMPLE_SIZE && sampleSize != BYTE_SAMPLE_SIZE)
+                || tiles != (height + tileRows - 1) / tileRows) {
+            throw new IOException("Invalid lightmap codec header!");
+        }
+        if (((long) width) * height * channels > Integer.MAX_VALUE
+                || ((long) Math.min(tileRows, height)) * width * channels * sampleSize > Integer.MAX_VALUE) {
+            throw new IOException("Lightmap codec file is too large: " + width + "x" + height + "x" + channels);
+        }
+        return new Header(width, height, channels, sampleSize, tileRows, tiles);
+    }
+
+    private static int tileRows(int width) {
+        return Math.max(PIXELS_PER_TILE / Math.max(width, 1), 1);
+    }
+
+    private static void validate(int length, int width, int height, int channels) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Invalid dimensions: " + width + "x" + height);
+        }
+        if (channels <= 0) {
+            throw new IllegalArgumentException("Invalid amount of channels: " + channels);
+        }
+        long required = ((long) width) * height * channels;
+        if (length != required) {
+            throw new IllegalArgumentException("Invalid amount of samples! required " + required + ", found " + length);
+        }
+        if (((long) tileRows(width)) * width * channels * FLOAT_SAMPLE_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many channels per tile: " + width + "x" + channels);
+        }
+    }
+
+    private static byte[] compress(ByteBuffer raw) {
+        ByteBuffer compressed = memAlloc((int) ZSTD_compressBound(raw.remaining()));
+        try {
+            long size = ZSTD_compress(compressed, raw, COMPRESSION_LEVEL);
+            if (ZSTD_isError(size)) {
+                throw new UncheckedIOException(new IOException("ZSTD Error: " + ZSTD_getErrorName(size)));
+            }
+            byte[] output = new byte[(int) size];
+            compressed.get(0, output);
+            return output;
+        } finally {
+            memFree(compressed);
+        }
+    }
+
+    private static void decompress(byte[] encoded, int offset, int length, ByteBuffer raw) {
+        if (length == 0) {
+            throw new UncheckedIOException(new IOException("Empty tile in lightmap codec file!"));
+        }
+        ByteBuffer compressed = memAlloc(length).put(0, encoded, offset, length);
+        try {
+            long size = ZSTD_decompress(raw, compressed);
+            if (ZSTD_isError(size)) {
+                throw new UncheckedIOException(new IOException("ZSTD Error: " + ZSTD_getErrorName(size)));
+            }
+            if (size != raw.capacity()) {
+                throw new UncheckedIOException(new IOException("Tile size is not the same as decompressed size!"));
+            }
+        } finally {
+            memFree(compressed);
+        }
+    }
+
+    private static interface SampleReader {
+
+        public int sample(int index);
+    }
+
+    private static interface SampleWriter {
+
+        public void sample(int index, int value);
+    }
+
+    private static void split(
+            SampleReader reader, int start, int pixels, int channels, int sampleSize,
+            ByteBuffer raw
+    ) {
+        for (int c = 0; c < channels; c++) {
+            int previous = 0;
+            int planeOffset = c * sampleSize * pixels;
+            for (int i = 0; i < pixels; i++) {
+                int value = reader.sample(((start + i) * channels) + c);
+                int delta = value - previous;
+                previous = value;
+                for (int plane = 0; plane < sampleSize; plane++) {
+                    int shift = ((sampleSize - 1) - plane) * 8;
+                    raw.put(planeOffset + (plane * pixels) + i, (byte) (delta >>> shift));
+                }
+            }
+        }
+    }
+
+    private static void join(
+            SampleWriter writer, int start, int pixels, int channels, int sampleSize,
+            ByteBuffer raw
+    ) {
+        for (int c = 0; c < channels; c++) {
+            int previous = 0;
+            int planeOffset = c * sampleSize * pixels;
+            for (int i = 0; i < pixels; i++) {
+                int delta = 0;
+                for (int plane = 0; plane < sampleSize; plane++) {
+                    delta = (delta << 8) | (raw.get(planeOffset + (plane * pixels) + i) & 0xFF);
+                }
+                int value = previous + delta;
+                previous = value;
+                writer.sample(((start + i) * channels) + c, value);
+            }
+        }
+    }
+
+    private static byte[] encode(
+            SampleReader reader,
+            int width, int height, int channels, int sampleSize
+    ) {
+        int tileRows = tileRows(width);
+        int tiles = (height + tileRows - 1) / tileRows;
+
+        List<Future<byte[]>> tasks = new ArrayList<>();
+        for (int tile = 0; tile < tiles; tile++) {
+            final int startRow = tile * tileRows;
+            final int endRow = Math.min(startRow + tileRows, height);
+            tasks.add(SharedExecutor.submit(() -> {
+                int pixels = (endRow - startRow) * width;
+                if (pixels == 0) {
+                    return new byte[0];
+                }
+                ByteBuffer raw = memAlloc(pixels * channels * sampleSize);
+                try {
+                    split(reader, startRow * width, pixels, channels, sampleSize, raw);
+                    return compress(raw);
+                } finally {
+                    memFree(raw);
+                }
+            }));
+        }
+
+        try {
+            ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(byteArray);
+
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(channels);
+            out.writeInt(sampleSize);
+            out.writeInt(tileRows);
+            out.writeInt(tiles);
+
+            for (Future<byte[]> task : tasks) {
+                byte[] compressed = SharedExecutor.await(task, tasks);
+                out.writeInt(compressed.length);
+                out.write(compressed);
+            }
+
+            out.flush();
+            return byteArray.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void decode(Header header, byte[] encoded, SampleWriter writer) throws IOException {
+        final int width = header.width();
+        final int height = header.height();
+        final int channels = header.channels();
+        final int sampleSize = header.sampleSize();
+        final int tileRows = header.tileRows();
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.BIG_ENDIAN);
+        buffer.position(HEADER_SIZE);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int tile = 0; tile < header.tiles(); tile++) {
+            if (buffer.remaining() < 4) {
+                throw new IOException("Truncated lightmap codec file!");
+            }
+            final int length = buffer.getInt();
+            final int offset = buffer.position();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Truncated lightmap codec file!");
+            }
+            buffer.position(offset + length);
+
+            final int startRow = tile * tileRows;
+            final int endRow = Math.min(startRow + tileRows, height);
+            tasks.add(SharedExecutor.submit(() -> {
+                int pixels = (endRow - startRow) * width;
+                if (pixels == 0) {
+                    return;
+                }
+                ByteBuffer raw = memAlloc(pixels * channels * sampleSize);
+                try {
+                    decompress(encoded, offset, length, raw);
+                    join(writer, startRow * width, pixels, channels, sampleSize, raw);
+                } finally {
+                    memFree(raw);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> task : tasks) {
+                SharedExecutor.await(task, tasks);
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static byte[] encode(float[] data, int width, int height, int channels) {
+        Objects.requireNonNull(data, "data is null");
+        validate(data.length, width, height, channels);
+        return encode((i) -> Float.floatToRawIntBits(data[i]), width, height, channels, FLOAT_SAMPLE_SIZE);
+    }
+
+    public static byte[] encode(byte[] data, int width, int height, int channels) {
+        Objects.requireNonNull(data, "data is null");
+        validate(data.length, width, height, channels);
+        return encode((i) -> data[i] & 0xFF, width, height, channels, BYTE_SAMPLE_SIZE);
+    }
+
+    private static int samples(Header header) throws IOException {
+        long samples = ((long) header.width()) * header.height() * header.channels();
+        if (samples > Integer.MAX_VALUE) {
+            throw new IOException("Lightmap codec file is too large: " + samples + " samples");
+        }
+        return (int) samples;
+    }
+
+    public static float[] decodeFloats(byte[] encoded) throws IOException {
+        Header header = readHeader(encoded);
+        if (header.sampleSize() != FLOAT_SAMPLE_SIZE) {
+            throw new IOException("Not a float lightmap codec file!");
+        }
+        float[] data = new float[samples(header)];
+        decode(header, encoded, (i, value) -> data[i] = Float.intBitsToFloat(value));
+        return data;
+    }
+
+    public static byte[] decodeBytes(byte[] encoded) throws IOException {
+        Header header = readHeader(encoded);
+        if (header.sampleSize() != BYTE_SAMPLE_SIZE) {
+            throw new IOException("Not a byte lightmap codec file!");
+        }
+        byte[] data = new byte[samples(header)];
+        decode(header, encoded, (i, value) -> data[i] = (byte) value);
+        return data;
+    }
+
+    private LightmapCodec() {
+
+    }
+
+}
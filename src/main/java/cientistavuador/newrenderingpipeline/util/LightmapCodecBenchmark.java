@@ -0,0 +1,199 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapCodecBenchmark {
+
+    public static final int[] LIGHTMAP_SIZES = {512, 1024, 2048};
+    public static final int GROUPS = 3;
+    public static final float LEGACY_PRECISION = 0.0001f;
+    public static final int RUNS = 3;
+
+    private static float[] syntheticLightmap(int size, long seed) {
+        Random random = new Random(seed);
+        float[] data = new float[size * size * 3];
+        float fx = 1f + random.nextFloat() * 8f;
+        float fy = 1f + random.nextFloat() * 8f;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float u = x / ((float) size);
+                float v = y / ((float) size);
+                float light = (float) (Math.max(Math.sin(u * fx) * Math.cos(v * fy), 0.0) * 4.0);
+                if (((x / 64) + (y / 64)) % 5 == 0) {
+                    light = 0f;
+                }
+                float noise = random.nextFloat() * 0.01f;
+                int index = (x * 3) + (y * size * 3);
+                data[index + 0] = light + noise;
+                data[index + 1] = (light * 0.9f) + noise;
+                data[index + 2] = (light * 0.7f) + noise;
+            }
+        }
+        return data;
+    }
+
+    private static LightmapFile.LightmapData lightmapData(int size) {
+        LightmapFile.Lightmap[] lightmaps = new LightmapFile.Lightmap[GROUPS];
+        for (int i = 0; i < lightmaps.length; i++) {
+            lightmaps[i] = new LightmapFile.Lightmap("group" + i, syntheticLightmap(size, (size * 31L) + i));
+        }
+        return new LightmapFile.LightmapData(1f / 32f, 1f, 1f, 1f, size, lightmaps);
+    }
+
+    private static boolean identical(LightmapFile.LightmapData a, LightmapFile.LightmapData b) {
+        if (a.lightmaps().length != b.lightmaps().length || a.lightmapSize() != b.lightmapSize()) {
+            return false;
+        }
+        for (int i = 0; i < a.lightmaps().length; i++) {
+            float[] x = a.lightmaps()[i].data();
+            float[] y = b.lightmaps()[i].data();
+            if (x.length != y.length) {
+                return false;
+            }
+            for (int j = 0; j < x.length; j++) {
+                if (Float.floatToRawIntBits(x[j]) != Float.floatToRawIntBits(y[j])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void benchmarkE8(int size) throws IOException {
+        E8Image image = new E8Image(syntheticLightmap(size, size * 17L), size, size);
+        byte[] rgbe = image.getRGBE();
+
+        byte[] png = null;
+        byte[] codec = null;
+        byte[] decoded = null;
+
+        long pngWriteTime = Long.MAX_VALUE;
+        long pngReadTime = Long.MAX_VALUE;
+        long codecWriteTime = Long.MAX_VALUE;
+        long codecReadTime = Long.MAX_VALUE;
+
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            png = RGBA8Image.toPNG(rgbe, size, size);
+            pngWriteTime = Math.min(pngWriteTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            RGBA8Image.fromPNG(png);
+            pngReadTime = Math.min(pngReadTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            codec = LightmapCodec.encode(rgbe, size, size, 4);
+            codecWriteTime = Math.min(codecWriteTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            decoded = LightmapCodec.decodeBytes(codec);
+            codecReadTime = Math.min(codecReadTime, System.nanoTime() - start);
+        }
+
+        BenchmarkUtils.check(Arrays.equals(rgbe, decoded), "E8 lightmap codec round trip is different at " + size + "x" + size);
+
+        System.out.println(size + "x" + size + " E8: "
+                + "png " + String.format("%,d", png.length) + " bytes "
+                + String.format("%,.3f", pngWriteTime / 1E6) + "ms write "
+                + String.format("%,.3f", pngReadTime / 1E6) + "ms read, "
+                + "codec " + String.format("%,d", codec.length) + " bytes "
+                + String.format("%,.3f", codecWriteTime / 1E6) + "ms write "
+                + String.format("%,.3f", codecReadTime / 1E6) + "ms read"
+        );
+    }
+
+    public static void main(String[] args) throws IOException {
+        BenchmarkUtils.printThreads();
+        System.out.println("Groups: " + GROUPS + ", Legacy Precision: " + LEGACY_PRECISION);
+
+        for (int size : LIGHTMAP_SIZES) {
+            LightmapFile.LightmapData data = lightmapData(size);
+
+            byte[] legacy = null;
+            byte[] codec = null;
+            LightmapFile.LightmapData decoded = null;
+
+            long legacyWriteTime = Long.MAX_VALUE;
+            long legacyReadTime = Long.MAX_VALUE;
+            long codecWriteTime = Long.MAX_VALUE;
+            long codecReadTime = Long.MAX_VALUE;
+
+            for (int i = 0; i < RUNS; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                long start = System.nanoTime();
+                LightmapFile.encode(data, LightmapFile.MULTIPNG_VERSION, LEGACY_PRECISION, out);
+                legacyWriteTime = Math.min(legacyWriteTime, System.nanoTime() - start);
+                legacy = out.toByteArray();
+
+                start = System.nanoTime();
+                LightmapFile.decode(new ByteArrayInputStream(legacy));
+                legacyReadTime = Math.min(legacyReadTime, System.nanoTime() - start);
+
+                out = new ByteArrayOutputStream();
+                start = System.nanoTime();
+                LightmapFile.encode(data, LightmapFile.CODEC_VERSION, 0f, out);
+                codecWriteTime = Math.min(codecWriteTime, System.nanoTime() - start);
+                codec = out.toByteArray();
+
+                start = System.nanoTime();
+                decoded = LightmapFile.decode(new ByteArrayInputStream(codec));
+                codecReadTime = Math.min(codecReadTime, System.nanoTime() - start);
+            }
+
+            BenchmarkUtils.check(identical(data, decoded), "Lightmap codec round trip is different at " + size + "x" + size);
+
+            long rawSize = ((long) size) * size * 3 * 4 * GROUPS;
+
+            System.out.println(size + "x" + size + ": "
+                    + "raw " + String.format("%,d", rawSize) + " bytes, "
+                    + "legacy " + String.format("%,d", legacy.length) + " bytes "
+                    + String.format("%,.3f", legacyWriteTime / 1E6) + "ms write "
+                    + String.format("%,.3f", legacyReadTime / 1E6) + "ms read (lossy), "
+                    + "codec " + String.format("%,d", codec.length) + " bytes "
+                    + String.format("%,.3f", codecWriteTime / 1E6) + "ms write "
+                    + String.format("%,.3f", codecReadTime / 1E6) + "ms read (lossless)"
+            );
+        }
+
+        for (int size : LIGHTMAP_SIZES) {
+            benchmarkE8(size);
+        }
+
+        System.exit(0);
+    }
+
+}
@@ -38,6 +38,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -48,8 +49,44 @@ import java.util.zip.ZipOutputStream;
  */
 public class LightmapFile {
 
+    public static final int MULTIPNG_VERSION = 1;
+    public static final int CODEC_VERSION = 2;
+    public static final int VERSION = CODEC_VERSION;
+    public static final String MULTIPNG_EXTENSION = "multipng";
+    public static final String CODEC_EXTENSION = LightmapCodec.EXTENSION;
+
+    public static void encode(LightmapData data, OutputStream output) throws IOException {
+        encode(data, VERSION, 0f, output);
+    }
+
+    /**
+     * Writes a {@link #MULTIPNG_VERSION} file, the precision is the
+     * precision of the MultiPNG encoding.
+     *
+     * @param data the lightmaps
+     * @param precision the MultiPNG precision
+     * @param output the output stream
+     * @throws IOException if writing fails
+     */
     public static void encode(LightmapData data, float precision, OutputStream output) throws IOException {
-        new LightmapFile(data, precision, output).encode();
+        encode(data, MULTIPNG_VERSION, precision, output);
+    }
+
+    /**
+     * Writes a file of the given version, the precision is only used by
+     * {@link #MULTIPNG_VERSION} files.
+     *
+     * @param data the lightmaps
+     * @param version {@link #MULTIPNG_VERSION} or {@link #CODEC_VERSION}
+     * @param precision the MultiPNG precision
+     * @param output the output stream
+     * @throws IOException if writing fails
+     */
+    public static void encode(LightmapData data, int version, float precision, OutputStream output) throws IOException {
+        if (version < MULTIPNG_VERSION || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported lightmap file version: " + version);
+        }
+        new LightmapFile(data, version, precision, output).encode();
     }
 
     public static LightmapData decode(InputStream input) throws IOException {
@@ -133,6 +170,7 @@ public class LightmapFile {
     private final Map<Integer, String> lightmapsNames = new HashMap<>();
     
     private float precision = 0f;
+    private int version = MULTIPNG_VERSION;
 
     private final StringBuilder comments = new StringBuilder();
     private final ZipInputStream input;
@@ -143,9 +181,10 @@ public class LightmapFile {
         this.output = null;
     }
 
-    private LightmapFile(LightmapData data, float precision, OutputStream output) {
+    private LightmapFile(LightmapData data, int version, float precision, OutputStream output) {
         this.input = null;
         this.precision = precision;
+        this.version = version;
         this.output = new ZipOutputStream(output, StandardCharsets.UTF_8);
 
         this.pixelToWorldRatio = data.pixelToWorldRatio();
@@ -185,6 +224,7 @@ public class LightmapFile {
                 .append("Lightmap Size: ").append(this.lightmapSize).append('x').append(this.lightmapSize).append('\n');
         
         lightmapProperties.put("amountOfLightmaps", Integer.toString(this.lightmaps.length));
+        lightmapProperties.put("version", Integer.toString(this.version));
         
         for (int i = 0; i < this.lightmaps.length; i++) {
             Lightmap lightmap = this.lightmaps[i];
@@ -208,7 +248,29 @@ public class LightmapFile {
     private void writeLightmap(int index) throws IOException {
         Lightmap lightmap = this.lightmaps[index];
         
-        ZipEntry entry = new ZipEntry(index+".multipng");
+        if (this.version >= CODEC_VERSION) {
+            byte[] encoded = LightmapCodec.encode(
+                    lightmap.data(),
+                    this.lightmapSize,
+                    this.lightmapSize,
+                    3
+            );
+            
+            CRC32 crc = new CRC32();
+            crc.update(encoded);
+            
+            ZipEntry entry = new ZipEntry(index + "." + CODEC_EXTENSION);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(encoded.length);
+            entry.setCompressedSize(encoded.length);
+            entry.setCrc(crc.getValue());
+            this.output.putNextEntry(entry);
+            this.output.write(encoded);
+            this.output.closeEntry();
+            return;
+        }
+        
+        ZipEntry entry = new ZipEntry(index + "." + MULTIPNG_EXTENSION);
         this.output.putNextEntry(entry);
         MultiPNG.encode(
                 lightmap.data(),
@@ -234,11 +296,16 @@ public class LightmapFile {
             readProperties();
             return;
         }
-        if (entry.getName().toLowerCase().endsWith(".multipng")) {
+        if (entry.getName().toLowerCase().endsWith("." + MULTIPNG_EXTENSION)) {
             int index = Integer.parseInt(entry.getName().split(Pattern.quote("."))[0]);
             readLightmap(index);
             return;
         }
+        if (entry.getName().toLowerCase().endsWith("." + CODEC_EXTENSION)) {
+            int index = Integer.parseInt(entry.getName().split(Pattern.quote("."))[0]);
+            readCodecLightmap(index);
+            return;
+        }
     }
     
     private void readProperties() throws IOException {
@@ -273,6 +340,12 @@ public class LightmapFile {
                 case "amountOfLightmaps" -> {
                     this.lightmaps = new Lightmap[Integer.parseInt(value)];
                 }
+                case "version" -> {
+                    this.version = Integer.parseInt(value);
+                    if (this.version > VERSION) {
+                        throw new IOException("Unsupported lightmap file version: " + this.version);
+                    }
+                }
                 default -> {
                     this.lightmapsNames.put(Integer.valueOf(key), value);
                 }
@@ -287,6 +360,17 @@ public class LightmapFile {
         this.lightmapsRaw.put(index, out.data());
     }
     
+    private void readCodecLightmap(int index) throws IOException {
+        byte[] encoded = this.input.readAllBytes();
+        LightmapCodec.Header header = LightmapCodec.readHeader(encoded);
+        if (header.width() != header.height()) {
+            throw new IOException("Lightmap " + index + " is not square: " + header.width() + "x" + header.height());
+        }
+        
+        this.lightmapSize = header.width();
+        this.lightmapsRaw.put(index, LightmapCodec.decodeFloats(encoded));
+    }
+    
     private LightmapData decode() throws IOException {
         ZipEntry entry;
         while ((entry = this.input.getNextEntry()) != null) {
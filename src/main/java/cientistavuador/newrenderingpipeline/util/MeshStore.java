@@ -26,14 +26,24 @@
  */
 package cientistavuador.newrenderingpipeline.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.util.zstd.Zstd.*;
 
 /**
  *
@@ -42,6 +52,23 @@ import java.util.zip.GZIPOutputStream;
 public class MeshStore {
 
     public static final long MAGIC = 3549241685215793215L;
+    public static final long MAGIC_V2 = 3549241685215793216L;
+    public static final int VERSION = 2;
+
+    public static final int TYPE_FLOAT = 0;
+    public static final int TYPE_OCTAHEDRAL = 1;
+    public static final int TYPE_UNORM16 = 2;
+    public static final int TYPE_WEIGHTS8 = 3;
+    public static final int TYPE_INT8 = 4;
+
+    public static final int VERTICES_PER_CHUNK = 16384;
+    public static final int INDICES_PER_CHUNK = 3 * 16384;
+    public static final int COMPRESSION_LEVEL = 9;
+    public static final int VERTEX_CACHE_SIZE = 24;
+
+    public static final float UNORM16_MAX_ERROR = 1f / 16384f;
+    public static final float OCTAHEDRAL_MAX_LENGTH_ERROR = 0.02f;
+    public static final float WEIGHTS8_MAX_SUM_ERROR = 0.01f;
 
     public static class MeshStoreOutput {
 
@@ -69,96 +96,749 @@ public class MeshStore {
 
     }
 
+    public static class Attribute {
+
+        private final int offset;
+        private final int size;
+        private final int type;
+
+        public Attribute(int offset, int size, int type) {
+            if (offset < 0 || size <= 0) {
+                throw new IllegalArgumentException("Invalid attribute offset or size: " + offset + ", " + size);
+            }
+            if (type < TYPE_FLOAT || type > TYPE_INT8) {
+                throw new IllegalArgumentException("Invalid attribute type: " + type);
+            }
+            if (type == TYPE_OCTAHEDRAL && size != 3) {
+                throw new IllegalArgumentException("Octahedral attributes must have 3 components; " + size);
+            }
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int type() {
+            return type;
+        }
+
+    }
+
+    private static class ResolvedAttribute {
+
+        final int offset;
+        final int size;
+        final int type;
+        final float[] min;
+        final float[] max;
+
+        ResolvedAttribute(int offset, int size, int type, float[] min, float[] max) {
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+            this.min = min;
+            this.max = max;
+        }
+
+        int streams() {
+            if (this.type == TYPE_OCTAHEDRAL) {
+                return 2;
+            }
+            return this.size;
+        }
+
+        int bytesPerSample() {
+            return switch (this.type) {
+                case TYPE_FLOAT ->
+                    4;
+                case TYPE_OCTAHEDRAL, TYPE_UNORM16 ->
+                    2;
+                default ->
+                    1;
+            };
+        }
+    }
+
+    private static class EncodedChunk {
+
+        final int rawLength;
+        final byte[] data;
+
+        EncodedChunk(int rawLength, byte[] data) {
+            this.rawLength = rawLength;
+            this.data = data;
+        }
+    }
+
     public static void encode(float[] vertices, int vertexSize, int[] indices, OutputStream output) throws IOException {
-        new MeshStore(vertices, vertexSize, indices, output).encode();
+        encode(vertices, vertexSize, indices, null, output);
+    }
+
+    public static void encode(float[] vertices, int vertexSize, int[] indices, Attribute[] layout, OutputStream output) throws IOException {
+        writeV2(vertices, vertexSize, indices, layout, output);
+    }
+
+    public static int[] encodeOptimized(float[] vertices, int vertexSize, int[] indices, Attribute[] layout, OutputStream output) throws IOException {
+        int[] triangleRemap = null;
+        if (indices.length % 3 == 0 && vertexSize > 0) {
+            int[] triangleOrder = MeshUtils.optimizeTriangleOrder(indices, vertices.length / vertexSize, VERTEX_CACHE_SIZE);
+            triangleRemap = new int[triangleOrder.length];
+            for (int i = 0; i < triangleOrder.length; i++) {
+                triangleRemap[triangleOrder[i]] = i;
+            }
+            indices = MeshUtils.reorderTriangles(indices, triangleOrder);
+        }
+
+        Pair<float[], int[]> reordered = MeshUtils.reorderVerticesByFirstUse(vertices, vertexSize, indices);
+
+        writeV2(reordered.getA(), vertexSize, reordered.getB(), layout, output);
+
+        return triangleRemap;
     }
 
     public static MeshStoreOutput decode(InputStream input) throws IOException {
-        return new MeshStore(input).decode();
+        byte[] data = input.readAllBytes();
+        if (data.length >= Long.BYTES && ByteBuffer.wrap(data).getLong(0) == MAGIC_V2) {
+            return readV2(data);
+        }
+        return new MeshStore(new ByteArrayInputStream(data)).decode();
     }
 
-    private final GZIPInputStream input;
-    private final GZIPOutputStream output;
+    private static ResolvedAttribute resolve(float[] vertices, int vertexSize, int offset, int size, int type) {
+        int amountOfVertices = vertices.length / vertexSize;
 
-    private final DataInputStream dataInput;
-    private final DataOutputStream dataOutput;
+        switch (type) {
+            case TYPE_OCTAHEDRAL -> {
+                for (int v = 0; v < amountOfVertices; v++) {
+                    int i = (v * vertexSize) + offset;
+                    float x = vertices[i + 0];
+                    float y = vertices[i + 1];
+                    float z = vertices[i + 2];
+                    float lengthSquared = (x * x) + (y * y) + (z * z);
+                    if (!Float.isFinite(lengthSquared) || Math.abs(lengthSquared - 1f) > OCTAHEDRAL_MAX_LENGTH_ERROR) {
+                        return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+                    }
+                }
+                return new ResolvedAttribute(offset, size, type, null, null);
+            }
+            case TYPE_UNORM16 -> {
+                float[] min = new float[size];
+                float[] max = new float[size];
+                for (int c = 0; c < size; c++) {
+                    min[c] = Float.POSITIVE_INFINITY;
+                    max[c] = Float.NEGATIVE_INFINITY;
+                }
+                for (int v = 0; v < amountOfVertices; v++) {
+                    for (int c = 0; c < size; c++) {
+                        float value = vertices[(v * vertexSize) + offset + c];
+                        if (!Float.isFinite(value)) {
+                            return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+                        }
+                        min[c] = Math.min(min[c], value);
+                        max[c] = Math.max(max[c], value);
+                    }
+                }
+                for (int c = 0; c < size; c++) {
+                    if (amountOfVertices == 0) {
+                        min[c] = 0f;
+                        max[c] = 0f;
+                    }
+                    if ((max[c] - min[c]) / 65535f > UNORM16_MAX_ERROR) {
+                        return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+                    }
+                }
+                return new ResolvedAttribute(offset, size, type, min, max);
+            }
+            case TYPE_WEIGHTS8 -> {
+                for (int v = 0; v < amountOfVertices; v++) {
+                    float sum = 0f;
+                    for (int c = 0; c < size; c++) {
+                        float value = vertices[(v * vertexSize) + offset + c];
+                        if (!(value >= 0f && value <= 1f)) {
+                            return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+                        }
+                        sum += value;
+                    }
+                    if (sum != 0f && Math.abs(sum - 1f) > WEIGHTS8_MAX_SUM_ERROR) {
+                        return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+                    }
+                }
+                return new ResolvedAttribute(offset, size, type, null, null);
+            }
+            case TYPE_INT8 -> {
+                for (int v = 0; v < amountOfVertices; v++) {
+                    for (int c = 0; c < size; c++) {
+                        int value = Float.floatToRawIntBits(vertices[(v * vertexSize) + offset + c]);
+                        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+                            return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+                        }
+                    }
+                }
+                return new ResolvedAttribute(offset, size, type, null, null);
+            }
+            default -> {
+                return new ResolvedAttribute(offset, size, TYPE_FLOAT, null, null);
+            }
+        }
+    }
 
-    private float[] vertices = null;
-    private int vertexSize = 0;
-    private int[] indices = null;
+    private static ResolvedAttribute[] resolveLayout(float[] vertices, int vertexSize, Attribute[] layout) {
+        Attribute[] byOffset = new Attribute[vertexSize];
+        if (layout != null) {
+            for (Attribute attribute : layout) {
+                if (attribute.offset() + attribute.size() > vertexSize) {
+                    throw new IllegalArgumentException("Attribute at offset " + attribute.offset() + " is out of the vertex bounds.");
+                }
+                for (int i = attribute.offset(); i < attribute.offset() + attribute.size(); i++) {
+                    if (byOffset[i] != null) {
+                        throw new IllegalArgumentException("Attributes are overlapping at offset " + i);
+                    }
+                    byOffset[i] = attribute;
+                }
+            }
+        }
 
-    private MeshStore(InputStream input) throws IOException {
-        this.input = new GZIPInputStream(input, 8192);
-        this.output = null;
-        this.dataInput = new DataInputStream(this.input);
-        this.dataOutput = null;
+        List<ResolvedAttribute> resolved = new ArrayList<>();
+        int offset = 0;
+        while (offset < vertexSize) {
+            Attribute attribute = byOffset[offset];
+            if (attribute == null) {
+                int end = offset;
+                while (end < vertexSize && byOffset[end] == null) {
+                    end++;
+                }
+                resolved.add(new ResolvedAttribute(offset, end - offset, TYPE_FLOAT, null, null));
+                offset = end;
+                continue;
+            }
+            resolved.add(resolve(vertices, vertexSize, attribute.offset(), attribute.size(), attribute.type()));
+            offset += attribute.size();
+        }
+
+        return resolved.toArray(ResolvedAttribute[]::new);
     }
 
-    private MeshStore(float[] vertices, int vertexSize, int[] indices, OutputStream output) throws IOException {
-        this.input = null;
-        this.output = new GZIPOutputStream(output, 8192);
-        this.dataInput = null;
-        this.dataOutput = new DataOutputStream(this.output);
+    private static int toSnorm16(float value) {
+        return Math.round(Math.min(Math.max(value, -1f), 1f) * 32767f) & 0xFFFF;
+    }
 
-        this.vertices = vertices;
-        this.vertexSize = vertexSize;
-        this.indices = indices;
+    private static float fromSnorm16(int value) {
+        return Math.max(((short) value) / 32767f, -1f);
     }
 
-    private void writeHeader() throws IOException {
-        this.dataOutput.writeLong(MAGIC);
-        this.dataOutput.writeInt(this.vertices.length);
-        this.dataOutput.writeInt(this.vertexSize);
-        this.dataOutput.writeInt(this.indices.length);
+    private static void octahedralEncode(float x, float y, float z, int[] outA, int[] outB, int index) {
+        float invL1 = 1f / (Math.abs(x) + Math.abs(y) + Math.abs(z));
+        x *= invL1;
+        y *= invL1;
+        z *= invL1;
+        if (z < 0f) {
+            float foldedX = (1f - Math.abs(y)) * (x >= 0f ? 1f : -1f);
+            float foldedY = (1f - Math.abs(x)) * (y >= 0f ? 1f : -1f);
+            x = foldedX;
+            y = foldedY;
+        }
+        outA[index] = toSnorm16(x);
+        outB[index] = toSnorm16(y);
     }
 
-    private void writeVertices() throws IOException {
-        int amountOfVertices = this.vertices.length / this.vertexSize;
-        for (int component = 0; component < this.vertexSize; component++) {
-            for (int vertex = 0; vertex < amountOfVertices; vertex++) {
-                this.dataOutput.writeInt(Float.floatToRawIntBits(this.vertices[(vertex * this.vertexSize) + component]));
+    private static void octahedralDecode(int a, int b, float[] vertices, int index) {
+        float x = fromSnorm16(a);
+        float y = fromSnorm16(b);
+        float z = 1f - Math.abs(x) - Math.abs(y);
+        if (z < 0f) {
+            float unfoldedX = (1f - Math.abs(y)) * (x >= 0f ? 1f : -1f);
+            float unfoldedY = (1f - Math.abs(x)) * (y >= 0f ? 1f : -1f);
+            x = unfoldedX;
+            y = unfoldedY;
+        }
+        float invLength = 1f / (float) Math.sqrt((x * x) + (y * y) + (z * z));
+        vertices[index + 0] = x * invLength;
+        vertices[index + 1] = y * invLength;
+        vertices[index + 2] = z * invLength;
+    }
+
+    private static void quantize(
+            ResolvedAttribute attribute, float[] vertices, int vertexSize,
+            int start, int count, int[][] streams
+    ) {
+        for (int v = 0; v < count; v++) {
+            int i = ((start + v) * vertexSize) + attribute.offset;
+            switch (attribute.type) {
+                case TYPE_OCTAHEDRAL -> {
+                    octahedralEncode(vertices[i + 0], vertices[i + 1], vertices[i + 2], streams[0], streams[1], v);
+                }
+                case TYPE_UNORM16 -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        float range = attribute.max[c] - attribute.min[c];
+                        int value = 0;
+                        if (range > 0f) {
+                            value = Math.round(((vertices[i + c] - attribute.min[c]) / range) * 65535f);
+                            value = Math.min(Math.max(value, 0), 65535);
+                        }
+                        streams[c][v] = value;
+                    }
+                }
+                case TYPE_WEIGHTS8 -> {
+                    int sum = 0;
+                    int largest = 0;
+                    float weightSum = 0f;
+                    for (int c = 0; c < attribute.size; c++) {
+                        float weight = vertices[i + c];
+                        int value = Math.min(Math.max(Math.round(weight * 255f), 0), 255);
+                        streams[c][v] = value;
+                        sum += value;
+                        weightSum += weight;
+                        if (value > streams[largest][v]) {
+                            largest = c;
+                        }
+                    }
+                    if (weightSum != 0f && sum != 255) {
+                        streams[largest][v] = Math.min(Math.max(streams[largest][v] + (255 - sum), 0), 255);
+                    }
+                }
+                case TYPE_INT8 -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        streams[c][v] = Float.floatToRawIntBits(vertices[i + c]) & 0xFF;
+                    }
+                }
+                default -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        streams[c][v] = Float.floatToRawIntBits(vertices[i + c]);
+                    }
+                }
             }
         }
     }
-    
-    private void writeIndices() throws IOException {
-        int[] deltaIndices = this.indices.clone();
-        for (int i = 0; i < deltaIndices.length; i++) {
-            int delta = this.indices[i];
-            if ((i - 1) >= 0) {
-                delta = delta - this.indices[i - 1];
+
+    private static void dequantize(
+            ResolvedAttribute attribute, float[] vertices, int vertexSize,
+            int start, int count, int[][] streams
+    ) {
+        for (int v = 0; v < count; v++) {
+            int i = ((start + v) * vertexSize) + attribute.offset;
+            switch (attribute.type) {
+                case TYPE_OCTAHEDRAL -> {
+                    octahedralDecode(streams[0][v], streams[1][v], vertices, i);
+                }
+                case TYPE_UNORM16 -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        float range = attribute.max[c] - attribute.min[c];
+                        vertices[i + c] = attribute.min[c] + ((streams[c][v] / 65535f) * range);
+                    }
+                }
+                case TYPE_WEIGHTS8 -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        vertices[i + c] = streams[c][v] / 255f;
+                    }
+                }
+                case TYPE_INT8 -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        vertices[i + c] = Float.intBitsToFloat((byte) streams[c][v]);
+                    }
+                }
+                default -> {
+                    for (int c = 0; c < attribute.size; c++) {
+                        vertices[i + c] = Float.intBitsToFloat(streams[c][v]);
+                    }
+                }
             }
-            deltaIndices[i] = delta;
         }
-        
-        for (int i = 0; i < deltaIndices.length; i++) {
-            int delta = deltaIndices[i];
-            if (delta > 0) {
-                delta = delta << 1;
-            } else {
-                delta = ((-delta) << 1) | 0x01;
+    }
+
+    private static void writeStream(ByteBuffer raw, int[] samples, int count, int bytesPerSample) {
+        if (bytesPerSample == 4) {
+            for (int i = 0; i < count; i++) {
+                raw.putInt(samples[i]);
             }
-            deltaIndices[i] = delta;
+            return;
         }
-        
-        for (int component = 0; component < 4; component++) {
-            for (int i = 0; i < deltaIndices.length; i++) {
-                int deltaIndex = deltaIndices[i];
-                int deltaByte = (deltaIndex >> (component * 8)) & 0xFF;
-                this.dataOutput.writeByte(deltaByte);
+        int start = raw.position();
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = samples[i] - previous;
+            previous = samples[i];
+            for (int plane = 0; plane < bytesPerSample; plane++) {
+                int shift = ((bytesPerSample - 1) - plane) * 8;
+                raw.put(start + (plane * count) + i, (byte) (delta >>> shift));
             }
         }
+        raw.position(start + (count * bytesPerSample));
     }
-    
-    private void encode() throws IOException {
-        writeHeader();
-        writeVertices();
-        writeIndices();
-        
-        this.dataOutput.flush();
-        this.output.finish();
+
+    private static void readStream(ByteBuffer raw, int[] samples, int count, int bytesPerSample) {
+        if (bytesPerSample == 4) {
+            for (int i = 0; i < count; i++) {
+                samples[i] = raw.getInt();
+            }
+            return;
+        }
+        int start = raw.position();
+        int mask = (1 << (bytesPerSample * 8)) - 1;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = 0;
+            for (int plane = 0; plane < bytesPerSample; plane++) {
+                delta = (delta << 8) | (raw.get(start + (plane * count) + i) & 0xFF);
+            }
+            previous = (previous + delta) & mask;
+            samples[i] = previous;
+        }
+        raw.position(start + (count * bytesPerSample));
     }
-    
+
+    private static byte[] compress(ByteBuffer raw) {
+        if (raw.capacity() == 0) {
+            return new byte[0];
+        }
+        ByteBuffer compressed = memAlloc((int) ZSTD_compressBound(raw.capacity()));
+        try {
+            long size = ZSTD_compress(compressed, raw, COMPRESSION_LEVEL);
+            if (ZSTD_isError(size)) {
+                throw new UncheckedIOException(new IOException("ZSTD Error: " + ZSTD_getErrorName(size)));
+            }
+            byte[] output = new byte[(int) size];
+            compressed.get(0, output);
+            return output;
+        } finally {
+            memFree(compressed);
+        }
+    }
+
+    private static void decompress(byte[] data, int offset, int length, ByteBuffer raw) {
+        if (raw.capacity() == 0) {
+            return;
+        }
+        ByteBuffer compressed = memAlloc(length).put(0, data, offset, length);
+        try {
+            long size = ZSTD_decompress(raw, compressed);
+            if (ZSTD_isError(size)) {
+                throw new UncheckedIOException(new IOException("ZSTD Error: " + ZSTD_getErrorName(size)));
+            }
+            if (size != raw.capacity()) {
+                throw new UncheckedIOException(new IOException("Chunk size is not the same as decompressed size!"));
+            }
+        } finally {
+            memFree(compressed);
+        }
+    }
+
+    private static int vertexChunkSize(ResolvedAttribute[] attributes, int count) {
+        int size = 0;
+        for (ResolvedAttribute attribute : attributes) {
+            size += attribute.streams() * attribute.bytesPerSample() * count;
+        }
+        return size;
+    }
+
+    private static EncodedChunk encodeVertexChunk(ResolvedAttribute[] attributes, float[] vertices, int vertexSize, int start, int count) {
+        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteArray);
+        try {
+            for (ResolvedAttribute attribute : attributes) {
+                int[][] streams = new int[attribute.streams()][count];
+                quantize(attribute, vertices, vertexSize, start, count, streams);
+                for (int[] stream : streams) {
+                    ByteBuffer raw = memAlloc(count * attribute.bytesPerSample()).order(ByteOrder.BIG_ENDIAN);
+                    try {
+                        writeStream(raw, stream, count, attribute.bytesPerSample());
+                        byte[] compressed = compress(raw.position(0));
+                        out.writeInt(compressed.length);
+                        out.write(compressed);
+                    } finally {
+                        memFree(raw);
+                    }
+                }
+            }
+            out.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return new EncodedChunk(vertexChunkSize(attributes, count), byteArray.toByteArray());
+    }
+
+    private static void decodeVertexChunk(
+            ResolvedAttribute[] attributes, float[] vertices, int vertexSize, int start, int count,
+            byte[] data, int offset, int length
+    ) {
+        ByteBuffer in = ByteBuffer.wrap(data, offset, length).order(ByteOrder.BIG_ENDIAN);
+        for (ResolvedAttribute attribute : attributes) {
+            int[][] streams = new int[attribute.streams()][count];
+            for (int[] stream : streams) {
+                if (in.remaining() < Integer.BYTES) {
+                    throw new UncheckedIOException(new IOException("Truncated vertex chunk!"));
+                }
+                int streamLength = in.getInt();
+                int streamOffset = in.position();
+                if (streamLength <= 0 || streamLength > in.remaining()) {
+                    throw new UncheckedIOException(new IOException("Invalid vertex stream length: " + streamLength));
+                }
+                in.position(streamOffset + streamLength);
+
+                ByteBuffer raw = memAlloc(count * attribute.bytesPerSample()).order(ByteOrder.BIG_ENDIAN);
+                try {
+                    decompress(data, streamOffset, streamLength, raw);
+                    readStream(raw, stream, count, attribute.bytesPerSample());
+                } finally {
+                    memFree(raw);
+                }
+            }
+            dequantize(attribute, vertices, vertexSize, start, count, streams);
+        }
+        if (in.hasRemaining()) {
+            throw new UncheckedIOException(new IOException("Vertex chunk has trailing data!"));
+        }
+    }
+
+    private static EncodedChunk encodeIndexChunk(int[] indices, int start, int count) {
+        int[] zigzag = new int[count];
+        int previous = 0;
+        int maxValue = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = indices[start + i] - previous;
+            previous = indices[start + i];
+            zigzag[i] = (delta << 1) ^ (delta >> 31);
+            maxValue |= zigzag[i];
+        }
+        int bytesPerSample = 1;
+        while (bytesPerSample < 4 && (maxValue >>> (bytesPerSample * 8)) != 0) {
+            bytesPerSample++;
+        }
+
+        ByteBuffer raw = memAlloc(1 + (count * bytesPerSample));
+        try {
+            raw.put((byte) bytesPerSample);
+            for (int plane = 0; plane < bytesPerSample; plane++) {
+                int shift = ((bytesPerSample - 1) - plane) * 8;
+                for (int i = 0; i < count; i++) {
+                    raw.put((byte) (zigzag[i] >>> shift));
+                }
+            }
+            raw.position(0);
+            return new EncodedChunk(raw.capacity(), compress(raw));
+        } finally {
+            memFree(raw);
+        }
+    }
+
+    private static void decodeIndexChunk(int[] indices, int start, int count, int rawLength, byte[] data, int offset, int length) {
+        ByteBuffer raw = memAlloc(rawLength);
+        try {
+            decompress(data, offset, length, raw);
+            int bytesPerSample = raw.get(0);
+            if (bytesPerSample < 1 || bytesPerSample > 4 || rawLength != 1 + (count * bytesPerSample)) {
+                throw new UncheckedIOException(new IOException("Invalid index chunk!"));
+            }
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                int zigzag = 0;
+                for (int plane = 0; plane < bytesPerSample; plane++) {
+                    zigzag = (zigzag << 8) | (raw.get(1 + (plane * count) + i) & 0xFF);
+                }
+                int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                previous += delta;
+                indices[start + i] = previous;
+            }
+        } finally {
+            memFree(raw);
+        }
+    }
+
+    private static void writeV2(float[] vertices, int vertexSize, int[] indices, Attribute[] layout, OutputStream output) throws IOException {
+        if (vertexSize <= 0) {
+            throw new IllegalArgumentException("Invalid vertex size: " + vertexSize);
+        }
+        if (vertices.length % vertexSize != 0) {
+            throw new IllegalArgumentException("Vertices length is not a multiple of the vertex size: " + vertices.length + ", " + vertexSize);
+        }
+
+        final int amountOfVertices = vertices.length / vertexSize;
+        final ResolvedAttribute[] attributes = resolveLayout(vertices, vertexSize, layout);
+
+        final int vertexChunks = (amountOfVertices + VERTICES_PER_CHUNK - 1) / VERTICES_PER_CHUNK;
+        final int indexChunks = (indices.length + INDICES_PER_CHUNK - 1) / INDICES_PER_CHUNK;
+
+        List<Future<EncodedChunk>> tasks = new ArrayList<>();
+        for (int chunk = 0; chunk < vertexChunks; chunk++) {
+            final int start = chunk * VERTICES_PER_CHUNK;
+            final int count = Math.min(VERTICES_PER_CHUNK, amountOfVertices - start);
+            tasks.add(SharedExecutor.submit(() -> encodeVertexChunk(attributes, vertices, vertexSize, start, count)));
+        }
+        for (int chunk = 0; chunk < indexChunks; chunk++) {
+            final int start = chunk * INDICES_PER_CHUNK;
+            final int count = Math.min(INDICES_PER_CHUNK, indices.length - start);
+            tasks.add(SharedExecutor.submit(() -> encodeIndexChunk(indices, start, count)));
+        }
+
+        DataOutputStream out = new DataOutputStream(output);
+
+        out.writeLong(MAGIC_V2);
+        out.writeInt(VERSION);
+        out.writeInt(vertices.length);
+        out.writeInt(vertexSize);
+        out.writeInt(indices.length);
+
+        out.writeInt(attributes.length);
+        for (ResolvedAttribute attribute : attributes) {
+            out.writeInt(attribute.offset);
+            out.writeInt(attribute.size);
+            out.writeInt(attribute.type);
+            if (attribute.type == TYPE_UNORM16) {
+                for (int c = 0; c < attribute.size; c++) {
+                    out.writeFloat(attribute.min[c]);
+                    out.writeFloat(attribute.max[c]);
+                }
+            }
+        }
+
+        out.writeInt(VERTICES_PER_CHUNK);
+        out.writeInt(INDICES_PER_CHUNK);
+        out.writeInt(vertexChunks);
+        out.writeInt(indexChunks);
+
+        try {
+            for (Future<EncodedChunk> task : tasks) {
+                EncodedChunk chunk = SharedExecutor.await(task, tasks);
+                out.writeInt(chunk.rawLength);
+                out.writeInt(chunk.data.length);
+                out.write(chunk.data);
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new RuntimeException(ex);
+        }
+
+        out.flush();
+    }
+
+    private static MeshStoreOutput readV2(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        try {
+            in.getLong();
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported mesh store version: " + version);
+            }
+
+            final float[] vertices = new float[in.getInt()];
+            final int vertexSize = in.getInt();
+            final int[] indices = new int[in.getInt()];
+            if (vertexSize <= 0 || vertices.length % vertexSize != 0) {
+                throw new IOException("Invalid vertex size: " + vertexSize);
+            }
+            final int amountOfVertices = vertices.length / vertexSize;
+
+            final ResolvedAttribute[] attributes = new ResolvedAttribute[in.getInt()];
+            int expectedOffset = 0;
+            for (int i = 0; i < attributes.length; i++) {
+                int offset = in.getInt();
+                int size = in.getInt();
+                int type = in.getInt();
+                if (offset != expectedOffset || size <= 0 || offset + size > vertexSize
+                        || type < TYPE_FLOAT || type > TYPE_INT8
+                        || (type == TYPE_OCTAHEDRAL && size != 3)) {
+                    throw new IOException("Invalid attribute at index " + i);
+                }
+                float[] min = null;
+                float[] max = null;
+                if (type == TYPE_UNORM16) {
+                    min = new float[size];
+                    max = new float[size];
+                    for (int c = 0; c < size; c++) {
+                        min[c] = in.getFloat();
+                        max[c] = in.getFloat();
+                    }
+                }
+                attributes[i] = new ResolvedAttribute(offset, size, type, min, max);
+                expectedOffset += size;
+            }
+            if (expectedOffset != vertexSize) {
+                throw new IOException("Attributes do not cover the vertex!");
+            }
+
+            final int verticesPerChunk = in.getInt();
+            final int indicesPerChunk = in.getInt();
+            final int vertexChunks = in.getInt();
+            final int indexChunks = in.getInt();
+            if (verticesPerChunk <= 0 || indicesPerChunk <= 0
+                    || vertexChunks != (amountOfVertices + verticesPerChunk - 1) / verticesPerChunk
+                    || indexChunks != (indices.length + indicesPerChunk - 1) / indicesPerChunk) {
+                throw new IOException("Invalid chunk layout!");
+            }
+
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int chunk = 0; chunk < vertexChunks; chunk++) {
+                final int start = chunk * verticesPerChunk;
+                final int count = Math.min(verticesPerChunk, amountOfVertices - start);
+                final int rawLength = in.getInt();
+                final int length = in.getInt();
+                final int offset = in.position();
+                if (rawLength != vertexChunkSize(attributes, count) || length < 0 || length > in.remaining()) {
+                    throw new IOException("Invalid vertex chunk " + chunk);
+                }
+                in.position(offset + length);
+                tasks.add(SharedExecutor.submit(() -> {
+                    decodeVertexChunk(attributes, vertices, vertexSize, start, count, data, offset, length);
+                }));
+            }
+            for (int chunk = 0; chunk < indexChunks; chunk++) {
+                final int start = chunk * indicesPerChunk;
+                final int count = Math.min(indicesPerChunk, indices.length - start);
+                final int rawLength = in.getInt();
+                final int length = in.getInt();
+                final int offset = in.position();
+                int bytesPerSample = (rawLength - 1) / count;
+                if (bytesPerSample < 1 || bytesPerSample > 4 || rawLength != 1 + (count * bytesPerSample)
+                        || length < 0 || length > in.remaining()) {
+                    throw new IOException("Invalid index chunk " + chunk);
+                }
+                in.position(offset + length);
+                tasks.add(SharedExecutor.submit(() -> {
+                    decodeIndexChunk(indices, start, count, rawLength, data, offset, length);
+                }));
+            }
+
+            try {
+                for (Future<?> task : tasks) {
+                    SharedExecutor.await(task, tasks);
+                }
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof UncheckedIOException io) {
+                    throw io.getCause();
+                }
+                throw new RuntimeException(ex);
+            }
+
+            return new MeshStoreOutput(vertices, vertexSize, indices);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated mesh store file!", ex);
+        }
+    }
+
+    private final GZIPInputStream input;
+    private final DataInputStream dataInput;
+
+    private float[] vertices = null;
+    private int vertexSize = 0;
+    private int[] indices = null;
+
+    private MeshStore(InputStream input) throws IOException {
+        this.input = new GZIPInputStream(input, 8192);
+        this.dataInput = new DataInputStream(this.input);
+    }
+
     private void readHeader() throws IOException {
         long magic = this.dataInput.readLong();
         if (magic != MAGIC) {
@@ -44,9 +44,8 @@ import com.jme3.util.BufferUtils;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
 import org.joml.Vector3f;
@@ -60,6 +59,8 @@ import vhacd4.Vhacd4Parameters;
  */
 public class MeshUtils {
 
+    public static final int MERGE_BY_DISTANCE_GROUPS_PER_BATCH = 1024;
+
     public static void generateTangent(float[] vertices, int vertexSize, int xyzOffset, int uvOffset, int outTangentXYZOffset) {
         if (vertices.length % vertexSize != 0) {
             throw new IllegalArgumentException("Wrong size.");
@@ -129,96 +130,75 @@ public class MeshUtils {
         }
     }
 
-    private static class Vertex {
-
-        final float[] vertices;
-        final int vertexSize;
-        final int vertexIndex;
-        final int vertexCount;
-
-        public Vertex(float[] vertices, int vertexSize, int vertexIndex, int vertexCount) {
-            this.vertices = vertices;
-            this.vertexSize = vertexSize;
-            this.vertexIndex = vertexIndex;
-            this.vertexCount = vertexCount;
-        }
-
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            for (int i = 0; i < this.vertexSize; i++) {
-                hash = 27 * hash + Float.floatToRawIntBits(this.vertices[this.vertexIndex + i]);
-            }
-            return hash;
+    private static int hashValues(float[] values, int offset, int size) {
+        int hash = 7;
+        for (int i = 0; i < size; i++) {
+            hash = 27 * hash + Float.floatToRawIntBits(values[offset + i]);
         }
+        return hash ^ (hash >>> 16);
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
+    private static boolean equalsValues(float[] a, int offsetA, float[] b, int offsetB, int size) {
+        for (int i = 0; i < size; i++) {
+            if (Float.floatToRawIntBits(a[offsetA + i]) != Float.floatToRawIntBits(b[offsetB + i])) {
                 return false;
             }
-            final Vertex other = (Vertex) obj;
-            int indexA = this.vertexIndex;
-            int indexB = other.vertexIndex;
-            for (int i = 0; i < this.vertexSize; i++) {
-                if (Float.floatToRawIntBits(this.vertices[indexA + i]) != Float.floatToRawIntBits(this.vertices[indexB + i])) {
-                    return false;
-                }
-            }
-            return true;
         }
+        return true;
+    }
+
+    private static int hashTableCapacity(int elements) {
+        return Integer.highestOneBit(Math.max(elements, 1) * 2) * 2;
     }
 
     public static Pair<float[], int[]> generateIndices(float[] vertices, int vertexSize) {
-        Map<Vertex, Vertex> verticesMap = new HashMap<>();
+        int numberOfVertices = vertices.length / vertexSize;
+
+        int[] table = new int[hashTableCapacity(numberOfVertices)];
+        int mask = table.length - 1;
+        Arrays.fill(table, -1);
 
         float[] verticesIndexed = new float[64];
         int verticesIndexedIndex = 0;
 
-        int[] indices = new int[64];
-        int indicesIndex = 0;
+        int[] indices = new int[numberOfVertices];
 
         int vertexCount = 0;
 
-        for (int v = 0; v < vertices.length; v += vertexSize) {
-            Vertex current = new Vertex(vertices, vertexSize, v, vertexCount);
-            Vertex other = verticesMap.get(current);
+        for (int i = 0; i < numberOfVertices; i++) {
+            int v = i * vertexSize;
 
-            if (other != null) {
-                if (indicesIndex >= indices.length) {
-                    indices = Arrays.copyOf(indices, indices.length * 2);
+            int slot = hashValues(vertices, v, vertexSize) & mask;
+            int other = -1;
+            while (table[slot] != -1) {
+                if (equalsValues(verticesIndexed, table[slot] * vertexSize, vertices, v, vertexSize)) {
+                    other = table[slot];
+                    break;
                 }
-                indices[indicesIndex] = other.vertexCount;
-                indicesIndex++;
+                slot = (slot + 1) & mask;
+            }
+
+            if (other != -1) {
+                indices[i] = other;
                 continue;
             }
 
-            verticesMap.put(current, current);
+            table[slot] = vertexCount;
 
             if ((verticesIndexedIndex + vertexSize) > verticesIndexed.length) {
-                verticesIndexed = Arrays.copyOf(verticesIndexed, verticesIndexed.length * 2);
+                verticesIndexed = Arrays.copyOf(verticesIndexed, (verticesIndexed.length * 2) + vertexSize);
             }
             System.arraycopy(vertices, v, verticesIndexed, verticesIndexedIndex, vertexSize);
             verticesIndexedIndex += vertexSize;
 
-            if (indicesIndex >= indices.length) {
-                indices = Arrays.copyOf(indices, indices.length * 2);
-            }
-            indices[indicesIndex] = vertexCount;
-            indicesIndex++;
+            indices[i] = vertexCount;
 
             vertexCount++;
         }
 
         return new Pair<>(
                 Arrays.copyOf(verticesIndexed, verticesIndexedIndex),
-                Arrays.copyOf(indices, indicesIndex)
+                indices
         );
     }
 
@@ -277,58 +257,310 @@ public class MeshUtils {
         calculateTriangleNormal(ax, ay, az, bx, by, bz, cx, cy, cz, outNormal);
     }
 
-    private static float valuesDistanceSquared(float[] values) {
+    private static float valuesDistanceSquared(float[] vertices, int offsetA, int offsetB, int size) {
         float totalSum = 0f;
-        for (int i = 0; i < values.length; i++) {
-            totalSum += (values[i] * values[i]);
+        for (int i = 0; i < size; i++) {
+            float value = vertices[offsetA + i] - vertices[offsetB + i];
+            totalSum += (value * value);
         }
         return totalSum;
     }
 
-    public static int conservativeMergeByDistance(float[] vertices, int vertexSize, int offset, int size, float distance) {
-        float distanceSquared = distance * distance;
+    private static class MergeByDistance {
+
+        private final float[] vertices;
+        private final int vertexSize;
+        private final int offset;
+        private final int size;
+        private final float distanceSquared;
+        private final int numberOfVertices;
+
+        private int[] vertexGroup;
+        private int[] groupVertex;
+        private int[] groupVertices;
+        private int numberOfGroups = 0;
+
+        private int dimensions;
+        private float inverseCellSize;
+        private long[] groupCells;
+        private int[] cellsTable;
+        private long[] cellsKeys;
+        private int[] cellsStart;
+        private int[] cellsGroups;
+
+        private int[][] batchesNeighbors;
+        private int[][] batchesNeighborsStart;
+        private final AtomicInteger batchesCursor = new AtomicInteger();
+
+        MergeByDistance(float[] vertices, int vertexSize, int offset, int size, float distance) {
+            this.vertices = vertices;
+            this.vertexSize = vertexSize;
+            this.offset = offset;
+            this.size = size;
+            this.distanceSquared = distance * distance;
+            this.numberOfVertices = vertices.length / vertexSize;
+
+            this.dimensions = Math.min(size, 3);
+            float cellSize = Math.abs(distance) * 1.001f;
+            this.inverseCellSize = (cellSize > 0f && Float.isFinite(cellSize)) ? 1f / cellSize : 0f;
+        }
 
-        int altered = 0;
-        boolean[] processed = new boolean[vertices.length / vertexSize];
+        private int vertexOffset(int vertex) {
+            return (vertex * this.vertexSize) + this.offset;
+        }
 
-        float[] current = new float[size];
-        float[] other = new float[size];
+        private void groupDuplicates() {
+            int[] table = new int[hashTableCapacity(this.numberOfVertices)];
+            int mask = table.length - 1;
+            Arrays.fill(table, -1);
+
+            this.vertexGroup = new int[this.numberOfVertices];
+            this.groupVertex = new int[this.numberOfVertices];
+            this.groupVertices = new int[this.numberOfVertices];
+
+            for (int vertex = 0; vertex < this.numberOfVertices; vertex++) {
+                int v = vertexOffset(vertex);
+                int slot = hashValues(this.vertices, v, this.size) & mask;
+                int group;
+                while (true) {
+                    group = table[slot];
+                    if (group == -1) {
+                        group = this.numberOfGroups++;
+                        this.groupVertex[group] = vertex;
+                        table[slot] = group;
+                        break;
+                    }
+                    if (equalsValues(this.vertices, vertexOffset(this.groupVertex[group]), this.vertices, v, this.size)) {
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                this.vertexGroup[vertex] = group;
+                this.groupVertices[group]++;
+            }
+        }
 
-        for (int v = 0; v < vertices.length; v += vertexSize) {
-            if (processed[v / vertexSize]) {
-                continue;
+        private long cellOf(int group, int dimension) {
+            if (dimension >= this.dimensions) {
+                return 0;
             }
-            processed[v / vertexSize] = true;
+            float value = this.vertices[vertexOffset(this.groupVertex[group]) + dimension];
+            return (long) Math.floor(value * this.inverseCellSize);
+        }
 
-            System.arraycopy(vertices, v + offset, current, 0, size);
+        private static long cellKey(long x, long y, long z) {
+            return (x * 73856093L) ^ (y * 19349663L) ^ (z * 83492791L);
+        }
 
-            for (int vOther = (v + vertexSize); vOther < vertices.length; vOther += vertexSize) {
-                if (processed[vOther / vertexSize]) {
-                    continue;
+        private static int cellHash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private int findCell(long x, long y, long z) {
+            int mask = this.cellsTable.length - 1;
+            long key = cellKey(x, y, z);
+            int slot = cellHash(key) & mask;
+            while (this.cellsTable[slot] != -1) {
+                int cell = this.cellsTable[slot];
+                if (this.cellsKeys[(cell * 3) + 0] == x
+                        && this.cellsKeys[(cell * 3) + 1] == y
+                        && this.cellsKeys[(cell * 3) + 2] == z) {
+                    return cell;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -(slot + 1);
+        }
+
+        private void buildGrid() {
+            this.groupCells = new long[this.numberOfGroups * 3];
+            this.cellsTable = new int[hashTableCapacity(this.numberOfGroups)];
+            Arrays.fill(this.cellsTable, -1);
+            this.cellsKeys = new long[64 * 3];
+
+            int[] groupCell = new int[this.numberOfGroups];
+            int[] cellsCount = new int[64];
+            int numberOfCells = 0;
+
+            for (int group = 0; group < this.numberOfGroups; group++) {
+                long x = cellOf(group, 0);
+                long y = cellOf(group, 1);
+                long z = cellOf(group, 2);
+                this.groupCells[(group * 3) + 0] = x;
+                this.groupCells[(group * 3) + 1] = y;
+                this.groupCells[(group * 3) + 2] = z;
+
+                int cell = findCell(x, y, z);
+                if (cell < 0) {
+                    int slot = -(cell + 1);
+                    cell = numberOfCells++;
+                    if ((cell * 3) >= this.cellsKeys.length) {
+                        this.cellsKeys = Arrays.copyOf(this.cellsKeys, this.cellsKeys.length * 2);
+                        cellsCount = Arrays.copyOf(cellsCount, cellsCount.length * 2);
+                    }
+                    this.cellsKeys[(cell * 3) + 0] = x;
+                    this.cellsKeys[(cell * 3) + 1] = y;
+                    this.cellsKeys[(cell * 3) + 2] = z;
+                    this.cellsTable[slot] = cell;
                 }
+                groupCell[group] = cell;
+                cellsCount[cell]++;
+            }
+
+            this.cellsStart = new int[numberOfCells + 1];
+            for (int i = 0; i < numberOfCells; i++) {
+                this.cellsStart[i + 1] = this.cellsStart[i] + cellsCount[i];
+            }
+            int[] cellsIndex = Arrays.copyOf(this.cellsStart, numberOfCells);
+            this.cellsGroups = new int[this.numberOfGroups];
+            for (int group = 0; group < this.numberOfGroups; group++) {
+                this.cellsGroups[cellsIndex[groupCell[group]]++] = group;
+            }
+        }
 
-                System.arraycopy(vertices, vOther + offset, other, 0, size);
+        private boolean isNeighbor(int group, int other) {
+            float d = valuesDistanceSquared(
+                    this.vertices,
+                    vertexOffset(this.groupVertex[group]),
+                    vertexOffset(this.groupVertex[other]),
+                    this.size
+            );
+            return d == 0f || d <= this.distanceSquared;
+        }
 
-                for (int i = 0; i < other.length; i++) {
-                    other[i] = current[i] - other[i];
+        private void findNeighbors(int batch) {
+            int start = batch * MERGE_BY_DISTANCE_GROUPS_PER_BATCH;
+            int end = Math.min(start + MERGE_BY_DISTANCE_GROUPS_PER_BATCH, this.numberOfGroups);
+
+            int[] neighborsStart = new int[(end - start) + 1];
+            int[] neighbors = new int[64];
+            int neighborsIndex = 0;
+
+            int range = (this.dimensions >= 1 ? 1 : 0);
+            for (int group = start; group < end; group++) {
+                neighborsStart[group - start] = neighborsIndex;
+
+                long x = this.groupCells[(group * 3) + 0];
+                long y = this.groupCells[(group * 3) + 1];
+                long z = this.groupCells[(group * 3) + 2];
+
+                int rangeY = (this.dimensions >= 2 ? range : 0);
+                int rangeZ = (this.dimensions >= 3 ? range : 0);
+                for (long cz = z - rangeZ; cz <= z + rangeZ; cz++) {
+                    for (long cy = y - rangeY; cy <= y + rangeY; cy++) {
+                        for (long cx = x - range; cx <= x + range; cx++) {
+                            int cell = findCell(cx, cy, cz);
+                            if (cell < 0) {
+                                continue;
+                            }
+                            for (int i = this.cellsStart[cell]; i < this.cellsStart[cell + 1]; i++) {
+                                int other = this.cellsGroups[i];
+                                if (other <= group || !isNeighbor(group, other)) {
+                                    continue;
+                                }
+                                if (neighborsIndex >= neighbors.length) {
+                                    neighbors = Arrays.copyOf(neighbors, neighbors.length * 2);
+                                }
+                                neighbors[neighborsIndex++] = other;
+                            }
+                        }
+                    }
                 }
+            }
+            neighborsStart[end - start] = neighborsIndex;
 
-                float otherDistanceSquared = valuesDistanceSquared(other);
+            this.batchesNeighbors[batch] = neighbors;
+            this.batchesNeighborsStart[batch] = neighborsStart;
+        }
 
-                if (otherDistanceSquared == 0f) {
-                    processed[vOther / vertexSize] = true;
+        private void findNeighborsBatches() {
+            int numberOfBatches = this.batchesNeighbors.length;
+            int batch;
+            while ((batch = this.batchesCursor.getAndIncrement()) < numberOfBatches) {
+                findNeighbors(batch);
+            }
+        }
+
+        private void findAllNeighbors() {
+            int numberOfBatches = (this.numberOfGroups + (MERGE_BY_DISTANCE_GROUPS_PER_BATCH - 1)) / MERGE_BY_DISTANCE_GROUPS_PER_BATCH;
+            this.batchesNeighbors = new int[numberOfBatches][];
+            this.batchesNeighborsStart = new int[numberOfBatches][];
+            this.batchesCursor.set(0);
+
+            int threads = Math.max(Math.min(SharedExecutor.NUMBER_OF_THREADS, numberOfBatches), 1);
+
+            SharedExecutor.parallelFor(threads, (worker) -> findNeighborsBatches());
+        }
+
+        public int merge() {
+            //with a zero (or NaN) distance only exact copies are in range and
+            //those are never altered, the grid would be a single cell of
+            //every vertex
+            if (!(this.distanceSquared > 0f)) {
+                return 0;
+            }
+
+            groupDuplicates();
+            buildGrid();
+            findAllNeighbors();
+
+            int altered = 0;
+            boolean[] processed = new boolean[this.numberOfGroups];
+            int[] mergedInto = new int[this.numberOfGroups];
+            Arrays.fill(mergedInto, -1);
+
+            for (int group = 0; group < this.numberOfGroups; group++) {
+                if (processed[group]) {
                     continue;
                 }
+                processed[group] = true;
+
+                int batch = group / MERGE_BY_DISTANCE_GROUPS_PER_BATCH;
+                int local = group % MERGE_BY_DISTANCE_GROUPS_PER_BATCH;
+                int[] neighbors = this.batchesNeighbors[batch];
+                int[] neighborsStart = this.batchesNeighborsStart[batch];
+
+                for (int i = neighborsStart[local]; i < neighborsStart[local + 1]; i++) {
+                    int other = neighbors[i];
+                    if (processed[other]) {
+                        continue;
+                    }
+                    processed[other] = true;
+
+                    float otherDistanceSquared = valuesDistanceSquared(
+                            this.vertices,
+                            vertexOffset(this.groupVertex[group]),
+                            vertexOffset(this.groupVertex[other]),
+                            this.size
+                    );
+                    if (otherDistanceSquared == 0f) {
+                        continue;
+                    }
+
+                    mergedInto[other] = group;
+                    altered += this.groupVertices[other];
+                }
+            }
 
-                if (otherDistanceSquared <= distanceSquared) {
-                    System.arraycopy(current, 0, vertices, vOther + offset, size);
-                    processed[vOther / vertexSize] = true;
-                    altered++;
+            for (int vertex = 0; vertex < this.numberOfVertices; vertex++) {
+                int into = mergedInto[this.vertexGroup[vertex]];
+                if (into == -1) {
+                    continue;
                 }
+                System.arraycopy(
+                        this.vertices, vertexOffset(this.groupVertex[into]),
+                        this.vertices, vertexOffset(vertex),
+                        this.size
+                );
             }
+
+            return altered;
         }
+    }
 
-        return altered;
+    public static int conservativeMergeByDistance(float[] vertices, int vertexSize, int offset, int size, float distance) {
+        return new MergeByDistance(vertices, vertexSize, offset, size, distance).merge();
     }
 
     public static int conservativeMergeByDistanceXYZ(float[] vertices, int vertexSize, int xyzOffset, float distance) {
@@ -698,6 +930,181 @@ public class MeshUtils {
         }
     }
     
+    public static int[] optimizeTriangleOrder(int[] indices, int amountOfVertices, int cacheSize) {
+        if (indices.length % 3 != 0) {
+            throw new IllegalArgumentException("Indices length is not a multiple of 3: " + indices.length);
+        }
+        if (cacheSize < 3) {
+            throw new IllegalArgumentException("Cache size must be larger or equal to 3; " + cacheSize);
+        }
+        
+        int amountOfTriangles = indices.length / 3;
+        
+        int[] adjacencyOffsets = new int[amountOfVertices + 1];
+        for (int index : indices) {
+            if (index < 0 || index >= amountOfVertices) {
+                throw new IllegalArgumentException("Index out of bounds: " + index);
+            }
+            adjacencyOffsets[index + 1]++;
+        }
+        for (int i = 0; i < amountOfVertices; i++) {
+            adjacencyOffsets[i + 1] += adjacencyOffsets[i];
+        }
+        
+        int[] liveTriangles = new int[amountOfVertices];
+        int[] adjacency = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = indices[i];
+            adjacency[adjacencyOffsets[vertex] + liveTriangles[vertex]] = i / 3;
+            liveTriangles[vertex]++;
+        }
+        
+        int[] cacheTime = new int[amountOfVertices];
+        boolean[] emitted = new boolean[amountOfTriangles];
+        
+        int[] deadEnd = new int[indices.length];
+        int deadEndSize = 0;
+        
+        int[] candidates = new int[indices.length];
+        
+        int[] order = new int[amountOfTriangles];
+        int orderSize = 0;
+        
+        int timeStamp = cacheSize + 1;
+        int cursor = 1;
+        int fanning = (amountOfVertices > 0 ? 0 : -1);
+        
+        while (fanning >= 0) {
+            int candidatesSize = 0;
+            
+            for (int i = adjacencyOffsets[fanning]; i < adjacencyOffsets[fanning + 1]; i++) {
+                int triangle = adjacency[i];
+                if (emitted[triangle]) {
+                    continue;
+                }
+                for (int j = 0; j < 3; j++) {
+                    int vertex = indices[(triangle * 3) + j];
+                    deadEnd[deadEndSize++] = vertex;
+                    candidates[candidatesSize++] = vertex;
+                    liveTriangles[vertex]--;
+                    if (timeStamp - cacheTime[vertex] > cacheSize) {
+                        cacheTime[vertex] = timeStamp++;
+                    }
+                }
+                emitted[triangle] = true;
+                order[orderSize++] = triangle;
+            }
+            
+            int next = -1;
+            int bestPriority = -1;
+            for (int i = 0; i < candidatesSize; i++) {
+                int vertex = candidates[i];
+                if (liveTriangles[vertex] <= 0) {
+                    continue;
+                }
+                int priority = 0;
+                if (timeStamp - cacheTime[vertex] + (2 * liveTriangles[vertex]) <= cacheSize) {
+                    priority = timeStamp - cacheTime[vertex];
+                }
+                if (priority > bestPriority) {
+                    bestPriority = priority;
+                    next = vertex;
+                }
+            }
+            
+            if (next == -1) {
+                while (deadEndSize > 0) {
+                    int vertex = deadEnd[--deadEndSize];
+                    if (liveTriangles[vertex] > 0) {
+                        next = vertex;
+                        break;
+                    }
+                }
+            }
+            
+            if (next == -1) {
+                while (cursor < amountOfVertices) {
+                    if (liveTriangles[cursor] > 0) {
+                        next = cursor;
+                        break;
+                    }
+                    cursor++;
+                }
+            }
+            
+            fanning = next;
+        }
+        
+        return order;
+    }
+    
+    public static int[] reorderTriangles(int[] indices, int[] triangleOrder) {
+        int[] reordered = new int[indices.length];
+        for (int i = 0; i < triangleOrder.length; i++) {
+            System.arraycopy(indices, triangleOrder[i] * 3, reordered, i * 3, 3);
+        }
+        return reordered;
+    }
+    
+    public static Pair<float[], int[]> reorderVerticesByFirstUse(float[] vertices, int vertexSize, int[] indices) {
+        int amountOfVertices = vertices.length / vertexSize;
+        
+        int[] remap = new int[amountOfVertices];
+        Arrays.fill(remap, -1);
+        
+        int next = 0;
+        for (int index : indices) {
+            if (remap[index] == -1) {
+                remap[index] = next++;
+            }
+        }
+        for (int i = 0; i < amountOfVertices; i++) {
+            if (remap[i] == -1) {
+                remap[i] = next++;
+            }
+        }
+        
+        float[] newVertices = new float[amountOfVertices * vertexSize];
+        for (int i = 0; i < amountOfVertices; i++) {
+            System.arraycopy(vertices, i * vertexSize, newVertices, remap[i] * vertexSize, vertexSize);
+        }
+        
+        int[] newIndices = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            newIndices[i] = remap[indices[i]];
+        }
+        
+        return new Pair<>(newVertices, newIndices);
+    }
+    
+    public static float averageCacheMissRatio(int[] indices, int cacheSize) {
+        if (indices.length < 3) {
+            return 0f;
+        }
+        
+        int[] cache = new int[cacheSize];
+        Arrays.fill(cache, -1);
+        int cacheStart = 0;
+        
+        int misses = 0;
+        for (int index : indices) {
+            boolean hit = false;
+            for (int i = 0; i < cacheSize; i++) {
+                if (cache[i] == index) {
+                    hit = true;
+                    break;
+                }
+            }
+            if (!hit) {
+                misses++;
+                cache[cacheStart] = index;
+                cacheStart = (cacheStart + 1) % cacheSize;
+            }
+        }
+        
+        return ((float) misses) / (indices.length / 3);
+    }
+    
     private MeshUtils() {
 
     }
@@ -0,0 +1,162 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * @author Cien
+ */
+public class MeshWeldBenchmark {
+
+    public static final int VERTEX_SIZE = 8;
+    public static final int XYZ_OFFSET = 0;
+    public static final float MERGE_DISTANCE = 0.0001f;
+    public static final float JITTER = MERGE_DISTANCE * 0.4f;
+    public static final int[] GRID_SIZES = {16, 32, 64, 128, 256};
+    public static final int MAXIMUM_REFERENCE_VERTICES = 30000;
+    public static final int RUNS = 5;
+
+    private static float[] noisyGrid(int size, long seed) {
+        Random random = new Random(seed);
+        float[] vertices = new float[size * size * 6 * VERTEX_SIZE];
+        int[] corners = {0, 0, 1, 0, 1, 1, 0, 0, 1, 1, 0, 1};
+        int index = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int i = 0; i < corners.length; i += 2) {
+                    float px = (x + corners[i + 0]) / ((float) size);
+                    float pz = (y + corners[i + 1]) / ((float) size);
+                    float py = (float) (Math.sin(px * 6.0) * Math.cos(pz * 6.0));
+
+                    if (random.nextInt(3) == 0) {
+                        px += (random.nextFloat() * 2f - 1f) * JITTER;
+                        py += (random.nextFloat() * 2f - 1f) * JITTER;
+                        pz += (random.nextFloat() * 2f - 1f) * JITTER;
+                    }
+
+                    vertices[index + XYZ_OFFSET + 0] = px;
+                    vertices[index + XYZ_OFFSET + 1] = py;
+                    vertices[index + XYZ_OFFSET + 2] = pz;
+                    vertices[index + 3] = px;
+                    vertices[index + 4] = pz;
+                    vertices[index + 5] = 0f;
+                    vertices[index + 6] = 1f;
+                    vertices[index + 7] = 0f;
+                    index += VERTEX_SIZE;
+                }
+            }
+        }
+        return vertices;
+    }
+
+    private static int referenceMergeByDistance(float[] vertices, int vertexSize, int offset, int size, float distance) {
+        float distanceSquared = distance * distance;
+        boolean[] processed = new boolean[vertices.length / vertexSize];
+        int altered = 0;
+        for (int v = 0; v < vertices.length; v += vertexSize) {
+            if (processed[v / vertexSize]) {
+                continue;
+            }
+            processed[v / vertexSize] = true;
+            for (int vOther = (v + vertexSize); vOther < vertices.length; vOther += vertexSize) {
+                if (processed[vOther / vertexSize]) {
+                    continue;
+                }
+                float totalSum = 0f;
+                for (int i = 0; i < size; i++) {
+                    float value = vertices[v + offset + i] - vertices[vOther + offset + i];
+                    totalSum += (value * value);
+                }
+                if (totalSum == 0f) {
+                    processed[vOther / vertexSize] = true;
+                    continue;
+                }
+                if (totalSum <= distanceSquared) {
+                    System.arraycopy(vertices, v + offset, vertices, vOther + offset, size);
+                    processed[vOther / vertexSize] = true;
+                    altered++;
+                }
+            }
+        }
+        return altered;
+    }
+
+    public static void main(String[] args) {
+        BenchmarkUtils.printThreads();
+        System.out.println("Merge Distance: " + MERGE_DISTANCE);
+
+        for (int gridSize : GRID_SIZES) {
+            float[] mesh = noisyGrid(gridSize, gridSize * 31L);
+            int vertices = mesh.length / VERTEX_SIZE;
+
+            float[] welded = null;
+            int altered = 0;
+            long weldTime = Long.MAX_VALUE;
+            long indicesTime = Long.MAX_VALUE;
+            int uniqueVertices = 0;
+            for (int i = 0; i < RUNS; i++) {
+                welded = mesh.clone();
+                long start = System.nanoTime();
+                altered = MeshUtils.conservativeMergeByDistance(welded, VERTEX_SIZE, XYZ_OFFSET, 3, MERGE_DISTANCE);
+                weldTime = Math.min(weldTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                uniqueVertices = MeshUtils.generateIndices(welded, VERTEX_SIZE).getA().length / VERTEX_SIZE;
+                indicesTime = Math.min(indicesTime, System.nanoTime() - start);
+            }
+
+            boolean equal = true;
+            String result = String.format("%,d", vertices) + " vertices: "
+                    + String.format("%,.3f", weldTime / 1E6) + "ms weld ("
+                    + String.format("%,d", altered) + " altered), "
+                    + String.format("%,.3f", indicesTime / 1E6) + "ms indices ("
+                    + String.format("%,d", uniqueVertices) + " unique)";
+
+            if (vertices <= MAXIMUM_REFERENCE_VERTICES) {
+                float[] reference = mesh.clone();
+                long start = System.nanoTime();
+                int referenceAltered = referenceMergeByDistance(reference, VERTEX_SIZE, XYZ_OFFSET, 3, MERGE_DISTANCE);
+                long referenceTime = System.nanoTime() - start;
+
+                equal = referenceAltered == altered && Arrays.equals(reference, welded);
+                result += ", reference "
+                        + String.format("%,.3f", referenceTime / 1E6) + "ms ("
+                        + (equal ? "identical" : "DIFFERENT") + ")";
+            }
+
+            System.out.println(result);
+
+            BenchmarkUtils.check(equal, String.format("%,d", vertices) + " vertices: weld differs from the reference!");
+        }
+
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * The process-wide thread pool, every parallel task of the engine runs here
+ * instead of in a pool of its own.
+ * <p>
+ * Waiting never blocks on work that is still in the queue:
+ * {@link #parallelFor(int, IntConsumer)} runs items on the calling thread and
+ * only waits for items that are already running on other threads, and
+ * {@link #await(Future)} runs the awaited task on the calling thread if no
+ * shared thread took it yet, so nested use is safe. Waiting only ever runs
+ * tasks of the work being waited for, a render thread waiting for a trace
+ * never ends up running an unrelated import.
+ *
+ * @author Cien
+ */
+public class SharedExecutor {
+
+    public static final int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final AtomicReferenceArray<Thread> THREADS = new AtomicReferenceArray<>(NUMBER_OF_THREADS);
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            NUMBER_OF_THREADS, NUMBER_OF_THREADS,
+            0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            (r) -> {
+                int index = THREAD_COUNTER.getAndIncrement();
+                Thread thread = new Thread(r, "Shared Executor Thread " + index);
+                thread.setDaemon(true);
+                THREADS.set(index % NUMBER_OF_THREADS, thread);
+                return thread;
+            }
+    );
+
+    /**
+     * Returns a thread of the pool, threads are started on demand, so it may
+     * be null.
+     *
+     * @param index the index of the thread, from 0 to
+     * {@link #NUMBER_OF_THREADS} - 1
+     * @return the thread or null
+     */
+    public static Thread getThread(int index) {
+        return THREADS.get(index);
+    }
+
+    /**
+     * The executor for asynchronous pipelines, such as
+     * {@link java.util.concurrent.CompletableFuture#supplyAsync(java.util.function.Supplier, Executor)}.
+     * Shared tasks should not wait for such pipelines,
+     * {@link #await(Future)} can not run them on the calling thread.
+     *
+     * @return the shared executor
+     */
+    public static Executor executor() {
+        return EXECUTOR;
+    }
+
+    public static <T> Future<T> submit(Callable<T> task) {
+        return EXECUTOR.submit(task);
+    }
+
+    public static Future<?> submit(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    private static boolean runIfQueued(Future<?> future) {
+        if (future instanceof RunnableFuture<?> task && EXECUTOR.remove(task)) {
+            task.run();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a future like {@link Future#get()}, if the future is a task
+     * from {@link #submit(Callable)} that is still queued it is run on the
+     * calling thread instead. Futures that are not shared tasks (such as a
+     * {@link java.util.concurrent.CompletableFuture}) are waited normally.
+     *
+     * @param <T> the type of the result
+     * @param future the future to wait for
+     * @return the result of the future
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException if the task failed
+     */
+    public static <T> T await(Future<T> future) throws InterruptedException, ExecutionException {
+        if (!future.isDone()) {
+            runIfQueued(future);
+        }
+        return future.get();
+    }
+
+    /**
+     * Same as {@link #await(Future)} but while the future is running on
+     * another thread the calling thread runs the queued tasks of the batch the
+     * future belongs to, tasks outside of the batch are never run.
+     *
+     * @param <T> the type of the result
+     * @param future the future to wait for
+     * @param batch the tasks submitted together with the future
+     * @return the result of the future
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException if the task failed
+     */
+    public static <T> T await(Future<T> future, List<? extends Future<?>> batch) throws InterruptedException, ExecutionException {
+        if (!future.isDone() && !runIfQueued(future)) {
+            for (int i = 0; i < batch.size() && !future.isDone(); i++) {
+                runIfQueued(batch.get(i));
+            }
+        }
+        return future.get();
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException e) {
+            return e;
+        }
+        if (t instanceof Error e) {
+            throw e;
+        }
+        return new RuntimeException(t);
+    }
+
+    /**
+     * Runs body for every index from 0 to count - 1, the calling thread takes
+     * indices from the same cursor as the shared threads, so the loop always
+     * makes progress even if every shared thread is busy. The first exception
+     * thrown by the body stops the remaining indices and is rethrown.
+     *
+     * @param count the amount of indices
+     * @param body the body of the loop
+     */
+    public static void parallelFor(int count, IntConsumer body) {
+        if (count <= 0) {
+            return;
+        }
+        if (count == 1 || NUMBER_OF_THREADS == 1) {
+            for (int i = 0; i < count; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+
+        AtomicInteger cursor = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(count);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Runnable worker = () -> {
+            int index;
+            while ((index = cursor.getAndIncrement()) < count) {
+                try {
+                    if (error.get() == null) {
+                        body.accept(index);
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+
+        int helpers = Math.min(count, NUMBER_OF_THREADS) - 1;
+        for (int i = 0; i < helpers; i++) {
+            EXECUTOR.execute(worker);
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = error.get();
+        if (t != null) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * A reusable {@link #parallelFor(int, IntConsumer)} for loops that run
+     * every frame, a run allocates nothing of its own, only what the queue of
+     * the executor allocates internally to hand the helpers over. A loop must not be run by two threads at the same time or from
+     * inside its own body.
+     */
+    public static class Loop {
+
+        private final Runnable helper = this::help;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private final AtomicInteger exited = new AtomicInteger();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        private volatile int count = 0;
+        private volatile IntConsumer body = null;
+        private volatile Thread owner = null;
+
+        public Loop() {
+
+        }
+
+        private void work() {
+            int loopCount = this.count;
+            IntConsumer loopBody = this.body;
+            int index;
+            while ((index = this.cursor.getAndIncrement()) < loopCount) {
+                try {
+                    if (this.error.get() == null) {
+                        loopBody.accept(index);
+                    }
+                } catch (Throwable t) {
+                    this.error.compareAndSet(null, t);
+                }
+            }
+        }
+
+        private void help() {
+            try {
+                work();
+            } finally {
+                this.exited.incrementAndGet();
+                LockSupport.unpark(this.owner);
+            }
+        }
+
+        /**
+         * Same as {@link SharedExecutor#parallelFor(int, IntConsumer)}.
+         *
+         * @param count the amount of indices
+         * @param body the body of the loop
+         */
+        public void run(int count, IntConsumer body) {
+            if (count <= 0) {
+                return;
+            }
+            if (count == 1 || NUMBER_OF_THREADS == 1) {
+                for (int i = 0; i < count; i++) {
+                    body.accept(i);
+                }
+                return;
+            }
+
+            this.count = count;
+            this.body = body;
+            this.owner = Thread.currentThread();
+            this.error.set(null);
+            this.exited.set(0);
+            this.cursor.set(0);
+
+            int helpers = Math.min(count, NUMBER_OF_THREADS) - 1;
+            for (int i = 0; i < helpers; i++) {
+                EXECUTOR.execute(this.helper);
+            }
+            work();
+
+            //helpers that did not start are taken back, the others are waited
+            //so none of them can see the next run
+            int started = helpers;
+            while (started > 0 && EXECUTOR.remove(this.helper)) {
+                started--;
+            }
+            boolean interrupted = false;
+            while (this.exited.get() < started) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            this.body = null;
+            this.owner = null;
+
+            Throwable t = this.error.getAndSet(null);
+            if (t != null) {
+                throw rethrow(t);
+            }
+        }
+    }
+
+    private SharedExecutor() {
+
+    }
+
+}
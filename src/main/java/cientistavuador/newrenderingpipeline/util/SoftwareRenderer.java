@@ -30,9 +30,7 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
@@ -1061,21 +1059,85 @@ public class SoftwareRenderer {
     }
 
     //rasterizer
+    private static final int TILE_SIZE = 32;
+    private static final int MULTITHREAD_MINIMUM_BINNED_TRIANGLES = 32;
+
+    //watertight coverage is decided on vertices snapped to 1/256 of a pixel
+    //with exact integer edge functions, so triangles sharing an edge never
+    //leave a gap or cover the same pixel twice
+    private static final int SUBPIXEL_BITS = 8;
+    private static final int SUBPIXEL_SCALE = 1 << SUBPIXEL_BITS;
+    private static final int SUBPIXEL_HALF = SUBPIXEL_SCALE / 2;
+    private static final int FIXED_SIZE = 7;
+
+    private static class TileScratch {
+
+        private final float[] surfaceDepth = new float[TILE_SIZE];
+        private final float[] surfaceColor = new float[TILE_SIZE * 4];
+        private final float[] textureColor = new float[4];
+        private final float[] diffuseAmbientFactors = new float[2];
+    }
+
     private class Rasterizer {
 
         private final SoftwareRenderer renderer;
         private final float[] vertices;
+        private final boolean watertight;
+
+        private int numberOfTriangles;
+        private float[] trianglesInverse;
+        private int[] trianglesBounds;
+        private int[] trianglesFixed;
+
+        private int tilesX;
+        private int tilesY;
+        private int[] binsStart;
+        private int[] bins;
+
+        private final AtomicInteger tilesCursor = new AtomicInteger();
 
         public Rasterizer(SoftwareRenderer renderer, float[] transformedVertices) {
             this.renderer = renderer;
             this.vertices = transformedVertices;
+            this.watertight = renderer.isWatertightEnabled();
         }
 
         public void render() {
+            setupTriangles();
+            binTriangles();
+
+            int numberOfTiles = this.tilesX * this.tilesY;
+            int threads = Math.min(SharedExecutor.NUMBER_OF_THREADS, numberOfTiles);
+            if (!this.renderer.isMultithreadEnabled() || this.bins.length < MULTITHREAD_MINIMUM_BINNED_TRIANGLES) {
+                threads = 1;
+            }
+
+            this.tilesCursor.set(0);
+
+            if (this.renderer.tileScratch.length < threads) {
+                TileScratch[] scratch = Arrays.copyOf(this.renderer.tileScratch, threads);
+                for (int i = this.renderer.tileScratch.length; i < scratch.length; i++) {
+                    scratch[i] = new TileScratch();
+                }
+                this.renderer.tileScratch = scratch;
+            }
+            final TileScratch[] scratch = this.renderer.tileScratch;
+
+            SharedExecutor.parallelFor(threads, (worker) -> renderTiles(scratch[worker]));
+        }
+
+        private void setupTriangles() {
             int width = this.renderer.getWidth();
             int height = this.renderer.getHeight();
-            int numberOfTriangles = this.vertices.length / (VERTEX_SIZE * 3);
-            for (int i = 0; i < numberOfTriangles; i++) {
+
+            this.numberOfTriangles = this.vertices.length / (VERTEX_SIZE * 3);
+            this.trianglesInverse = new float[this.numberOfTriangles];
+            this.trianglesBounds = new int[this.numberOfTriangles * 4];
+            if (this.watertight) {
+                this.trianglesFixed = new int[this.numberOfTriangles * FIXED_SIZE];
+            }
+
+            for (int i = 0; i < this.numberOfTriangles; i++) {
                 int v0 = i * (VERTEX_SIZE * 3);
                 int v1 = v0 + VERTEX_SIZE;
                 int v2 = v1 + VERTEX_SIZE;
@@ -1097,31 +1159,136 @@ public class SoftwareRenderer {
                 float minX = Math.min(Math.min(v0cx, v1cx), v2cx);
                 float minY = Math.min(Math.min(v0cy, v1cy), v2cy);
 
-                int maxXP = clamp((int) Math.ceil(maxX), 0, width);
-                int maxYP = clamp((int) Math.ceil(maxY), 0, height);
-                int minXP = clamp((int) Math.floor(minX), 0, width - 1);
-                int minYP = clamp((int) Math.floor(minY), 0, height - 1);
-                
-                boolean multithreadActivated = (maxXP - minXP) >= 32 && this.renderer.isMultithreadEnabled();
-
-                Future<?>[] tasks = new Future<?>[maxYP - minYP];
-                for (int y = minYP; y < maxYP; y++) {
-                    if (multithreadActivated) {
-                        int finalY = y;
-                        tasks[y - minYP] = CompletableFuture.runAsync(() -> {
-                            renderLine(inverse, finalY, minXP, maxXP, v0, v1, v2);
-                        });
-                    } else {
-                        renderLine(inverse, y, minXP, maxXP, v0, v1, v2);
-                    }
+                this.trianglesInverse[i] = inverse;
+                this.trianglesBounds[(i * 4) + 0] = clamp((int) Math.floor(minX), 0, width - 1);
+                this.trianglesBounds[(i * 4) + 1] = clamp((int) Math.floor(minY), 0, height - 1);
+                this.trianglesBounds[(i * 4) + 2] = clamp((int) Math.ceil(maxX), 0, width);
+                this.trianglesBounds[(i * 4) + 3] = clamp((int) Math.ceil(maxY), 0, height);
+
+                if (!this.watertight) {
+                    continue;
+                }
+
+                int x0 = Math.round(v0cx * SUBPIXEL_SCALE);
+                int y0 = Math.round(v0cy * SUBPIXEL_SCALE);
+                int x1 = Math.round(v1cx * SUBPIXEL_SCALE);
+                int y1 = Math.round(v1cy * SUBPIXEL_SCALE);
+                int x2 = Math.round(v2cx * SUBPIXEL_SCALE);
+                int y2 = Math.round(v2cy * SUBPIXEL_SCALE);
+
+                long area = edge(x1, y1, x2, y2, x0, y0);
+                if (area == 0) {
+                    this.trianglesBounds[(i * 4) + 2] = this.trianglesBounds[(i * 4) + 0];
+                    this.trianglesBounds[(i * 4) + 3] = this.trianglesBounds[(i * 4) + 1];
                 }
-                if (multithreadActivated) {
-                    try {
-                        for (Future<?> task : tasks) {
-                            task.get();
+
+                int f = i * FIXED_SIZE;
+                this.trianglesFixed[f + 0] = x0;
+                this.trianglesFixed[f + 1] = y0;
+                this.trianglesFixed[f + 2] = x1;
+                this.trianglesFixed[f + 3] = y1;
+                this.trianglesFixed[f + 4] = x2;
+                this.trianglesFixed[f + 5] = y2;
+                this.trianglesFixed[f + 6] = (area < 0 ? -1 : 1);
+            }
+        }
+
+        private long edge(int ax, int ay, int bx, int by, int px, int py) {
+            return (((long) (bx - ax)) * (py - ay)) - (((long) (by - ay)) * (px - ax));
+        }
+
+        //pixels exactly on an edge belong to only one of the two triangles
+        //sharing it, the reversed edge always gets the opposite answer
+        private long edgeBias(int ax, int ay, int bx, int by, int sign) {
+            int dx = (bx - ax) * sign;
+            int dy = (by - ay) * sign;
+            if (dy > 0 || (dy == 0 && dx < 0)) {
+                return 0;
+            }
+            return 1;
+        }
+
+        private void binTriangles() {
+            this.tilesX = (this.renderer.getWidth() + (TILE_SIZE - 1)) / TILE_SIZE;
+            this.tilesY = (this.renderer.getHeight() + (TILE_SIZE - 1)) / TILE_SIZE;
+
+            int[] counts = new int[(this.tilesX * this.tilesY) + 1];
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < this.numberOfTriangles; i++) {
+                    int minXP = this.trianglesBounds[(i * 4) + 0];
+                    int minYP = this.trianglesBounds[(i * 4) + 1];
+                    int maxXP = this.trianglesBounds[(i * 4) + 2];
+                    int maxYP = this.trianglesBounds[(i * 4) + 3];
+                    if (maxXP <= minXP || maxYP <= minYP) {
+                        continue;
+                    }
+
+                    int minTileX = minXP / TILE_SIZE;
+                    int minTileY = minYP / TILE_SIZE;
+                    int maxTileX = (maxXP - 1) / TILE_SIZE;
+                    int maxTileY = (maxYP - 1) / TILE_SIZE;
+
+                    for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+                        for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                            int tile = tileX + (tileY * this.tilesX);
+                            if (pass == 0) {
+                                counts[tile + 1]++;
+                            } else {
+                                this.bins[counts[tile]++] = i;
+                            }
                         }
-                    } catch (InterruptedException | ExecutionException ex) {
-                        throw new RuntimeException(ex);
+                    }
+                }
+                if (pass == 0) {
+                    for (int i = 1; i < counts.length; i++) {
+                        counts[i] += counts[i - 1];
+                    }
+                    this.binsStart = counts.clone();
+                    this.bins = new int[counts[counts.length - 1]];
+                }
+            }
+        }
+
+        private void renderTiles(TileScratch scratch) {
+            int width = this.renderer.getWidth();
+            int height = this.renderer.getHeight();
+            int numberOfTiles = this.tilesX * this.tilesY;
+
+            float[] surfaceDepth = scratch.surfaceDepth;
+            float[] surfaceColor = scratch.surfaceColor;
+            float[] textureColor = scratch.textureColor;
+            float[] diffuseAmbientFactors = scratch.diffuseAmbientFactors;
+
+            int tile;
+            while ((tile = this.tilesCursor.getAndIncrement()) < numberOfTiles) {
+                int start = this.binsStart[tile];
+                int end = this.binsStart[tile + 1];
+                if (start == end) {
+                    continue;
+                }
+
+                int tileMinX = (tile % this.tilesX) * TILE_SIZE;
+                int tileMinY = (tile / this.tilesX) * TILE_SIZE;
+                int tileMaxX = Math.min(tileMinX + TILE_SIZE, width);
+                int tileMaxY = Math.min(tileMinY + TILE_SIZE, height);
+
+                for (int j = start; j < end; j++) {
+                    int i = this.bins[j];
+
+                    int v0 = i * (VERTEX_SIZE * 3);
+                    int v1 = v0 + VERTEX_SIZE;
+                    int v2 = v1 + VERTEX_SIZE;
+
+                    int minX = Math.max(this.trianglesBounds[(i * 4) + 0], tileMinX);
+                    int minY = Math.max(this.trianglesBounds[(i * 4) + 1], tileMinY);
+                    int maxX = Math.min(this.trianglesBounds[(i * 4) + 2], tileMaxX);
+                    int maxY = Math.min(this.trianglesBounds[(i * 4) + 3], tileMaxY);
+
+                    for (int y = minY; y < maxY; y++) {
+                        renderLine(
+                                i, this.trianglesInverse[i], y, minX, maxX, v0, v1, v2,
+                                surfaceDepth, surfaceColor, textureColor, diffuseAmbientFactors
+                        );
                     }
                 }
             }
@@ -1131,24 +1298,83 @@ public class SoftwareRenderer {
             return Math.max(Math.min(v, max), min);
         }
 
-        private void renderLine(float inverse, int y, int minX, int maxX, int v0, int v1, int v2) {
-            float[] surfaceDepth = new float[maxX - minX];
-            this.renderer.getSurface().getDepth(minX, y, surfaceDepth, 0, surfaceDepth.length);
-            float[] surfaceColor = new float[(maxX - minX) * 4];
-            this.renderer.getSurface().getColor(minX, y, surfaceColor, 0, surfaceColor.length);
+        private void renderLine(
+                int triangle, float inverse, int y, int minX, int maxX, int v0, int v1, int v2,
+                float[] surfaceDepth, float[] surfaceColor, float[] textureColor, float[] diffuseAmbientFactors
+        ) {
+            int length = maxX - minX;
+            boolean depthOnly = this.renderer.isDepthOnlyEnabled();
+            this.renderer.getSurface().getDepth(minX, y, surfaceDepth, 0, length);
+            if (!depthOnly) {
+                this.renderer.getSurface().getColor(minX, y, surfaceColor, 0, length * 4);
+            }
+
+            float v2cx = this.vertices[v2 + CX];
+            float v2cy = this.vertices[v2 + CY];
+
+            float edge0X = this.vertices[v1 + CY] - v2cy;
+            float edge1X = v2cy - this.vertices[v0 + CY];
+
+            float yPos = y + 0.5f;
+            float edge0Y = (v2cx - this.vertices[v1 + CX]) * (yPos - v2cy);
+            float edge1Y = (this.vertices[v0 + CX] - v2cx) * (yPos - v2cy);
+
+            boolean watertight = this.watertight;
+
+            long bias0 = 0;
+            long bias1 = 0;
+            long bias2 = 0;
+            long step0 = 0;
+            long step1 = 0;
+            long step2 = 0;
+            long e0 = 0;
+            long e1 = 0;
+            long e2 = 0;
+            if (watertight) {
+                int f = triangle * FIXED_SIZE;
+                int x0 = this.trianglesFixed[f + 0];
+                int y0 = this.trianglesFixed[f + 1];
+                int x1 = this.trianglesFixed[f + 2];
+                int y1 = this.trianglesFixed[f + 3];
+                int x2 = this.trianglesFixed[f + 4];
+                int y2 = this.trianglesFixed[f + 5];
+                int sign = this.trianglesFixed[f + 6];
+
+                int px = (minX << SUBPIXEL_BITS) + SUBPIXEL_HALF;
+                int py = (y << SUBPIXEL_BITS) + SUBPIXEL_HALF;
+
+                bias0 = edgeBias(x1, y1, x2, y2, sign);
+                bias1 = edgeBias(x2, y2, x0, y0, sign);
+                bias2 = edgeBias(x0, y0, x1, y1, sign);
+
+                step0 = ((long) (y1 - y2)) * SUBPIXEL_SCALE * sign;
+                step1 = ((long) (y2 - y0)) * SUBPIXEL_SCALE * sign;
+                step2 = ((long) (y0 - y1)) * SUBPIXEL_SCALE * sign;
+
+                e0 = (edge(x1, y1, x2, y2, px, py) * sign) - step0;
+                e1 = (edge(x2, y2, x0, y0, px, py) * sign) - step1;
+                e2 = (edge(x0, y0, x1, y1, px, py) * sign) - step2;
+            }
 
-            float[] textureColor = new float[4];
-            float[] diffuseAmbientFactors = new float[2];
+            boolean written = false;
             for (int x = minX; x < maxX; x++) {
                 int pixelIndex = x - minX;
 
+                if (watertight) {
+                    e0 += step0;
+                    e1 += step1;
+                    e2 += step2;
+                    if (e0 < bias0 || e1 < bias1 || e2 < bias2) {
+                        continue;
+                    }
+                }
+
                 float xPos = x + 0.5f;
-                float yPos = y + 0.5f;
 
-                float wv0 = ((this.vertices[v1 + CY] - this.vertices[v2 + CY]) * (xPos - this.vertices[v2 + CX]) + (this.vertices[v2 + CX] - this.vertices[v1 + CX]) * (yPos - this.vertices[v2 + CY])) * inverse;
-                float wv1 = ((this.vertices[v2 + CY] - this.vertices[v0 + CY]) * (xPos - this.vertices[v2 + CX]) + (this.vertices[v0 + CX] - this.vertices[v2 + CX]) * (yPos - this.vertices[v2 + CY])) * inverse;
+                float wv0 = (edge0X * (xPos - v2cx) + edge0Y) * inverse;
+                float wv1 = (edge1X * (xPos - v2cx) + edge1Y) * inverse;
                 float wv2 = 1 - wv0 - wv1;
-                if (wv0 < 0f || wv1 < 0f || wv2 < 0f) {
+                if (!watertight && (wv0 < 0f || wv1 < 0f || wv2 < 0f)) {
                     continue;
                 }
                 
@@ -1162,8 +1388,9 @@ public class SoftwareRenderer {
                     continue;
                 }
                 surfaceDepth[pixelIndex] = depth;
+                written = true;
 
-                if (this.renderer.isDepthOnlyEnabled()) {
+                if (depthOnly) {
                     continue;
                 }
 
@@ -1282,8 +1509,13 @@ public class SoftwareRenderer {
                 surfaceColor[(pixelIndex * 4) + 3] = outA;
             }
 
-            this.renderer.getSurface().setDepth(minX, y, surfaceDepth, 0, surfaceDepth.length);
-            this.renderer.getSurface().setColor(minX, y, surfaceColor, 0, surfaceColor.length);
+            if (!written) {
+                return;
+            }
+            this.renderer.getSurface().setDepth(minX, y, surfaceDepth, 0, length);
+            if (!depthOnly) {
+                this.renderer.getSurface().setColor(minX, y, surfaceColor, 0, length * 4);
+            }
         }
 
     }
@@ -1306,6 +1538,10 @@ public class SoftwareRenderer {
     private boolean billboardingEnabled = false;
     private boolean lightingEnabled = false;
     private boolean sunEnabled = false;
+    private boolean watertightEnabled = false;
+
+    //per worker rasterizer scratch, kept between renders
+    private TileScratch[] tileScratch = new TileScratch[0];
 
     //sun state
     private final Vector3f sunDirection = new Vector3f(-1f, -1f, -1f).normalize();
@@ -1541,6 +1777,23 @@ public class SoftwareRenderer {
         this.sunEnabled = sunEnabled;
     }
 
+    public boolean isWatertightEnabled() {
+        return watertightEnabled;
+    }
+
+    /**
+     * Watertight coverage snaps vertices to 1/256 of a pixel and decides
+     * coverage with exact integer edge functions and a tie rule, so triangles
+     * sharing an edge never leave a gap between them or cover the same pixel
+     * twice, and degenerate triangles are skipped. Disabled by default, the
+     * default coverage is the original floating point test.
+     *
+     * @param watertightEnabled true to enable watertight coverage
+     */
+    public void setWatertightEnabled(boolean watertightEnabled) {
+        this.watertightEnabled = watertightEnabled;
+    }
+
     //render
     public int render() {
         if (this.vertices == null || this.vertices.length == 0) {
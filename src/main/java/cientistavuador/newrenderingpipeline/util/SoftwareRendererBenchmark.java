@@ -0,0 +1,126 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.util.Random;
+
+/**
+ *
+ * @author Cien
+ */
+public class SoftwareRendererBenchmark {
+
+    public static final int WIDTH = 640;
+    public static final int HEIGHT = 360;
+    public static final int WARMUP_FRAMES = 5;
+    public static final int FRAMES = 20;
+
+    public static final int SMALL_TRIANGLES = 20000;
+    public static final float SMALL_TRIANGLES_SIZE = 0.05f;
+    public static final int LARGE_TRIANGLES = 200;
+    public static final float LARGE_TRIANGLES_SIZE = 3f;
+
+    private static float[] randomTriangles(SoftwareRenderer renderer, int amount, float size, float alpha, long seed) {
+        Random random = new Random(seed);
+        renderer.beginMesh();
+        int texture = renderer.texture(0f, 0f);
+        int normal = renderer.normal(0f, 0f, 1f);
+        for (int i = 0; i < amount; i++) {
+            float x = (random.nextFloat() * 2f - 1f) * 8f;
+            float y = (random.nextFloat() * 2f - 1f) * 4.5f;
+            float z = -5f - (random.nextFloat() * 10f);
+            float s = size * (0.5f + random.nextFloat());
+            int color = renderer.color(random.nextFloat(), random.nextFloat(), random.nextFloat(), alpha);
+
+            renderer.vertex(renderer.position(x - s, y - s, z), texture, normal, color);
+            renderer.vertex(renderer.position(x + s, y - s, z), texture, normal, color);
+            renderer.vertex(renderer.position(x, y + s, z), texture, normal, color);
+        }
+        return renderer.finishMesh();
+    }
+
+    private static void benchmark(String name, SoftwareRenderer renderer, float[] mesh) {
+        renderer.setMesh(mesh);
+        int triangles = mesh.length / SoftwareRenderer.MeshBuilder.VERTEX_SIZE / 3;
+
+        for (boolean multithread : new boolean[]{false, true}) {
+            renderer.setMultithreadEnabled(multithread);
+
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                renderer.clearBuffers();
+                renderer.render();
+            }
+
+            long time = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                renderer.clearBuffers();
+                long start = System.nanoTime();
+                renderer.render();
+                time += System.nanoTime() - start;
+            }
+
+            double seconds = time / 1E9;
+            double trianglesPerSecond = (((double) triangles) * FRAMES) / seconds;
+            double pixelsPerSecond = (((double) WIDTH) * HEIGHT * FRAMES) / seconds;
+
+            System.out.println(
+                    name
+                    + " (multithread: " + multithread + "): "
+                    + String.format("%,.3f", (time / 1E6) / FRAMES) + "ms per frame, "
+                    + String.format("%,.0f", trianglesPerSecond) + " triangles/s, "
+                    + String.format("%,.0f", pixelsPerSecond) + " pixels/s"
+            );
+        }
+    }
+
+    public static void main(String[] args) {
+        BenchmarkUtils.printThreads();
+        System.out.println("Resolution: " + WIDTH + "x" + HEIGHT);
+
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT);
+        renderer.getProjection().setPerspective(
+                (float) Math.toRadians(90f), ((float) WIDTH) / HEIGHT, 0.1f, 100f
+        );
+        renderer.setLightingEnabled(true);
+        renderer.setSunEnabled(true);
+
+        benchmark("Small Triangles", renderer,
+                randomTriangles(renderer, SMALL_TRIANGLES, SMALL_TRIANGLES_SIZE, 1f, 1234)
+        );
+        benchmark("Large Blended Triangles", renderer,
+                randomTriangles(renderer, LARGE_TRIANGLES, LARGE_TRIANGLES_SIZE, 0.5f, 4321)
+        );
+
+        renderer.setDepthOnlyEnabled(true);
+        benchmark("Large Triangles (Depth Only)", renderer,
+                randomTriangles(renderer, LARGE_TRIANGLES, LARGE_TRIANGLES_SIZE, 1f, 4321)
+        );
+
+        System.exit(0);
+    }
+
+}
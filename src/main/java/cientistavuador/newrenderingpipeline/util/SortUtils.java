@@ -0,0 +1,144 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Cien
+ */
+public class SortUtils {
+
+    private static boolean lessThan(double[] keys, int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    public static void sortIndices(int[] indices, double[] keys, int from, int to) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            int pivot = indices[middle];
+            indices[middle] = indices[to - 1];
+            indices[to - 1] = pivot;
+            int store = from;
+            for (int i = from; i < to - 1; i++) {
+                if (lessThan(keys, indices[i], pivot)) {
+                    int e = indices[i];
+                    indices[i] = indices[store];
+                    indices[store] = e;
+                    store++;
+                }
+            }
+            indices[to - 1] = indices[store];
+            indices[store] = pivot;
+            if (store - from < to - (store + 1)) {
+                sortIndices(indices, keys, from, store);
+                from = store + 1;
+            } else {
+                sortIndices(indices, keys, store + 1, to);
+                to = store;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int e = indices[i];
+            int j = i - 1;
+            while (j >= from && lessThan(keys, e, indices[j])) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = e;
+        }
+    }
+
+    public static void sortIndices(int[] indices, double[] keys, int length) {
+        sortIndices(indices, keys, 0, length);
+    }
+
+    public static <T> void radixSort(
+            long[] keys, T[] values, int length,
+            long[] keysBuffer, T[] valuesBuffer,
+            int[] counts
+    ) {
+        if (counts.length < 256) {
+            throw new IllegalArgumentException("Counts length must be at least 256");
+        }
+        if (keysBuffer.length < length || valuesBuffer.length < length) {
+            throw new IllegalArgumentException("Buffers are smaller than the length");
+        }
+        if (length <= 1) {
+            return;
+        }
+
+        long[] sourceKeys = keys;
+        T[] sourceValues = values;
+        long[] destinationKeys = keysBuffer;
+        T[] destinationValues = valuesBuffer;
+
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(counts, 0, 256, 0);
+            for (int i = 0; i < length; i++) {
+                counts[(int) ((sourceKeys[i] >>> shift) & 0xFF)]++;
+            }
+
+            if (counts[(int) ((sourceKeys[0] >>> shift) & 0xFF)] == length) {
+                continue;
+            }
+
+            int offset = 0;
+            for (int i = 0; i < 256; i++) {
+                int count = counts[i];
+                counts[i] = offset;
+                offset += count;
+            }
+
+            for (int i = 0; i < length; i++) {
+                long key = sourceKeys[i];
+                int index = counts[(int) ((key >>> shift) & 0xFF)]++;
+                destinationKeys[index] = key;
+                destinationValues[index] = sourceValues[i];
+            }
+
+            long[] swapKeys = sourceKeys;
+            sourceKeys = destinationKeys;
+            destinationKeys = swapKeys;
+
+            T[] swapValues = sourceValues;
+            sourceValues = destinationValues;
+            destinationValues = swapValues;
+        }
+
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, length);
+            System.arraycopy(sourceValues, 0, values, 0, length);
+        }
+    }
+
+    private SortUtils() {
+
+    }
+
+}
@@ -27,7 +27,6 @@
 package cientistavuador.newrenderingpipeline.util;
 
 import cientistavuador.newrenderingpipeline.Platform;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -37,8 +36,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
 import org.lwjgl.stb.STBDXT;
+import static org.lwjgl.stb.STBDXT.nstb_compress_dxt_block;
 import static org.lwjgl.stb.STBDXT.stb_compress_dxt_block;
 import org.lwjgl.system.MemoryStack;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
 
 /**
  *
@@ -52,6 +55,8 @@ public class TextureCompressor {
     public static final String NVIDIA_TEXTURE_TOOLS_COMPRESS_EXE_PATH;
     public static final String NVIDIA_TEXTURE_TOOLS_DECOMPRESS_EXE_PATH;
     
+    public static final int MINIMUM_PIXELS_PER_BAND = 64 * 64;
+    
     static {
         String compressName = "nvcompress";
         String decompressName = "nvdecompress";
@@ -206,21 +211,82 @@ public class TextureCompressor {
         return outputArray;
     }
     
+    private static void compressDXT5FallbackBand(
+            byte[] data, int width, int height,
+            long outputAddress,
+            int startBlockY, int endBlockY
+    ) {
+        int blocksWidth = paddingSize4(width) / 4;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            ByteBuffer pixels = stack.malloc(4 * 4 * 4);
+            long pixelsAddress = memAddress(pixels);
+            for (int blockY = startBlockY; blockY < endBlockY; blockY++) {
+                for (int blockX = 0; blockX < blocksWidth; blockX++) {
+                    int pixelIndex = 0;
+                    for (int yOffset = 0; yOffset < 4; yOffset++) {
+                        int y = Math.min((blockY * 4) + yOffset, height - 1);
+                        for (int xOffset = 0; xOffset < 4; xOffset++) {
+                            int x = Math.min((blockX * 4) + xOffset, width - 1);
+                            int index = (x * 4) + (y * width * 4);
+                            pixels.put(pixelIndex + 0, data[index + 0]);
+                            pixels.put(pixelIndex + 1, data[index + 1]);
+                            pixels.put(pixelIndex + 2, data[index + 2]);
+                            pixels.put(pixelIndex + 3, data[index + 3]);
+                            pixelIndex += 4;
+                        }
+                    }
+                    long blockAddress = outputAddress + (((long) blockX + ((long) blockY * blocksWidth)) * 16);
+                    nstb_compress_dxt_block(blockAddress, pixelsAddress, 1, STBDXT.STB_DXT_HIGHQUAL);
+                }
+            }
+        }
+    }
+    
+    private static long fallbackOutputAddress(byte[] data, int width, int height, ByteBuffer output, int offset) {
+        if (data.length != (width * height * 4)) {
+            throw new IllegalArgumentException("Invalid amount of bytes, required " + (width * height * 4) + ", found " + data.length);
+        }
+        if (!output.isDirect()) {
+            throw new IllegalArgumentException("Output buffer is not direct.");
+        }
+        int size = DXT5Size(width, height);
+        if (offset < 0 || (offset + size) > output.capacity()) {
+            throw new IllegalArgumentException("Output buffer too small, required " + size + " bytes at offset " + offset + ", capacity " + output.capacity());
+        }
+        
+        return memAddress(output, 0) + offset;
+    }
+
+    private static int fallbackBlocksPerBand(int width) {
+        return Math.max(MINIMUM_PIXELS_PER_BAND / (paddingSize4(width) * 4), 1);
+    }
+
+    public static void compressDXT5Fallback(byte[] data, int width, int height, ByteBuffer output, int offset) {
+        final long outputAddress = fallbackOutputAddress(data, width, height, output, offset);
+        final int blocksHeight = paddingSize4(height) / 4;
+        final int blocksPerBand = fallbackBlocksPerBand(width);
+
+        //the caller takes bands too, so this is safe to call from shared tasks
+        SharedExecutor.parallelFor((blocksHeight + blocksPerBand - 1) / blocksPerBand, (band) -> {
+            int startBlockY = band * blocksPerBand;
+            int endBlockY = Math.min(startBlockY + blocksPerBand, blocksHeight);
+            compressDXT5FallbackBand(data, width, height, outputAddress, startBlockY, endBlockY);
+        });
+    }
+    
     public static byte[] compressDXT5Fallback(byte[] data, int width, int height) {
         if (data.length != (width * height * 4)) {
             throw new IllegalArgumentException("Invalid amount of bytes, required " + (width * height * 4) + ", found " + data.length);
         }
-        ByteArrayOutputStream out = new ByteArrayOutputStream(65535);
-        for (int blockY = 0; blockY < height; blockY += 4) {
-            for (int blockX = 0; blockX < width; blockX += 4) {
-                try {
-                    out.write(compressDXT5BlockFallback(data, width, height, blockX, blockY));
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
-                }
-            }
+        ByteBuffer output = memAlloc(DXT5Size(width, height));
+        try {
+            compressDXT5Fallback(data, width, height, output, 0);
+            byte[] outputArray = new byte[output.capacity()];
+            output.get(0, outputArray);
+            return outputArray;
+        } finally {
+            memFree(output);
         }
-        return out.toByteArray();
     }
     
     private TextureCompressor() {
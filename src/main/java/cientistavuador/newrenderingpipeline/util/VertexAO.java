@@ -27,121 +27,163 @@
 package cientistavuador.newrenderingpipeline.util;
 
 import cientistavuador.newrenderingpipeline.util.raycast.BVH;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import cientistavuador.newrenderingpipeline.util.raycast.Ray;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joml.Matrix3f;
 import org.joml.Vector3f;
-import org.joml.Vector3fc;
 
 /**
  *
  * @author Cien
  */
 public class VertexAO {
-    
+
     private static final float EPSILON = 0.0001f;
 
+    public static final int GROUPS_PER_BATCH = 64;
+
+    /**
+     * Bakes the ambient occlusion of a unindexed triangle soup into the
+     * outAoOffset of every vertex, vertices with the same position share the
+     * same value.
+     *
+     * @param vertices the vertices
+     * @param vertexSize the vertex size
+     * @param xyzOffset the xyz offset
+     * @param outAoOffset the offset of the ambient occlusion output
+     * @param aoSize the max distance of the ambient occlusion rays
+     * @param aoRays the amount of rays per vertex
+     * @param rayOffset the offset of the ray origin along the normal
+     */
     public static void vertexAO(float[] vertices, int vertexSize, int xyzOffset, int outAoOffset, float aoSize, int aoRays, float rayOffset) {
-        new VertexAO(vertices, vertexSize, xyzOffset, outAoOffset, aoSize, aoRays, rayOffset).process();
-    }
+        int seed = Objects.hash(
+                Arrays.hashCode(vertices),
+                vertexSize,
+                xyzOffset,
+                outAoOffset,
+                aoSize,
+                aoRays,
+                rayOffset
+        );
+
+        int[] indices = new int[vertices.length / vertexSize];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
 
-    private class Vertex {
+        BVH bvh = BVH.create(vertices, indices, vertexSize, xyzOffset);
+        bvh.generateTriangleRecords();
 
-        public int vertex;
+        float[] ao = new VertexAO(
+                bvh, vertices, indices, vertexSize, xyzOffset,
+                aoSize, aoRays, rayOffset, new Random(seed).nextLong()
+        ).process();
 
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            for (int i = VertexAO.this.xyzOffset; i < VertexAO.this.xyzOffset + 3; i++) {
-                hash = 79 * hash + Float.floatToRawIntBits(VertexAO.this.vertices[this.vertex + i]);
+        for (int i = 0; i < ao.length; i++) {
+            if (!Float.isNaN(ao[i])) {
+                vertices[(i * vertexSize) + outAoOffset] = ao[i];
             }
-            return hash;
         }
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            final Vertex other = (Vertex) obj;
-            for (int i = VertexAO.this.xyzOffset; i < VertexAO.this.xyzOffset + 3; i++) {
-                float t = VertexAO.this.vertices[this.vertex + i];
-                float o = VertexAO.this.vertices[other.vertex + i];
-                if (t != o) {
-                    return false;
-                }
+    /**
+     * Bakes the ambient occlusion of a indexed mesh, returns one value per
+     * vertex (0 is unoccluded and 1 is fully occluded), vertices with the same
+     * position share the same value.
+     *
+     * @param bvh the bvh of the mesh or null to create one
+     * @param vertices the vertices
+     * @param indices the indices
+     * @param vertexSize the vertex size
+     * @param xyzOffset the xyz offset
+     * @param aoSize the max distance of the ambient occlusion rays
+     * @param aoRays the amount of rays per vertex
+     * @param rayOffset the offset of the ray origin along the normal
+     * @param seed the seed of the ray directions
+     * @return the ambient occlusion of each vertex
+     */
+    public static float[] vertexAO(
+            BVH bvh,
+            float[] vertices, int[] indices,
+            int vertexSize, int xyzOffset,
+            float aoSize, int aoRays, float rayOffset,
+            long seed
+    ) {
+        if (bvh == null) {
+            bvh = BVH.create(vertices, indices, vertexSize, xyzOffset);
+            bvh.generateTriangleRecords();
+        }
+        float[] ao = new VertexAO(
+                bvh, vertices, indices, vertexSize, xyzOffset,
+                aoSize, aoRays, rayOffset, seed
+        ).process();
+        for (int i = 0; i < ao.length; i++) {
+            if (Float.isNaN(ao[i])) {
+                ao[i] = 0f;
             }
-            return true;
         }
+        return ao;
     }
 
-    private final ExecutorService service = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final BVH bvh;
     private final float[] vertices;
+    private final int[] indices;
     private final int vertexSize;
     private final int xyzOffset;
-    private final int outAoOffset;
     private final float aoSize;
     private final int aoRays;
     private final float rayOffset;
-    private final Vector3fc[] randomTangents;
+    private final float[] randomTangents;
 
-    private BVH bvh = null;
-    private final Map<Vertex, List<Vertex>> mappedVertices = new HashMap<>();
+    private final int numberOfVertices;
+    private int numberOfGroups = 0;
+    private int[] vertexGroup;
+    private int[] groupVertex;
+    private float[] groupNormals;
+    private float[] groupResults;
+
+    private final AtomicInteger groupsCursor = new AtomicInteger();
 
     private VertexAO(
+            BVH bvh,
             float[] vertices,
+            int[] indices,
             int vertexSize,
             int xyzOffset,
-            int outAoOffset,
             float aoSize,
             int aoRays,
-            float rayOffset
+            float rayOffset,
+            long seed
     ) {
+        if (aoRays <= 0) {
+            throw new IllegalArgumentException("Invalid amount of rays: " + aoRays);
+        }
+        this.bvh = bvh;
         this.vertices = vertices;
+        this.indices = indices;
         this.vertexSize = vertexSize;
         this.xyzOffset = xyzOffset;
-        this.outAoOffset = outAoOffset;
         this.aoSize = aoSize;
         this.aoRays = aoRays;
         this.rayOffset = rayOffset;
-        
-        int hash = Objects.hash(
-                Arrays.hashCode(this.vertices),
-                this.vertexSize,
-                this.xyzOffset,
-                this.outAoOffset,
-                this.aoSize,
-                this.aoRays,
-                this.rayOffset
-        );
-        
-        Random random = new Random(new Random(hash).nextLong());
-        
-        this.randomTangents = new Vector3fc[this.aoRays];
-        
-        for (int i = 0; i < this.randomTangents.length; i++) {
-            Vector3f direction = new Vector3f();
+        this.numberOfVertices = vertices.length / vertexSize;
+
+        Random random = new Random(seed);
+
+        this.randomTangents = new float[this.aoRays * 3];
+
+        Vector3f direction = new Vector3f();
+        for (int i = 0; i < this.aoRays; i++) {
             randomTangentDirection(direction, random);
-            this.randomTangents[i] = direction;
+            this.randomTangents[(i * 3) + 0] = direction.x();
+            this.randomTangents[(i * 3) + 1] = direction.y();
+            this.randomTangents[(i * 3) + 2] = direction.z();
         }
     }
-    
+
     private void randomTangentDirection(Vector3f outDirection, Random random) {
         float x;
         float y;
@@ -163,141 +205,166 @@ public class VertexAO {
                 .normalize();
     }
 
-    private void createBVH() {
-        int[] indices = new int[this.vertices.length / vertexSize];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
-        }
-        this.bvh = BVH.create(
-                this.vertices,
-                indices,
-                this.vertexSize,
-                this.xyzOffset
-        );
+    private int positionHash(int vertex) {
+        int v = (vertex * this.vertexSize) + this.xyzOffset;
+        int hash = 7;
+        hash = 79 * hash + Float.floatToRawIntBits(this.vertices[v + 0]);
+        hash = 79 * hash + Float.floatToRawIntBits(this.vertices[v + 1]);
+        hash = 79 * hash + Float.floatToRawIntBits(this.vertices[v + 2]);
+        return hash ^ (hash >>> 16);
     }
 
-    private void mapVertices() {
-        for (int v = 0; v < this.vertices.length; v += this.vertexSize) {
-            VertexAO.Vertex e = new VertexAO.Vertex();
-            e.vertex = v;
-            List<VertexAO.Vertex> verts = mappedVertices.get(e);
-            if (verts == null) {
-                verts = new ArrayList<>();
-                mappedVertices.put(e, verts);
-            }
-            verts.add(e);
-        }
+    private boolean positionEquals(int vertexA, int vertexB) {
+        int a = (vertexA * this.vertexSize) + this.xyzOffset;
+        int b = (vertexB * this.vertexSize) + this.xyzOffset;
+        return Float.floatToRawIntBits(this.vertices[a + 0]) == Float.floatToRawIntBits(this.vertices[b + 0])
+                && Float.floatToRawIntBits(this.vertices[a + 1]) == Float.floatToRawIntBits(this.vertices[b + 1])
+                && Float.floatToRawIntBits(this.vertices[a + 2]) == Float.floatToRawIntBits(this.vertices[b + 2]);
     }
 
-    private void computeAO() {
-        List<Map.Entry<Vertex, List<Vertex>>> entryList = new ArrayList<>();
-        entryList.addAll(this.mappedVertices.entrySet());
-
-        int numberOfProcessors = Runtime.getRuntime().availableProcessors();
-        List<Future<?>> tasks = new ArrayList<>();
-        for (int i = 0; i < entryList.size(); i += numberOfProcessors) {
-            for (int j = 0; j < numberOfProcessors; j++) {
-                if ((i + j) < entryList.size()) {
-                    final List<Vertex> finalVertexList = entryList.get(i + j).getValue();
-                    tasks.add(this.service.submit(() -> {
-                        computeAO(finalVertexList);
-                    }));
+    private void weldVertices() {
+        int capacity = Integer.highestOneBit(Math.max(this.numberOfVertices, 1) * 2) * 2;
+        int mask = capacity - 1;
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+
+        this.vertexGroup = new int[this.numberOfVertices];
+        this.groupVertex = new int[this.numberOfVertices];
+
+        for (int vertex = 0; vertex < this.numberOfVertices; vertex++) {
+            int slot = positionHash(vertex) & mask;
+            int group;
+            while (true) {
+                group = table[slot];
+                if (group == -1) {
+                    group = this.numberOfGroups++;
+                    this.groupVertex[group] = vertex;
+                    table[slot] = group;
+                    break;
+                }
+                if (positionEquals(this.groupVertex[group], vertex)) {
+                    break;
                 }
+                slot = (slot + 1) & mask;
             }
+            this.vertexGroup[vertex] = group;
+        }
+    }
 
-            for (Future<?> fut : tasks) {
-                try {
-                    fut.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
-                }
+    private void calculateNormals() {
+        this.groupNormals = new float[this.numberOfGroups * 3];
+
+        Vector3f normal = new Vector3f();
+        for (int i = 0; i < this.indices.length; i += 3) {
+            int i0 = this.indices[i + 0];
+            int i1 = this.indices[i + 1];
+            int i2 = this.indices[i + 2];
+
+            MeshUtils.calculateTriangleNormal(
+                    this.vertices,
+                    this.vertexSize,
+                    this.xyzOffset,
+                    i0, i1, i2,
+                    normal
+            );
+            if (!normal.isFinite()) {
+                continue;
             }
 
-            tasks.clear();
+            for (int j = 0; j < 3; j++) {
+                int group = this.vertexGroup[this.indices[i + j]];
+                this.groupNormals[(group * 3) + 0] += normal.x();
+                this.groupNormals[(group * 3) + 1] += normal.y();
+                this.groupNormals[(group * 3) + 2] += normal.z();
+            }
         }
     }
 
-    private void calculateNormal(Vertex vertex, Vector3f outNormal) {
-        int triangle = (vertex.vertex / (this.vertexSize * 3));
+    private void computeAO() {
+        this.groupResults = new float[this.numberOfGroups];
+        Arrays.fill(this.groupResults, Float.NaN);
+        this.groupsCursor.set(0);
 
-        int i0 = ((triangle * 3) + 0);
-        int i1 = ((triangle * 3) + 1);
-        int i2 = ((triangle * 3) + 2);
+        int batches = (this.numberOfGroups + (GROUPS_PER_BATCH - 1)) / GROUPS_PER_BATCH;
+        int threads = Math.max(Math.min(SharedExecutor.NUMBER_OF_THREADS, batches), 1);
 
-        MeshUtils.calculateTriangleNormal(
-                this.vertices,
-                this.vertexSize,
-                this.xyzOffset,
-                i0, i1, i2,
-                outNormal
-        );
+        SharedExecutor.parallelFor(threads, (worker) -> computeAOBatches());
     }
 
-    private void computeAO(List<Vertex> vertices) {
-        float nX = 0f;
-        float nY = 0f;
-        float nZ = 0f;
+    private void computeAOBatches() {
+        Ray ray = new Ray();
         Vector3f normal = new Vector3f();
+        Vector3f tangent = new Vector3f();
+        Vector3f bitangent = new Vector3f();
+        Vector3f offsetPosition = new Vector3f();
+        Vector3f tangentDirection = new Vector3f();
+        Matrix3f TBN = new Matrix3f();
 
-        for (Vertex v : vertices) {
-            calculateNormal(v, normal);
-            if (normal.isFinite()) {
-                nX += normal.x();
-                nY += normal.y();
-                nZ += normal.z();
-            }
-        }
+        int start;
+        while ((start = this.groupsCursor.getAndAdd(GROUPS_PER_BATCH)) < this.numberOfGroups) {
+            int end = Math.min(start + GROUPS_PER_BATCH, this.numberOfGroups);
+            for (int group = start; group < end; group++) {
+                normal.set(
+                        this.groupNormals[(group * 3) + 0],
+                        this.groupNormals[(group * 3) + 1],
+                        this.groupNormals[(group * 3) + 2]
+                ).normalize();
+                if (!normal.isFinite()) {
+                    continue;
+                }
 
-        normal.set(nX, nY, nZ).normalize();
-        if (!normal.isFinite()) {
-            return;
-        }
+                float upX = 0f;
+                float upY = 1f;
+                float upZ = 0f;
 
-        float upX = 0f;
-        float upY = 1f;
-        float upZ = 0f;
+                if (Math.abs(normal.dot(upX, upY, upZ)) >= (1f - EPSILON)) {
+                    upY = 0f;
+                    upX = 1f;
+                }
 
-        if (Math.abs(normal.dot(upX, upY, upZ)) >= (1f - EPSILON)) {
-            upY = 0f;
-            upX = 1f;
-        }
+                normal.cross(upX, upY, upZ, tangent).normalize();
+                normal.cross(tangent, bitangent).normalize();
 
-        Vector3f tangent = normal.cross(upX, upY, upZ, new Vector3f()).normalize();
-        Vector3f bitangent = normal.cross(tangent, new Vector3f()).normalize();
+                TBN.set(tangent, bitangent, normal);
 
-        Matrix3f TBN = new Matrix3f(tangent, bitangent, normal);
+                int vertex = (this.groupVertex[group] * this.vertexSize) + this.xyzOffset;
+                offsetPosition.set(normal).mul(this.rayOffset).add(
+                        this.vertices[vertex + 0],
+                        this.vertices[vertex + 1],
+                        this.vertices[vertex + 2]
+                );
 
-        int vertex = vertices.get(0).vertex;
-        Vector3f offsetPosition = new Vector3f(normal).mul(this.rayOffset).add(
-                this.vertices[vertex + this.xyzOffset + 0],
-                this.vertices[vertex + this.xyzOffset + 1],
-                this.vertices[vertex + this.xyzOffset + 2]
-        );
-        
-        Vector3f tangentDirection = new Vector3f();
-        float result = 0f;
-        for (int i = 0; i < this.aoRays; i++) {
-            tangentDirection.set(this.randomTangents[i]);
-            TBN.transform(tangentDirection).normalize();
+                float result = 0f;
+                for (int i = 0; i < this.aoRays; i++) {
+                    tangentDirection.set(
+                            this.randomTangents[(i * 3) + 0],
+                            this.randomTangents[(i * 3) + 1],
+                            this.randomTangents[(i * 3) + 2]
+                    );
+                    TBN.transform(tangentDirection).normalize();
 
-            if (this.bvh.fastTestRay(offsetPosition, tangentDirection, this.aoSize)) {
-                result++;
-            }
-        }
-        result /= this.aoRays;
+                    ray.set(offsetPosition, tangentDirection);
+                    if (this.bvh.fastTestRay(ray, this.aoSize)) {
+                        result++;
+                    }
+                }
+                result /= this.aoRays;
 
-        for (Vertex v : vertices) {
-            this.vertices[v.vertex + this.outAoOffset] = result;
+                this.groupResults[group] = result;
+            }
         }
     }
-    
-    private void process() {
-        try {
-            createBVH();
-            mapVertices();
-            computeAO();
-        } finally {
-            this.service.shutdownNow();
+
+    //vertices without a valid normal are NaN
+    private float[] process() {
+        weldVertices();
+        calculateNormals();
+        computeAO();
+
+        float[] ao = new float[this.numberOfVertices];
+        for (int i = 0; i < ao.length; i++) {
+            ao[i] = this.groupResults[this.vertexGroup[i]];
         }
+        return ao;
     }
 }
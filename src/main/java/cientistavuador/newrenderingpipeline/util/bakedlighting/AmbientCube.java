@@ -27,6 +27,7 @@
 package cientistavuador.newrenderingpipeline.util.bakedlighting;
 
 import java.util.Arrays;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
@@ -150,6 +151,55 @@ public class AmbientCube {
         outDirection.set(x, y, z).normalize();
     }
 
+    public static float[] stratifiedSideDirections180(int side, int amount, long seed) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount is negative: " + amount);
+        }
+        
+        Vector3fc normal = SIDE_DIRECTIONS[side];
+        Vector3f tangent = new Vector3f();
+        Vector3f bitangent = new Vector3f();
+        if (Math.abs(normal.y()) < 0.5f) {
+            tangent.set(0f, 1f, 0f).cross(normal).normalize();
+        } else {
+            tangent.set(1f, 0f, 0f).cross(normal).normalize();
+        }
+        normal.cross(tangent, bitangent);
+        
+        int columns = Math.max((int) Math.floor(Math.sqrt(amount)), 1);
+        while (amount % columns != 0) {
+            columns--;
+        }
+        int rows = Math.max(amount / columns, 1);
+        
+        Random random = new Random(seed);
+        
+        float[] directions = new float[amount * 3];
+        for (int i = 0; i < amount; i++) {
+            float u = ((i % columns) + random.nextFloat()) / columns;
+            float v = ((i / columns) + random.nextFloat()) / rows;
+            
+            float cosTheta = u;
+            float sinTheta = (float) Math.sqrt(Math.max(1f - (cosTheta * cosTheta), 0f));
+            float phi = (float) (2.0 * Math.PI * v);
+            
+            float a = (float) Math.cos(phi) * sinTheta;
+            float b = (float) Math.sin(phi) * sinTheta;
+            
+            float x = (tangent.x() * a) + (bitangent.x() * b) + (normal.x() * cosTheta);
+            float y = (tangent.y() * a) + (bitangent.y() * b) + (normal.y() * cosTheta);
+            float z = (tangent.z() * a) + (bitangent.z() * b) + (normal.z() * cosTheta);
+            
+            float invlength = 1f / (float) Math.sqrt((x * x) + (y * y) + (z * z));
+            
+            directions[(i * 3) + 0] = x * invlength;
+            directions[(i * 3) + 1] = y * invlength;
+            directions[(i * 3) + 2] = z * invlength;
+        }
+        
+        return directions;
+    }
+
     public static void randomSideDirection90(int side, Vector3f outDirection) {
         Vector3fc[] quad = SIDE_QUADS[side];
 
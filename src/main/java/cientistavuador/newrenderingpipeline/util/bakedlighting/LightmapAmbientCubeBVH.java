@@ -27,6 +27,7 @@
 package cientistavuador.newrenderingpipeline.util.bakedlighting;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.joml.Intersectionf;
 import org.joml.Vector3f;
@@ -38,113 +39,302 @@ import org.joml.Vector3fc;
  */
 public class LightmapAmbientCubeBVH {
 
+    public static final int MORTON_BITS = 10;
+    public static final int MORTON_CELLS = 1 << MORTON_BITS;
+
+    private static int expandBits(int value) {
+        value = (value | (value << 16)) & 0x030000FF;
+        value = (value | (value << 8)) & 0x0300F00F;
+        value = (value | (value << 4)) & 0x030C30C3;
+        value = (value | (value << 2)) & 0x09249249;
+        return value;
+    }
+
+    private static int quantize(float value, float min, float inverseSize) {
+        int cell = (int) ((value - min) * inverseSize);
+        return Math.min(Math.max(cell, 0), MORTON_CELLS - 1);
+    }
+
+    private static float inverseSize(float min, float max) {
+        float size = max - min;
+        if (!(size > 0f) || !Float.isFinite(size)) {
+            return 0f;
+        }
+        return MORTON_CELLS / size;
+    }
+
+    private static class Builder {
+
+        private final List<LightmapAmbientCube> ambientCubes;
+        private final long[] sorted;
+        private final Vector3f min = new Vector3f();
+        private final Vector3f max = new Vector3f();
+
+        Builder(List<LightmapAmbientCube> ambientCubes, long[] sorted) {
+            this.ambientCubes = ambientCubes;
+            this.sorted = sorted;
+        }
+
+        private int code(int index) {
+            return (int) (this.sorted[index] >>> 32);
+        }
+
+        private int findSplit(int first, int last) {
+            int firstCode = code(first);
+            int lastCode = code(last);
+
+            if (firstCode == lastCode) {
+                return (first + last) >>> 1;
+            }
+
+            int commonPrefix = Integer.numberOfLeadingZeros(firstCode ^ lastCode);
+
+            int split = first;
+            int step = last - first;
+            do {
+                step = (step + 1) >>> 1;
+                int newSplit = split + step;
+                if (newSplit < last) {
+                    int splitPrefix = Integer.numberOfLeadingZeros(firstCode ^ code(newSplit));
+                    if (splitPrefix > commonPrefix) {
+                        split = newSplit;
+                    }
+                }
+            } while (step > 1);
+
+            return split;
+        }
+
+        public LightmapAmbientCubeBVH build(int first, int last) {
+            if (first == last) {
+                int cubeIndex = (int) this.sorted[first];
+                LightmapAmbientCube ambientCube = this.ambientCubes.get(cubeIndex);
+                float radius = ambientCube.getRadius();
+
+                this.min.set(ambientCube.getPosition()).sub(radius, radius, radius);
+                this.max.set(ambientCube.getPosition()).add(radius, radius, radius);
+
+                return new LightmapAmbientCubeBVH(
+                        this.ambientCubes,
+                        radius,
+                        this.min,
+                        this.max,
+                        cubeIndex,
+                        null, null
+                );
+            }
+
+            int split = findSplit(first, last);
+
+            LightmapAmbientCubeBVH left = build(first, split);
+            LightmapAmbientCubeBVH right = build(split + 1, last);
+
+            Vector3fc lmin = left.getMin();
+            Vector3fc lmax = left.getMax();
+            Vector3fc rmin = right.getMin();
+            Vector3fc rmax = right.getMax();
+
+            this.min.set(
+                    Math.min(lmin.x(), rmin.x()),
+                    Math.min(lmin.y(), rmin.y()),
+                    Math.min(lmin.z(), rmin.z())
+            );
+            this.max.set(
+                    Math.max(lmax.x(), rmax.x()),
+                    Math.max(lmax.y(), rmax.y()),
+                    Math.max(lmax.z(), rmax.z())
+            );
+
+            return new LightmapAmbientCubeBVH(
+                    this.ambientCubes,
+                    (left.getAverageRadius() + right.getAverageRadius()) * 0.5f,
+                    this.min, this.max,
+                    -1,
+                    left, right
+            );
+        }
+    }
+
     public static LightmapAmbientCubeBVH create(List<LightmapAmbientCube> ambientCubes) {
-        Vector3f min = new Vector3f();
-        Vector3f max = new Vector3f();
-        
         int lightmaps = 0;
         if (!ambientCubes.isEmpty()) {
             lightmaps = ambientCubes.get(0).getNumberOfAmbientCubes();
         }
-        
-        List<LightmapAmbientCubeBVH> current = new ArrayList<>();
-        
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+
         for (int i = 0; i < ambientCubes.size(); i++) {
             LightmapAmbientCube ambientCube = ambientCubes.get(i);
-            
+
             if (ambientCube.getNumberOfAmbientCubes() != lightmaps) {
                 throw new IllegalArgumentException("Ambient cube at index "+i+" has a invalid amount of lightmaps!");
             }
-            
-            float radius = ambientCube.getRadius();
-
-            min.set(ambientCube.getPosition()).sub(radius, radius, radius);
-            max.set(ambientCube.getPosition()).add(radius, radius, radius);
-
-            current.add(new LightmapAmbientCubeBVH(
-                    ambientCubes,
-                    radius,
-                    min,
-                    max,
-                    i,
-                    null, null
-            ));
-        }
-        
-        if (current.isEmpty()) {
+
+            Vector3fc position = ambientCube.getPosition();
+            minX = Math.min(minX, position.x());
+            minY = Math.min(minY, position.y());
+            minZ = Math.min(minZ, position.z());
+            maxX = Math.max(maxX, position.x());
+            maxY = Math.max(maxY, position.y());
+            maxZ = Math.max(maxZ, position.z());
+        }
+
+        if (ambientCubes.isEmpty()) {
             return new LightmapAmbientCubeBVH(ambientCubes, 0f, null, null, -1, null, null);
         }
 
-        List<LightmapAmbientCubeBVH> next = new ArrayList<>();
+        float inverseX = inverseSize(minX, maxX);
+        float inverseY = inverseSize(minY, maxY);
+        float inverseZ = inverseSize(minZ, maxZ);
 
-        while (current.size() > 1) {
-            for (int i = 0; i < current.size(); i++) {
-                LightmapAmbientCubeBVH currentBVH = current.get(i);
+        long[] sorted = new long[ambientCubes.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            Vector3fc position = ambientCubes.get(i).getPosition();
 
-                if (currentBVH == null) {
-                    continue;
+            int code = (expandBits(quantize(position.x(), minX, inverseX)) << 2)
+                    | (expandBits(quantize(position.y(), minY, inverseY)) << 1)
+                    | expandBits(quantize(position.z(), minZ, inverseZ));
+
+            sorted[i] = (((long) code) << 32) | i;
+        }
+        Arrays.sort(sorted);
+
+        return new Builder(ambientCubes, sorted).build(0, sorted.length - 1);
+    }
+
+    private static final ThreadLocal<int[]> searchStack = ThreadLocal.withInitial(() -> new int[64]);
+
+    private static class FlatTree {
+
+        private final float[] bounds;
+        private final int[] children;
+        private final float[] spheres;
+        private final int[] cubes;
+        private final int depth;
+
+        FlatTree(LightmapAmbientCubeBVH root) {
+            int numberOfNodes = 0;
+            int maxDepth = 0;
+
+            List<LightmapAmbientCubeBVH> stack = new ArrayList<>();
+            List<Integer> depths = new ArrayList<>();
+            stack.add(root);
+            depths.add(1);
+            while (!stack.isEmpty()) {
+                LightmapAmbientCubeBVH node = stack.remove(stack.size() - 1);
+                int nodeDepth = depths.remove(depths.size() - 1);
+                numberOfNodes++;
+                maxDepth = Math.max(maxDepth, nodeDepth);
+                if (node.getLeft() != null) {
+                    stack.add(node.getLeft());
+                    depths.add(nodeDepth + 1);
                 }
+                if (node.getRight() != null) {
+                    stack.add(node.getRight());
+                    depths.add(nodeDepth + 1);
+                }
+            }
 
-                int closestIndex = -1;
-                double closestDistance = Double.POSITIVE_INFINITY;
-                for (int j = (i + 1); j < current.size(); j++) {
-                    LightmapAmbientCubeBVH otherBVH = current.get(j);
+            this.bounds = new float[numberOfNodes * 6];
+            this.children = new int[numberOfNodes * 2];
+            this.spheres = new float[numberOfNodes * 4];
+            this.cubes = new int[numberOfNodes];
+            this.depth = maxDepth;
 
-                    if (otherBVH == null) {
-                        continue;
-                    }
+            LightmapAmbientCubeBVH[] nodes = new LightmapAmbientCubeBVH[numberOfNodes];
+            nodes[0] = root;
+            int nodesIndex = 1;
+            for (int i = 0; i < numberOfNodes; i++) {
+                LightmapAmbientCubeBVH node = nodes[i];
 
-                    double distance = otherBVH.getCenter().distanceSquared(currentBVH.getCenter());
-                    if (distance < closestDistance) {
-                        closestDistance = distance;
-                        closestIndex = j;
-                    }
+                this.bounds[(i * 6) + 0] = node.getMin().x();
+                this.bounds[(i * 6) + 1] = node.getMin().y();
+                this.bounds[(i * 6) + 2] = node.getMin().z();
+                this.bounds[(i * 6) + 3] = node.getMax().x();
+                this.bounds[(i * 6) + 4] = node.getMax().y();
+                this.bounds[(i * 6) + 5] = node.getMax().z();
+
+                int cubeIndex = node.getAmbientCubeIndex();
+                this.cubes[i] = cubeIndex;
+                if (cubeIndex >= 0) {
+                    LightmapAmbientCube cube = node.getAmbientCubes().get(cubeIndex);
+                    this.spheres[(i * 4) + 0] = cube.getPosition().x();
+                    this.spheres[(i * 4) + 1] = cube.getPosition().y();
+                    this.spheres[(i * 4) + 2] = cube.getPosition().z();
+                    this.spheres[(i * 4) + 3] = cube.getRadius();
                 }
 
-                if (closestIndex == -1) {
-                    next.add(currentBVH);
-                    break;
+                this.children[(i * 2) + 0] = -1;
+                this.children[(i * 2) + 1] = -1;
+                if (node.getLeft() != null) {
+                    this.children[(i * 2) + 0] = nodesIndex;
+                    nodes[nodesIndex++] = node.getLeft();
                 }
+                if (node.getRight() != null) {
+                    this.children[(i * 2) + 1] = nodesIndex;
+                    nodes[nodesIndex++] = node.getRight();
+                }
+            }
+        }
 
-                LightmapAmbientCubeBVH otherBVH = current.get(closestIndex);
+        public int search(float x, float y, float z, float searchRadius, int[] output) {
+            float searchRadiusSquared = searchRadius * searchRadius;
 
-                current.set(i, null);
-                current.set(closestIndex, null);
+            int[] stack = searchStack.get();
+            if (stack.length < (this.depth * 2) + 1) {
+                stack = new int[(this.depth * 2) + 1];
+                searchStack.set(stack);
+            }
+            int stackSize = 0;
+            stack[stackSize++] = 0;
 
-                Vector3fc cmin = currentBVH.getMin();
-                Vector3fc cmax = currentBVH.getMax();
-                Vector3fc tmin = otherBVH.getMin();
-                Vector3fc tmax = otherBVH.getMax();
+            int found = 0;
+            while (stackSize > 0) {
+                int node = stack[--stackSize];
 
-                min.set(
-                        Math.min(cmin.x(), tmin.x()),
-                        Math.min(cmin.y(), tmin.y()),
-                        Math.min(cmin.z(), tmin.z())
-                );
-                max.set(
-                        Math.max(cmax.x(), tmax.x()),
-                        Math.max(cmax.y(), tmax.y()),
-                        Math.max(cmax.z(), tmax.z())
-                );
-                
-                
-                LightmapAmbientCubeBVH merge = new LightmapAmbientCubeBVH(
-                        ambientCubes,
-                        (currentBVH.getAverageRadius() + otherBVH.getAverageRadius()) * 0.5f,
-                        min, max,
-                        -1,
-                        currentBVH, otherBVH
-                );
-                next.add(merge);
+                if (!Intersectionf.testAabSphere(
+                        this.bounds[(node * 6) + 0], this.bounds[(node * 6) + 1], this.bounds[(node * 6) + 2],
+                        this.bounds[(node * 6) + 3], this.bounds[(node * 6) + 4], this.bounds[(node * 6) + 5],
+                        x, y, z,
+                        searchRadiusSquared
+                )) {
+                    continue;
+                }
+
+                int cubeIndex = this.cubes[node];
+                if (cubeIndex >= 0) {
+                    float cubeRadius = this.spheres[(node * 4) + 3];
+                    if (Intersectionf.testSphereSphere(
+                            this.spheres[(node * 4) + 0], this.spheres[(node * 4) + 1], this.spheres[(node * 4) + 2],
+                            cubeRadius * cubeRadius,
+                            x, y, z, searchRadiusSquared
+                    )) {
+                        if (found < output.length) {
+                            output[found] = cubeIndex;
+                        }
+                        found++;
+                    }
+                }
+
+                int right = this.children[(node * 2) + 1];
+                if (right != -1) {
+                    stack[stackSize++] = right;
+                }
+                int left = this.children[(node * 2) + 0];
+                if (left != -1) {
+                    stack[stackSize++] = left;
+                }
             }
 
-            current = next;
-            next = new ArrayList<>();
+            return found;
         }
-
-        return current.get(0);
     }
-    
+
     private final List<LightmapAmbientCube> ambientCubes;
     private final float averageRadius;
     
@@ -157,6 +347,8 @@ public class LightmapAmbientCubeBVH {
     private final LightmapAmbientCubeBVH left;
     private final LightmapAmbientCubeBVH right;
 
+    private volatile FlatTree flatTree = null;
+
     public LightmapAmbientCubeBVH(
             List<LightmapAmbientCube> ambientCubes,
             float averageRadius,
@@ -208,45 +400,52 @@ public class LightmapAmbientCubeBVH {
         return right;
     }
     
-    private void search(
-            LightmapAmbientCubeBVH bvh,
-            List<LightmapAmbientCube> list, 
-            float x, float y, float z,
-            float searchRadius
-    ) {
-        if (bvh == null) {
-            return;
-        }
-        if (!Intersectionf.testAabSphere(
-                bvh.getMin().x(), bvh.getMin().y(), bvh.getMin().z(),
-                bvh.getMax().x(), bvh.getMax().y(), bvh.getMax().z(),
-                x, y, z,
-                searchRadius * searchRadius
-        )) {
-            return;
-        }
-        
-        int cubeIndex = bvh.getAmbientCubeIndex();
-        if (cubeIndex >= 0) {
-            LightmapAmbientCube cube = bvh.getAmbientCubes().get(cubeIndex);
-            
-            Vector3fc cubePos = cube.getPosition();
-            float cubeRadius = cube.getRadius();
-            if (Intersectionf.testSphereSphere(
-                    cubePos.x(), cubePos.y(), cubePos.z(), cubeRadius * cubeRadius,
-                    x, y, z, searchRadius * searchRadius
-            )) {
-                list.add(cube);
+    private FlatTree getFlatTree() {
+        FlatTree tree = this.flatTree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = this.flatTree;
+                if (tree == null) {
+                    tree = new FlatTree(this);
+                    this.flatTree = tree;
+                }
             }
         }
-        
-        search(bvh.getLeft(), list, x, y, z, searchRadius);
-        search(bvh.getRight(), list, x, y, z, searchRadius);
+        return tree;
     }
-    
+
+    /**
+     * Searches the ambient cubes that intersect the given sphere, the indices
+     * of the cubes in {@link #getAmbientCubes()} are written to the output
+     * array, returns the amount of cubes found, which may be larger than the
+     * output length, in that case only the first output length cubes were
+     * written.
+     *
+     * @param x the sphere x
+     * @param y the sphere y
+     * @param z the sphere z
+     * @param searchRadius the sphere radius
+     * @param output the output array of cube indices
+     * @return the amount of cubes found
+     */
+    public int search(float x, float y, float z, float searchRadius, int[] output) {
+        if (this.ambientCubes.isEmpty()) {
+            return 0;
+        }
+        return getFlatTree().search(x, y, z, searchRadius, output);
+    }
+
     public List<LightmapAmbientCube> search(float x, float y, float z, float searchRadius) {
-        List<LightmapAmbientCube> cubes = new ArrayList<>();
-        search(this, cubes, x, y, z, searchRadius);
+        int[] output = new int[16];
+        int found = search(x, y, z, searchRadius, output);
+        if (found > output.length) {
+            output = new int[found];
+            search(x, y, z, searchRadius, output);
+        }
+        List<LightmapAmbientCube> cubes = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            cubes.add(this.ambientCubes.get(output[i]));
+        }
         return cubes;
     }
 }
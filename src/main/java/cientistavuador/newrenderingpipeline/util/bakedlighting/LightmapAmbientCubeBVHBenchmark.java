@@ -0,0 +1,204 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util.bakedlighting;
+
+import cientistavuador.newrenderingpipeline.util.BenchmarkUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapAmbientCubeBVHBenchmark {
+
+    public static final int[] CUBE_COUNTS = {10000, 100000, 1000000};
+    public static final int MAXIMUM_REFERENCE_CUBES = 10000;
+    public static final float MAP_SIZE = 200f;
+    public static final int QUERIES = 200000;
+
+    private static List<LightmapAmbientCube> randomCubes(int amount, long seed) {
+        Random random = new Random(seed);
+        float spacing = (float) (MAP_SIZE / Math.cbrt(amount));
+        List<LightmapAmbientCube> cubes = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            cubes.add(new LightmapAmbientCube(
+                    random.nextFloat() * MAP_SIZE,
+                    random.nextFloat() * MAP_SIZE,
+                    random.nextFloat() * MAP_SIZE,
+                    spacing * (0.5f + random.nextFloat()),
+                    1
+            ));
+        }
+        return cubes;
+    }
+
+    private static LightmapAmbientCubeBVH referenceCreate(List<LightmapAmbientCube> ambientCubes) {
+        Vector3f min = new Vector3f();
+        Vector3f max = new Vector3f();
+
+        List<LightmapAmbientCubeBVH> current = new ArrayList<>();
+        for (int i = 0; i < ambientCubes.size(); i++) {
+            LightmapAmbientCube ambientCube = ambientCubes.get(i);
+            float radius = ambientCube.getRadius();
+            min.set(ambientCube.getPosition()).sub(radius, radius, radius);
+            max.set(ambientCube.getPosition()).add(radius, radius, radius);
+            current.add(new LightmapAmbientCubeBVH(ambientCubes, radius, min, max, i, null, null));
+        }
+
+        List<LightmapAmbientCubeBVH> next = new ArrayList<>();
+        while (current.size() > 1) {
+            for (int i = 0; i < current.size(); i++) {
+                LightmapAmbientCubeBVH currentBVH = current.get(i);
+                if (currentBVH == null) {
+                    continue;
+                }
+
+                int closestIndex = -1;
+                double closestDistance = Double.POSITIVE_INFINITY;
+                for (int j = (i + 1); j < current.size(); j++) {
+                    LightmapAmbientCubeBVH otherBVH = current.get(j);
+                    if (otherBVH == null) {
+                        continue;
+                    }
+                    double distance = otherBVH.getCenter().distanceSquared(currentBVH.getCenter());
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closestIndex = j;
+                    }
+                }
+
+                if (closestIndex == -1) {
+                    next.add(currentBVH);
+                    break;
+                }
+
+                LightmapAmbientCubeBVH otherBVH = current.get(closestIndex);
+                current.set(i, null);
+                current.set(closestIndex, null);
+
+                Vector3fc cmin = currentBVH.getMin();
+                Vector3fc cmax = currentBVH.getMax();
+                Vector3fc tmin = otherBVH.getMin();
+                Vector3fc tmax = otherBVH.getMax();
+                min.set(Math.min(cmin.x(), tmin.x()), Math.min(cmin.y(), tmin.y()), Math.min(cmin.z(), tmin.z()));
+                max.set(Math.max(cmax.x(), tmax.x()), Math.max(cmax.y(), tmax.y()), Math.max(cmax.z(), tmax.z()));
+
+                next.add(new LightmapAmbientCubeBVH(
+                        ambientCubes,
+                        (currentBVH.getAverageRadius() + otherBVH.getAverageRadius()) * 0.5f,
+                        min, max,
+                        -1,
+                        currentBVH, otherBVH
+                ));
+            }
+            current = next;
+            next = new ArrayList<>();
+        }
+
+        return current.get(0);
+    }
+
+    private static int[] sortedSearch(LightmapAmbientCubeBVH bvh, float x, float y, float z, float radius) {
+        int[] output = new int[64];
+        int found = bvh.search(x, y, z, radius, output);
+        if (found > output.length) {
+            output = new int[found];
+            bvh.search(x, y, z, radius, output);
+        }
+        output = Arrays.copyOf(output, found);
+        Arrays.sort(output);
+        return output;
+    }
+
+    public static void main(String[] args) {
+        BenchmarkUtils.printThreads();
+
+        for (int count : CUBE_COUNTS) {
+            List<LightmapAmbientCube> cubes = randomCubes(count, count);
+
+            long start = System.nanoTime();
+            LightmapAmbientCubeBVH bvh = LightmapAmbientCubeBVH.create(cubes);
+            long buildTime = System.nanoTime() - start;
+
+            float radius = bvh.getAverageRadius() * 2f;
+            int[] output = new int[256];
+            Random random = new Random(count * 7L);
+
+            bvh.search(0f, 0f, 0f, radius, output);
+
+            long found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                found += bvh.search(
+                        random.nextFloat() * MAP_SIZE,
+                        random.nextFloat() * MAP_SIZE,
+                        random.nextFloat() * MAP_SIZE,
+                        radius,
+                        output
+                );
+            }
+            long searchTime = System.nanoTime() - start;
+
+            boolean equal = true;
+            String result = String.format("%,d", count) + " cubes: "
+                    + String.format("%,.3f", buildTime / 1E6) + "ms build, "
+                    + String.format("%,.0f", QUERIES / (searchTime / 1E9)) + " queries/s, "
+                    + String.format("%.2f", ((double) found) / QUERIES) + " cubes per query";
+
+            if (count <= MAXIMUM_REFERENCE_CUBES) {
+                start = System.nanoTime();
+                LightmapAmbientCubeBVH reference = referenceCreate(cubes);
+                long referenceTime = System.nanoTime() - start;
+
+                for (int i = 0; i < 10000; i++) {
+                    float x = random.nextFloat() * MAP_SIZE;
+                    float y = random.nextFloat() * MAP_SIZE;
+                    float z = random.nextFloat() * MAP_SIZE;
+                    if (!Arrays.equals(sortedSearch(bvh, x, y, z, radius), sortedSearch(reference, x, y, z, radius))) {
+                        equal = false;
+                        break;
+                    }
+                }
+
+                result += ", reference " + String.format("%,.3f", referenceTime / 1E6) + "ms build ("
+                        + (equal ? "same results" : "DIFFERENT RESULTS") + ")";
+            }
+
+            System.out.println(result);
+
+            BenchmarkUtils.check(equal, String.format("%,d", count) + " cubes: search differs from the reference!");
+        }
+
+        System.exit(0);
+    }
+
+}
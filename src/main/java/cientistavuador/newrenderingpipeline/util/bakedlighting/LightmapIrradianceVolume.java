@@ -0,0 +1,423 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util.bakedlighting;
+
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
+import java.util.Arrays;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapIrradianceVolume {
+
+    public static final int BRICK_SIZE = 4;
+    public static final int BRICK_PROBES = BRICK_SIZE * BRICK_SIZE * BRICK_SIZE;
+    public static final int MAX_RESOLUTION = 512;
+    public static final long DEFAULT_MAX_MEMORY = 16L * 1024L * 1024L;
+
+    public static interface ProbeSampler {
+
+        /**
+         * Samples the visibility resolved ambient cubes at a position, the
+         * output receives numberOfLightmaps * SIDES * 3 values (lightmap,
+         * side, rgb) starting at the offset, without any lightmap intensity
+         * applied.
+         *
+         * @param x the probe x
+         * @param y the probe y
+         * @param z the probe z
+         * @param output the output array
+         * @param offset the output offset
+         * @return false if no ambient cube is visible from the position
+         */
+        public boolean sample(float x, float y, float z, float[] output, int offset);
+    }
+
+    private static class Layout {
+
+        float cellSize;
+        int probesX;
+        int probesY;
+        int probesZ;
+        int bricksX;
+        int bricksY;
+        int bricksZ;
+        int[] bricks;
+        int numberOfBricks;
+
+        long memory(long brickMemory) {
+            return (this.bricks.length * ((long) Integer.BYTES)) + (this.numberOfBricks * brickMemory);
+        }
+    }
+
+    private static Layout layout(LightmapAmbientCubeBVH ambientCubes, float searchRadius, float cellSize) {
+        Vector3fc min = ambientCubes.getMin();
+        Vector3fc max = ambientCubes.getMax();
+
+        Layout layout = new Layout();
+        layout.cellSize = cellSize;
+        layout.probesX = ((int) Math.ceil((max.x() - min.x()) / cellSize)) + 1;
+        layout.probesY = ((int) Math.ceil((max.y() - min.y()) / cellSize)) + 1;
+        layout.probesZ = ((int) Math.ceil((max.z() - min.z()) / cellSize)) + 1;
+        layout.bricksX = (layout.probesX + (BRICK_SIZE - 1)) / BRICK_SIZE;
+        layout.bricksY = (layout.probesY + (BRICK_SIZE - 1)) / BRICK_SIZE;
+        layout.bricksZ = (layout.probesZ + (BRICK_SIZE - 1)) / BRICK_SIZE;
+        layout.bricks = new int[layout.bricksX * layout.bricksY * layout.bricksZ];
+        Arrays.fill(layout.bricks, -1);
+
+        float brickSize = cellSize * BRICK_SIZE;
+        for (LightmapAmbientCube cube : ambientCubes.getAmbientCubes()) {
+            Vector3fc position = cube.getPosition();
+            float reach = cube.getRadius() + searchRadius;
+
+            int minBrickX = Math.max((int) Math.floor((position.x() - reach - min.x()) / brickSize), 0);
+            int minBrickY = Math.max((int) Math.floor((position.y() - reach - min.y()) / brickSize), 0);
+            int minBrickZ = Math.max((int) Math.floor((position.z() - reach - min.z()) / brickSize), 0);
+            int maxBrickX = Math.min((int) Math.floor((position.x() + reach - min.x()) / brickSize), layout.bricksX - 1);
+            int maxBrickY = Math.min((int) Math.floor((position.y() + reach - min.y()) / brickSize), layout.bricksY - 1);
+            int maxBrickZ = Math.min((int) Math.floor((position.z() + reach - min.z()) / brickSize), layout.bricksZ - 1);
+
+            for (int z = minBrickZ; z <= maxBrickZ; z++) {
+                for (int y = minBrickY; y <= maxBrickY; y++) {
+                    for (int x = minBrickX; x <= maxBrickX; x++) {
+                        int brick = x + (y * layout.bricksX) + (z * layout.bricksX * layout.bricksY);
+                        if (layout.bricks[brick] == -1) {
+                            layout.bricks[brick] = layout.numberOfBricks++;
+                        }
+                    }
+                }
+            }
+        }
+
+        return layout;
+    }
+
+    /**
+     * Creates a sparse irradiance volume around the given ambient cubes, only
+     * bricks of 4x4x4 probes that can reach an ambient cube are stored, the
+     * probe spacing starts at the average ambient cube radius and is doubled
+     * until the volume fits in the given amount of memory, returns null if
+     * there are no ambient cubes.
+     *
+     * @param ambientCubes the baked ambient cubes
+     * @param searchRadius the radius used to search ambient cubes
+     * @param sampler the probe sampler
+     * @param maxMemory the max amount of memory in bytes
+     * @return the irradiance volume or null
+     */
+    public static LightmapIrradianceVolume create(
+            LightmapAmbientCubeBVH ambientCubes,
+            float searchRadius,
+            ProbeSampler sampler,
+            long maxMemory
+    ) {
+        if (ambientCubes.getAmbientCubes().isEmpty()) {
+            return null;
+        }
+        if (!(ambientCubes.getAverageRadius() > 0f)) {
+            return null;
+        }
+
+        int numberOfLightmaps = ambientCubes.getAmbientCubes().get(0).getNumberOfAmbientCubes();
+        long brickMemory = ((long) BRICK_PROBES) * ((numberOfLightmaps * AmbientCube.SIDES * 3 * Float.BYTES) + 1);
+
+        Vector3fc min = ambientCubes.getMin();
+        Vector3fc max = ambientCubes.getMax();
+        float largestSide = Math.max(max.x() - min.x(), Math.max(max.y() - min.y(), max.z() - min.z()));
+
+        float cellSize = Math.max(ambientCubes.getAverageRadius(), largestSide / (MAX_RESOLUTION - 1));
+        Layout layout = layout(ambientCubes, searchRadius, cellSize);
+        while (layout.memory(brickMemory) > maxMemory && layout.bricks.length > 1) {
+            cellSize *= 2f;
+            layout = layout(ambientCubes, searchRadius, cellSize);
+        }
+
+        LightmapIrradianceVolume volume = new LightmapIrradianceVolume(
+                numberOfLightmaps,
+                min.x(), min.y(), min.z(),
+                layout.cellSize,
+                layout.probesX, layout.probesY, layout.probesZ,
+                layout.bricks,
+                new float[layout.numberOfBricks * BRICK_PROBES * numberOfLightmaps * AmbientCube.SIDES * 3],
+                new boolean[layout.numberOfBricks * BRICK_PROBES]
+        );
+        volume.bake(sampler, layout.numberOfBricks);
+
+        return volume;
+    }
+
+    private final int numberOfLightmaps;
+    private final float minX;
+    private final float minY;
+    private final float minZ;
+    private final float cellSize;
+    private final int probesX;
+    private final int probesY;
+    private final int probesZ;
+    private final int bricksX;
+    private final int bricksY;
+    private final int bricksZ;
+    private final int[] bricks;
+    private final float[] probes;
+    private final boolean[] valid;
+    private final int probeValues;
+
+    public LightmapIrradianceVolume(
+            int numberOfLightmaps,
+            float minX, float minY, float minZ,
+            float cellSize,
+            int probesX, int probesY, int probesZ,
+            int[] bricks,
+            float[] probes,
+            boolean[] valid
+    ) {
+        this.numberOfLightmaps = numberOfLightmaps;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.cellSize = cellSize;
+        this.probesX = probesX;
+        this.probesY = probesY;
+        this.probesZ = probesZ;
+        this.bricksX = (probesX + (BRICK_SIZE - 1)) / BRICK_SIZE;
+        this.bricksY = (probesY + (BRICK_SIZE - 1)) / BRICK_SIZE;
+        this.bricksZ = (probesZ + (BRICK_SIZE - 1)) / BRICK_SIZE;
+        this.probeValues = numberOfLightmaps * AmbientCube.SIDES * 3;
+
+        if (bricks.length != (this.bricksX * this.bricksY * this.bricksZ)) {
+            throw new IllegalArgumentException("Bricks length is not " + (this.bricksX * this.bricksY * this.bricksZ));
+        }
+        if ((valid.length % BRICK_PROBES) != 0) {
+            throw new IllegalArgumentException("Valid length is not a multiple of " + BRICK_PROBES);
+        }
+        if (probes.length != (valid.length * this.probeValues)) {
+            throw new IllegalArgumentException("Probes length is not " + (valid.length * this.probeValues));
+        }
+
+        this.bricks = bricks;
+        this.probes = probes;
+        this.valid = valid;
+    }
+
+    private void bakeBrick(ProbeSampler sampler, int brickX, int brickY, int brickZ, int brick) {
+        for (int z = 0; z < BRICK_SIZE; z++) {
+            for (int y = 0; y < BRICK_SIZE; y++) {
+                for (int x = 0; x < BRICK_SIZE; x++) {
+                    int probeX = (brickX * BRICK_SIZE) + x;
+                    int probeY = (brickY * BRICK_SIZE) + y;
+                    int probeZ = (brickZ * BRICK_SIZE) + z;
+                    if (probeX >= this.probesX || probeY >= this.probesY || probeZ >= this.probesZ) {
+                        continue;
+                    }
+
+                    int probe = (brick * BRICK_PROBES) + x + (y * BRICK_SIZE) + (z * BRICK_SIZE * BRICK_SIZE);
+                    this.valid[probe] = sampler.sample(
+                            this.minX + (probeX * this.cellSize),
+                            this.minY + (probeY * this.cellSize),
+                            this.minZ + (probeZ * this.cellSize),
+                            this.probes, probe * this.probeValues
+                    );
+                }
+            }
+        }
+    }
+
+    private void bake(ProbeSampler sampler, int numberOfBricks) {
+        int[] brickCells = new int[numberOfBricks];
+        for (int i = 0; i < this.bricks.length; i++) {
+            if (this.bricks[i] != -1) {
+                brickCells[this.bricks[i]] = i;
+            }
+        }
+
+        SharedExecutor.parallelFor(numberOfBricks, (brick) -> {
+            int cell = brickCells[brick];
+            int brickX = cell % this.bricksX;
+            int brickY = (cell / this.bricksX) % this.bricksY;
+            int brickZ = cell / (this.bricksX * this.bricksY);
+            bakeBrick(sampler, brickX, brickY, brickZ, brick);
+        });
+    }
+
+    public int getNumberOfLightmaps() {
+        return numberOfLightmaps;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMinZ() {
+        return minZ;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public int getProbesX() {
+        return probesX;
+    }
+
+    public int getProbesY() {
+        return probesY;
+    }
+
+    public int getProbesZ() {
+        return probesZ;
+    }
+
+    public int[] getBricks() {
+        return bricks;
+    }
+
+    public float[] getProbes() {
+        return probes;
+    }
+
+    public boolean[] getValid() {
+        return valid;
+    }
+
+    public int getNumberOfBricks() {
+        return this.valid.length / BRICK_PROBES;
+    }
+
+    public long getMemoryUsage() {
+        return (this.bricks.length * 4L) + (this.probes.length * 4L) + this.valid.length;
+    }
+
+    private int probeIndex(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= this.probesX || y >= this.probesY || z >= this.probesZ) {
+            return -1;
+        }
+        int brick = this.bricks[
+                (x / BRICK_SIZE)
+                + ((y / BRICK_SIZE) * this.bricksX)
+                + ((z / BRICK_SIZE) * this.bricksX * this.bricksY)
+        ];
+        if (brick == -1) {
+            return -1;
+        }
+        int probe = (brick * BRICK_PROBES)
+                + (x % BRICK_SIZE)
+                + ((y % BRICK_SIZE) * BRICK_SIZE)
+                + ((z % BRICK_SIZE) * BRICK_SIZE * BRICK_SIZE);
+        if (!this.valid[probe]) {
+            return -1;
+        }
+        return probe;
+    }
+
+    /**
+     * Trilinearly samples the volume, probes that are missing or that could
+     * not see any ambient cube are ignored and the remaining weights are
+     * renormalized, returns false if none of the eight probes are usable.
+     *
+     * @param x the x position
+     * @param y the y position
+     * @param z the z position
+     * @param intensities the intensity of each lightmap
+     * @param sides a scratch array of at least SIDES * 3 floats
+     * @param outAmbientCube the output ambient cube
+     * @return true if the output was written
+     */
+    public boolean sample(float x, float y, float z, float[] intensities, float[] sides, AmbientCube outAmbientCube) {
+        if (sides.length < AmbientCube.SIDES * 3) {
+            throw new IllegalArgumentException("Sides scratch array too small, requires " + (AmbientCube.SIDES * 3) + " floats!");
+        }
+
+        float fx = (x - this.minX) / this.cellSize;
+        float fy = (y - this.minY) / this.cellSize;
+        float fz = (z - this.minZ) / this.cellSize;
+        if (!Float.isFinite(fx) || !Float.isFinite(fy) || !Float.isFinite(fz)) {
+            return false;
+        }
+
+        int ix = (int) Math.floor(fx);
+        int iy = (int) Math.floor(fy);
+        int iz = (int) Math.floor(fz);
+        if (ix < -1 || iy < -1 || iz < -1 || ix >= this.probesX || iy >= this.probesY || iz >= this.probesZ) {
+            return false;
+        }
+
+        float tx = fx - ix;
+        float ty = fy - iy;
+        float tz = fz - iz;
+
+        Arrays.fill(sides, 0, AmbientCube.SIDES * 3, 0f);
+        float totalWeight = 0f;
+
+        for (int corner = 0; corner < 8; corner++) {
+            int cx = corner & 1;
+            int cy = (corner >> 1) & 1;
+            int cz = (corner >> 2) & 1;
+
+            int probe = probeIndex(ix + cx, iy + cy, iz + cz);
+            if (probe == -1) {
+                continue;
+            }
+
+            float weight = (cx == 1 ? tx : 1f - tx)
+                    * (cy == 1 ? ty : 1f - ty)
+                    * (cz == 1 ? tz : 1f - tz);
+            if (weight <= 0f) {
+                continue;
+            }
+            totalWeight += weight;
+
+            int offset = probe * this.probeValues;
+            for (int lightmap = 0; lightmap < this.numberOfLightmaps; lightmap++) {
+                float intensity = weight * intensities[lightmap];
+                for (int i = 0; i < AmbientCube.SIDES * 3; i++) {
+                    sides[i] += this.probes[offset++] * intensity;
+                }
+            }
+        }
+
+        if (!(totalWeight > 0f)) {
+            return false;
+        }
+
+        float invTotalWeight = 1f / totalWeight;
+        for (int side = 0; side < AmbientCube.SIDES; side++) {
+            outAmbientCube.setSide(side,
+                    sides[(side * 3) + 0] * invTotalWeight,
+                    sides[(side * 3) + 1] * invTotalWeight,
+                    sides[(side * 3) + 2] * invTotalWeight
+            );
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util.bakedlighting;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapIrradianceVolumeStore {
+
+    public static final long MAGIC_NUMBER = 6092761539837064714L;
+
+    public static void writeVolume(LightmapIrradianceVolume volume, OutputStream outputStream) throws IOException {
+        GZIPOutputStream gzipOut = new GZIPOutputStream(outputStream);
+        ObjectOutputStream out = new ObjectOutputStream(gzipOut);
+
+        out.writeLong(MAGIC_NUMBER);
+
+        out.writeInt(volume.getNumberOfLightmaps());
+
+        out.writeFloat(volume.getMinX());
+        out.writeFloat(volume.getMinY());
+        out.writeFloat(volume.getMinZ());
+        out.writeFloat(volume.getCellSize());
+
+        out.writeInt(volume.getProbesX());
+        out.writeInt(volume.getProbesY());
+        out.writeInt(volume.getProbesZ());
+
+        int[] bricks = volume.getBricks();
+        out.writeInt(bricks.length);
+        for (int brick : bricks) {
+            out.writeInt(brick);
+        }
+
+        boolean[] valid = volume.getValid();
+        out.writeInt(valid.length);
+        for (boolean v : valid) {
+            out.writeBoolean(v);
+        }
+
+        float[] probes = volume.getProbes();
+        out.writeInt(probes.length);
+        for (float value : probes) {
+            out.writeFloat(value);
+        }
+
+        out.flush();
+        gzipOut.finish();
+    }
+
+    public static LightmapIrradianceVolume readVolume(InputStream inputStream) throws IOException {
+        GZIPInputStream gzipIn = new GZIPInputStream(inputStream);
+        ObjectInputStream in = new ObjectInputStream(gzipIn);
+
+        long magic = in.readLong();
+        if (magic != MAGIC_NUMBER) {
+            throw new IOException("Invalid irradiance volume magic number!");
+        }
+
+        int numberOfLightmaps = in.readInt();
+
+        float minX = in.readFloat();
+        float minY = in.readFloat();
+        float minZ = in.readFloat();
+        float cellSize = in.readFloat();
+
+        int probesX = in.readInt();
+        int probesY = in.readInt();
+        int probesZ = in.readInt();
+
+        int[] bricks = new int[in.readInt()];
+        for (int i = 0; i < bricks.length; i++) {
+            bricks[i] = in.readInt();
+        }
+
+        boolean[] valid = new boolean[in.readInt()];
+        for (int i = 0; i < valid.length; i++) {
+            valid[i] = in.readBoolean();
+        }
+
+        float[] probes = new float[in.readInt()];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = in.readFloat();
+        }
+
+        try {
+            return new LightmapIrradianceVolume(
+                    numberOfLightmaps,
+                    minX, minY, minZ,
+                    cellSize,
+                    probesX, probesY, probesZ,
+                    bricks,
+                    probes,
+                    valid
+            );
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    public static LightmapIrradianceVolume readVolume(byte[] data) {
+        try {
+            return readVolume(new ByteArrayInputStream(data));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private LightmapIrradianceVolumeStore() {
+
+    }
+
+}
@@ -34,6 +34,7 @@ import cientistavuador.newrenderingpipeline.util.postprocess.GaussianBlur;
 import cientistavuador.newrenderingpipeline.util.postprocess.MarginAutomata;
 import cientistavuador.newrenderingpipeline.util.raycast.BVH;
 import cientistavuador.newrenderingpipeline.util.raycast.LocalRayResult;
+import cientistavuador.newrenderingpipeline.util.raycast.Ray;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -448,6 +449,8 @@ public class Lightmapper {
 
         this.opaqueBVH = BVH.create(this.opaqueMesh, opaqueIndices, VERTEX_SIZE, OFFSET_POSITION_XYZ);
         this.alphaBVH = BVH.create(this.alphaMesh, alphaIndices, VERTEX_SIZE, OFFSET_POSITION_XYZ);
+        this.opaqueBVH.generateTriangleRecords();
+        this.alphaBVH.generateTriangleRecords();
 
         this.mesh = new float[this.opaqueMesh.length + this.alphaMesh.length];
         System.arraycopy(this.opaqueMesh, 0, this.mesh, 0, this.opaqueMesh.length);
@@ -921,11 +924,9 @@ public class Lightmapper {
                         for (int j = 0; j < NUMBER_OF_AMBIENT_CUBE_OCCLUSION_RAYS_PER_SIDE; j++) {
                             AmbientCube.randomSideDirection90(side, rayDirection);
 
-                            List<LocalRayResult> rays = this.opaqueBVH.testRay(
-                                    rayPosition,
-                                    rayDirection
-                            );
-                            rays.addAll(this.alphaBVH.testRay(rayPosition, rayDirection));
+                            Ray ray = new Ray(rayPosition, rayDirection);
+                            List<LocalRayResult> rays = this.opaqueBVH.testRay(ray);
+                            rays.addAll(this.alphaBVH.testRay(ray));
 
                             rays.sort((o1, o2) -> Float.compare(o1.getLocalDistance(), o2.getLocalDistance()));
 
@@ -1466,8 +1467,9 @@ public class Lightmapper {
             return null;
         }
 
-        List<LocalRayResult> opaqueRays = this.opaqueBVH.testRay(position, direction);
-        List<LocalRayResult> alphaRays = this.alphaBVH.testRay(position, direction);
+        Ray indirectRay = new Ray(position, direction);
+        List<LocalRayResult> opaqueRays = this.opaqueBVH.testRay(indirectRay);
+        List<LocalRayResult> alphaRays = this.alphaBVH.testRay(indirectRay);
 
         addRay();
         addRay();
@@ -1773,11 +1775,9 @@ public class Lightmapper {
                         for (int k = 0; k < NUMBER_OF_AMBIENT_CUBE_RAYS_PER_SIDE; k++) {
                             AmbientCube.randomSideDirection180(side, rayDirection);
 
-                            List<LocalRayResult> results = this.opaqueBVH.testRay(
-                                    cube.getPosition(),
-                                    rayDirection
-                            );
-                            results.addAll(this.alphaBVH.testRay(cube.getPosition(), rayDirection));
+                            Ray cubeRay = new Ray(cube.getPosition(), rayDirection);
+                            List<LocalRayResult> results = this.opaqueBVH.testRay(cubeRay);
+                            results.addAll(this.alphaBVH.testRay(cubeRay));
                             Comparator<LocalRayResult> comparator = ((o1, o2) -> Float.compare(o1.getLocalDistance(), o2.getLocalDistance()));
                             results.sort(comparator.reversed());
 
@@ -26,11 +26,10 @@
  */
 package cientistavuador.newrenderingpipeline.util.postprocess;
 
+import cientistavuador.newrenderingpipeline.util.SharedExecutor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
@@ -92,8 +91,6 @@ public class MarginAutomata {
     };
     private static final int NEIGHBORS_ROTATED = NEIGHBORS_POSITIONS_ROTATED.length / 2;
 
-    private static final ExecutorService THREADS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
     private final MarginAutomataIO io;
     private final int iterations;
 
@@ -269,12 +266,12 @@ public class MarginAutomata {
 
         for (int y = 0; y < this.height; y++) {
             final int line = y;
-            futureLinesList.add(THREADS.submit(() -> lineIterate(line)));
+            futureLinesList.add(SharedExecutor.submit(() -> lineIterate(line)));
         }
 
         for (Future<Boolean> futureLine : futureLinesList) {
             try {
-                boolean done = futureLine.get();
+                boolean done = SharedExecutor.await(futureLine, futureLinesList);
                 if (!done) {
                     finished = false;
                 }
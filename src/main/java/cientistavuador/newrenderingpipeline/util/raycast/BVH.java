@@ -30,6 +30,7 @@ import cientistavuador.newrenderingpipeline.util.Aab;
 import cientistavuador.newrenderingpipeline.util.MeshUtils;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -407,6 +408,8 @@ public class BVH implements Aab {
     private final Vector3f planarNormal;
     private final Vector3f planarPosition;
 
+    private float[] triangleRecords = null;
+
     protected BVH(
             Object userObject,
             float[] vertices,
@@ -528,6 +531,111 @@ public class BVH implements Aab {
         return max;
     }
 
+    public float[] getTriangleRecords() {
+        return triangleRecords;
+    }
+
+    /**
+     * Stores the first vertex and the two edges of every triangle of the
+     * leaves contiguously in the leaves, so ray tests no longer have to
+     * gather the vertices from the indexed vertices array; uses
+     * {@link IntersectionUtils#TRIANGLE_RECORD_SIZE} floats per triangle,
+     * only worth it for ray heavy users such as the lightmapper.
+     * 
+     * Must be called before the bvh is shared with other threads.
+     */
+    public void generateTriangleRecords() {
+        BVH[] stack = new BVH[64];
+        int stackSize = 0;
+        stack[stackSize++] = this;
+        while (stackSize != 0) {
+            BVH e = stack[--stackSize];
+            if (e.left == null && e.right == null) {
+                if (e.triangles != null && e.triangleRecords == null) {
+                    e.triangleRecords = createTriangleRecords(e.triangles);
+                }
+                continue;
+            }
+            if ((stackSize + 2) > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (e.left != null) {
+                stack[stackSize++] = e.left;
+            }
+            if (e.right != null) {
+                stack[stackSize++] = e.right;
+            }
+        }
+    }
+
+    private float[] createTriangleRecords(int[] nodeTriangles) {
+        float[] records = new float[nodeTriangles.length * IntersectionUtils.TRIANGLE_RECORD_SIZE];
+        for (int i = 0; i < nodeTriangles.length; i++) {
+            int triangle = nodeTriangles[i];
+
+            int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+            int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+            int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+            IntersectionUtils.writeTriangleRecord(
+                    records, i * IntersectionUtils.TRIANGLE_RECORD_SIZE,
+                    this.vertices[v0xyz + 0], this.vertices[v0xyz + 1], this.vertices[v0xyz + 2],
+                    this.vertices[v1xyz + 0], this.vertices[v1xyz + 1], this.vertices[v1xyz + 2],
+                    this.vertices[v2xyz + 0], this.vertices[v2xyz + 1], this.vertices[v2xyz + 2]
+            );
+        }
+        return records;
+    }
+
+    private float intersectTriangle(Ray ray, BVH leaf, int index, Vector3f a, Vector3f b, Vector3f c) {
+        if (leaf.triangleRecords != null) {
+            return IntersectionUtils.intersectRayTriangle(ray, leaf.triangleRecords, index * IntersectionUtils.TRIANGLE_RECORD_SIZE);
+        }
+
+        int triangle = leaf.triangles[index];
+
+        int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+        a.set(
+                this.vertices[v0xyz + 0],
+                this.vertices[v0xyz + 1],
+                this.vertices[v0xyz + 2]
+        );
+        b.set(
+                this.vertices[v1xyz + 0],
+                this.vertices[v1xyz + 1],
+                this.vertices[v1xyz + 2]
+        );
+        c.set(
+                this.vertices[v2xyz + 0],
+                this.vertices[v2xyz + 1],
+                this.vertices[v2xyz + 2]
+        );
+
+        return IntersectionUtils.intersectRayTriangle(ray.getOrigin(), ray.getDirection(), a, b, c);
+    }
+
+    private boolean testPlanar(Ray ray, BVH e) {
+        Vector3fc origin = ray.getOrigin();
+        Vector3fc direction = ray.getDirection();
+        float planeIntersection = Intersectionf.intersectRayPlane(
+                origin.x(), origin.y(), origin.z(),
+                direction.x(), direction.y(), direction.z(),
+                this.planarPosition.x(), this.planarPosition.y(), this.planarPosition.z(),
+                this.planarNormal.x(), this.planarNormal.y(), this.planarNormal.z(),
+                1f / 100000f
+        );
+        if (planeIntersection < 0f) {
+            return false;
+        }
+        float pX = origin.x() + (direction.x() * planeIntersection);
+        float pY = origin.y() + (direction.y() * planeIntersection);
+        float pZ = origin.z() + (direction.z() * planeIntersection);
+        return IntersectionUtils.testAabPoint(e.getMin(), e.getMax(), pX, pY, pZ);
+    }
+
     @Override
     public void getMin(Vector3f min) {
         min.set(this.min);
@@ -541,7 +649,7 @@ public class BVH implements Aab {
     private boolean fastTestRay(
             Vector3f a, Vector3f b, Vector3f c,
             BVH e,
-            Vector3fc localOrigin, Vector3fc localDirection,
+            Ray ray,
             float maxLength, Vector3f rayMin, Vector3f rayMax
     ) {
         if (rayMin != null && rayMax != null) {
@@ -549,45 +657,14 @@ public class BVH implements Aab {
                 return false;
             }
         }
-        if (this.planarOptimizationEnabled) {
-            float planeIntersection = Intersectionf.intersectRayPlane(localOrigin, localDirection, this.planarPosition, this.planarNormal, 1f / 100000f);
-            if (planeIntersection < 0f) {
-                return false;
-            }
-            float pX = localOrigin.x() + (localDirection.x() * planeIntersection);
-            float pY = localOrigin.y() + (localDirection.y() * planeIntersection);
-            float pZ = localOrigin.z() + (localDirection.z() * planeIntersection);
-            if (!IntersectionUtils.testAabPoint(e.getMin(), e.getMax(), pX, pY, pZ)) {
-                return false;
-            }
+        if (this.planarOptimizationEnabled && !testPlanar(ray, e)) {
+            return false;
         }
-        if (IntersectionUtils.testRayAab(localOrigin, localDirection, e.getMin(), e.getMax())) {
+        if (IntersectionUtils.testRayAab(ray, e.min.x, e.min.y, e.min.z, e.max.x, e.max.y, e.max.z)) {
             if (e.getLeft() == null && e.getRight() == null) {
                 int[] nodeTriangles = e.getTriangles();
                 for (int i = 0; i < nodeTriangles.length; i++) {
-                    int triangle = nodeTriangles[i];
-
-                    int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
-                    int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
-                    int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
-
-                    a.set(
-                            this.vertices[v0xyz + 0],
-                            this.vertices[v0xyz + 1],
-                            this.vertices[v0xyz + 2]
-                    );
-                    b.set(
-                            this.vertices[v1xyz + 0],
-                            this.vertices[v1xyz + 1],
-                            this.vertices[v1xyz + 2]
-                    );
-                    c.set(
-                            this.vertices[v2xyz + 0],
-                            this.vertices[v2xyz + 1],
-                            this.vertices[v2xyz + 2]
-                    );
-
-                    float hit = IntersectionUtils.intersectRayTriangle(localOrigin, localDirection, a, b, c);
+                    float hit = intersectTriangle(ray, e, i, a, b, c);
                     if (hit >= 0f && (!Float.isFinite(maxLength) || hit <= maxLength)) {
                         return true;
                     }
@@ -595,12 +672,12 @@ public class BVH implements Aab {
             }
 
             if (e.getLeft() != null) {
-                if (fastTestRay(a, b, c, e.getLeft(), localOrigin, localDirection, maxLength, rayMin, rayMax)) {
+                if (fastTestRay(a, b, c, e.getLeft(), ray, maxLength, rayMin, rayMax)) {
                     return true;
                 }
             }
             if (e.getRight() != null) {
-                if (fastTestRay(a, b, c, e.getRight(), localOrigin, localDirection, maxLength, rayMin, rayMax)) {
+                if (fastTestRay(a, b, c, e.getRight(), ray, maxLength, rayMin, rayMax)) {
                     return true;
                 }
             }
@@ -608,7 +685,7 @@ public class BVH implements Aab {
         return false;
     }
 
-    public boolean fastTestRay(Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+    public boolean fastTestRay(Ray ray, float maxLength) {
         Vector3f a = new Vector3f();
         Vector3f b = new Vector3f();
         Vector3f c = new Vector3f();
@@ -617,8 +694,8 @@ public class BVH implements Aab {
         Vector3f rayMax = null;
 
         if (Float.isFinite(maxLength)) {
-            rayMin = new Vector3f(localOrigin);
-            rayMax = new Vector3f(localDirection).mul(maxLength).add(localOrigin);
+            rayMin = new Vector3f(ray.getOrigin());
+            rayMax = new Vector3f(ray.getDirection()).mul(maxLength).add(ray.getOrigin());
 
             float minX = Math.min(rayMin.x(), rayMax.x());
             float minY = Math.min(rayMin.y(), rayMax.y());
@@ -632,28 +709,23 @@ public class BVH implements Aab {
             rayMax.set(maxX, maxY, maxZ);
         }
 
-        return fastTestRay(a, b, c, this, localOrigin, localDirection, maxLength, rayMin, rayMax);
+        return fastTestRay(a, b, c, this, ray, maxLength, rayMin, rayMax);
+    }
+
+    public boolean fastTestRay(Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        return fastTestRay(new Ray(localOrigin, localDirection), maxLength);
     }
 
     private void testRay(
-            Vector3fc localOrigin, Vector3fc localDirection,
+            Ray ray,
             List<LocalRayResult> resultsOutput, BVH bvh, BitSet tested,
             Vector3f normal, Vector3f hitposition, Vector3f a, Vector3f b, Vector3f c
     ) {
-        if (this.planarOptimizationEnabled) {
-            float planeIntersection = Intersectionf.intersectRayPlane(localOrigin, localDirection, this.planarPosition, this.planarNormal, 1f / 100000f);
-            if (planeIntersection < 0f) {
-                return;
-            }
-            float pX = localOrigin.x() + (localDirection.x() * planeIntersection);
-            float pY = localOrigin.y() + (localDirection.y() * planeIntersection);
-            float pZ = localOrigin.z() + (localDirection.z() * planeIntersection);
-            if (!IntersectionUtils.testAabPoint(bvh.getMin(), bvh.getMax(), pX, pY, pZ)) {
-                return;
-            }
+        if (this.planarOptimizationEnabled && !testPlanar(ray, bvh)) {
+            return;
         }
-        
-        if (IntersectionUtils.testRayAab(localOrigin, localDirection, bvh.getMin(), bvh.getMax())) {
+
+        if (IntersectionUtils.testRayAab(ray, bvh.min.x, bvh.min.y, bvh.min.z, bvh.max.x, bvh.max.y, bvh.max.z)) {
             if (bvh.getLeft() == null && bvh.getRight() == null) {
                 int[] nodeTriangles = bvh.getTriangles();
                 for (int i = 0; i < nodeTriangles.length; i++) {
@@ -664,47 +736,23 @@ public class BVH implements Aab {
                     }
                     tested.set(triangle);
 
-                    int i0 = this.indices[(triangle * 3) + 0];
-                    int i1 = this.indices[(triangle * 3) + 1];
-                    int i2 = this.indices[(triangle * 3) + 2];
-
-                    int v0xyz = (i0 * this.vertexSize) + this.xyzOffset;
-                    int v1xyz = (i1 * this.vertexSize) + this.xyzOffset;
-                    int v2xyz = (i2 * this.vertexSize) + this.xyzOffset;
-
-                    a.set(
-                            this.vertices[v0xyz + 0],
-                            this.vertices[v0xyz + 1],
-                            this.vertices[v0xyz + 2]
-                    );
-                    b.set(
-                            this.vertices[v1xyz + 0],
-                            this.vertices[v1xyz + 1],
-                            this.vertices[v1xyz + 2]
-                    );
-                    c.set(
-                            this.vertices[v2xyz + 0],
-                            this.vertices[v2xyz + 1],
-                            this.vertices[v2xyz + 2]
-                    );
-
-                    float hit = IntersectionUtils.intersectRayTriangle(localOrigin, localDirection, a, b, c);
+                    float hit = intersectTriangle(ray, bvh, i, a, b, c);
                     if (hit >= 0f) {
                         MeshUtils.calculateTriangleNormal(
                                 this.vertices,
                                 this.vertexSize,
                                 this.xyzOffset,
-                                i0,
-                                i1,
-                                i2,
+                                this.indices[(triangle * 3) + 0],
+                                this.indices[(triangle * 3) + 1],
+                                this.indices[(triangle * 3) + 2],
                                 normal
                         );
-                        boolean frontFace = normal.dot(localDirection) < 0f;
+                        boolean frontFace = normal.dot(ray.getDirection()) < 0f;
 
-                        hitposition.set(localDirection).mul(hit).add(localOrigin);
+                        hitposition.set(ray.getDirection()).mul(hit).add(ray.getOrigin());
+
+                        resultsOutput.add(new LocalRayResult(this, ray.getOrigin(), ray.getDirection(), hitposition, normal, triangle, frontFace));
 
-                        resultsOutput.add(new LocalRayResult(this, localOrigin, localDirection, hitposition, normal, triangle, frontFace));
-                        
                         if (this.planarOptimizationEnabled) {
                             break;
                         }
@@ -713,15 +761,15 @@ public class BVH implements Aab {
             }
 
             if (bvh.getLeft() != null) {
-                testRay(localOrigin, localDirection, resultsOutput, bvh.getLeft(), tested, normal, hitposition, a, b, c);
+                testRay(ray, resultsOutput, bvh.getLeft(), tested, normal, hitposition, a, b, c);
             }
             if (bvh.getRight() != null) {
-                testRay(localOrigin, localDirection, resultsOutput, bvh.getRight(), tested, normal, hitposition, a, b, c);
+                testRay(ray, resultsOutput, bvh.getRight(), tested, normal, hitposition, a, b, c);
             }
         }
     }
 
-    public List<LocalRayResult> testRay(Vector3fc localOrigin, Vector3fc localDirection) {
+    public List<LocalRayResult> testRay(Ray ray) {
         List<LocalRayResult> resultsOutput = new ArrayList<>();
 
         Vector3f normal = new Vector3f();
@@ -733,11 +781,15 @@ public class BVH implements Aab {
         Vector3f b = new Vector3f();
         Vector3f c = new Vector3f();
 
-        testRay(localOrigin, localDirection, resultsOutput, this, tested, normal, hitposition, a, b, c);
+        testRay(ray, resultsOutput, this, tested, normal, hitposition, a, b, c);
 
         return resultsOutput;
     }
 
+    public List<LocalRayResult> testRay(Vector3fc localOrigin, Vector3fc localDirection) {
+        return testRay(new Ray(localOrigin, localDirection));
+    }
+
     public List<LocalRayResult> testRaySorted(Vector3fc localOrigin, Vector3fc localDirection, boolean frontFaceOnly) {
         List<LocalRayResult> results = testRay(localOrigin, localDirection);
         if (frontFaceOnly) {
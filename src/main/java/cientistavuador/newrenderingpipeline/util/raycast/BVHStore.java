@@ -43,7 +43,7 @@ public class BVHStore {
     
     public static final long MAGIC_NUMBER = 953602573048789926L;
     
-    private static void recursiveWriteBVH(ObjectOutputStream out, BVH bvh) throws IOException {
+    private static void recursiveWriteBVH(ObjectOutputStream out, BVH bvh, int[] triangleRemap) throws IOException {
         Vector3fc min = bvh.getMin();
         Vector3fc max = bvh.getMax();
         
@@ -63,6 +63,9 @@ public class BVHStore {
             out.writeBoolean(true);
             out.writeInt(triangles.length);
             for (int triangle:triangles) {
+                if (triangleRemap != null) {
+                    triangle = triangleRemap[triangle];
+                }
                 out.writeInt(triangle);
             }
         } else {
@@ -74,25 +77,29 @@ public class BVHStore {
         
         if (left != null) {
             out.writeBoolean(true);
-            recursiveWriteBVH(out, left);
+            recursiveWriteBVH(out, left, triangleRemap);
         } else {
             out.writeBoolean(false);
         }
         
         if (right != null) {
             out.writeBoolean(true);
-            recursiveWriteBVH(out, right);
+            recursiveWriteBVH(out, right, triangleRemap);
         } else {
             out.writeBoolean(false);
         }
     }
     
     public static void writeBVH(OutputStream output, BVH bvh) throws IOException {
+        writeBVH(output, bvh, null);
+    }
+    
+    public static void writeBVH(OutputStream output, BVH bvh, int[] triangleRemap) throws IOException {
         GZIPOutputStream zipOut = new GZIPOutputStream(output);
         ObjectOutputStream out = new ObjectOutputStream(zipOut);
         
         out.writeLong(MAGIC_NUMBER);
-        recursiveWriteBVH(out, bvh);
+        recursiveWriteBVH(out, bvh, triangleRemap);
         
         out.flush();
         zipOut.finish();
@@ -36,6 +36,14 @@ import org.joml.Vector3fc;
  */
 public class IntersectionUtils {
     
+    public static final float RAY_TRIANGLE_EPSILON = 1f / 100000f;
+    
+    public static final int TRIANGLE_RECORD_SIZE = 3 + 3 + 3;
+    
+    public static final int TRIANGLE_RECORD_OFFSET_V0_XYZ = 0;
+    public static final int TRIANGLE_RECORD_OFFSET_EDGE1_XYZ = TRIANGLE_RECORD_OFFSET_V0_XYZ + 3;
+    public static final int TRIANGLE_RECORD_OFFSET_EDGE2_XYZ = TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 3;
+    
     public static boolean testAabAab(Vector3fc minA, Vector3fc maxA, Vector3fc minB, Vector3fc maxB) {
         return Intersectionf.testAabAab(minA, maxA, minB, maxB);
     }
@@ -44,8 +52,138 @@ public class IntersectionUtils {
         return Intersectionf.testRayAab(origin, dir, min, max);
     }
 
+    public static boolean testRayAab(Ray ray, Vector3fc min, Vector3fc max) {
+        return testRayAab(ray, min.x(), min.y(), min.z(), max.x(), max.y(), max.z());
+    }
+    
+    public static boolean testRayAab(
+            Ray ray,
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ
+    ) {
+        float originX = ray.originX();
+        float originY = ray.originY();
+        float originZ = ray.originZ();
+        float inverseX = ray.inverseX();
+        float inverseY = ray.inverseY();
+        float inverseZ = ray.inverseZ();
+        
+        float tNear;
+        float tFar;
+        if (!ray.isNegativeX()) {
+            tNear = (minX - originX) * inverseX;
+            tFar = (maxX - originX) * inverseX;
+        } else {
+            tNear = (maxX - originX) * inverseX;
+            tFar = (minX - originX) * inverseX;
+        }
+        
+        float tyMin;
+        float tyMax;
+        if (!ray.isNegativeY()) {
+            tyMin = (minY - originY) * inverseY;
+            tyMax = (maxY - originY) * inverseY;
+        } else {
+            tyMin = (maxY - originY) * inverseY;
+            tyMax = (minY - originY) * inverseY;
+        }
+        if (tNear > tyMax || tyMin > tFar) {
+            return false;
+        }
+        
+        float tzMin;
+        float tzMax;
+        if (!ray.isNegativeZ()) {
+            tzMin = (minZ - originZ) * inverseZ;
+            tzMax = (maxZ - originZ) * inverseZ;
+        } else {
+            tzMin = (maxZ - originZ) * inverseZ;
+            tzMax = (minZ - originZ) * inverseZ;
+        }
+        if (tNear > tzMax || tzMin > tFar) {
+            return false;
+        }
+        
+        tNear = (tyMin > tNear || Float.isNaN(tNear)) ? tyMin : tNear;
+        tFar = (tyMax < tFar || Float.isNaN(tFar)) ? tyMax : tFar;
+        tNear = (tzMin > tNear) ? tzMin : tNear;
+        tFar = (tzMax < tFar) ? tzMax : tFar;
+        
+        return tNear < tFar && tFar >= 0f;
+    }
+
     public static float intersectRayTriangle(Vector3fc origin, Vector3fc dir, Vector3fc a, Vector3fc b, Vector3fc c) {
-        return Intersectionf.intersectRayTriangle(origin, dir, a, b, c, 1f / 100000f);
+        return Intersectionf.intersectRayTriangle(origin, dir, a, b, c, RAY_TRIANGLE_EPSILON);
+    }
+    
+    public static void writeTriangleRecord(
+            float[] records, int offset,
+            float v0x, float v0y, float v0z,
+            float v1x, float v1y, float v1z,
+            float v2x, float v2y, float v2z
+    ) {
+        records[offset + TRIANGLE_RECORD_OFFSET_V0_XYZ + 0] = v0x;
+        records[offset + TRIANGLE_RECORD_OFFSET_V0_XYZ + 1] = v0y;
+        records[offset + TRIANGLE_RECORD_OFFSET_V0_XYZ + 2] = v0z;
+        records[offset + TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 0] = v1x - v0x;
+        records[offset + TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 1] = v1y - v0y;
+        records[offset + TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 2] = v1z - v0z;
+        records[offset + TRIANGLE_RECORD_OFFSET_EDGE2_XYZ + 0] = v2x - v0x;
+        records[offset + TRIANGLE_RECORD_OFFSET_EDGE2_XYZ + 1] = v2y - v0y;
+        records[offset + TRIANGLE_RECORD_OFFSET_EDGE2_XYZ + 2] = v2z - v0z;
+    }
+    
+    /**
+     * Moller-Trumbore intersection against a triangle record written by
+     * {@link #writeTriangleRecord}, gives the same results as
+     * {@link #intersectRayTriangle(Vector3fc, Vector3fc, Vector3fc, Vector3fc, Vector3fc)}.
+     * 
+     * @param ray the ray
+     * @param records the records array
+     * @param offset the offset of the record
+     * @return the distance to the hit or -1 if there was no hit
+     */
+    public static float intersectRayTriangle(Ray ray, float[] records, int offset) {
+        float dirX = ray.directionX();
+        float dirY = ray.directionY();
+        float dirZ = ray.directionZ();
+        
+        float v0X = records[offset + TRIANGLE_RECORD_OFFSET_V0_XYZ + 0];
+        float v0Y = records[offset + TRIANGLE_RECORD_OFFSET_V0_XYZ + 1];
+        float v0Z = records[offset + TRIANGLE_RECORD_OFFSET_V0_XYZ + 2];
+        float edge1X = records[offset + TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 0];
+        float edge1Y = records[offset + TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 1];
+        float edge1Z = records[offset + TRIANGLE_RECORD_OFFSET_EDGE1_XYZ + 2];
+        float edge2X = records[offset + TRIANGLE_RECORD_OFFSET_EDGE2_XYZ + 0];
+        float edge2Y = records[offset + TRIANGLE_RECORD_OFFSET_EDGE2_XYZ + 1];
+        float edge2Z = records[offset + TRIANGLE_RECORD_OFFSET_EDGE2_XYZ + 2];
+        
+        float pvecX = dirY * edge2Z - dirZ * edge2Y;
+        float pvecY = dirZ * edge2X - dirX * edge2Z;
+        float pvecZ = dirX * edge2Y - dirY * edge2X;
+        float det = edge1X * pvecX + edge1Y * pvecY + edge1Z * pvecZ;
+        if (det > -RAY_TRIANGLE_EPSILON && det < RAY_TRIANGLE_EPSILON) {
+            return -1f;
+        }
+        float invDet = 1f / det;
+        
+        float tvecX = ray.originX() - v0X;
+        float tvecY = ray.originY() - v0Y;
+        float tvecZ = ray.originZ() - v0Z;
+        float u = (tvecX * pvecX + tvecY * pvecY + tvecZ * pvecZ) * invDet;
+        if (u < 0f || u > 1f) {
+            return -1f;
+        }
+        
+        float qvecX = tvecY * edge1Z - tvecZ * edge1Y;
+        float qvecY = tvecZ * edge1X - tvecX * edge1Z;
+        float qvecZ = tvecX * edge1Y - tvecY * edge1X;
+        float v = (dirX * qvecX + dirY * qvecY + dirZ * qvecZ) * invDet;
+        if (v < 0f || u + v > 1f) {
+            return -1f;
+        }
+        
+        return (edge2X * qvecX + edge2Y * qvecY + edge2Z * qvecZ) * invDet;
     }
     
     public static boolean testAabPoint(Vector3fc min, Vector3fc max, float x, float y, float z) {
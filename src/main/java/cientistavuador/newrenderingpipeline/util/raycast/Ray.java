@@ -0,0 +1,153 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.newrenderingpipeline.util.raycast;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class Ray {
+
+    private final Vector3f origin = new Vector3f();
+    private final Vector3f direction = new Vector3f();
+    private final Vector3f inverseDirection = new Vector3f();
+
+    private float originX;
+    private float originY;
+    private float originZ;
+    private float directionX;
+    private float directionY;
+    private float directionZ;
+    private float inverseX;
+    private float inverseY;
+    private float inverseZ;
+    private boolean negativeX = false;
+    private boolean negativeY = false;
+    private boolean negativeZ = false;
+
+    public Ray() {
+
+    }
+
+    public Ray(Vector3fc origin, Vector3fc direction) {
+        set(origin, direction);
+    }
+
+    public Ray(float originX, float originY, float originZ, float directionX, float directionY, float directionZ) {
+        set(originX, originY, originZ, directionX, directionY, directionZ);
+    }
+
+    public Ray set(float originX, float originY, float originZ, float directionX, float directionY, float directionZ) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.directionX = directionX;
+        this.directionY = directionY;
+        this.directionZ = directionZ;
+        this.inverseX = 1f / directionX;
+        this.inverseY = 1f / directionY;
+        this.inverseZ = 1f / directionZ;
+        this.negativeX = !(this.inverseX >= 0f);
+        this.negativeY = !(this.inverseY >= 0f);
+        this.negativeZ = !(this.inverseZ >= 0f);
+        this.origin.set(originX, originY, originZ);
+        this.direction.set(directionX, directionY, directionZ);
+        this.inverseDirection.set(this.inverseX, this.inverseY, this.inverseZ);
+        return this;
+    }
+
+    public Ray set(Vector3fc origin, Vector3fc direction) {
+        return set(
+                origin.x(), origin.y(), origin.z(),
+                direction.x(), direction.y(), direction.z()
+        );
+    }
+
+    public Vector3fc getOrigin() {
+        return origin;
+    }
+
+    public Vector3fc getDirection() {
+        return direction;
+    }
+
+    public Vector3fc getInverseDirection() {
+        return inverseDirection;
+    }
+
+    public float originX() {
+        return originX;
+    }
+
+    public float originY() {
+        return originY;
+    }
+
+    public float originZ() {
+        return originZ;
+    }
+
+    public float directionX() {
+        return directionX;
+    }
+
+    public float directionY() {
+        return directionY;
+    }
+
+    public float directionZ() {
+        return directionZ;
+    }
+
+    public float inverseX() {
+        return inverseX;
+    }
+
+    public float inverseY() {
+        return inverseY;
+    }
+
+    public float inverseZ() {
+        return inverseZ;
+    }
+
+    public boolean isNegativeX() {
+        return negativeX;
+    }
+
+    public boolean isNegativeY() {
+        return negativeY;
+    }
+
+    public boolean isNegativeZ() {
+        return negativeZ;
+    }
+
+}